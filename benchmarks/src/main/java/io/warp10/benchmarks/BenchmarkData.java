@@ -0,0 +1,253 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.geoxp.GeoXPLib;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+
+/**
+ * Generators of the data used by the benchmarks.
+ *
+ * Data mimic what is commonly stored: regularly sampled series with some jitter, monotonic
+ * counters, random walks for gauges, a few distinct strings for states and slowly moving
+ * positions. All generators are seeded so every run uses the same data.
+ */
+public class BenchmarkData {
+
+  /**
+   * Sampling period, 10s
+   */
+  public static final long PERIOD = 10000000L;
+
+  /**
+   * Timestamp of the first datapoint
+   */
+  public static final long START = 1577836800000000L;
+
+  private static final String[] STATES = { "ok", "warning", "critical", "unknown" };
+
+  /**
+   * Initialize the configuration needed by the platform classes, the time unit is the microsecond.
+   */
+  public static synchronized void init() throws IOException {
+    if (!WarpConfig.isPropertiesSet()) {
+      StringBuilder props = new StringBuilder();
+      props.append("warp.timeunits=us\n");
+      props.append("warpscript.maxops=100000000\n");
+      props.append("warpscript.maxops.hard=100000000\n");
+      props.append("warpscript.maxbuckets=10000000\n");
+      props.append("warpscript.maxbuckets.hard=10000000\n");
+      props.append("warpscript.maxgts=10000000\n");
+      props.append("warpscript.maxgts.hard=10000000\n");
+      WarpConfig.safeSetProperties(new StringReader(props.toString()));
+    }
+  }
+
+  public enum Kind {
+    /**
+     * Monotonic LONG counter
+     */
+    COUNTER,
+    /**
+     * DOUBLE random walk
+     */
+    GAUGE,
+    /**
+     * STRING state changing from time to time
+     */
+    STATE,
+    /**
+     * DOUBLE random walk with a location and an elevation
+     */
+    GEO,
+  }
+
+  private final Random prng;
+
+  public BenchmarkData(long seed) {
+    this.prng = new Random(seed);
+  }
+
+  /**
+   * Tick of the i-th datapoint, regular with a jitter of up to 10% of the period
+   */
+  public long tick(int i) {
+    return START + i * PERIOD + (long) (this.prng.nextDouble() * PERIOD / 10);
+  }
+
+  /**
+   * Generate a GTS
+   *
+   * @param shuffled If true the datapoints are not in chronological order
+   */
+  public GeoTimeSerie gts(String name, Map<String,String> labels, Kind kind, int size, boolean shuffled) {
+    GeoTimeSerie gts = new GeoTimeSerie(size);
+    gts.setName(name);
+    gts.setLabels(labels);
+
+    //
+    // Datapoints are added in the order of 'indices', shuffled if needed
+    //
+
+    int[] indices = new int[size];
+
+    for (int i = 0; i < size; i++) {
+      indices[i] = i;
+    }
+
+    if (shuffled) {
+      for (int i = size - 1; i > 0; i--) {
+        int j = this.prng.nextInt(i + 1);
+        int tmp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = tmp;
+      }
+    }
+
+    long[] ticks = new long[size];
+    Object[] values = new Object[size];
+    long[] locations = new long[size];
+    long[] elevations = new long[size];
+
+    long counter = 0L;
+    double gauge = 100.0D;
+    String state = STATES[0];
+    double lat = 48.0D;
+    double lon = -4.5D;
+
+    for (int i = 0; i < size; i++) {
+      counter += this.prng.nextInt(1000);
+      gauge += this.prng.nextGaussian();
+
+      if (0 == this.prng.nextInt(100)) {
+        state = STATES[this.prng.nextInt(STATES.length)];
+      }
+
+      ticks[i] = tick(i);
+      locations[i] = GeoTimeSerie.NO_LOCATION;
+      elevations[i] = GeoTimeSerie.NO_ELEVATION;
+
+      switch (kind) {
+        case COUNTER:
+          values[i] = counter;
+          break;
+        case GAUGE:
+          values[i] = gauge;
+          break;
+        case STATE:
+          values[i] = state;
+          break;
+        case GEO:
+          lat += this.prng.nextGaussian() / 10000.0D;
+          lon += this.prng.nextGaussian() / 10000.0D;
+          locations[i] = GeoXPLib.toGeoXPPoint(lat, lon);
+          elevations[i] = (long) (this.prng.nextDouble() * 100000);
+          values[i] = gauge;
+          break;
+      }
+    }
+
+    for (int idx: indices) {
+      GTSHelper.setValue(gts, ticks[idx], locations[idx], elevations[idx], values[idx], false);
+    }
+
+    return gts;
+  }
+
+  /**
+   * Generate an encoder with the same datapoints as 'gts'
+   */
+  public GTSEncoder encoder(GeoTimeSerie gts) throws IOException {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(gts.getMetadata());
+
+    int n = GTSHelper.nvalues(gts);
+
+    for (int i = 0; i < n; i++) {
+      encoder.addValue(GTSHelper.tickAtIndex(gts, i), GTSHelper.locationAtIndex(gts, i), GTSHelper.elevationAtIndex(gts, i), GTSHelper.valueAtIndex(gts, i));
+    }
+
+    return encoder;
+  }
+
+  /**
+   * Labels of the i-th series of a fleet of hosts
+   */
+  public static Map<String,String> labels(int i) {
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put("dc", "dc" + (i % 4));
+    labels.put("rack", "rack" + (i % 64));
+    labels.put("host", "host" + i);
+    labels.put(Constants.APPLICATION_LABEL, "bench");
+    labels.put(Constants.OWNER_LABEL, "owner");
+    labels.put(Constants.PRODUCER_LABEL, "producer");
+    return labels;
+  }
+
+  /**
+   * Generate lines in the GTS input format, as sent to /update
+   *
+   * @param series Number of series the lines are spread over
+   */
+  public String[] lines(int size, int series) {
+    String[] lines = new String[size];
+
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < size; i++) {
+      int s = i % series;
+      sb.setLength(0);
+      sb.append(tick(i / series));
+      if (0 == s % 2) {
+        sb.append("/48.0:-4.5/");
+      } else {
+        sb.append("//");
+      }
+      sb.append(" cpu.load{dc=dc");
+      sb.append(s % 4);
+      sb.append(",host=host");
+      sb.append(s);
+      sb.append("} ");
+      switch (s % 3) {
+        case 0:
+          sb.append(this.prng.nextInt(100000));
+          break;
+        case 1:
+          sb.append(this.prng.nextDouble() * 100.0D);
+          break;
+        default:
+          sb.append("'");
+          sb.append(STATES[this.prng.nextInt(STATES.length)]);
+          sb.append("'");
+      }
+      lines[i] = sb.toString();
+    }
+
+    return lines;
+  }
+}
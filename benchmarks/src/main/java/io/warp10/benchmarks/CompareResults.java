@@ -0,0 +1,126 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compare two result files produced by JMH with '-rf json'.
+ *
+ * For each benchmark and set of parameters, the scores of both files are displayed along with
+ * the ratio of the new score to the baseline one and whether the difference exceeds the sum of
+ * the errors of the two measurements.
+ */
+public class CompareResults {
+
+  private static final class Result {
+    private final double score;
+    private final double error;
+    private final String unit;
+    private final boolean higherIsBetter;
+
+    private Result(JsonNode node) {
+      JsonNode metric = node.get("primaryMetric");
+      this.score = metric.get("score").asDouble();
+      double error = metric.get("scoreError").asDouble();
+      // scoreError is NaN when there is a single measurement iteration
+      this.error = Double.isNaN(error) ? 0.0D : error;
+      this.unit = metric.get("scoreUnit").asText();
+      this.higherIsBetter = "thrpt".equals(node.get("mode").asText());
+    }
+  }
+
+  private static Map<String,Result> load(File file) throws IOException {
+    Map<String,Result> results = new LinkedHashMap<String,Result>();
+
+    JsonNode root = new ObjectMapper().readTree(file);
+
+    for (JsonNode node: root) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(node.get("benchmark").asText());
+
+      JsonNode params = node.get("params");
+
+      if (null != params) {
+        sb.append(" {");
+        Iterator<Entry<String,JsonNode>> iter = params.fields();
+        while (iter.hasNext()) {
+          Entry<String,JsonNode> param = iter.next();
+          sb.append(param.getKey());
+          sb.append("=");
+          sb.append(param.getValue().asText());
+          if (iter.hasNext()) {
+            sb.append(",");
+          }
+        }
+        sb.append("}");
+      }
+
+      results.put(sb.toString(), new Result(node));
+    }
+
+    return results;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || "".equals(args[0])) {
+      System.err.println("Usage: CompareResults BASELINE RESULTS");
+      System.exit(1);
+    }
+
+    Map<String,Result> baseline = load(new File(args[0]));
+    Map<String,Result> results = load(new File(args[1]));
+
+    int width = 0;
+
+    for (String name: results.keySet()) {
+      width = Math.max(width, name.length());
+    }
+
+    String format = "%-" + width + "s  %14s  %14s  %-10s  %7s  %s%n";
+
+    System.out.printf(format, "Benchmark", "Baseline", "Score", "Unit", "Ratio", "");
+
+    for (Entry<String,Result> entry: results.entrySet()) {
+      Result result = entry.getValue();
+      Result base = baseline.get(entry.getKey());
+
+      if (null == base || !base.unit.equals(result.unit)) {
+        System.out.printf(format, entry.getKey(), "-", String.format("%.3f", result.score), result.unit, "-", "");
+        continue;
+      }
+
+      double ratio = result.score / base.score;
+
+      String verdict = "";
+
+      if (Math.abs(result.score - base.score) > result.error + base.error) {
+        verdict = (result.score > base.score) == result.higherIsBetter ? "faster" : "SLOWER";
+      }
+
+      System.out.printf(format, entry.getKey(), String.format("%.3f", base.score), String.format("%.3f", result.score), result.unit, String.format("%.3f", ratio), verdict);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.store.thrift.data.DirectoryRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+import io.warp10.standalone.StandaloneDirectoryClient;
+
+/**
+ * Selection of series by the in-memory directory of the standalone version.
+ *
+ * The directory holds 'series' series spread over 10 classes, with the labels of BenchmarkData.labels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryBenchmark {
+
+  private static final int CLASSES = 10;
+
+  private static final Map<String,String[]> SELECTORS = new HashMap<String,String[]>();
+
+  static {
+    // A single series
+    SELECTORS.put("exact", new String[] { "=class0", "host", "=host42" });
+    // A few series of a class
+    SELECTORS.put("regexp", new String[] { "=class0", "rack", "~rack(1|2|3)" });
+    // All the series of a class
+    SELECTORS.put("class", new String[] { "=class0", null, null });
+    // A few series of all the classes
+    SELECTORS.put("scan", new String[] { "~.*", "dc", "=dc1" });
+  }
+
+  @Param({ "100000" })
+  public int series;
+
+  @Param({ "exact", "regexp", "class", "scan" })
+  public String selector;
+
+  private StandaloneDirectoryClient directory;
+
+  private DirectoryRequest request;
+
+  @Setup
+  public void setup() throws IOException {
+    BenchmarkData.init();
+
+    KeyStore keystore = new UnsecureKeyStore();
+
+    Random prng = new Random(42L);
+    byte[] key = new byte[16];
+    prng.nextBytes(key);
+    keystore.setKey(KeyStore.SIPHASH_CLASS, key);
+    key = new byte[16];
+    prng.nextBytes(key);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, key);
+
+    this.directory = new StandaloneDirectoryClient(null, keystore);
+
+    for (int i = 0; i < this.series; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("class" + (i % CLASSES));
+      metadata.setLabels(BenchmarkData.labels(i));
+      metadata.setSource(Configuration.INGRESS_METADATA_SOURCE);
+      this.directory.register(metadata);
+    }
+
+    String[] sel = SELECTORS.get(this.selector);
+
+    Map<String,String> labelsSelector = new HashMap<String,String>();
+
+    if (null != sel[1]) {
+      labelsSelector.put(sel[1], sel[2]);
+    }
+
+    List<Map<String,String>> labelsSelectors = new ArrayList<Map<String,String>>();
+    labelsSelectors.add(labelsSelector);
+
+    this.request = new DirectoryRequest();
+    this.request.setClassSelectors(Collections.singletonList(sel[0]));
+    this.request.setLabelsSelectors(labelsSelectors);
+  }
+
+  @Benchmark
+  public List<Metadata> find() {
+    return this.directory.find(this.request);
+  }
+}
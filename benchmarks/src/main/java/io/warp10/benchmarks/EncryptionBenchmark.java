@@ -0,0 +1,119 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.crypto.CryptoUtils;
+
+/**
+ * Encryption and decryption of stored values, as done by the standalone store clients
+ * when 'leveldb.data.aes' is set, using AES key wrap or AES-GCM. Each invocation handles
+ * the same datapoints, either encrypted one by one as StandaloneStoreClient stores them,
+ * sharing a single AES-GCM batch, or encrypted as a single block as StandaloneBlockStoreClient does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+
+  private static final int DATAPOINTS = 360;
+
+  /**
+   * Encrypt each datapoint on its own (false) or all of them in a block (true)
+   */
+  @Param({ "false", "true" })
+  public boolean block;
+
+  @Param({ "false", "true" })
+  public boolean gcm;
+
+  private final byte[] key = new byte[32];
+
+  private GTSEncoder gts;
+
+  private byte[][] encrypted;
+
+  @Setup
+  public void setup() throws IOException {
+    BenchmarkData.init();
+
+    this.gts = new GTSEncoder(BenchmarkData.START);
+    this.gts.encode(new BenchmarkData(42L).gts("bench", BenchmarkData.labels(0), BenchmarkData.Kind.GAUGE, DATAPOINTS, false));
+    this.encrypted = encrypt();
+  }
+
+  @Benchmark
+  public byte[][] encrypt() throws IOException {
+    if (this.block) {
+      GTSEncoder encoder = new GTSEncoder(BenchmarkData.START, this.key);
+      encoder.setAESGCM(this.gcm);
+      encoder.merge(this.gts);
+      return new byte[][] { encoder.getBytes() };
+    }
+
+    CryptoUtils.AESGCMBatch batch = this.gcm ? new CryptoUtils.AESGCMBatch(this.key) : null;
+
+    byte[][] values = new byte[DATAPOINTS][];
+    int idx = 0;
+
+    GTSDecoder decoder = this.gts.getDecoder();
+
+    while(decoder.next()) {
+      GTSEncoder encoder = new GTSEncoder(decoder.getTimestamp(), this.key);
+      encoder.setAESGCMBatch(batch);
+      encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      values[idx++] = encoder.getBytes();
+    }
+
+    return values;
+  }
+
+  @Benchmark
+  public long decrypt() {
+    long ts = 0L;
+
+    for (byte[] value: this.encrypted) {
+      GTSDecoder decoder = new GTSDecoder(BenchmarkData.START, this.key, ByteBuffer.wrap(value));
+
+      while(decoder.next()) {
+        ts += decoder.getTimestamp();
+      }
+    }
+
+    return ts;
+  }
+}
@@ -0,0 +1,110 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+
+/**
+ * Encoding and decoding of datapoints, reported per datapoint.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSEncoderBenchmark {
+
+  private static final int SIZE = 10000;
+
+  @Param({ "COUNTER", "GAUGE", "STATE", "GEO" })
+  public BenchmarkData.Kind kind;
+
+  private long[] ticks;
+  private long[] locations;
+  private long[] elevations;
+  private Object[] values;
+
+  private GTSEncoder encoder;
+
+  @Setup
+  public void setup() throws IOException {
+    BenchmarkData.init();
+
+    BenchmarkData data = new BenchmarkData(42L);
+    GeoTimeSerie gts = data.gts("bench", BenchmarkData.labels(0), this.kind, SIZE, false);
+
+    this.ticks = new long[SIZE];
+    this.locations = new long[SIZE];
+    this.elevations = new long[SIZE];
+    this.values = new Object[SIZE];
+
+    for (int i = 0; i < SIZE; i++) {
+      this.ticks[i] = GTSHelper.tickAtIndex(gts, i);
+      this.locations[i] = GTSHelper.locationAtIndex(gts, i);
+      this.elevations[i] = GTSHelper.elevationAtIndex(gts, i);
+      this.values[i] = GTSHelper.valueAtIndex(gts, i);
+    }
+
+    this.encoder = data.encoder(gts);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public GTSEncoder addValue() throws IOException {
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    for (int i = 0; i < SIZE; i++) {
+      encoder.addValue(this.ticks[i], this.locations[i], this.elevations[i], this.values[i]);
+    }
+
+    return encoder;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void next(Blackhole bh) {
+    GTSDecoder decoder = this.encoder.getDecoder(true);
+
+    while (decoder.next()) {
+      bh.consume(decoder.getTimestamp());
+      bh.consume(decoder.getLocation());
+      bh.consume(decoder.getElevation());
+      bh.consume(decoder.getBinaryValue());
+    }
+  }
+}
@@ -0,0 +1,157 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Sum;
+
+/**
+ * Core operations of GTSHelper on series of 'size' datapoints, reported per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSHelperBenchmark {
+
+  /**
+   * Number of series used by 'reduce' and 'merge'
+   */
+  private static final int SERIES = 100;
+
+  @Param({ "1000", "100000" })
+  public int size;
+
+  private static final Mean MEAN = new Mean("mean", true);
+  private static final Sum SUM = new Sum("sum", true);
+
+  /**
+   * Sorted GAUGE series
+   */
+  private GeoTimeSerie gauge;
+
+  /**
+   * Shuffled GAUGE series, never sorted itself, see Unsorted
+   */
+  private GeoTimeSerie shuffled;
+
+  /**
+   * Series with every datapoint present twice
+   */
+  private GeoTimeSerie duplicated;
+
+  /**
+   * SERIES bucketized series of size / SERIES datapoints each
+   */
+  private List<GeoTimeSerie> fleet;
+
+  private final List<String> bylabels = Collections.singletonList("dc");
+
+  @Setup
+  public void setup() throws IOException, WarpScriptException {
+    BenchmarkData.init();
+
+    BenchmarkData data = new BenchmarkData(42L);
+
+    this.gauge = data.gts("gauge", BenchmarkData.labels(0), BenchmarkData.Kind.GAUGE, this.size, false);
+    GTSHelper.sort(this.gauge);
+
+    this.shuffled = data.gts("gauge", BenchmarkData.labels(0), BenchmarkData.Kind.GAUGE, this.size, true);
+
+    this.duplicated = GTSHelper.merge(this.gauge.clone(), this.gauge);
+
+    this.fleet = new ArrayList<GeoTimeSerie>(SERIES);
+
+    for (int i = 0; i < SERIES; i++) {
+      GeoTimeSerie gts = data.gts("gauge", BenchmarkData.labels(i), BenchmarkData.Kind.GAUGE, Math.max(1, this.size / SERIES), true);
+      this.fleet.add(GTSHelper.bucketize(gts, BenchmarkData.PERIOD, 0, 0L, MEAN, Long.MAX_VALUE));
+    }
+  }
+
+  /**
+   * Fresh unsorted copy of the shuffled series for each call of 'sort'
+   */
+  @State(Scope.Thread)
+  public static class Unsorted {
+    public GeoTimeSerie gts;
+
+    @Setup(Level.Invocation)
+    public void setup(GTSHelperBenchmark bench) {
+      this.gts = bench.shuffled.clone();
+    }
+  }
+
+  @Benchmark
+  public GeoTimeSerie sort(Unsorted unsorted) {
+    return GTSHelper.sort(unsorted.gts);
+  }
+
+  @Benchmark
+  public GeoTimeSerie bucketize() throws WarpScriptException {
+    return GTSHelper.bucketize(this.gauge, 6 * BenchmarkData.PERIOD, 0, 0L, MEAN, Long.MAX_VALUE);
+  }
+
+  @Benchmark
+  public List<GeoTimeSerie> map() throws WarpScriptException {
+    return GTSHelper.map(this.gauge, MEAN, 5 * BenchmarkData.PERIOD, 0L);
+  }
+
+  @Benchmark
+  public List<GeoTimeSerie> reduce() throws WarpScriptException {
+    return GTSHelper.reduce(SUM, this.fleet, this.bylabels);
+  }
+
+  @Benchmark
+  public GeoTimeSerie merge() {
+    GeoTimeSerie base = new GeoTimeSerie();
+
+    for (GeoTimeSerie gts: this.fleet) {
+      GTSHelper.merge(base, gts);
+    }
+
+    return base;
+  }
+
+  @Benchmark
+  public GeoTimeSerie dedup() {
+    return GTSHelper.dedup(this.duplicated);
+  }
+}
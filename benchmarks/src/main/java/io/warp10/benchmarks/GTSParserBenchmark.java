@@ -0,0 +1,85 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+
+/**
+ * Parsing of the GTS input format, reported per line.
+ *
+ * As in the update endpoints, consecutive lines of the same series are added to the same encoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSParserBenchmark {
+
+  private static final int SIZE = 10000;
+
+  /**
+   * Number of series the lines are spread over, 1 means all lines belong to the same series
+   */
+  @Param({ "1", "100" })
+  public int series;
+
+  private String[] lines;
+
+  @Setup
+  public void setup() throws IOException {
+    BenchmarkData.init();
+    this.lines = new BenchmarkData(42L).lines(SIZE, this.series);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE)
+  public void parse(Blackhole bh) throws IOException, ParseException {
+    GTSEncoder lastencoder = null;
+
+    for (String line: this.lines) {
+      GTSEncoder encoder = GTSHelper.parse(lastencoder, line, null, null);
+
+      if (encoder != lastencoder) {
+        bh.consume(lastencoder);
+        lastencoder = encoder;
+      }
+    }
+
+    bh.consume(lastencoder);
+  }
+}
@@ -0,0 +1,105 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptStack;
+
+/**
+ * Execution of representative WarpScript code by MemoryWarpScriptStack.
+ *
+ * The series the scripts operate on are stored in the 'gts' symbol, a list of 100 series
+ * of 1000 datapoints each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarpScriptBenchmark {
+
+  private static final int SERIES = 100;
+  private static final int SIZE = 1000;
+
+  private static final Map<String,String> SCRIPTS = new HashMap<String,String>();
+
+  static {
+    // Loops and arithmetic, mostly measures the overhead of the interpreter
+    SCRIPTS.put("loop", "0 1 100000 <% + %> FOR");
+    // String manipulation and list construction
+    SCRIPTS.put("strings", "[ 1 10000 <% TOSTRING 'host' SWAP + %> FOR ] ' ' JOIN SIZE");
+    // Downsampling
+    SCRIPTS.put("bucketize", "[ $gts bucketizer.mean 0 60000000 0 ] BUCKETIZE");
+    // Rate of counters
+    SCRIPTS.put("map", "[ $gts mapper.delta 1 0 0 ] MAP");
+    // Downsampling then aggregation per datacenter
+    SCRIPTS.put("reduce", "[ $gts bucketizer.last 0 60000000 0 ] BUCKETIZE 'buckets' STORE [ $buckets [ 'dc' ] reducer.sum ] REDUCE");
+  }
+
+  @Param({ "loop", "strings", "bucketize", "map", "reduce" })
+  public String script;
+
+  private MemoryWarpScriptStack stack;
+
+  @Setup
+  public void setup() throws IOException, WarpScriptException {
+    BenchmarkData.init();
+
+    BenchmarkData data = new BenchmarkData(42L);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>(SERIES);
+
+    for (int i = 0; i < SERIES; i++) {
+      series.add(data.gts("counter", BenchmarkData.labels(i), BenchmarkData.Kind.COUNTER, SIZE, false));
+    }
+
+    this.stack = new MemoryWarpScriptStack(null, null, WarpConfig.getProperties());
+    this.stack.maxLimits();
+    this.stack.store("gts", series);
+  }
+
+  @Benchmark
+  public Object exec() throws WarpScriptException {
+    this.stack.clear();
+    this.stack.setAttribute(WarpScriptStack.ATTRIBUTE_OPS, 0L);
+    this.stack.exec(SCRIPTS.get(this.script));
+    return this.stack.peek();
+  }
+}
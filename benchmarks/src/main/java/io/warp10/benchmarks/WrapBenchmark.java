@@ -0,0 +1,87 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.warp10.continuum.gts.GTSWrapperHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.thrift.data.GTSWrapper;
+
+/**
+ * Round trips of a GTS through its wrapped form, as done by WRAP and UNWRAP.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WrapBenchmark {
+
+  private static final int SIZE = 10000;
+
+  @Param({ "COUNTER", "GAUGE", "STATE", "GEO" })
+  public BenchmarkData.Kind kind;
+
+  @Param({ "false", "true" })
+  public boolean compress;
+
+  private GeoTimeSerie gts;
+
+  private byte[] wrapped;
+
+  @Setup
+  public void setup() throws IOException, TException {
+    BenchmarkData.init();
+
+    this.gts = new BenchmarkData(42L).gts("bench", BenchmarkData.labels(0), this.kind, SIZE, false);
+    this.wrapped = wrap();
+  }
+
+  @Benchmark
+  public byte[] wrap() throws TException {
+    GTSWrapper wrapper = GTSWrapperHelper.fromGTSToGTSWrapper(this.gts, this.compress);
+    TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+    return serializer.serialize(wrapper);
+  }
+
+  @Benchmark
+  public GeoTimeSerie unwrap() throws TException {
+    TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+    GTSWrapper wrapper = new GTSWrapper();
+    deserializer.deserialize(wrapper, this.wrapped);
+    return GTSWrapperHelper.fromGTSWrapperToGTS(wrapper);
+  }
+}
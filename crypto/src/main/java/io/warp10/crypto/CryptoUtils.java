@@ -18,6 +18,14 @@ package io.warp10.crypto;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import org.bouncycastle.crypto.CipherParameters;
 import org.bouncycastle.crypto.InvalidCipherTextException;
@@ -34,6 +42,306 @@ import java.util.Arrays;
  */
 public class CryptoUtils {
 
+  /**
+   * Leading byte of AES-GCM content encrypted directly with the key and a random IV. Such content
+   * is still decrypted but no longer produced. AES key wrap output has no leading byte, content
+   * which cannot be decrypted using AES-GCM is unwrapped using AES key wrap.
+   */
+  public static final byte VERSION_AES_GCM = 0x01;
+
+  /**
+   * Leading byte of AES-GCM content encrypted with a key and IV derived from the key and a random
+   * salt using HKDF-SHA256. Such content is still decrypted but no longer produced.
+   */
+  public static final byte VERSION_AES_GCM_HKDF = 0x02;
+
+  /**
+   * Leading byte of the content produced by 'encrypt' and AESGCMBatch, AES-GCM with a key and base IV
+   * derived from the key and a random salt using HKDF-SHA256, shared by a batch of contents. Each content
+   * of the batch uses the base IV combined with its index in the batch.
+   */
+  public static final byte VERSION_AES_GCM_BATCH = 0x03;
+
+  private static final int GCM_IV_LEN = 12;
+  private static final int GCM_TAG_LEN = 16;
+  private static final int HKDF_SALT_LEN = 16;
+
+  private static final byte[] HKDF_INFO = "io.warp10.crypto.aes-gcm".getBytes(StandardCharsets.UTF_8);
+
+  private static final ThreadLocal<Cipher> gcm = new ThreadLocal<Cipher>() {
+    @Override
+    protected Cipher initialValue() {
+      try {
+        return Cipher.getInstance("AES/GCM/NoPadding");
+      } catch (GeneralSecurityException gse) {
+        throw new RuntimeException(gse);
+      }
+    }
+  };
+
+  private static final ThreadLocal<Mac> hmac = new ThreadLocal<Mac>() {
+    @Override
+    protected Mac initialValue() {
+      try {
+        return Mac.getInstance("HmacSHA256");
+      } catch (GeneralSecurityException gse) {
+        throw new RuntimeException(gse);
+      }
+    }
+  };
+
+  private static final ThreadLocal<SecureRandom> sr = new ThreadLocal<SecureRandom>() {
+    @Override
+    protected SecureRandom initialValue() {
+      return new SecureRandom();
+    }
+  };
+
+  /**
+   * Key and base IV last derived by the current thread when decrypting, contents of a batch
+   * are usually decrypted one after the other
+   */
+  private static final ThreadLocal<Derived> lastDerived = new ThreadLocal<Derived>();
+
+  private static final class Derived {
+    private final byte[] key;
+    private final byte[] salt;
+    private final SecretKeySpec aesKey;
+    private final byte[] iv;
+
+    private Derived(byte[] key, byte[] salt, int offset) throws GeneralSecurityException {
+      this.key = Arrays.copyOf(key, key.length);
+      this.salt = Arrays.copyOfRange(salt, offset, offset + HKDF_SALT_LEN);
+      byte[] okm = hkdf(key, salt, offset, HKDF_SALT_LEN, key.length + GCM_IV_LEN);
+      this.aesKey = new SecretKeySpec(okm, 0, key.length, "AES");
+      this.iv = Arrays.copyOfRange(okm, key.length, key.length + GCM_IV_LEN);
+    }
+
+    private boolean matches(byte[] key, byte[] salt, int offset) {
+      if (!Arrays.equals(this.key, key)) {
+        return false;
+      }
+      for (int i = 0; i < HKDF_SALT_LEN; i++) {
+        if (this.salt[i] != salt[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the IV of the content at 'index' in the batch, the base IV with the index XORed in its last 4 bytes
+     */
+    private GCMParameterSpec spec(int index) {
+      byte[] iv = Arrays.copyOf(this.iv, GCM_IV_LEN);
+      iv[GCM_IV_LEN - 4] ^= (byte) (index >>> 24);
+      iv[GCM_IV_LEN - 3] ^= (byte) (index >>> 16);
+      iv[GCM_IV_LEN - 2] ^= (byte) (index >>> 8);
+      iv[GCM_IV_LEN - 1] ^= (byte) index;
+      return new GCMParameterSpec(GCM_TAG_LEN * 8, iv);
+    }
+  }
+
+  /**
+   * AES-GCM encryption of a batch of contents with a key. The AES key and base IV are derived once from
+   * the key and a random salt using HKDF (RFC 5869), each content is then encrypted using the base IV
+   * combined with its index in the batch, so encrypting many small contents, such as single datapoints,
+   * does not pay for a derivation and a new AES key each time.
+   *
+   * Each content is the version byte, the 128 bits salt, the index as a varint, and the encrypted data
+   * followed by a 128 bits authentication tag. It can be decrypted on its own with 'decrypt'.
+   *
+   * Instances are not thread safe.
+   */
+  public static class AESGCMBatch {
+    private final byte[] key;
+    private final byte[] salt = new byte[HKDF_SALT_LEN];
+    private Derived derived;
+    private int index;
+
+    public AESGCMBatch(byte[] key) {
+      this.key = Arrays.copyOf(key, key.length);
+      rekey();
+    }
+
+    private void rekey() {
+      sr.get().nextBytes(this.salt);
+      try {
+        this.derived = new Derived(this.key, this.salt, 0);
+      } catch (GeneralSecurityException gse) {
+        throw new RuntimeException(gse);
+      }
+      this.index = 0;
+    }
+
+    public byte[] encrypt(byte[] data) {
+      return encrypt(data, 0, data.length);
+    }
+
+    public byte[] encrypt(byte[] data, int offset, int len) {
+      // Never reuse an IV, switch to a new salt when the indices are exhausted
+      if (Integer.MAX_VALUE == this.index) {
+        rekey();
+      }
+
+      int index = this.index++;
+
+      int idxlen = 1;
+      for (int i = index >>> 7; 0 != i; i >>>= 7) {
+        idxlen++;
+      }
+
+      byte[] encrypted = new byte[1 + HKDF_SALT_LEN + idxlen + len + GCM_TAG_LEN];
+      encrypted[0] = VERSION_AES_GCM_BATCH;
+      System.arraycopy(this.salt, 0, encrypted, 1, HKDF_SALT_LEN);
+
+      int pos = 1 + HKDF_SALT_LEN;
+      int i = index;
+      while (i > 0x7f) {
+        encrypted[pos++] = (byte) ((i & 0x7f) | 0x80);
+        i >>>= 7;
+      }
+      encrypted[pos++] = (byte) i;
+
+      try {
+        Cipher cipher = gcm.get();
+        cipher.init(Cipher.ENCRYPT_MODE, this.derived.aesKey, this.derived.spec(index));
+        cipher.doFinal(data, offset, len, encrypted, pos);
+      } catch (GeneralSecurityException gse) {
+        throw new RuntimeException(gse);
+      }
+
+      return encrypted;
+    }
+  }
+
+  /**
+   * Encrypt data using AES-GCM from the JCE, which uses the AES instructions of the CPU when
+   * the JVM supports them. The data is encrypted as a batch of one content, see AESGCMBatch,
+   * callers encrypting many contents with the same key should use an AESGCMBatch instead.
+   *
+   * @param key  the key
+   * @param data the data
+   * @return the byte [ ]
+   */
+  public static byte[] encrypt(byte[] key, byte[] data) {
+    return encrypt(key, data, 0, data.length);
+  }
+
+  public static byte[] encrypt(byte[] key, byte[] data, int offset, int len) {
+    return new AESGCMBatch(key).encrypt(data, offset, len);
+  }
+
+  /**
+   * HKDF-SHA256 of a key with the given salt
+   *
+   * @param len Number of bytes to derive, at most 255 * 32
+   */
+  private static byte[] hkdf(byte[] key, byte[] salt, int offset, int saltlen, int len) throws GeneralSecurityException {
+    Mac mac = hmac.get();
+
+    // Extract
+    mac.init(new SecretKeySpec(salt, offset, saltlen, "HmacSHA256"));
+    byte[] prk = mac.doFinal(key);
+
+    // Expand
+    mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+
+    byte[] okm = new byte[len];
+    byte[] t = new byte[0];
+    int pos = 0;
+
+    for (int i = 1; pos < len; i++) {
+      mac.update(t);
+      mac.update(HKDF_INFO);
+      mac.update((byte) i);
+      t = mac.doFinal();
+      System.arraycopy(t, 0, okm, pos, Math.min(t.length, len - pos));
+      pos += t.length;
+    }
+
+    return okm;
+  }
+
+  /**
+   * Decrypt data produced by 'encrypt' or by an AESGCMBatch
+   *
+   * @param key  the key
+   * @param data the data
+   * @return the decrypted data or null if the data could not be authenticated
+   */
+  public static byte[] decrypt(byte[] key, byte[] data) {
+    return decrypt(key, data, 0, data.length);
+  }
+
+  public static byte[] decrypt(byte[] key, byte[] data, int offset, int len) {
+    try {
+      if (len >= 1 + HKDF_SALT_LEN + 1 + GCM_TAG_LEN && VERSION_AES_GCM_BATCH == data[offset]) {
+        int end = offset + len;
+        int pos = offset + 1 + HKDF_SALT_LEN;
+
+        // Decode the index, a varint of at most 5 bytes
+        int index = 0;
+        int shift = 0;
+        while (true) {
+          if (pos >= end || shift > 28) {
+            return null;
+          }
+          byte b = data[pos++];
+          index |= (b & 0x7f) << shift;
+          if (0 == (b & 0x80)) {
+            break;
+          }
+          shift += 7;
+        }
+
+        if (index < 0 || end - pos < GCM_TAG_LEN) {
+          return null;
+        }
+
+        Derived dk = lastDerived.get();
+
+        if (null == dk || !dk.matches(key, data, offset + 1)) {
+          dk = new Derived(key, data, offset + 1);
+          lastDerived.set(dk);
+        }
+
+        Cipher cipher = gcm.get();
+        cipher.init(Cipher.DECRYPT_MODE, dk.aesKey, dk.spec(index));
+        return cipher.doFinal(data, pos, end - pos);
+      } else if (len >= 1 + HKDF_SALT_LEN + GCM_TAG_LEN && VERSION_AES_GCM_HKDF == data[offset]) {
+        byte[] derived = hkdf(key, data, offset + 1, HKDF_SALT_LEN, key.length + GCM_IV_LEN);
+        Cipher cipher = gcm.get();
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(derived, 0, key.length, "AES"), new GCMParameterSpec(GCM_TAG_LEN * 8, derived, key.length, GCM_IV_LEN));
+        return cipher.doFinal(data, offset + 1 + HKDF_SALT_LEN, len - 1 - HKDF_SALT_LEN);
+      } else if (len >= 1 + GCM_IV_LEN + GCM_TAG_LEN && VERSION_AES_GCM == data[offset]) {
+        Cipher cipher = gcm.get();
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(GCM_TAG_LEN * 8, data, offset + 1, GCM_IV_LEN));
+        return cipher.doFinal(data, offset + 1 + GCM_IV_LEN, len - 1 - GCM_IV_LEN);
+      } else {
+        return null;
+      }
+    } catch (GeneralSecurityException gse) {
+      return null;
+    }
+  }
+
+  /**
+   * Wrap data using either AES key wrap or AES-GCM
+   *
+   * @param key  the key
+   * @param data the data
+   * @param gcm  use AES-GCM
+   * @return the byte [ ]
+   */
+  public static byte[] wrap(byte[] key, byte[] data, boolean gcm) {
+    if (gcm) {
+      return encrypt(key, data);
+    } else {
+      return wrap(key, data);
+    }
+  }
+
   /**
    * Wrap byte [ ].
    *
@@ -73,6 +381,31 @@ public class CryptoUtils {
    * @return the byte [ ]
    */
   public static byte[] unwrap(byte[] key, byte[] data) {
+    return unwrap(key, data, 0, data.length);
+  }
+
+  /**
+   * Unwrap content produced by either 'wrap' or 'encrypt'.
+   *
+   * Content starting with an AES-GCM version byte is first decrypted using AES-GCM, AES key wrap is used
+   * if this fails, as AES key wrap output may start with any byte.
+   *
+   * @param key    the key
+   * @param data   the data
+   * @param offset offset of the wrapped content in data
+   * @param len    length of the wrapped content
+   * @return the unwrapped content or null if it could not be unwrapped
+   */
+  public static byte[] unwrap(byte[] key, byte[] data, int offset, int len) {
+    if (len > 0 && (VERSION_AES_GCM_BATCH == data[offset] || VERSION_AES_GCM_HKDF == data[offset] || VERSION_AES_GCM == data[offset])) {
+      byte[] decrypted = decrypt(key, data, offset, len);
+
+      // AES key wrap output is a multiple of 8 bytes
+      if (null != decrypted || 0 != len % 8) {
+        return decrypted;
+      }
+    }
+
     //
     // Decrypt the encrypted data
     //
@@ -82,7 +415,7 @@ public class CryptoUtils {
     engine.init(false, params);
 
     try {
-      byte[] decrypted = engine.unwrap(data, 0, data.length);
+      byte[] decrypted = engine.unwrap(data, offset, len);
       //
       // Unpad the decrypted data
       //
@@ -0,0 +1,185 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.crypto;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CryptoUtilsTest {
+
+  @Test
+  public void testWrapUnwrap() {
+    Random prng = new Random(0L);
+
+    byte[] key = new byte[32];
+    prng.nextBytes(key);
+
+    for (int len = 0; len < 100; len++) {
+      byte[] data = new byte[len];
+      prng.nextBytes(data);
+
+      // AES key wrap
+      byte[] wrapped = CryptoUtils.wrap(key, data, false);
+      Assert.assertTrue(Arrays.equals(data, CryptoUtils.unwrap(key, wrapped)));
+
+      // AES-GCM
+      byte[] encrypted = CryptoUtils.wrap(key, data, true);
+      Assert.assertEquals(CryptoUtils.VERSION_AES_GCM_BATCH, encrypted[0]);
+      Assert.assertTrue(Arrays.equals(data, CryptoUtils.decrypt(key, encrypted)));
+      Assert.assertTrue(Arrays.equals(data, CryptoUtils.unwrap(key, encrypted)));
+
+      // Content in a larger array
+      byte[] larger = new byte[encrypted.length + 10];
+      System.arraycopy(encrypted, 0, larger, 5, encrypted.length);
+      Assert.assertTrue(Arrays.equals(data, CryptoUtils.unwrap(key, larger, 5, encrypted.length)));
+
+      // Altered content is rejected
+      encrypted[encrypted.length - 1] ^= 0x01;
+      Assert.assertNull(CryptoUtils.decrypt(key, encrypted));
+      Assert.assertNull(CryptoUtils.unwrap(key, encrypted));
+    }
+  }
+
+  @Test
+  public void testAESWrapWithVersionByte() {
+    Random prng = new Random(0L);
+
+    byte[] key = new byte[16];
+    prng.nextBytes(key);
+
+    // Find AES key wrap outputs starting with the AES-GCM version byte, they must still be unwrapped
+    int found = 0;
+
+    for (int i = 0; i < 10000 && found < 10; i++) {
+      byte[] data = new byte[prng.nextInt(64)];
+      prng.nextBytes(data);
+
+      byte[] wrapped = CryptoUtils.wrap(key, data);
+
+      if (CryptoUtils.VERSION_AES_GCM == wrapped[0] || CryptoUtils.VERSION_AES_GCM_HKDF == wrapped[0] || CryptoUtils.VERSION_AES_GCM_BATCH == wrapped[0]) {
+        Assert.assertTrue(Arrays.equals(data, CryptoUtils.unwrap(key, wrapped)));
+        found++;
+      }
+    }
+
+    Assert.assertTrue(found > 0);
+  }
+
+  @Test
+  public void testDerivedKeys() throws Exception {
+    Random prng = new Random(0L);
+
+    byte[] key = new byte[32];
+    prng.nextBytes(key);
+
+    byte[] data = new byte[64];
+
+    // Identical content is encrypted differently each time
+    byte[] a = CryptoUtils.encrypt(key, data);
+    byte[] b = CryptoUtils.encrypt(key, data);
+    Assert.assertFalse(Arrays.equals(a, b));
+
+    // A different key is rejected
+    byte[] other = Arrays.copyOf(key, key.length);
+    other[0] ^= 0x01;
+    Assert.assertNull(CryptoUtils.decrypt(other, a));
+
+    // Content produced with a random IV and no derived key is still decrypted
+    byte[] iv = new byte[12];
+    prng.nextBytes(iv);
+    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+    byte[] legacy = new byte[1 + iv.length + data.length + 16];
+    legacy[0] = CryptoUtils.VERSION_AES_GCM;
+    System.arraycopy(iv, 0, legacy, 1, iv.length);
+    cipher.doFinal(data, 0, data.length, legacy, 1 + iv.length);
+    Assert.assertTrue(Arrays.equals(data, CryptoUtils.unwrap(key, legacy)));
+
+    // Content produced with a key and IV derived for each encryption is still decrypted
+    byte[] salt = new byte[16];
+    prng.nextBytes(salt);
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+    mac.init(new SecretKeySpec(mac.doFinal(key), "HmacSHA256"));
+    mac.update("io.warp10.crypto.aes-gcm".getBytes("UTF-8"));
+    mac.update((byte) 1);
+    byte[] okm = Arrays.copyOf(mac.doFinal(), key.length + 12);
+    mac.update(Arrays.copyOf(okm, 32));
+    mac.update("io.warp10.crypto.aes-gcm".getBytes("UTF-8"));
+    mac.update((byte) 2);
+    System.arraycopy(mac.doFinal(), 0, okm, 32, 12);
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(okm, 0, key.length, "AES"), new GCMParameterSpec(128, okm, key.length, 12));
+    byte[] hkdf = new byte[1 + salt.length + data.length + 16];
+    hkdf[0] = CryptoUtils.VERSION_AES_GCM_HKDF;
+    System.arraycopy(salt, 0, hkdf, 1, salt.length);
+    cipher.doFinal(data, 0, data.length, hkdf, 1 + salt.length);
+    Assert.assertTrue(Arrays.equals(data, CryptoUtils.unwrap(key, hkdf)));
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    Random prng = new Random(0L);
+
+    byte[] key = new byte[32];
+    prng.nextBytes(key);
+
+    CryptoUtils.AESGCMBatch batch = new CryptoUtils.AESGCMBatch(key);
+
+    byte[][] data = new byte[1000][];
+    byte[][] encrypted = new byte[data.length][];
+
+    for (int i = 0; i < data.length; i++) {
+      data[i] = new byte[prng.nextInt(32)];
+      prng.nextBytes(data[i]);
+      encrypted[i] = batch.encrypt(data[i]);
+      Assert.assertEquals(CryptoUtils.VERSION_AES_GCM_BATCH, encrypted[i][0]);
+    }
+
+    // The contents of a batch share their salt, the index is one byte up to 127
+    Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(encrypted[0], 1, 17), Arrays.copyOfRange(encrypted[999], 1, 17)));
+    Assert.assertEquals(1 + 16 + 1 + data[127].length + 16, encrypted[127].length);
+    Assert.assertEquals(1 + 16 + 2 + data[128].length + 16, encrypted[128].length);
+
+    // Identical content is encrypted differently within a batch
+    Assert.assertFalse(Arrays.equals(batch.encrypt(data[0]), encrypted[0]));
+
+    // Contents are decrypted on their own, in any order
+    for (int i = data.length - 1; i >= 0; i -= 7) {
+      Assert.assertTrue(Arrays.equals(data[i], CryptoUtils.decrypt(key, encrypted[i])));
+    }
+
+    // Content moved to another index or with another salt is rejected
+    byte[] moved = encrypted[500].clone();
+    moved[17] ^= 0x01;
+    Assert.assertNull(CryptoUtils.decrypt(key, moved));
+
+    byte[] salted = encrypted[500].clone();
+    salted[1] ^= 0x01;
+    Assert.assertNull(CryptoUtils.decrypt(key, salted));
+
+    // A truncated index is rejected
+    Assert.assertNull(CryptoUtils.decrypt(key, Arrays.copyOf(encrypted[500], 1 + 16 + 1)));
+  }
+}
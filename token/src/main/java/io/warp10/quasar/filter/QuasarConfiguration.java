@@ -39,6 +39,16 @@ public class QuasarConfiguration {
    */
   public final static String WARP_TRL_STARTUP_DELAY ="warp.trl.startup.delay";
 
+  /**
+   * Maximum number of decoded tokens kept in cache, 0 disables the cache
+   */
+  public final static String WARP_TOKEN_CACHE_SIZE = "warp.token.cache.size";
+
+  /**
+   * Default size of the decoded token cache
+   */
+  public final static String WARP_TOKEN_CACHE_SIZE_DEFAULT = "1000";
+
   /**
    * application prefix for TRL files
    */
@@ -31,11 +31,15 @@ import io.warp10.sensision.Sensision;
 
 import com.google.common.base.Strings;
 
+import org.apache.thrift.TBase;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class QuasarTokenFilter {
 
@@ -46,6 +50,36 @@ public class QuasarTokenFilter {
   private long tokenSipHashKeyK0;
   private long tokenSipHashKeyK1;
 
+  /**
+   * Decoded tokens which passed all the checks, keyed by the SipHash of their encoded form.
+   * When full an arbitrary entry is evicted, concurrent insertions may slightly exceed the size.
+   */
+  private final Map<Long,CachedToken> cache;
+
+  private final int cacheSize;
+
+  private static final class CachedToken {
+    private final String token;
+    private final TBase decoded;
+    private final long appId;
+    private final long issuance;
+    private final long expiry;
+
+    /**
+     * Generation of the TRL the token was checked against
+     */
+    private final long generation;
+
+    private CachedToken(String token, TBase decoded, long appId, long issuance, long expiry, long generation) {
+      this.token = token;
+      this.decoded = decoded;
+      this.appId = appId;
+      this.issuance = issuance;
+      this.expiry = expiry;
+      this.generation = generation;
+    }
+  }
+
   // custom key constructor
   private QuasarTokenFilter(Properties props, KeyStore keystore, String tokenAesKeyName) {
     this.properties = (Properties) props.clone();
@@ -63,6 +97,9 @@ public class QuasarTokenFilter {
 
     this.quasarTokenDecoder = new QuasarTokenDecoder(tokenSipHashKeyK0, tokenSipHashKeyK1, tokenAESKey);
     this.quasarTokenRevoked = new QuasarTokensRevoked(properties, appSipHashKey);
+
+    this.cacheSize = Integer.parseInt(properties.getProperty(QuasarConfiguration.WARP_TOKEN_CACHE_SIZE, QuasarConfiguration.WARP_TOKEN_CACHE_SIZE_DEFAULT));
+    this.cache = this.cacheSize > 0 ? new ConcurrentHashMap<Long,CachedToken>() : null;
   }
 
   // default contructor
@@ -83,9 +120,19 @@ public class QuasarTokenFilter {
       }
 
       byte[] tokenB64Data = cryptedToken.getBytes();
+      long sipHash = getTokenSipHash(tokenB64Data);
+
+      // return the cached token if it was already decoded and checked against the current trl
+      TBase cached = getCachedToken(sipHash, cryptedToken, labels);
+
+      if (cached instanceof ReadToken) {
+        return ((ReadToken) cached).deepCopy();
+      }
+
+      long generation = quasarTokenRevoked.getGeneration();
 
       // check if the token is revoked by the owner
-      quasarTokenRevoked.isTokenRevoked(getTokenSipHash(tokenB64Data));
+      quasarTokenRevoked.isTokenRevoked(sipHash);
 
       // Decode the token hex string to byte array
       byte[] tokenHexData = OrderPreservingBase64.decode(tokenB64Data);
@@ -102,6 +149,10 @@ public class QuasarTokenFilter {
       // check the registered application status
       quasarTokenRevoked.isRegisteredAppAuthorized(appId);
 
+      if (null != cache) {
+        cacheToken(sipHash, new CachedToken(cryptedToken, token.deepCopy(), appId, token.getIssuanceTimestamp(), token.getExpiryTimestamp(), generation));
+      }
+
       return token;
     } catch(QuasarTokenException qexp) {
       labels.put("error", qexp.label);
@@ -133,9 +184,19 @@ public class QuasarTokenFilter {
       }
 
       byte[] tokenB64Data = cryptedToken.getBytes();
+      long sipHash = getTokenSipHash(tokenB64Data);
+
+      // return the cached token if it was already decoded and checked against the current trl
+      TBase cached = getCachedToken(sipHash, cryptedToken, labels);
+
+      if (cached instanceof WriteToken) {
+        return ((WriteToken) cached).deepCopy();
+      }
+
+      long generation = quasarTokenRevoked.getGeneration();
 
       // check if the token is revoked by the owner
-      quasarTokenRevoked.isTokenRevoked(getTokenSipHash(tokenB64Data));
+      quasarTokenRevoked.isTokenRevoked(sipHash);
 
       // Decode the token hex string to byte array
       byte[] tokenHexData = OrderPreservingBase64.decode(tokenB64Data);
@@ -152,6 +213,10 @@ public class QuasarTokenFilter {
       // check the registered application status
       quasarTokenRevoked.isRegisteredAppAuthorized(appId);
 
+      if (null != cache) {
+        cacheToken(sipHash, new CachedToken(cryptedToken, token.deepCopy(), appId, token.getIssuanceTimestamp(), token.getExpiryTimestamp(), generation));
+      }
+
       return token;
     } catch(QuasarTokenException qexp) {
       labels.put("error", qexp.label);
@@ -181,6 +246,50 @@ public class QuasarTokenFilter {
     return key;
   }
 
+  /**
+   * Retrieve a decoded token from the cache, its expiration is checked again
+   *
+   * @return the decoded token or null if it has to be decoded
+   */
+  private TBase getCachedToken(long sipHash, String cryptedToken, Map<String,String> labels) throws QuasarTokenExpired {
+    if (null == cache) {
+      return null;
+    }
+
+    CachedToken cached = cache.get(sipHash);
+
+    if (null == cached || !cached.token.equals(cryptedToken) || cached.generation != quasarTokenRevoked.getGeneration()) {
+      if (null != cached) {
+        cache.remove(sipHash, cached);
+      }
+      Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, labels, 1);
+      return null;
+    }
+
+    try {
+      checkTokenExpired(cached.issuance, cached.expiry, cached.appId);
+    } catch (QuasarTokenExpired qte) {
+      cache.remove(sipHash, cached);
+      throw qte;
+    }
+
+    Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, labels, 1);
+
+    return cached.decoded;
+  }
+
+  private void cacheToken(long sipHash, CachedToken token) {
+    if (cache.size() >= cacheSize) {
+      Iterator<Long> iter = cache.keySet().iterator();
+      if (iter.hasNext()) {
+        iter.next();
+        iter.remove();
+      }
+    }
+
+    cache.put(sipHash, token);
+  }
+
   private long getTokenSipHash(byte[] nolookupToken) {
     return SipHashInline.hash24_palindromic(tokenSipHashKeyK0, tokenSipHashKeyK1, nolookupToken, 0, nolookupToken.length);
   }
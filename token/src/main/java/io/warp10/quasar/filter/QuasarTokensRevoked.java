@@ -29,7 +29,6 @@ import io.warp10.sensision.Sensision;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
@@ -42,18 +41,21 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
   private static Map<Long, Long> refreshTokenAfter = new ConcurrentHashMap<Long, Long>(256, 0.75f, 2);
 
   /**
-   * List of all the revoked token SIP HASH
+   * List of all the revoked token SIP HASH, replaced as a whole when a new TRL is loaded
    */
-  private QuasarTRL quasarTRL = null;
+  private volatile QuasarTRL quasarTRL = null;
 
   private QuasarTokenRevocationListLoader quasarTRLLoader = null;
 
+  /**
+   * Incremented each time a TRL is loaded, tokens checked against a previous TRL must be checked again
+   */
+  private volatile long generation = 0L;
+
   private static AtomicBoolean loaded = new AtomicBoolean(false);
 
   private static AtomicBoolean unavailable = new AtomicBoolean(false);
 
-  private static CountDownLatch updateRunning = new CountDownLatch(0);
-
   /**
    * TS (millis )of the initialisation startup time
    */
@@ -125,14 +127,11 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
 
   @Override
   public void onQuasarTRL(QuasarTRL trl) {
-    // switch the array
-    // critical section this must be atomic
-    updateRunning = new CountDownLatch(1);
-
+    // switch the trl, readers keep using the previous one until they are done
     quasarTRL = trl;
 
-    // Release the critical section
-    updateRunning.countDown();
+    // invalidate the tokens checked against the previous trl
+    generation++;
 
     // set as loaded
     loaded.set(true);
@@ -141,8 +140,7 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
 
   public void isRegisteredAppAuthorized(long appId) throws QuasarTokenException {
     try {
-      // if an update is running, wait...
-      updateRunning.await();
+      QuasarTRL quasarTRL = this.quasarTRL;
 
       if (quasarTRL == null) {
         Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TRL_UNAVAILABLE_COUNT, 1);
@@ -161,8 +159,7 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
 
   public void isTokenRevoked(long sipHash) throws QuasarTokenException {
     try {
-      // if an update is running, wait...
-      updateRunning.await();
+      QuasarTRL quasarTRL = this.quasarTRL;
 
       if (quasarTRL == null || quasarTRL.getTrlSize() == 0) {
         Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TRL_UNAVAILABLE_COUNT, 1);
@@ -179,6 +176,10 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
     }
   }
 
+  public long getGeneration() {
+    return generation;
+  }
+
   public Long getClientIdRefreshTimeStamp(long clientId) {
     Long endOfTokenValidity = refreshTokenAfter.get(clientId);
 
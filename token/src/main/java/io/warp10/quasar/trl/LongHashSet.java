@@ -0,0 +1,157 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package io.warp10.quasar.trl;
+
+/**
+ * Set of longs using open addressing with linear probing.
+ *
+ * The set is filled by a single thread and only read once published, lookups
+ * are then lock free. Elements cannot be removed.
+ */
+public class LongHashSet {
+
+  /**
+   * Maximum load of the table before it is resized
+   */
+  private static final float LOAD_FACTOR = 0.6F;
+
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  /**
+   * Slots of the table, 0 marks an empty slot
+   */
+  private long[] table;
+
+  private int mask;
+
+  private int size = 0;
+
+  /**
+   * 0 cannot be stored in the table, its presence is tracked separately
+   */
+  private boolean zero = false;
+
+  public LongHashSet() {
+    this(16);
+  }
+
+  /**
+   * @param expected Expected number of elements, the table is sized so no resize is needed to hold them
+   */
+  public LongHashSet(int expected) {
+    this.table = new long[capacity(expected)];
+    this.mask = this.table.length - 1;
+  }
+
+  private static int capacity(int expected) {
+    long needed = (long) Math.ceil(Math.max(expected, 1) / LOAD_FACTOR);
+
+    if (needed >= MAX_CAPACITY) {
+      return MAX_CAPACITY;
+    }
+
+    return Math.max(16, Integer.highestOneBit((int) needed - 1) << 1);
+  }
+
+  /**
+   * Spread the bits of the value, lower bits of a value are not guaranteed to be random
+   */
+  private static int slot(long value, int mask) {
+    long h = value * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  /**
+   * @return true if the value was not already in the set
+   */
+  public boolean add(long value) {
+    if (0L == value) {
+      if (this.zero) {
+        return false;
+      }
+      this.zero = true;
+      this.size++;
+      return true;
+    }
+
+    if (this.size + 1 > this.table.length * LOAD_FACTOR && this.table.length < MAX_CAPACITY) {
+      resize(this.table.length << 1);
+    }
+
+    if (this.size >= this.mask) {
+      throw new IllegalStateException("Set is full.");
+    }
+
+    int idx = slot(value, this.mask);
+
+    while (0L != this.table[idx]) {
+      if (value == this.table[idx]) {
+        return false;
+      }
+      idx = (idx + 1) & this.mask;
+    }
+
+    this.table[idx] = value;
+    this.size++;
+
+    return true;
+  }
+
+  public boolean contains(long value) {
+    if (0L == value) {
+      return this.zero;
+    }
+
+    long[] table = this.table;
+    int mask = table.length - 1;
+    int idx = slot(value, mask);
+
+    while (true) {
+      long v = table[idx];
+
+      if (value == v) {
+        return true;
+      } else if (0L == v) {
+        return false;
+      }
+
+      idx = (idx + 1) & mask;
+    }
+  }
+
+  private void resize(int capacity) {
+    long[] old = this.table;
+
+    this.table = new long[capacity];
+    this.mask = capacity - 1;
+
+    for (long value: old) {
+      if (0L != value) {
+        int idx = slot(value, this.mask);
+        while (0L != this.table[idx]) {
+          idx = (idx + 1) & this.mask;
+        }
+        this.table[idx] = value;
+      }
+    }
+  }
+
+  public int size() {
+    return this.size;
+  }
+}
@@ -16,54 +16,92 @@
 
 package io.warp10.quasar.trl;
 
+import java.util.Collection;
+
+/**
+ * Revoked tokens and applications.
+ *
+ * A TRL is either filled with the content of a file, or the union of TRLs, whose sets are shared
+ * and not copied, so a TRL file which did not change does not need to be reloaded. Once published
+ * a TRL is not modified, lookups do not need any synchronization.
+ */
 public class QuasarTRL {
 
   /**
-   * List of all the revoked token SIP HASH
+   * Sets of the revoked token SIP HASH
    */
-  private ChunkedArray revokedTokens = null;
+  private final LongHashSet[] revokedTokens;
 
-  private ChunkedArray revokedApplications = null;
+  private final LongHashSet[] revokedApplications;
 
   public QuasarTRL() {
-    // TODO from configuration
-    revokedTokens = new ChunkedArray(5000000, 0.75f);
-    revokedApplications = new ChunkedArray(5000, 0.75f);
+    this(0);
   }
 
   /**
-   *
+   * @param size Expected number of revoked tokens
    */
   public QuasarTRL(int size) {
-    revokedTokens = new ChunkedArray(size, 5000000, 0.75f);
-    revokedApplications = new ChunkedArray(5000, 0.75f);
+    revokedTokens = new LongHashSet[] { new LongHashSet(size) };
+    revokedApplications = new LongHashSet[] { new LongHashSet() };
+  }
+
+  /**
+   * Create a TRL which is the union of the given TRLs
+   */
+  public QuasarTRL(Collection<QuasarTRL> trls) {
+    int tokens = 0;
+    int apps = 0;
+
+    for (QuasarTRL trl: trls) {
+      tokens += trl.revokedTokens.length;
+      apps += trl.revokedApplications.length;
+    }
+
+    revokedTokens = new LongHashSet[tokens];
+    revokedApplications = new LongHashSet[apps];
+
+    tokens = 0;
+    apps = 0;
+
+    for (QuasarTRL trl: trls) {
+      System.arraycopy(trl.revokedTokens, 0, revokedTokens, tokens, trl.revokedTokens.length);
+      System.arraycopy(trl.revokedApplications, 0, revokedApplications, apps, trl.revokedApplications.length);
+      tokens += trl.revokedTokens.length;
+      apps += trl.revokedApplications.length;
+    }
   }
 
   public boolean isTokenRevoked(long sipHash) {
-    return revokedTokens.contains(sipHash);
+    return contains(revokedTokens, sipHash);
   }
 
   public boolean isAppAuthorized(long appId) {
-    return revokedApplications.contains(appId);
+    return contains(revokedApplications, appId);
+  }
+
+  private static boolean contains(LongHashSet[] sets, long value) {
+    for (LongHashSet set: sets) {
+      if (set.contains(value)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   public int getTrlSize() {
-    return revokedTokens.size();
+    int size = 0;
+    for (LongHashSet set: revokedTokens) {
+      size += set.size();
+    }
+    return size;
   }
 
   public void revokeToken(long tokenRevoked) {
-    revokedTokens.addLong(tokenRevoked);
+    revokedTokens[0].add(tokenRevoked);
   }
 
   public void revokeApplication(long appRevoked) {
-    revokedApplications.addLong(appRevoked);
+    revokedApplications[0].add(appRevoked);
   }
-
-  public void sortTokens() {
-    // sort the new arrays
-    revokedTokens.sort();
-    revokedApplications.sort();
-  }
-
-
 }
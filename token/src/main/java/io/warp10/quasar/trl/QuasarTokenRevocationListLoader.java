@@ -27,6 +27,7 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,9 +37,9 @@ public class QuasarTokenRevocationListLoader {
   Properties config = null;
 
   private static AtomicBoolean initialized = new AtomicBoolean(false);
-  private static long delay = 0L;
-  private static String path = null;
-  private static QuasarTRL currentTrl = null;
+  private final long delay;
+  private final String path;
+  private volatile QuasarTRL currentTrl = null;
 
   private static QuasarTokenRevocationListLoader quasarTokenRevocationListLoader = null;
   private static AtomicBoolean singleton = new AtomicBoolean(false);
@@ -46,12 +47,16 @@ public class QuasarTokenRevocationListLoader {
   private static long appIdSipHashKeyK0 = 0L;
   private static long appIdSipHashKeyK1 = 0L;
 
-  private List<QuasarTRLLoadedHandler> quasarTRLLoadedHandler = new ArrayList<QuasarTRLLoadedHandler>();
+  private List<QuasarTRLLoadedHandler> quasarTRLLoadedHandler = new CopyOnWriteArrayList<QuasarTRLLoadedHandler>();
 
   private String trlPattern = "^([a-zA-Z0-9_-]*)\\.(read|write|full)\\.([0-9]*)-([a-f0-9]{32})\\.trl$";
 
   // Set of files already read
   private Map<String, JavaTRLLoaded> read = new HashMap<String, JavaTRLLoaded>();
+
+  // Content of the files already read, per warp.type
+  private Map<String, QuasarTRL> loaded = new HashMap<String, QuasarTRL>();
+
   private Map<String, String> labels = new HashMap<String, String>();
 
 
@@ -69,8 +74,8 @@ public class QuasarTokenRevocationListLoader {
   private QuasarTokenRevocationListLoader(Properties props) {
     this.config = props;
 
-    delay = Long.parseLong(config.getProperty(QuasarConfiguration.WARP_TRL_PERIOD, QuasarConfiguration.WARP_TRL_PERIOD_DEFAULT));
-    path = config.getProperty(QuasarConfiguration.WARP_TRL_PATH);
+    this.delay = Long.parseLong(config.getProperty(QuasarConfiguration.WARP_TRL_PERIOD, QuasarConfiguration.WARP_TRL_PERIOD_DEFAULT));
+    this.path = config.getProperty(QuasarConfiguration.WARP_TRL_PATH);
   }
 
   public static long getApplicationHash(String appName) {
@@ -83,7 +88,6 @@ public class QuasarTokenRevocationListLoader {
 
   public void loadTrl() {
     try {
-      QuasarTRL quasarTRL = null;
       //
       // Sensision metrics thread heart beat
       //
@@ -104,90 +108,56 @@ public class QuasarTokenRevocationListLoader {
       if (update) {
         long now = System.currentTimeMillis();
 
-        // sum files size
-        int size = getSipHashesSize(latest.values());
+        //
+        // Forget the files which are no longer present
+        //
+        boolean changed = read.keySet().retainAll(latest.keySet());
+        loaded.keySet().retainAll(latest.keySet());
 
-        // load the selected files
+        //
+        // Only load the files which changed, the others are reused as is
+        //
         for (Map.Entry<String, JavaTRLLoaded> entry: latest.entrySet()) {
-          if (null == quasarTRL) {
-            quasarTRL = new QuasarTRL(size);
+          JavaTRLLoaded actualTrl = read.get(entry.getKey());
+
+          if (null != actualTrl && actualTrl.md5.equals(entry.getValue().md5)) {
+            continue;
           }
 
-          //
-          // Read the token revocation list
-          //
-          BufferedReader br = null;
-          try {
-            br = new BufferedReader(new FileReader(new File(path, entry.getValue().fileName)));
-
-            while (true) {
-              String line = br.readLine();
-              if (null == line) {
-                break;
-              }
-              line = line.trim();
-
-              // Skip empty lines
-              if ("".equals(line)) {
-                continue;
-              }
-              
-              // Skip comments
-              if (line.startsWith("#")) {
-                continue;
-              }
-
-              // application
-              if (line.startsWith(QuasarConfiguration.WARP_APPLICATION_PREFIX)) {
-                // compute the sip hash with the app name
-                long appSipHash = getApplicationHash(line.substring(1));
-                quasarTRL.revokeApplication(appSipHash);
-              } else {
-                // token sip hash hex encoded convert it into long
-                byte[] bytes = Hex.decodeHex(line.toCharArray());
-                long tokenRevoked = ByteBuffer.wrap(bytes, 0, 8).order(ByteOrder.BIG_ENDIAN).getLong();
-                // add it to the future trl list
-                quasarTRL.revokeToken(tokenRevoked);
-              }
-            }
+          QuasarTRL quasarTRL = loadFile(entry.getValue());
 
+          if (null != quasarTRL) {
             // mark as read
             read.put(entry.getKey(), entry.getValue());
-
-          } catch (Exception exp) {
-            exp.printStackTrace();
-          } finally {
-            if (null != br) {
-              try {
-                br.close();
-              } catch (IOException e) {
-              }
-            }
+            loaded.put(entry.getKey(), quasarTRL);
+            changed = true;
           }
         }   // end for all files
 
+        // files which could not be read are retried on the next scan
+        if (!changed) {
+          return;
+        }
 
-        if (0 != quasarTRLLoadedHandler.size() && null != quasarTRL) {
-          //
-          // sort and switch the new trl
-          //
-          quasarTRL.sortTokens();
-
-          //
-          // call all the handlers
-          //
-          for (QuasarTRLLoadedHandler handler: quasarTRLLoadedHandler) {
-            handler.onQuasarTRL(quasarTRL);
-          }
-          currentTrl = quasarTRL;
-
-          //
-          // Sensision trl loaded
-          //
-          long timeElapsed = System.currentTimeMillis() - now;
-          Sensision.event(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TRL_LOAD_TIME, labels, timeElapsed);
-          Sensision.event(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TRL_TOKENS_COUNT, labels, quasarTRL.getTrlSize());
+        //
+        // switch to the new trl, the previous one is left untouched for its readers
+        //
+        QuasarTRL quasarTRL = new QuasarTRL(loaded.values());
+        currentTrl = quasarTRL;
+
+        //
+        // call all the handlers
+        //
+        for (QuasarTRLLoadedHandler handler: quasarTRLLoadedHandler) {
+          handler.onQuasarTRL(quasarTRL);
         }
+
+        //
+        // Sensision trl loaded
+        //
+        long timeElapsed = System.currentTimeMillis() - now;
+        Sensision.event(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TRL_LOAD_TIME, labels, timeElapsed);
+        Sensision.event(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TRL_TOKENS_COUNT, labels, quasarTRL.getTrlSize());
       } // end if update
     } catch (Exception exp) {
       // thread error
@@ -195,6 +165,66 @@ public class QuasarTokenRevocationListLoader {
     }
   }
 
+  /**
+   * Read a token revocation list file
+   *
+   * @return the content of the file or null if it could not be read
+   */
+  private QuasarTRL loadFile(JavaTRLLoaded file) {
+    File trlFile = new File(path, file.fileName);
+
+    // each line = long hexa encoded (16 bytes) + CR
+    QuasarTRL quasarTRL = new QuasarTRL((int) Math.min(Integer.MAX_VALUE, trlFile.length() / 17));
+
+    BufferedReader br = null;
+    try {
+      br = new BufferedReader(new FileReader(trlFile));
+
+      while (true) {
+        String line = br.readLine();
+        if (null == line) {
+          break;
+        }
+        line = line.trim();
+
+        // Skip empty lines
+        if ("".equals(line)) {
+          continue;
+        }
+
+        // Skip comments
+        if (line.startsWith("#")) {
+          continue;
+        }
+
+        // application
+        if (line.startsWith(QuasarConfiguration.WARP_APPLICATION_PREFIX)) {
+          // compute the sip hash with the app name
+          long appSipHash = getApplicationHash(line.substring(1));
+          quasarTRL.revokeApplication(appSipHash);
+        } else {
+          // token sip hash hex encoded convert it into long
+          byte[] bytes = Hex.decodeHex(line.toCharArray());
+          long tokenRevoked = ByteBuffer.wrap(bytes, 0, 8).order(ByteOrder.BIG_ENDIAN).getLong();
+          // add it to the future trl list
+          quasarTRL.revokeToken(tokenRevoked);
+        }
+      }
+
+      return quasarTRL;
+    } catch (Exception exp) {
+      exp.printStackTrace();
+      return null;
+    } finally {
+      if (null != br) {
+        try {
+          br.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+  }
+
   public void init() {
     // initialize only once per JVM
     if (initialized.get()) {
@@ -224,7 +254,8 @@ public class QuasarTokenRevocationListLoader {
   }
 
   private boolean updateTRL(Map<String, JavaTRLLoaded> read, Map<String, JavaTRLLoaded> latest) {
-    boolean update = false;
+    // a file was removed
+    boolean update = !latest.keySet().containsAll(read.keySet());
     for (Map.Entry<String, JavaTRLLoaded> keyAndNewTrl: latest.entrySet()) {
       JavaTRLLoaded actualTrl = read.get(keyAndNewTrl.getKey());
       JavaTRLLoaded newTrl = keyAndNewTrl.getValue();
@@ -301,22 +332,6 @@ public class QuasarTokenRevocationListLoader {
     return files;
   }
 
-  /**
-   * Estimation if the number of SIPhashes in the files according to the file size
-   * @param files
-   * @return
-   */
-  private int getSipHashesSize(Collection<JavaTRLLoaded> files) {
-    // sum files size
-    int size = 0;
-    for (JavaTRLLoaded file: files) {
-      File filename = new File(path, file.fileName);
-      size += filename.length();
-    }
-    // each line = long hexa encoded (16 bytes) + CR
-    return size / 17;
-  }
-
   public void addTrlUpdatedHandler(QuasarTRLLoadedHandler handler) {
     quasarTRLLoadedHandler.add(handler);
 
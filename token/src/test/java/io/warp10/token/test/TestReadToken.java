@@ -184,5 +184,38 @@ public class TestReadToken extends TokenTestCase {
     }
   }
 
+  @Test
+  public void testCachedToken() throws TException, QuasarTokenException, InterruptedException {
+    String uuid = UUID.randomUUID().toString();
+    String readToken = tokenEncoder.deliverReadToken("app", uuid, uuid, new ArrayList<String>(Arrays.asList("app")), 200, getKeyStore());
+
+    QuasarTokenFilter tokenFilter = new QuasarTokenFilter(getConfig(), getKeyStore());
+
+    ReadToken first = tokenFilter.getReadToken(readToken);
+    ReadToken cached = tokenFilter.getReadToken(readToken);
+
+    // the cached token is a copy of the decoded one
+    assert first.equals(cached);
+    assert first != cached;
+
+    // a cached token is still a read token only
+    try {
+      tokenFilter.getWriteToken(readToken);
+      assert false;
+    } catch (QuasarTokenException qte) {
+      assert !(qte instanceof QuasarTokenExpired);
+    }
+
+    // the expiration of cached tokens is checked
+    Thread.sleep(400);
+
+    try {
+      tokenFilter.getReadToken(readToken);
+      assert false;
+    } catch (QuasarTokenException qte) {
+      assert qte instanceof QuasarTokenExpired;
+    }
+  }
+
   private QuasarTokenEncoder tokenEncoder = new QuasarTokenEncoder();
 }
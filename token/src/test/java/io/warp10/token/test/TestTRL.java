@@ -0,0 +1,150 @@
+package io.warp10.token.test;
+
+import io.warp10.quasar.filter.QuasarConfiguration;
+import io.warp10.quasar.trl.LongHashSet;
+import io.warp10.quasar.trl.QuasarTRL;
+import io.warp10.quasar.trl.QuasarTRLLoadedHandler;
+import io.warp10.quasar.trl.QuasarTokenRevocationListLoader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestTRL {
+  @Test
+  public void testLongHashSet() {
+    Random prng = new Random(42L);
+    LongHashSet set = new LongHashSet();
+    Set<Long> reference = new HashSet<Long>();
+
+    // small values so some are added twice, including 0
+    for (int i = 0; i < 100000; i++) {
+      long value = 0 == i % 3 ? prng.nextInt(1000) : prng.nextLong();
+      assert set.add(value) == reference.add(value);
+    }
+
+    assert set.size() == reference.size();
+
+    for (long value: reference) {
+      assert set.contains(value);
+    }
+
+    for (int i = 0; i < 100000; i++) {
+      long value = prng.nextLong();
+      assert set.contains(value) == reference.contains(value);
+    }
+  }
+
+  @Test
+  public void testUnion() {
+    QuasarTRL read = new QuasarTRL(10);
+    read.revokeToken(1L);
+    read.revokeApplication(42L);
+
+    QuasarTRL write = new QuasarTRL();
+    write.revokeToken(2L);
+
+    QuasarTRL trl = new QuasarTRL(Arrays.asList(read, write));
+
+    assert trl.isTokenRevoked(1L);
+    assert trl.isTokenRevoked(2L);
+    assert !trl.isTokenRevoked(3L);
+    assert trl.isAppAuthorized(42L);
+    assert !trl.isAppAuthorized(1L);
+    assert 2 == trl.getTrlSize();
+
+    assert 0 == new QuasarTRL(new ArrayList<QuasarTRL>()).getTrlSize();
+  }
+
+  private static void writeTrl(File dir, String name, long... tokens) throws IOException {
+    FileWriter writer = new FileWriter(new File(dir, name));
+    try {
+      writer.write("# revoked tokens\n");
+      for (long token: tokens) {
+        writer.write(String.format("%016x\n", token));
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testLoader() throws Exception {
+    File dir = Files.createTempDirectory("trl").toFile();
+
+    try {
+      Properties config = new Properties();
+      config.setProperty(QuasarConfiguration.WARP_TRL_PATH, dir.getAbsolutePath());
+
+      // The loader is a singleton, use a dedicated instance
+      Constructor<QuasarTokenRevocationListLoader> constructor = QuasarTokenRevocationListLoader.class.getDeclaredConstructor(Properties.class);
+      constructor.setAccessible(true);
+      QuasarTokenRevocationListLoader loader = constructor.newInstance(config);
+
+      final AtomicReference<QuasarTRL> current = new AtomicReference<QuasarTRL>();
+      final AtomicInteger loads = new AtomicInteger();
+
+      loader.addTrlUpdatedHandler(new QuasarTRLLoadedHandler() {
+        @Override
+        public void onQuasarTRL(QuasarTRL trl) {
+          current.set(trl);
+          loads.incrementAndGet();
+        }
+      });
+
+      String read = "warp.read.1-" + String.format("%032x", 1) + ".trl";
+      writeTrl(dir, read, 1L);
+      writeTrl(dir, "warp.write.1-" + String.format("%032x", 2) + ".trl", 2L);
+
+      loader.loadTrl();
+
+      assert 1 == loads.get();
+      assert current.get().isTokenRevoked(1L);
+      assert current.get().isTokenRevoked(2L);
+
+      // Nothing changed, no new TRL is published
+      loader.loadTrl();
+      assert 1 == loads.get();
+
+      // The file name carries its md5, a file whose name did not change is reused and not read again
+      writeTrl(dir, read, 1L, 3L);
+      // A more recent file replaces the previous one for the same warp.type
+      writeTrl(dir, "warp.write.2-" + String.format("%032x", 4) + ".trl", 4L);
+
+      loader.loadTrl();
+
+      assert 2 == loads.get();
+      assert current.get().isTokenRevoked(1L);
+      assert !current.get().isTokenRevoked(3L);
+      assert !current.get().isTokenRevoked(2L);
+      assert current.get().isTokenRevoked(4L);
+      assert 2 == current.get().getTrlSize();
+
+      // A removed file is dropped
+      new File(dir, read).delete();
+
+      loader.loadTrl();
+
+      assert 3 == loads.get();
+      assert !current.get().isTokenRevoked(1L);
+      assert current.get().isTokenRevoked(4L);
+      assert 1 == current.get().getTrlSize();
+    } finally {
+      for (File file: dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+}
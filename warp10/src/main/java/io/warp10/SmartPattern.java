@@ -93,6 +93,20 @@ public class SmartPattern {
     }
   }
   
+  /**
+   * Return the string this pattern matches exactly or null if the pattern is a regular expression
+   */
+  public String getExactMatch() {
+    return this.string;
+  }
+
+  /**
+   * Return true if the pattern matches any string
+   */
+  public boolean matchesAll() {
+    return this.matchall;
+  }
+
   public boolean matches(String str) {
     if (this.matchall) {
       return true;
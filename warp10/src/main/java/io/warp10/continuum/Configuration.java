@@ -81,6 +81,21 @@ public class Configuration {
    */
   public static final String WARP_PLASMA_MAXSUBS = "warp.plasma.maxsubs";
   
+  /**
+   * Maximum number of publications queued per plasma connection
+   */
+  public static final String WARP_PLASMA_QUEUE_SIZE = "warp.plasma.queue.size";
+  
+  /**
+   * Number of milliseconds to wait for room in the queue of a plasma connection before dropping data, 0 drops immediately
+   */
+  public static final String WARP_PLASMA_QUEUE_WAIT = "warp.plasma.queue.wait";
+  
+  /**
+   * Number of threads sending data to the plasma connections
+   */
+  public static final String WARP_PLASMA_DISPATCHERS = "warp.plasma.dispatchers";
+  
   /**
    * Maximum encoder size (in bytes) for internal data transfers. Use values from 64k to 512k for
    * optimum performance and make sure this size is less than the maximum message size of Kafka
@@ -134,6 +149,24 @@ public class Configuration {
    * The safest behavior is to leave this undefined or set to 'false'.
    */
   public static final String WARPSCRIPT_DEF_UNSHADOW = "warpscript.def.unshadow";
+
+  /**
+   * Set to true to compile macros to a flat instruction array the first time they are executed.
+   * Compiled macros are executed with the same results as interpreted ones but check for
+   * signals once per block of statements instead of once per statement.
+   */
+  public static final String WARPSCRIPT_MACRO_COMPILE = "warpscript.macro.compile";
+
+  /**
+   * Maximum total length in characters of the parsed scripts kept in the parse cache used by /exec
+   * and the runners. Set to 0 (the default) to disable the cache.
+   */
+  public static final String WARPSCRIPT_PARSE_CACHE_SIZE = "warpscript.parse.cache.size";
+
+  /**
+   * Maximum length in characters of the scripts stored in the parse cache
+   */
+  public static final String WARPSCRIPT_PARSE_CACHE_MAXLENGTH = "warpscript.parse.cache.maxlength";
   
   public static final String WARPSCRIPT_MAX_OPS = "warpscript.maxops";
   public static final String WARPSCRIPT_MAX_BUCKETS = "warpscript.maxbuckets";
@@ -171,6 +204,12 @@ public class Configuration {
    */
   public static final String WARPSCRIPT_REXEC_ENABLE = "warpscript.rexec.enable";
 
+  /**
+   * Set to true to XOR encode double values in the wrappers produced by WRAP and its variants.
+   * Such wrappers cannot be unwrapped by versions which do not support XOR encoding.
+   */
+  public static final String WARPSCRIPT_WRAP_DOUBLE_XOR = "warpscript.wrap.double.xor";
+
   public static final String WEBCALL_USER_AGENT = "webcall.user.agent";
 
   /**
@@ -530,6 +569,12 @@ public class Configuration {
    * Number of threads to use for the initial loading of Metadata
    */
   public static final String DIRECTORY_INIT_NTHREADS = "directory.init.nthreads";
+
+  /**
+   * Set to true to maintain an in-memory inverted index of labels in the standalone Directory
+   * so exact and regexp label selectors do not scan all the GTS of the selected classes
+   */
+  public static final String DIRECTORY_LABELS_INDEX = "directory.labels.index";
   
   /**
    * Boolean indicating whether or not we should initialized Directory by reading HBase
@@ -658,6 +703,11 @@ public class Configuration {
    * Set to true to allow attributes to be interpreted as a delta update
    */
   public static final String INGRESS_ATTRIBUTES_ALLOWDELTA = "ingress.attributes.allowdelta";
+
+  /**
+   * Number of series whose decoded name, labels and Ids are cached by the /update endpoint. Defaults to 0 (no cache).
+   */
+  public static final String INGRESS_SERIES_CACHE_SIZE = "ingress.series.cache.size";
   
   /**
    * Should we shuffle the GTS prior to issueing delete messages. Set to true or false.
@@ -1440,6 +1490,26 @@ public class Configuration {
    */
   public static final String LEVELDB_DATA_SYNCRATE = "leveldb.data.syncrate";
 
+  /**
+   * Time span (in platform time units) of the blocks of datapoints stored under a single LevelDB key.
+   * When unset or 0, each datapoint is stored under its own key.
+   * Changing this value requires migrating the existing data using WarpBlockMigrate, Warp 10
+   * will not start if the layout recorded in LevelDB differs from this value.
+   */
+  public static final String LEVELDB_DATA_BLOCKSPAN = "leveldb.data.blockspan";
+
+  /**
+   * Maximum number of datapoints stored in a block (see leveldb.data.blockspan), defaults to 10000.
+   * When a block is full, the datapoints in excess are stored in new blocks of the same time span.
+   */
+  public static final String LEVELDB_DATA_BLOCK_MAXSIZE = "leveldb.data.block.maxsize";
+
+  /**
+   * Set to true to XOR encode the double values stored in blocks (see leveldb.data.blockspan).
+   * Data written with this option cannot be read by versions which do not support XOR encoding.
+   */
+  public static final String LEVELDB_DATA_DOUBLE_XOR = "leveldb.data.double.xor";
+
   /**
    * Rate of synchronous writes for the directory writes.
    * This is a double between 0.0 (all writes asynchronous) and 1.0 (all writes synchronous)
@@ -1476,6 +1546,12 @@ public class Configuration {
    * AES key to use for wrapping datapoints prior to storage in leveldb
    */
   public static final String LEVELDB_DATA_AES = "leveldb.data.aes";
+
+  /**
+   * Set to true to encrypt datapoints using AES-GCM instead of AES key wrap. AES-GCM uses the AES instructions
+   * of the CPU. Data written with this option cannot be read by versions which do not support AES-GCM.
+   */
+  public static final String LEVELDB_DATA_AES_GCM = "leveldb.data.aes.gcm";
   
   /**
    * Cache size for leveldb (in bytes)
@@ -1599,6 +1675,12 @@ public class Configuration {
    * Pre-shared AES key to wrap datalog.id and datalog.timestamp header values
    */
   public static final String DATALOG_PSK = "datalog.psk";
+
+  /**
+   * Set to true to encrypt datalog requests using AES-GCM instead of AES key wrap. Requests encrypted
+   * this way cannot be read by versions which do not support AES-GCM.
+   */
+  public static final String DATALOG_PSK_GCM = "datalog.psk.gcm";
   
   /**
    * Flag indicating whether or not to log forwarded requests.
@@ -1841,6 +1923,12 @@ public class Configuration {
    */
   public static final String ACCELERATOR_GC_MAXALLOC = "accelerator.gc.maxalloc";  
 
+  /**
+   * Set to 'true' to serve fetches whose time range starts before the accelerated range using both
+   * the accelerator, for the accelerated range, and the persistent store, for the older data and boundaries.
+   */
+  public static final String ACCELERATOR_HYBRID = "accelerator.hybrid";
+
   /**
    * Set to 'true' to indicate the instance will use memory only for storage. This type of instance is non persistent.
    */
@@ -1881,12 +1969,34 @@ public class Configuration {
    * Length of each chunk (in time units), defaults to Long.MAX_VALUE
    */
   public static final String IN_MEMORY_CHUNK_LENGTH = "in.memory.chunk.length";
+
+  /**
+   * Set to true to XOR encode the double values stored in the chunks of the in-memory store.
+   * Dumps produced with this option cannot be loaded by versions which do not support XOR encoding.
+   */
+  public static final String IN_MEMORY_DOUBLE_XOR = "in.memory.double.xor";
+
+  /**
+   * Set to true to move the content of non current chunks of the in-memory store off heap.
+   */
+  public static final String IN_MEMORY_OFFHEAP = "in.memory.offheap";
+
+  /**
+   * Size in bytes of the slabs of direct memory allocated for storing chunks off heap, rounded down to a power of 2.
+   */
+  public static final String IN_MEMORY_OFFHEAP_SLAB_SIZE = "in.memory.offheap.slab.size";
   
   /**
    * Path to a dump file containing the state of an in-memory Warp 10 to restore.
    */
   public static final String STANDALONE_MEMORY_STORE_LOAD = "in.memory.load";
   
+  /**
+   * Set to true to dump the in-memory store as a snapshot which is memory mapped when loaded,
+   * its chunks being adopted lazily. The format of the file to load is detected automatically.
+   */
+  public static final String STANDALONE_MEMORY_STORE_DUMP_SNAPSHOT = "in.memory.dump.snapshot";
+
   /**
    * Path to a dump file in which the current state of an in-memory Warp 10 will be persisted.
    */
@@ -2059,6 +2169,42 @@ public class Configuration {
    */
   public static final String STANDALONE_PARALLELSCANNERS_MAX_PARALLEL_SCANNERS = "standalone.parallelscanners.max.parallel.scanners";
 
+  /**
+   * Number of threads of the work stealing pool used to scan the partitions of fetch requests
+   * in the standalone version. Use 0 (the default) to disable partitioned fetches.
+   */
+  public static final String STANDALONE_FETCH_PARTITIONS_POOLSIZE = "standalone.fetch.partitions.poolsize";
+
+  /**
+   * Maximum number of partitions of a single fetch request which are scanned concurrently. Defaults to 4.
+   */
+  public static final String STANDALONE_FETCH_PARTITIONS_MAXINFLIGHT = "standalone.fetch.partitions.maxinflight";
+
+  /**
+   * Minimum number of GTS per partition of a fetch request. Requests for fewer GTS are not partitioned. Defaults to 8.
+   */
+  public static final String STANDALONE_FETCH_PARTITIONS_MIN_GTS = "standalone.fetch.partitions.min.gts";
+
+  /**
+   * Maximum number of partitions a fetch request is split into. Defaults to 16.
+   */
+  public static final String STANDALONE_FETCH_PARTITIONS_MAX = "standalone.fetch.partitions.max";
+
+  /**
+   * Maximum number of store lanes an update request can ask for via the parallelism header. Defaults to 0 (no pipelining).
+   */
+  public static final String STANDALONE_UPDATE_PIPELINE_MAXLANES = "standalone.update.pipeline.maxlanes";
+
+  /**
+   * Number of encoders or Metadata buffered by each lane of the update pipeline. Defaults to 16.
+   */
+  public static final String STANDALONE_UPDATE_PIPELINE_QUEUESIZE = "standalone.update.pipeline.queuesize";
+
+  /**
+   * Number of threads shared by the lanes of all the update pipelines. Defaults to twice the number of available processors.
+   */
+  public static final String STANDALONE_UPDATE_PIPELINE_THREADS = "standalone.update.pipeline.threads";
+
   /**
    * Geo Time Series count threshold above which block caching will be disabled for HBase scanners.
    * The goal is to limit the cache pollution when scanning large chunks of data.
@@ -2155,6 +2301,16 @@ public class Configuration {
    */
   public static final String THROTTLING_MANAGER_MAXWAIT_DEFAULT = "throttling.manager.maxwait.default";
 
+  /**
+   * Maximum number of DDP permits a thread acquires at once and consumes locally, 1 disables batching
+   */
+  public static final String THROTTLING_MANAGER_PERMITS_BATCH = "throttling.manager.permits.batch";
+
+  /**
+   * Number of milliseconds after which the permits a thread acquired in advance and did not use are dropped
+   */
+  public static final String THROTTLING_MANAGER_PERMITS_TTL = "throttling.manager.permits.ttl";
+
   //
   // Jar Repository
   //
@@ -2350,6 +2506,11 @@ public class Configuration {
    * HTTP Header for specifying attribute parsing type
    */
   public static final String HTTP_HEADER_ATTRIBUTES = "http.header.attributes";
+
+  /**
+   * HTTP Header for specifying the number of store lanes of an update request (standalone only)
+   */
+  public static final String HTTP_HEADER_UPDATE_PARALLELISM = "http.header.update.parallelism";
   
   /**
    * HTTP Header for specifying the timespan in /sfetch requests
@@ -24,15 +24,17 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -62,6 +64,9 @@ import kafka.producer.ProducerConfig;
  * This class manages the throttling of data ingestion.
  * It controls both DDP (Daily Data Points) and MADS (Monthly Active Device Streams).
  * 
+ * The checks do not take any lock shared by all ingestion threads. The limits read from the
+ * throttle files are published as an immutable snapshot replaced by the loader thread, estimators
+ * are looked up in a concurrent map and DDP permits can be acquired by batches.
  */
 public class ThrottlingManager {
 
@@ -122,6 +127,27 @@ public class ThrottlingManager {
    */
   private static final long MAXWAIT_PER_DATAPOINT_DEFAULT = 10L;
   
+  /**
+   * Maximum number of permits a thread acquires at once, 1 means permits are not batched
+   */
+  private static int PERMITS_BATCH = 1;
+  
+  /**
+   * Number of ms after which unused permits are dropped
+   */
+  private static long PERMITS_TTL = 1000L;
+  
+  /**
+   * Permits acquired in advance by the current thread, per limiter. Weak keys so the limiters replaced
+   * by a reload can be collected.
+   */
+  private static final ThreadLocal<Map<RateLimiter,long[]>> permits = new ThreadLocal<Map<RateLimiter,long[]>>() {
+    @Override
+    protected Map<RateLimiter,long[]> initialValue() {
+      return new WeakHashMap<RateLimiter,long[]>();
+    }
+  };
+  
   /**
    * Number of milliseconds in a 30 days period
    */
@@ -140,60 +166,251 @@ public class ThrottlingManager {
   private static final double toleranceRatio = 1.0D + (1.04D / Math.sqrt(1L << DEFAULT_P));
 
   /**
-   * Rate limiters to control the rate of datapoints ingestion per producer
+   * Limits read from the throttle files. The loader thread never modifies a published instance,
+   * it publishes a modified copy instead.
    */
-  private static Map<String,RateLimiter> producerRateLimiters = new HashMap<String, RateLimiter>();
+  private static final class Limits {
+    /**
+     * Rate limiters to control the rate of datapoints ingestion per producer
+     */
+    private final Map<String,RateLimiter> producerRateLimiters;
 
-  /**
-   * Rate limiters to control the rate of datapoints ingestion per application
-   */
-  private static Map<String,RateLimiter> applicationRateLimiters = new HashMap<String, RateLimiter>();
+    /**
+     * Rate limiters to control the rate of datapoints ingestion per application
+     */
+    private final Map<String,RateLimiter> applicationRateLimiters;
+    
+    /**
+     * Map of per producer MADS (Monthly Active Data Streams) limits
+     */
+    private final Map<String,Long> producerMADSLimits;
 
+    /**
+     * Map of per application MADS (Monthly Active Data Streams) limits
+     */
+    private final Map<String,Long> applicationMADSLimits;
+    
+    private Limits() {
+      this.producerRateLimiters = new HashMap<String, RateLimiter>();
+      this.applicationRateLimiters = new HashMap<String, RateLimiter>();
+      this.producerMADSLimits = new HashMap<String, Long>();
+      this.applicationMADSLimits = new HashMap<String, Long>();
+    }
+    
+    private Limits(Limits limits) {
+      this.producerRateLimiters = new HashMap<String, RateLimiter>(limits.producerRateLimiters);
+      this.applicationRateLimiters = new HashMap<String, RateLimiter>(limits.applicationRateLimiters);
+      this.producerMADSLimits = new HashMap<String, Long>(limits.producerMADSLimits);
+      this.applicationMADSLimits = new HashMap<String, Long>(limits.applicationMADSLimits);
+    }
+  }
+  
   /**
-   * Map of estimators for producers
+   * Bounded map of estimators. Lookups do not lock, each entry records the time it was last
+   * accessed. Entries are also kept in insertion order in a queue, when the map grows above
+   * ESTIMATOR_CACHE_SIZE the entry at the head of the queue is evicted unless it was accessed
+   * since it was queued, it is then queued again (second chance), which approximates LRU
+   * without scanning the map. Modifications are serialized.
    */
-  private static Map<String,HyperLogLogPlus> producerHLLPEstimators = new LinkedHashMap<String, HyperLogLogPlus>() {
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, HyperLogLogPlus> eldest) {
-      //
-      // Update estimator cache size
-      //
-
-      boolean overflow = this.size() > ESTIMATOR_CACHE_SIZE;
+  private static final class Estimators {
+    
+    private static final class Entry {
+      private final String key;
+      private final HyperLogLogPlus hllp;
+      private volatile long access;
       
-      if (!overflow) {
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED, Sensision.EMPTY_LABELS, this.size());
+      /**
+       * Time at which the entry was last queued, only accessed with the lock held
+       */
+      private long queued;
+      
+      private Entry(String key, HyperLogLogPlus hllp) {
+        this.key = key;
+        this.hllp = hllp;
+        this.access = System.currentTimeMillis();
+        this.queued = this.access;
       }
+    }
+    
+    private final ConcurrentHashMap<String,Entry> map = new ConcurrentHashMap<String,Entry>();
+    
+    /**
+     * Entries in the order they were queued, may contain entries which were since removed or replaced
+     */
+    private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+    
+    /**
+     * Sensision class of the number of cached estimators
+     */
+    private final String sizeClass;
+    
+    private Estimators(String sizeClass) {
+      this.sizeClass = sizeClass;
+    }
+    
+    private static void touch(Entry entry) {
+      long now = System.currentTimeMillis();
+      // Only write when the value changes so concurrent readers do not keep invalidating the entry
+      if (entry.access != now) {
+        entry.access = now;
+      }
+    }
+    
+    private HyperLogLogPlus get(String key) {
+      if (null == key) {
+        return null;
+      }
+      
+      Entry entry = this.map.get(key);
+      
+      if (null == entry) {
+        return null;
+      }
+      
+      touch(entry);
       
-      return overflow;
+      return entry.hllp;
     }
-  };
-
-  /**
-   * Map of estimators for applications
-   */
-  private static Map<String,HyperLogLogPlus> applicationHLLPEstimators = new LinkedHashMap<String, HyperLogLogPlus>() {
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, HyperLogLogPlus> eldest) {
+    
+    /**
+     * Retrieve the estimator for 'key', allocate a new one if there is none or if it has expired
+     * 
+     * @param hllpKey Key to set on a newly allocated estimator
+     */
+    private HyperLogLogPlus getOrCreate(String key, String hllpKey) throws IOException {
+      Entry entry = this.map.get(key);
+      
+      if (null != entry && !entry.hllp.hasExpired()) {
+        touch(entry);
+        return entry.hllp;
+      }
+      
+      synchronized(this) {
+        entry = this.map.get(key);
+        
+        if (null == entry || entry.hllp.hasExpired()) {
+          HyperLogLogPlus hllp = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
+          hllp.toNormal();
+          hllp.setKey(hllpKey);
+          entry = new Entry(key, hllp);
+          this.map.put(key, entry);
+          this.queue.add(entry);
+          evict(entry);
+        }
+      }
+      
+      return entry.hllp;
+    }
+    
+    private void put(String key, HyperLogLogPlus hllp) {
+      synchronized(this) {
+        Entry entry = new Entry(key, hllp);
+        this.map.put(key, entry);
+        this.queue.add(entry);
+        evict(entry);
+      }
+    }
+    
+    private void remove(String key) {
+      synchronized(this) {
+        this.map.remove(key);
+      }
+    }
+    
+    private boolean isEmpty() {
+      return this.map.isEmpty();
+    }
+    
+    /**
+     * @return a copy of the current estimators
+     */
+    private Map<String,HyperLogLogPlus> snapshot() {
+      Map<String,HyperLogLogPlus> estimators = new HashMap<String,HyperLogLogPlus>(this.map.size());
+      for (Map.Entry<String,Entry> entry: this.map.entrySet()) {
+        estimators.put(entry.getKey(), entry.getValue().hllp);
+      }
+      return estimators;
+    }
+    
+    /**
+     * Evict entries not accessed since they were queued, must be called with the lock held
+     * 
+     * @param keep Entry just added, never evicted
+     */
+    private void evict(Entry keep) {
+      // Bound the number of second chances so concurrent accesses cannot keep us looping
+      int chances = this.queue.size();
+      
+      while (this.map.size() > ESTIMATOR_CACHE_SIZE) {
+        Entry entry = this.queue.poll();
+        
+        if (null == entry) {
+          break;
+        }
+        
+        // Entry removed or replaced since it was queued
+        if (entry != this.map.get(entry.key)) {
+          continue;
+        }
+        
+        if (entry == keep) {
+          this.queue.add(entry);
+          continue;
+        }
+        
+        if (entry.access > entry.queued && chances-- > 0) {
+          // Accessed since it was queued, give it a second chance
+          entry.queued = System.currentTimeMillis();
+          this.queue.add(entry);
+          continue;
+        }
+        
+        this.map.remove(entry.key);
+      }
+      
       //
-      // Update estimator cache size
+      // Drop the entries which were removed or replaced if they make up most of the queue
       //
-
-      boolean overflow = this.size() > ESTIMATOR_CACHE_SIZE;
       
-      if (!overflow) {
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP, Sensision.EMPTY_LABELS, this.size());
+      if (this.queue.size() > 2 * this.map.size() + 16) {
+        Iterator<Entry> iter = this.queue.iterator();
+        while (iter.hasNext()) {
+          Entry entry = iter.next();
+          if (entry != this.map.get(entry.key)) {
+            iter.remove();
+          }
+        }
       }
       
-      return overflow;
+      Sensision.set(this.sizeClass, Sensision.EMPTY_LABELS, this.map.size());
     }
-  };
+  }
+  
+  /**
+   * Current limits
+   */
+  private static volatile Limits limits = new Limits();
+  
+  /**
+   * Rate limiters created with the default rate for the producers which have no configured rate
+   */
+  private static final Map<String,RateLimiter> defaultProducerRateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+  
+  /**
+   * Map of estimators for producers
+   */
+  private static final Estimators producerHLLPEstimators = new Estimators(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED);
+
+  /**
+   * Map of estimators for applications
+   */
+  private static final Estimators applicationHLLPEstimators = new Estimators(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP);
 
   private static AtomicBoolean initialized = new AtomicBoolean(false);
 
-  private static boolean loaded = false;
+  private static volatile boolean loaded = false;
   
-  private static boolean enabled = false;
+  private static volatile boolean enabled = false;
   
   private static Producer<byte[],byte[]> throttlingProducer = null;
   private static String throttlingTopic = null;
@@ -205,16 +422,6 @@ public class ThrottlingManager {
     init();
   }
   
-  /**
-   * Map of per producer MADS (Monthly Active Data Streams) limits
-   */
-  private static Map<String,Long> producerMADSLimits = new HashMap<String, Long>();
-
-  /**
-   * Map of per application MADS (Monthly Active Data Streams) limits
-   */
-  private static Map<String,Long> applicationMADSLimits = new HashMap<String, Long>();
-
   /**
    * Check compatibility of a GTS with the current MADS limit
    * 
@@ -232,17 +439,19 @@ public class ThrottlingManager {
       return;
     }
     
+    Limits limits = ThrottlingManager.limits;
+    
     //
     // Retrieve per producer limit
     //
     
-    Long oProducerLimit = producerMADSLimits.get(producer);
+    Long oProducerLimit = limits.producerMADSLimits.get(producer);
 
     //
     // Extract per application limit
     //
     
-    Long oApplicationLimit = applicationMADSLimits.get(application);
+    Long oApplicationLimit = limits.applicationMADSLimits.get(application);
     
     // If there is no per producer limit, check the default one
     
@@ -286,20 +495,12 @@ public class ThrottlingManager {
     HyperLogLogPlus producerHLLP = null;
     
     if (-1 != producerLimit) {
-      synchronized(producerHLLPEstimators) {
-        producerHLLP = producerHLLPEstimators.get(producer);
-        // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
-        if (null == producerHLLP || producerHLLP.hasExpired()) {
-          producerHLLP = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
-          try {
-            producerHLLP.toNormal();
-          } catch (IOException ioe) {
-            throw new WarpException(ioe);
-          }
-          producerHLLP.setKey(producer);
-          producerHLLPEstimators.put(producer, producerHLLP);
-        }
-      }      
+      // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
+      try {
+        producerHLLP = producerHLLPEstimators.getOrCreate(producer, producer);
+      } catch (IOException ioe) {
+        throw new WarpException(ioe);
+      }
     }
     
     //
@@ -325,19 +526,11 @@ public class ThrottlingManager {
     if (null != oApplicationLimit) {
       applicationLimit = oApplicationLimit;
       
-      synchronized(applicationHLLPEstimators) {
-        applicationHLLP = applicationHLLPEstimators.get(application);
-        // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
-        if (null == applicationHLLP || applicationHLLP.hasExpired()) {
-          applicationHLLP = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
-          try {
-            applicationHLLP.toNormal();
-          } catch (IOException ioe) {
-            throw new WarpException(ioe);
-          }
-          applicationHLLP.setKey(APPLICATION_PREFIX_CHAR + application);
-          applicationHLLPEstimators.put(application, applicationHLLP);
-        }
+      // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
+      try {
+        applicationHLLP = applicationHLLPEstimators.getOrCreate(application, APPLICATION_PREFIX_CHAR + application);
+      } catch (IOException ioe) {
+        throw new WarpException(ioe);
       }
     }
     
@@ -428,12 +621,14 @@ public class ThrottlingManager {
       return;
     }
     
+    Limits limits = ThrottlingManager.limits;
+    
     //
     // Extract RateLimiter
     //
     
-    RateLimiter producerLimiter = producerRateLimiters.get(producer);
-    RateLimiter applicationLimiter = applicationRateLimiters.get(application);
+    RateLimiter producerLimiter = limits.producerRateLimiters.get(producer);
+    RateLimiter applicationLimiter = limits.applicationRateLimiters.get(application);
     
     //
     // TODO(hbs): store per producer/per app maxwait values? Extract them from the throttling file?
@@ -445,15 +640,22 @@ public class ThrottlingManager {
     // -1.0 as the default rate means do not enforce DDP limit
     if (null == producerLimiter && null == applicationLimiter && -1.0D == DEFAULT_RATE_PRODUCER) {      
       return;
-    } else if (null == producerLimiter && -1.0D != DEFAULT_RATE_PRODUCER) {
-      // Create a rate limiter with the default rate      
-      producerLimiter = RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT,DEFAULT_RATE_PRODUCER));
-      producerRateLimiters.put(producer, producerLimiter);
+    } else if (null == producerLimiter && -1.0D != DEFAULT_RATE_PRODUCER && null != producer) {
+      producerLimiter = defaultProducerRateLimiters.get(producer);
+      
+      if (null == producerLimiter) {
+        // Create a rate limiter with the default rate, unless another thread just did
+        RateLimiter limiter = RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT,DEFAULT_RATE_PRODUCER));
+        producerLimiter = defaultProducerRateLimiters.putIfAbsent(producer, limiter);
+        if (null == producerLimiter) {
+          producerLimiter = limiter;
+        }
+      }
     }
      
     // Check per application limiter
     if (null != applicationLimiter) {
-      if (!applicationLimiter.tryAcquire(count, appMaxWait * count, TimeUnit.MILLISECONDS)) {
+      if (!acquire(applicationLimiter, count, appMaxWait * count)) {
         StringBuilder sb = new StringBuilder();
         sb.append("Storing data for ");
         if (null != metadata) {
@@ -476,7 +678,7 @@ public class ThrottlingManager {
       return;
     }
     
-    if (!producerLimiter.tryAcquire(count, producerMaxWait * count, TimeUnit.MILLISECONDS)) {
+    if (!acquire(producerLimiter, count, producerMaxWait * count)) {
       StringBuilder sb = new StringBuilder();
       sb.append("Storing data for ");
       if (null != metadata) {
@@ -499,14 +701,78 @@ public class ThrottlingManager {
     checkDDP(metadata, producer, owner, application, count, MAXWAIT_PER_DATAPOINT, expose);
   }
   
+  /**
+   * Acquire permits from a limiter. When batching is enabled the current thread first consumes the
+   * permits it acquired in advance, if those do not suffice it acquires up to PERMITS_BATCH permits at
+   * once, keeping the surplus for its next calls. The surplus never exceeds what the limiter grants
+   * in PERMITS_TTL ms and is dropped if not used within PERMITS_TTL ms, so the rate is never exceeded.
+   * 
+   * @param timeout Maximum number of ms to wait for the permits
+   * @return true if the permits were acquired
+   */
+  private static boolean acquire(RateLimiter limiter, int count, long timeout) {
+    if (PERMITS_BATCH <= 1) {
+      return limiter.tryAcquire(count, timeout, TimeUnit.MILLISECONDS);
+    }
+    
+    Map<RateLimiter,long[]> credits = permits.get();
+    
+    // Number of permits available and their expiry
+    long[] credit = credits.get(limiter);
+    
+    long now = System.currentTimeMillis();
+    
+    if (null != credit) {
+      if (credit[1] < now) {
+        credit[0] = 0L;
+      }
+      
+      if (credit[0] >= count) {
+        credit[0] -= count;
+        return true;
+      }
+    }
+    
+    int needed = null == credit ? count : (int) (count - credit[0]);
+    
+    // The wait of RateLimiter only depends on the permits previously granted, so acquiring more permits
+    // than needed does not change the outcome of this call, the surplus is paid for by the next callers.
+    int batch = (int) Math.min(PERMITS_BATCH, limiter.getRate() * PERMITS_TTL / 1000.0D);
+    
+    int acquired = Math.max(needed, batch);
+    
+    if (!limiter.tryAcquire(acquired, timeout, TimeUnit.MILLISECONDS)) {
+      return false;
+    }
+    
+    if (acquired > needed) {
+      if (null == credit) {
+        credit = new long[2];
+        credits.put(limiter, credit);
+      }
+      credit[0] = acquired - needed;
+      credit[1] = System.currentTimeMillis() + PERMITS_TTL;
+    } else if (null != credit) {
+      credit[0] = 0L;
+    }
+    
+    return true;
+  }
+  
   public static Map<String,Object> getLimits(String producer, String app) {
     Map<String,Object> limits = new HashMap<String, Object>();
     
-    RateLimiter producerLimiter = producerRateLimiters.get(producer);
-    RateLimiter applicationLimiter = applicationRateLimiters.get(app);
+    Limits current = ThrottlingManager.limits;
+    
+    RateLimiter producerLimiter = current.producerRateLimiters.get(producer);
+    RateLimiter applicationLimiter = current.applicationRateLimiters.get(app);
 
-    Long oProducerLimit = producerMADSLimits.get(producer);
-    Long oApplicationLimit = applicationMADSLimits.get(app);
+    if (null == producerLimiter && null != producer) {
+      producerLimiter = defaultProducerRateLimiters.get(producer);
+    }
+    
+    Long oProducerLimit = current.producerMADSLimits.get(producer);
+    Long oApplicationLimit = current.applicationMADSLimits.get(app);
 
     long producerLimit = Long.MAX_VALUE;
     long applicationLimit = Long.MAX_VALUE;
@@ -588,6 +854,9 @@ public class ThrottlingManager {
 
     MAXWAIT_PER_DATAPOINT = Long.parseLong(WarpConfig.getProperty(Configuration.THROTTLING_MANAGER_MAXWAIT_DEFAULT, Long.toString(MAXWAIT_PER_DATAPOINT_DEFAULT)));
 
+    PERMITS_BATCH = Integer.parseInt(WarpConfig.getProperty(Configuration.THROTTLING_MANAGER_PERMITS_BATCH, Integer.toString(PERMITS_BATCH)));
+    PERMITS_TTL = Long.parseLong(WarpConfig.getProperty(Configuration.THROTTLING_MANAGER_PERMITS_TTL, Long.toString(PERMITS_TTL)));
+
     //
     // Start the thread which will read the throttling configuration periodically
     //
@@ -713,13 +982,24 @@ public class ThrottlingManager {
           Arrays.sort(files);
           
           Set<String> newreads = new HashSet<String>();
-                    
+          
+          //
+          // Limits are modified on a copy which is published once all files have been read,
+          // so the ingestion threads are never blocked by a reload
+          //
+          
+          Limits newlimits = null;
+          
           for (String file: files) {
             if (read.contains(file)) {
               newreads.add(file);
               continue;
             }
             
+            if (null == newlimits) {
+              newlimits = new Limits(limits);
+            }
+            
             //
             // Read each line
             //
@@ -771,23 +1051,19 @@ public class ThrottlingManager {
                   //
                   
                   if (isProducer) {
-                    synchronized(producerHLLPEstimators) {
-                      producerHLLPEstimators.remove(entity);
-                      Map<String,String> labels = new HashMap<String, String>();
-                      labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
-                      Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels);
-                      Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS, labels, 1);
-                    }
+                    producerHLLPEstimators.remove(entity);
+                    Map<String,String> labels = new HashMap<String, String>();
+                    labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
+                    Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels);
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0);
+                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS, labels, 1);
                   } else {
-                    synchronized(applicationHLLPEstimators) {
-                      applicationHLLPEstimators.remove(entity);
-                      Map<String,String> labels = new HashMap<String, String>();
-                      labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
-                      Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels);
-                      Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS_PER_APP, labels, 1);
-                    }
+                    applicationHLLPEstimators.remove(entity);
+                    Map<String,String> labels = new HashMap<String, String>();
+                    labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
+                    Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels);
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0);
+                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS_PER_APP, labels, 1);
                   }
                 } else if (!"".equals(estimator)) {                  
                   byte[] ser = OrderPreservingBase64.decode(estimator.getBytes(StandardCharsets.US_ASCII));
@@ -822,9 +1098,7 @@ public class ThrottlingManager {
                       
                       hllp.setKey(entity);
                       
-                      synchronized(producerHLLPEstimators) {
-                        producerHLLPEstimators.put(entity, hllp);                      
-                      }
+                      producerHLLPEstimators.put(entity, hllp);
                     } else {
                       old.fuse(hllp);
                     }                    
@@ -839,9 +1113,7 @@ public class ThrottlingManager {
 
                       hllp.setKey(APPLICATION_PREFIX_CHAR + entity);
                       
-                      synchronized(applicationHLLPEstimators) {
-                        applicationHLLPEstimators.put(entity, hllp);                      
-                      }
+                      applicationHLLPEstimators.put(entity, hllp);
                     } else {
                       old.fuse(hllp);
                     }
@@ -857,11 +1129,11 @@ public class ThrottlingManager {
                   Map<String,String> labels = new HashMap<String, String>();
                   
                   if (isProducer) {
-                    producerMADSLimits.put(entity, limit);
+                    newlimits.producerMADSLimits.put(entity, limit);
                     labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
                     Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_LIMIT, labels, limit);
                   } else {
-                    applicationMADSLimits.put(entity, limit);                                        
+                    newlimits.applicationMADSLimits.put(entity, limit);
                     labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
                     Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_GTS_LIMIT_PER_APP, labels, limit);
                   }
@@ -873,19 +1145,21 @@ public class ThrottlingManager {
                   double rlimit = Double.parseDouble(rate);
                   
                   if (isProducer) {
-                    producerRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    newlimits.producerRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    defaultProducerRateLimiters.remove(entity);
                     labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
                     Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT, labels, rlimit);
                   } else {
-                    applicationRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    newlimits.applicationRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
                     labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
                     Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT_PER_APP, labels, rlimit);
                   }
                 } else {
                   if (isProducer) {
-                    producerRateLimiters.remove(entity);
+                    newlimits.producerRateLimiters.remove(entity);
+                    defaultProducerRateLimiters.remove(entity);
                   } else {
-                    applicationRateLimiters.remove(entity);
+                    newlimits.applicationRateLimiters.remove(entity);
                   }
                 }
                 
@@ -899,6 +1173,10 @@ public class ThrottlingManager {
             }            
           }
 
+          if (null != newlimits) {
+            limits = newlimits;
+          }
+          
           loaded = true;
           
           //
@@ -914,63 +1192,60 @@ public class ThrottlingManager {
           TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
               
           if (System.currentTimeMillis() - now > rampup) {
-            try {
-              for (Map.Entry<String, HyperLogLogPlus> keyAndHllp: producerHLLPEstimators.entrySet()) {
-                String key = keyAndHllp.getKey();
-                HyperLogLogPlus hllp = keyAndHllp.getValue();
-                
-                if (null == hllp) {
-                  continue;
-                }
-                
-                if (hllp.hasExpired()) {
-                  Map<String,String> labels = new HashMap<String, String>();
-                  labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, key);
-                  Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0, 24 * 3600 * 1000L);              
-                  continue;
-                }
-                
-                try {
-                  byte[] bytes = hllp.toBytes();
-                  String encoded = new String(OrderPreservingBase64.encode(bytes), StandardCharsets.US_ASCII);
-                  Map<String,String> labels = new HashMap<String, String>();
-                  labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, key);
-                  Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, hllp.cardinality());              
-                  Sensision.event(0L, null, null, null, SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_ESTIMATOR, labels, encoded);
-                  broadcastEstimator(bytes);
-                } catch (IOException ioe) {
-                  // Ignore exception
-                }
+            for (Map.Entry<String, HyperLogLogPlus> keyAndHllp: producerHLLPEstimators.snapshot().entrySet()) {
+              String key = keyAndHllp.getKey();
+              HyperLogLogPlus hllp = keyAndHllp.getValue();
+              
+              if (null == hllp) {
+                continue;
               }
+              
+              if (hllp.hasExpired()) {
+                Map<String,String> labels = new HashMap<String, String>();
+                labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, key);
+                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0, 24 * 3600 * 1000L);              
+                continue;
+              }
+              
+              try {
+                byte[] bytes = hllp.toBytes();
+                String encoded = new String(OrderPreservingBase64.encode(bytes), StandardCharsets.US_ASCII);
+                Map<String,String> labels = new HashMap<String, String>();
+                labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, key);
+                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, hllp.cardinality());              
+                Sensision.event(0L, null, null, null, SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_ESTIMATOR, labels, encoded);
+                broadcastEstimator(bytes);
+              } catch (IOException ioe) {
+                // Ignore exception
+              }
+            }
 
-              for (Map.Entry<String, HyperLogLogPlus> keyAndHllp: applicationHLLPEstimators.entrySet()) {
-                String key = keyAndHllp.getKey();
-                HyperLogLogPlus hllp = keyAndHllp.getValue();
+            for (Map.Entry<String, HyperLogLogPlus> keyAndHllp: applicationHLLPEstimators.snapshot().entrySet()) {
+              String key = keyAndHllp.getKey();
+              HyperLogLogPlus hllp = keyAndHllp.getValue();
 
-                if (null == hllp) {
-                  continue;
-                }
-                
-                if (hllp.hasExpired()) {
-                  Map<String,String> labels = new HashMap<String, String>();
-                  labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, key);
-                  Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0L, 24 * 3600 * 1000L);
-                  continue;
-                }
-                
-                try {
-                  byte[] bytes = hllp.toBytes();
-                  String encoded = new String(OrderPreservingBase64.encode(bytes), StandardCharsets.US_ASCII);
-                  Map<String,String> labels = new HashMap<String, String>();
-                  labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, key);
-                  Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, hllp.cardinality());
-                  Sensision.event(0L, null, null, null, SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_ESTIMATOR_PER_APP, labels, encoded);
-                  broadcastEstimator(bytes);
-                } catch (IOException ioe) {
-                  // Ignore exception
-                }
-              }            
-            } catch (ConcurrentModificationException cme) {              
+              if (null == hllp) {
+                continue;
+              }
+              
+              if (hllp.hasExpired()) {
+                Map<String,String> labels = new HashMap<String, String>();
+                labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, key);
+                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0L, 24 * 3600 * 1000L);
+                continue;
+              }
+              
+              try {
+                byte[] bytes = hllp.toBytes();
+                String encoded = new String(OrderPreservingBase64.encode(bytes), StandardCharsets.US_ASCII);
+                Map<String,String> labels = new HashMap<String, String>();
+                labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, key);
+                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, hllp.cardinality());
+                Sensision.event(0L, null, null, null, SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_ESTIMATOR_PER_APP, labels, encoded);
+                broadcastEstimator(bytes);
+              } catch (IOException ioe) {
+                // Ignore exception
+              }
             }            
           }
 
@@ -1055,9 +1330,7 @@ public class ThrottlingManager {
           hllp.fuse(old);
         }
 
-        synchronized(applicationHLLPEstimators) {
-          applicationHLLPEstimators.put(hllp.getKey().substring(1), hllp);                      
-        }
+        applicationHLLPEstimators.put(hllp.getKey().substring(1), hllp);
         Map<String,String> labels = new HashMap<String,String>(1);
         labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, hllp.getKey().substring(1));
         Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, hllp.cardinality());
@@ -1080,9 +1353,7 @@ public class ThrottlingManager {
           hllp.fuse(old);
         }
         
-        synchronized(producerHLLPEstimators) {
-          producerHLLPEstimators.put(hllp.getKey(), hllp);                      
-        }
+        producerHLLPEstimators.put(hllp.getKey(), hllp);
         
         Map<String,String> labels = new HashMap<String,String>(1);
         labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, hllp.getKey());
@@ -1112,47 +1383,57 @@ public class ThrottlingManager {
         pw.println("### Automatic throttling configuration dumped on " + ISODateTimeFormat.dateTime().print(System.currentTimeMillis()));
         pw.println("###");
         
-        Set<String> keys = producerHLLPEstimators.keySet();
-        keys.addAll(producerRateLimiters.keySet());
+        Limits limits = ThrottlingManager.limits;
+        
+        Map<String,RateLimiter> rateLimiters = new HashMap<String,RateLimiter>(defaultProducerRateLimiters);
+        rateLimiters.putAll(limits.producerRateLimiters);
+        
+        Map<String,HyperLogLogPlus> estimators = producerHLLPEstimators.snapshot();
+        
+        // Copy the keys, adding to the key set would modify the map
+        Set<String> keys = new HashSet<String>(estimators.keySet());
+        keys.addAll(rateLimiters.keySet());
 
         for (String key: keys) {
           pw.print(key);
           pw.print(":");
-          Long limit = producerMADSLimits.get(key);
+          Long limit = limits.producerMADSLimits.get(key);
           if (null != limit) {
             pw.print(limit);
           }
           pw.print(":");
-          RateLimiter limiter = producerRateLimiters.get(key);
+          RateLimiter limiter = rateLimiters.get(key);
           if (null != limiter) {
             pw.print(limiter.getRate());
           }
           pw.print(":");
-          if (producerHLLPEstimators.containsKey(key)) {
-            pw.print(new String(OrderPreservingBase64.encode(producerHLLPEstimators.get(key).toBytes()), StandardCharsets.US_ASCII));
+          if (estimators.containsKey(key)) {
+            pw.print(new String(OrderPreservingBase64.encode(estimators.get(key).toBytes()), StandardCharsets.US_ASCII));
           }
           pw.println(":#");
         }
         
-        keys = applicationHLLPEstimators.keySet();
-        keys.addAll(applicationRateLimiters.keySet());
+        estimators = applicationHLLPEstimators.snapshot();
+        
+        keys = new HashSet<String>(estimators.keySet());
+        keys.addAll(limits.applicationRateLimiters.keySet());
         
         for (String key: keys) {
           pw.print(APPLICATION_PREFIX_CHAR);
           pw.print(URLEncoder.encode(key, StandardCharsets.UTF_8.name()));
           pw.print(":");
-          Long limit = applicationMADSLimits.get(key);
+          Long limit = limits.applicationMADSLimits.get(key);
           if (null != limit) {
             pw.print(limit);
           }
           pw.print(":");
-          RateLimiter limiter = applicationRateLimiters.get(key);
+          RateLimiter limiter = limits.applicationRateLimiters.get(key);
           if (null != limiter) {
             pw.print(limiter.getRate());
           }
           pw.print(":");
-          if (applicationHLLPEstimators.containsKey(key)) {
-            pw.print(new String(OrderPreservingBase64.encode(applicationHLLPEstimators.get(key).toBytes()), StandardCharsets.US_ASCII));
+          if (estimators.containsKey(key)) {
+            pw.print(new String(OrderPreservingBase64.encode(estimators.get(key).toBytes()), StandardCharsets.US_ASCII));
           }
           pw.println(":#");
         }
@@ -17,6 +17,8 @@
 package io.warp10.continuum.egress;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
@@ -59,10 +61,12 @@ import io.warp10.script.MemoryWarpScriptStack;
 import io.warp10.script.StackUtils;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptLib;
+import io.warp10.script.WarpScriptParseCache;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStack.StackContext;
 import io.warp10.script.WarpScriptStackRegistry;
 import io.warp10.script.WarpScriptStopException;
+import io.warp10.script.ext.sharding.StackCodec;
 import io.warp10.script.ext.stackps.StackPSWarpScriptExtension;
 import io.warp10.script.functions.AUTHENTICATE;
 import io.warp10.sensision.Sensision;
@@ -200,6 +204,17 @@ public class EgressExecHandler extends AbstractHandler {
 
       stack.exec(WarpScriptLib.BOOTSTRAP);
       
+      //
+      // DEVAL asks for the binary encoding of the stack, let its snapshot code know about it
+      //
+
+      String accept = req.getHeader("Accept");
+      boolean binary = null != accept && accept.contains(StackCodec.CONTENT_TYPE);
+
+      if (binary) {
+        stack.store(StackCodec.SYMBOL, true);
+      }
+
       //
       // Extract parameters from the path info and set their value as symbols
       //
@@ -271,8 +286,31 @@ public class EgressExecHandler extends AbstractHandler {
       
       boolean terminate = false;
       
+      //
+      // If the parse cache is enabled, read the whole script so it can be looked up
+      //
+      
+      WarpScriptParseCache.ParsedScript parsed = null;
+      
+      if (WarpScriptParseCache.isEnabled() && stack instanceof MemoryWarpScriptStack) {
+        StringBuilder body = new StringBuilder();
+        String line;
+        while (null != (line = br.readLine())) {
+          body.append(line).append("\n");
+        }
+        parsed = WarpScriptParseCache.get(body.toString());
+      }
+      
+      int idx = 0;
+      
       while(!terminate) {
-        String line = br.readLine();
+        String line = null;
+        
+        if (null == parsed) {
+          line = br.readLine();
+        } else if (idx < parsed.size()) {
+          line = parsed.getLine(idx);
+        }
         
         if (null == line) {
           break;
@@ -291,7 +329,11 @@ public class EgressExecHandler extends AbstractHandler {
             stack.exec("'[Line #" + Long.toString(lineno) + "]'");
             stack.exec(WarpScriptLib.SECTION);
           }
-          stack.exec(line);
+          if (null != parsed) {
+            ((MemoryWarpScriptStack) stack).exec(parsed, idx);
+          } else {
+            stack.exec(line);
+          }
         } catch (WarpScriptStopException ese) {
           // Do nothing, this is simply an early termination which should not generate errors
           terminate = true;
@@ -305,6 +347,8 @@ public class EgressExecHandler extends AbstractHandler {
         }
         
         times.add(end - nano);
+        
+        idx++;
       }
 
       //
@@ -339,6 +383,8 @@ public class EgressExecHandler extends AbstractHandler {
       //resp.setContentType("application/json");
       //resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
       
+      stack.forget(StackCodec.SYMBOL);
+
       //
       // Output the exported symbols in a map
       //
@@ -358,7 +404,20 @@ public class EgressExecHandler extends AbstractHandler {
         stack.push(exports);
       }
       
-      StackUtils.toJSON(resp.getWriter(), stack);   
+      //
+      // The binary stack is fully encoded before the response is committed so an
+      // encoding error is reported with an error status and not as a truncated stack
+      //
+
+      if (binary) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        StackCodec.encode(new DataOutputStream(baos), stack);
+        resp.setContentType(StackCodec.CONTENT_TYPE);
+        resp.setContentLength(baos.size());
+        baos.writeTo(resp.getOutputStream());
+      } else {
+        StackUtils.toJSON(resp.getWriter(), stack);
+      }
     } catch (Throwable e) {
       t = e;      
 
@@ -392,6 +451,8 @@ public class EgressExecHandler extends AbstractHandler {
       String headerErrorMsg = ThrowableUtils.getErrorMessage(t, Constants.MAX_HTTP_HEADER_LENGTH);
       resp.setHeader(Constants.getHeader(Configuration.HTTP_HEADER_ERROR_MESSAGEX), headerErrorMsg);
 
+      stack.forget(StackCodec.SYMBOL);
+
       //
       // Output the exported symbols in a map
       //
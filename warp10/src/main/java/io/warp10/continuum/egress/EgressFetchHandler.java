@@ -73,6 +73,7 @@ import io.warp10.ThrowableUtils;
 import io.warp10.WarpURLDecoder;
 import io.warp10.continuum.Configuration;
 import io.warp10.continuum.Tokens;
+import io.warp10.continuum.gts.GTSArrowWriter;
 import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
@@ -288,6 +289,21 @@ public class EgressFetchHandler extends AbstractHandler {
         throw new IOException("Invalid chunksize.");
       }    
       
+      int batchsize = GTSArrowWriter.DEFAULT_BATCH_SIZE;
+      
+      if (null != req.getParameter(Constants.HTTP_PARAM_BATCHSIZE)) {
+        try {
+          batchsize = Integer.parseInt(req.getParameter(Constants.HTTP_PARAM_BATCHSIZE));
+        } catch (NumberFormatException nfe) {
+          batchsize = 0;
+        }
+      }
+      
+      if (batchsize <= 0) {
+        httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
+        throw new IOException("Parameter '" + Constants.HTTP_PARAM_BATCHSIZE + "' must be a positive integer.");
+      }
+      
       boolean showErrors = null != showErrorsParam;
       boolean dedup = null != dedupParam && "true".equals(dedupParam);
 
@@ -820,7 +836,19 @@ public class EgressFetchHandler extends AbstractHandler {
           
       metas = new ArrayList<Metadata>();
 
-      PrintWriter pw = resp.getWriter();
+      //
+      // The 'arrow' format is binary, it is written to the output stream, all others use the writer
+      //
+      
+      PrintWriter pw = null;
+      GTSArrowWriter arrow = null;
+      
+      if ("arrow".equals(format)) {
+        resp.setContentType(GTSArrowWriter.CONTENT_TYPE);
+        arrow = new GTSArrowWriter(resp.getOutputStream(), batchsize);
+      } else {
+        pw = resp.getWriter();
+      }
       
       AtomicReference<Metadata> lastMeta = new AtomicReference<Metadata>(null);
       AtomicLong lastCount = new AtomicLong(0L);
@@ -888,6 +916,8 @@ public class EgressFetchHandler extends AbstractHandler {
                 tsvDump(pw, iter, now, count, true, dedup, signed, lastMeta, lastCount, sortMeta, expose);
               } else if ("pack".equals(format)) {
                 packedDump(pw, iter, now, count, dedup, signed, lastMeta, lastCount, maxDecoderLen, suffix, chunksize, sortMeta, expose);
+              } else if ("arrow".equals(format)) {
+                arrowDump(arrow, iter, count, dedup, signed, lastMeta, lastCount, expose);
               } else if ("null".equals(format)) {
                 nullDump(iter);
               } else {
@@ -896,7 +926,7 @@ public class EgressFetchHandler extends AbstractHandler {
             } catch (Throwable t) {
               LOG.error("",t);
               Sensision.update(SensisionConstants.CLASS_WARP_FETCH_ERRORS, Sensision.EMPTY_LABELS, 1);
-              if (showErrors) {
+              if (showErrors && null != pw) {
                 pw.println();
                 StringWriter sw = new StringWriter();
                 PrintWriter pw2 = new PrintWriter(sw);
@@ -932,6 +962,10 @@ public class EgressFetchHandler extends AbstractHandler {
         }
       }
 
+      if (null != arrow) {
+        arrow.close();
+      }
+      
       Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_REQUESTS, labels, 1);      
     } catch (Throwable t) {
       if (!resp.isCommitted()) {
@@ -1930,6 +1964,62 @@ public class EgressFetchHandler extends AbstractHandler {
     lastCount.set(currentCount);
   }
 
+  /**
+   * Output datapoints as Arrow record batches, the series are identified by their selector
+   */
+  private static void arrowDump(GTSArrowWriter arrow, GTSDecoderIterator iter, long count, boolean dedup, boolean signed, AtomicReference<Metadata> lastMeta, AtomicLong lastCount, boolean expose) throws IOException {
+    
+    Metadata lastMetadata = lastMeta.get();
+    long currentCount = lastCount.get();
+    
+    StringBuilder sb = new StringBuilder();
+    
+    while(iter.hasNext()) {
+      GTSDecoder decoder = iter.next();
+
+      if (dedup) {
+        decoder = decoder.dedup();
+      }
+      
+      if (!decoder.next()) {
+        continue;
+      }
+
+      long toDecodeCount = Long.MAX_VALUE;
+      
+      if (count >= 0) {
+        Metadata meta = decoder.getMetadata();
+        if (!meta.equals(lastMetadata)) {
+          lastMetadata = meta;
+          currentCount = 0;
+        }
+        toDecodeCount = Math.max(0, count - currentCount);
+      }
+      
+      if (0 == toDecodeCount) {
+        continue;
+      }
+      
+      sb.setLength(0);
+      GTSHelper.metadataToString(sb, decoder.getName(), decoder.getLabels(), signed || expose);
+      int series = arrow.series(sb.toString());
+      
+      long decoded = 0L;
+      
+      do {
+        arrow.add(series, decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+        decoded++;
+      } while (decoded < toDecodeCount && decoder.next());
+      
+      if (count >= 0) {
+        currentCount += decoded;
+      }
+    }
+    
+    lastMeta.set(lastMetadata);
+    lastCount.set(currentCount);
+  }
+  
   private void nullDump(GTSDecoderIterator iter) {
     while(iter.hasNext()) {
       GTSDecoder decoder = iter.next();
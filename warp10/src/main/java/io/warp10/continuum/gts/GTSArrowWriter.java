@@ -0,0 +1,730 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.geoxp.GeoXPLib;
+
+import io.warp10.continuum.store.Constants;
+
+/**
+ * Writer of datapoints in the Apache Arrow IPC streaming format.
+ *
+ * Datapoints are buffered and written as record batches of at most 'batchSize' rows with
+ * the following columns:
+ *
+ *   series     dictionary encoded (int32 indices) selector of the series, 'class{labels}'
+ *   timestamp  timestamp, in the platform time unit, UTC
+ *   latitude   float64, null if the datapoint has no location
+ *   longitude  float64, null if the datapoint has no location
+ *   elevation  int64, null if the datapoint has no elevation
+ *   long       int64, null unless the value is a LONG
+ *   double     float64, null unless the value is a DOUBLE
+ *   boolean    bool, null unless the value is a BOOLEAN
+ *   string     utf8, null unless the value is a STRING
+ *   binary     binary, null unless the value is a byte array
+ *
+ * Series are not known in advance, the series dictionary is therefore written incrementally.
+ * The schema is followed by a dictionary batch, possibly empty, and each record batch is preceded
+ * by a delta dictionary batch with the series it references for the first time.
+ *
+ * The format (Arrow metadata V4, little endian) is produced directly so the platform does not
+ * depend on the Arrow libraries.
+ */
+public class GTSArrowWriter implements Closeable {
+
+  /**
+   * Content type of Arrow streams
+   */
+  public static final String CONTENT_TYPE = "application/vnd.apache.arrow.stream";
+
+  public static final int DEFAULT_BATCH_SIZE = 4096;
+
+  //
+  // Flatbuffers constants of the Arrow format (Schema.fbs, Message.fbs)
+  //
+
+  private static final short METADATA_V4 = 3;
+
+  private static final byte HEADER_SCHEMA = 1;
+  private static final byte HEADER_DICTIONARY_BATCH = 2;
+  private static final byte HEADER_RECORD_BATCH = 3;
+
+  private static final byte TYPE_INT = 2;
+  private static final byte TYPE_FLOATING_POINT = 3;
+  private static final byte TYPE_BINARY = 4;
+  private static final byte TYPE_UTF8 = 5;
+  private static final byte TYPE_BOOL = 6;
+  private static final byte TYPE_TIMESTAMP = 10;
+
+  private static final short PRECISION_DOUBLE = 2;
+
+  private static final long SERIES_DICTIONARY_ID = 0L;
+
+  //
+  // Indices of the nullable columns
+  //
+
+  private static final int LATITUDE = 0;
+  private static final int LONGITUDE = 1;
+  private static final int ELEVATION = 2;
+  private static final int LONG = 3;
+  private static final int DOUBLE = 4;
+  private static final int BOOLEAN = 5;
+  private static final int STRING = 6;
+  private static final int BINARY = 7;
+
+  private static final int NULLABLE_COLUMNS = 8;
+
+  /**
+   * Number of columns, i.e. the non nullable 'series' and 'timestamp' plus the nullable ones
+   */
+  private static final int COLUMNS = 2 + NULLABLE_COLUMNS;
+
+  private static final byte[] CONTINUATION = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
+
+  private final OutputStream out;
+
+  private final int batchSize;
+
+  private final int[] series;
+  private final long[] timestamps;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final long[] elevations;
+  private final long[] longs;
+  private final double[] doubles;
+  private final byte[] booleans;
+  private final int[] stringOffsets;
+  private final Bytes strings = new Bytes();
+  private final int[] binaryOffsets;
+  private final Bytes binaries = new Bytes();
+
+  private final byte[][] validity = new byte[NULLABLE_COLUMNS][];
+  private final int[] valid = new int[NULLABLE_COLUMNS];
+
+  private int rows = 0;
+
+  private final Map<String,Integer> dictionary = new HashMap<String,Integer>();
+
+  /**
+   * Series added to the dictionary since the last dictionary batch
+   */
+  private final List<String> pending = new ArrayList<String>();
+
+  private boolean started = false;
+  private boolean dictionaryStarted = false;
+  private boolean closed = false;
+
+  private final Bytes metadata = new Bytes();
+  private final Bytes body = new Bytes();
+
+  /**
+   * Offsets and lengths of the buffers of the current message body
+   */
+  private long[] buffers = new long[64];
+  private int nbuffers = 0;
+
+  public GTSArrowWriter(OutputStream out) {
+    this(out, DEFAULT_BATCH_SIZE);
+  }
+
+  public GTSArrowWriter(OutputStream out, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be strictly positive.");
+    }
+
+    this.out = out;
+    this.batchSize = batchSize;
+
+    this.series = new int[batchSize];
+    this.timestamps = new long[batchSize];
+    this.latitudes = new double[batchSize];
+    this.longitudes = new double[batchSize];
+    this.elevations = new long[batchSize];
+    this.longs = new long[batchSize];
+    this.doubles = new double[batchSize];
+    this.booleans = new byte[(batchSize + 7) >>> 3];
+    this.stringOffsets = new int[batchSize + 1];
+    this.binaryOffsets = new int[batchSize + 1];
+
+    for (int i = 0; i < NULLABLE_COLUMNS; i++) {
+      this.validity[i] = new byte[(batchSize + 7) >>> 3];
+    }
+  }
+
+  /**
+   * Return the index of a series in the series dictionary, adding it if needed
+   *
+   * @param selector Selector of the series, as produced by GTSHelper.metadataToString
+   */
+  public int series(String selector) {
+    Integer idx = this.dictionary.get(selector);
+
+    if (null == idx) {
+      idx = this.dictionary.size();
+      this.dictionary.put(selector, idx);
+      this.pending.add(selector);
+    }
+
+    return idx;
+  }
+
+  /**
+   * Add a datapoint, a record batch is written each time 'batchSize' datapoints have been added
+   *
+   * @param series Index of the series returned by 'series'
+   * @param value Value of the datapoint, null if the datapoint has no value
+   */
+  public void add(int series, long timestamp, long location, long elevation, Object value) throws IOException {
+    if (this.closed) {
+      throw new IOException("Writer is closed.");
+    }
+
+    int row = this.rows;
+
+    this.series[row] = series;
+    this.timestamps[row] = timestamp;
+
+    if (GeoTimeSerie.NO_LOCATION != location) {
+      double[] latlon = GeoXPLib.fromGeoXPPoint(location);
+      this.latitudes[row] = latlon[0];
+      this.longitudes[row] = latlon[1];
+      valid(LATITUDE, row);
+      valid(LONGITUDE, row);
+    }
+
+    if (GeoTimeSerie.NO_ELEVATION != elevation) {
+      this.elevations[row] = elevation;
+      valid(ELEVATION, row);
+    }
+
+    if (value instanceof Long) {
+      this.longs[row] = ((Long) value).longValue();
+      valid(LONG, row);
+    } else if (value instanceof Double) {
+      this.doubles[row] = ((Double) value).doubleValue();
+      valid(DOUBLE, row);
+    } else if (value instanceof Boolean) {
+      if (Boolean.TRUE.equals(value)) {
+        this.booleans[row >>> 3] |= 1 << (row & 0x7);
+      }
+      valid(BOOLEAN, row);
+    } else if (value instanceof String) {
+      this.strings.put(((String) value).getBytes(StandardCharsets.UTF_8));
+      valid(STRING, row);
+    } else if (value instanceof byte[]) {
+      this.binaries.put((byte[]) value);
+      valid(BINARY, row);
+    } else if (value instanceof Number) {
+      this.doubles[row] = ((Number) value).doubleValue();
+      valid(DOUBLE, row);
+    }
+
+    this.stringOffsets[row + 1] = this.strings.len;
+    this.binaryOffsets[row + 1] = this.binaries.len;
+
+    this.rows++;
+
+    if (this.batchSize == this.rows) {
+      writeBatch();
+    }
+  }
+
+  /**
+   * Write the buffered datapoints and flush the underlying stream
+   */
+  public void flush() throws IOException {
+    writeBatch();
+    this.out.flush();
+  }
+
+  /**
+   * Write the buffered datapoints and the end of stream marker. The underlying stream is
+   * flushed but not closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+
+    writeBatch();
+
+    this.closed = true;
+
+    this.out.write(CONTINUATION);
+    this.out.write(new byte[4]);
+    this.out.flush();
+  }
+
+  private void valid(int column, int row) {
+    this.validity[column][row >>> 3] |= 1 << (row & 0x7);
+    this.valid[column]++;
+  }
+
+  private void writeBatch() throws IOException {
+    if (!this.started) {
+      writeSchema();
+      this.started = true;
+    }
+
+    // The first dictionary batch is written even if empty, readers such as the Arrow Java one
+    // expect a dictionary batch per dictionary encoded field right after the schema
+    if (!this.dictionaryStarted || !this.pending.isEmpty()) {
+      writeDictionary();
+    }
+
+    if (0 == this.rows) {
+      return;
+    }
+
+    int n = this.rows;
+
+    long[] nodes = new long[COLUMNS * 2];
+
+    this.body.len = 0;
+    this.nbuffers = 0;
+
+    // series
+    nodes[0] = n;
+    buffer(null, 0);
+    bufferInts(this.series, n);
+
+    // timestamp
+    nodes[2] = n;
+    buffer(null, 0);
+    bufferLongs(this.timestamps, n);
+
+    for (int col = 0; col < NULLABLE_COLUMNS; col++) {
+      nodes[2 * (col + 2)] = n;
+      nodes[2 * (col + 2) + 1] = n - this.valid[col];
+
+      // The validity bitmap can be omitted when there are no nulls
+      if (this.valid[col] == n) {
+        buffer(null, 0);
+      } else {
+        buffer(this.validity[col], (n + 7) >>> 3);
+      }
+
+      switch (col) {
+        case LATITUDE:
+          bufferDoubles(this.latitudes, n);
+          break;
+        case LONGITUDE:
+          bufferDoubles(this.longitudes, n);
+          break;
+        case ELEVATION:
+          bufferLongs(this.elevations, n);
+          break;
+        case LONG:
+          bufferLongs(this.longs, n);
+          break;
+        case DOUBLE:
+          bufferDoubles(this.doubles, n);
+          break;
+        case BOOLEAN:
+          buffer(this.booleans, (n + 7) >>> 3);
+          break;
+        case STRING:
+          bufferInts(this.stringOffsets, n + 1);
+          buffer(this.strings.buf, this.strings.len);
+          break;
+        case BINARY:
+          bufferInts(this.binaryOffsets, n + 1);
+          buffer(this.binaries.buf, this.binaries.len);
+          break;
+      }
+    }
+
+    writeMessage(HEADER_RECORD_BATCH, recordBatch(n, nodes));
+
+    //
+    // Reset the batch
+    //
+
+    this.rows = 0;
+    this.strings.len = 0;
+    this.binaries.len = 0;
+    Arrays.fill(this.booleans, (byte) 0);
+    Arrays.fill(this.valid, 0);
+    for (byte[] bitmap: this.validity) {
+      Arrays.fill(bitmap, (byte) 0);
+    }
+  }
+
+  private void writeSchema() throws IOException {
+    Table int32 = new Table(2).add(0, 4, 32).add(1, 1, 1);
+    Table int64 = new Table(2).add(0, 4, 64).add(1, 1, 1);
+    Table float64 = new Table(1).add(0, 2, PRECISION_DOUBLE);
+
+    short unit;
+
+    if (1L == Constants.TIME_UNITS_PER_MS) {
+      unit = 1; // MILLISECOND
+    } else if (1000L == Constants.TIME_UNITS_PER_MS) {
+      unit = 2; // MICROSECOND
+    } else {
+      unit = 3; // NANOSECOND
+    }
+
+    Table dictionaryEncoding = new Table(4).add(0, 8, SERIES_DICTIONARY_ID).add(1, int32);
+
+    Table[] fields = new Table[] {
+      field("series", false, TYPE_UTF8, new Table(0), dictionaryEncoding),
+      field("timestamp", false, TYPE_TIMESTAMP, new Table(2).add(0, 2, unit).add(1, "UTC"), null),
+      field("latitude", true, TYPE_FLOATING_POINT, float64, null),
+      field("longitude", true, TYPE_FLOATING_POINT, float64, null),
+      field("elevation", true, TYPE_INT, int64, null),
+      field("long", true, TYPE_INT, int64, null),
+      field("double", true, TYPE_FLOATING_POINT, float64, null),
+      field("boolean", true, TYPE_BOOL, new Table(0), null),
+      field("string", true, TYPE_UTF8, new Table(0), null),
+      field("binary", true, TYPE_BINARY, new Table(0), null),
+    };
+
+    // Little endian
+    Table schema = new Table(4).add(0, 2, 0).add(1, fields);
+
+    this.body.len = 0;
+    this.nbuffers = 0;
+
+    writeMessage(HEADER_SCHEMA, schema);
+  }
+
+  private void writeDictionary() throws IOException {
+    int n = this.pending.size();
+
+    int[] offsets = new int[n + 1];
+    Bytes data = new Bytes();
+
+    for (int i = 0; i < n; i++) {
+      data.put(this.pending.get(i).getBytes(StandardCharsets.UTF_8));
+      offsets[i + 1] = data.len;
+    }
+
+    this.body.len = 0;
+    this.nbuffers = 0;
+
+    buffer(null, 0);
+    bufferInts(offsets, n + 1);
+    buffer(data.buf, data.len);
+
+    Table batch = new Table(3).add(0, 8, SERIES_DICTIONARY_ID).add(1, recordBatch(n, new long[] { n, 0L })).add(2, 1, this.dictionaryStarted ? 1 : 0);
+
+    writeMessage(HEADER_DICTIONARY_BATCH, batch);
+
+    this.dictionaryStarted = true;
+    this.pending.clear();
+  }
+
+  private Table recordBatch(long length, long[] nodes) {
+    return new Table(4).add(0, 8, length).add(1, nodes).add(2, Arrays.copyOf(this.buffers, this.nbuffers * 2));
+  }
+
+  private static Table field(String name, boolean nullable, byte typeType, Table type, Table dictionary) {
+    Table field = new Table(7).add(0, name).add(1, 1, nullable ? 1 : 0).add(2, 1, typeType).add(3, type).add(5, new Table[0]);
+
+    if (null != dictionary) {
+      field.add(4, dictionary);
+    }
+
+    return field;
+  }
+
+  /**
+   * Write an encapsulated message, its metadata is followed by the current body
+   */
+  private void writeMessage(byte headerType, Table header) throws IOException {
+    this.body.align(8);
+
+    Table message = new Table(5).add(0, 2, METADATA_V4).add(1, 1, headerType).add(2, header).add(3, 8, this.body.len);
+
+    Bytes meta = this.metadata;
+    meta.len = 0;
+    // Root offset
+    meta.putInt(0);
+    meta.setInt(0, write(meta, message));
+    // The metadata is padded so the body starts on an 8 bytes boundary
+    meta.align(8);
+
+    Bytes prefix = new Bytes();
+    prefix.put(CONTINUATION);
+    prefix.putInt(meta.len);
+
+    this.out.write(prefix.buf, 0, prefix.len);
+    this.out.write(meta.buf, 0, meta.len);
+    this.out.write(this.body.buf, 0, this.body.len);
+  }
+
+  //
+  // Body buffers, each one starts on an 8 bytes boundary
+  //
+
+  private void buffer(byte[] data, int len) {
+    this.body.align(8);
+    addBuffer(this.body.len, len);
+    if (len > 0) {
+      this.body.put(data, 0, len);
+    }
+  }
+
+  private void bufferInts(int[] values, int n) {
+    this.body.align(8);
+    addBuffer(this.body.len, n * 4L);
+    for (int i = 0; i < n; i++) {
+      this.body.putInt(values[i]);
+    }
+  }
+
+  private void bufferLongs(long[] values, int n) {
+    this.body.align(8);
+    addBuffer(this.body.len, n * 8L);
+    for (int i = 0; i < n; i++) {
+      this.body.putLong(values[i]);
+    }
+  }
+
+  private void bufferDoubles(double[] values, int n) {
+    this.body.align(8);
+    addBuffer(this.body.len, n * 8L);
+    for (int i = 0; i < n; i++) {
+      this.body.putLong(Double.doubleToRawLongBits(values[i]));
+    }
+  }
+
+  private void addBuffer(long offset, long length) {
+    if (this.buffers.length < (this.nbuffers + 1) * 2) {
+      this.buffers = Arrays.copyOf(this.buffers, this.buffers.length * 2);
+    }
+    this.buffers[this.nbuffers * 2] = offset;
+    this.buffers[this.nbuffers * 2 + 1] = length;
+    this.nbuffers++;
+  }
+
+  //
+  // Minimal flatbuffers serialization. Objects are written front to back, each table is
+  // preceded by its vtable and followed by the objects it references, so all offsets are positive.
+  //
+
+  /**
+   * Flatbuffers table. Fields are either scalars of width 1, 2, 4 or 8 or references to a
+   * String, a Table, a Table[] or a long[] which stands for a vector of structs made of two longs
+   * (FieldNode and Buffer).
+   */
+  private static final class Table {
+    private final int[] widths;
+    private final long[] scalars;
+    private final Object[] refs;
+
+    private Table(int slots) {
+      this.widths = new int[slots];
+      this.scalars = new long[slots];
+      this.refs = new Object[slots];
+    }
+
+    private Table add(int slot, int width, long value) {
+      this.widths[slot] = width;
+      this.scalars[slot] = value;
+      return this;
+    }
+
+    private Table add(int slot, Object ref) {
+      this.widths[slot] = -1;
+      this.refs[slot] = ref;
+      return this;
+    }
+  }
+
+  /**
+   * Write an object and return its position
+   */
+  private static int write(Bytes b, Object o) {
+    if (o instanceof String) {
+      byte[] utf8 = ((String) o).getBytes(StandardCharsets.UTF_8);
+      b.align(4);
+      int pos = b.len;
+      b.putInt(utf8.length);
+      b.put(utf8);
+      b.put((byte) 0);
+      return pos;
+    } else if (o instanceof Table[]) {
+      Table[] tables = (Table[]) o;
+      b.align(4);
+      int pos = b.len;
+      b.putInt(tables.length);
+      for (int i = 0; i < tables.length; i++) {
+        b.putInt(0);
+      }
+      for (int i = 0; i < tables.length; i++) {
+        int ref = pos + 4 + 4 * i;
+        b.setInt(ref, write(b, tables[i]) - ref);
+      }
+      return pos;
+    } else if (o instanceof long[]) {
+      long[] values = (long[]) o;
+      // Structs contain longs, they must be 8 bytes aligned
+      while (4 != (b.len & 0x7)) {
+        b.put((byte) 0);
+      }
+      int pos = b.len;
+      b.putInt(values.length / 2);
+      for (long value: values) {
+        b.putLong(value);
+      }
+      return pos;
+    }
+
+    Table table = (Table) o;
+    int slots = table.widths.length;
+
+    //
+    // Lay out the fields by decreasing width after the vtable offset
+    //
+
+    int[] offsets = new int[slots];
+    int size = 4;
+
+    for (int width: new int[] { 8, 4, 2, 1 }) {
+      for (int slot = 0; slot < slots; slot++) {
+        int w = -1 == table.widths[slot] ? 4 : table.widths[slot];
+        if (w != width) {
+          continue;
+        }
+        size = (size + width - 1) & ~(width - 1);
+        offsets[slot] = size;
+        size += width;
+      }
+    }
+
+    b.align(2);
+    int vtable = b.len;
+    b.putShort(4 + 2 * slots);
+    b.putShort(size);
+    for (int slot = 0; slot < slots; slot++) {
+      b.putShort(offsets[slot]);
+    }
+
+    b.align(8);
+    int pos = b.len;
+    b.putInt(pos - vtable);
+    b.ensure(size - 4);
+    Arrays.fill(b.buf, b.len, pos + size, (byte) 0);
+    b.len = pos + size;
+
+    for (int slot = 0; slot < slots; slot++) {
+      int at = pos + offsets[slot];
+      switch (table.widths[slot]) {
+        case 1:
+          b.buf[at] = (byte) table.scalars[slot];
+          break;
+        case 2:
+          b.setShort(at, (int) table.scalars[slot]);
+          break;
+        case 4:
+          b.setInt(at, (int) table.scalars[slot]);
+          break;
+        case 8:
+          b.setInt(at, (int) table.scalars[slot]);
+          b.setInt(at + 4, (int) (table.scalars[slot] >>> 32));
+          break;
+      }
+    }
+
+    for (int slot = 0; slot < slots; slot++) {
+      if (-1 == table.widths[slot]) {
+        int at = pos + offsets[slot];
+        b.setInt(at, write(b, table.refs[slot]) - at);
+      }
+    }
+
+    return pos;
+  }
+
+  /**
+   * Growable little endian byte buffer
+   */
+  private static final class Bytes {
+    private byte[] buf = new byte[1024];
+    private int len = 0;
+
+    private void ensure(int n) {
+      if (this.len + n > this.buf.length) {
+        this.buf = Arrays.copyOf(this.buf, Math.max(this.len + n, this.buf.length * 2));
+      }
+    }
+
+    private void align(int alignment) {
+      while (0 != this.len % alignment) {
+        put((byte) 0);
+      }
+    }
+
+    private void put(byte b) {
+      ensure(1);
+      this.buf[this.len++] = b;
+    }
+
+    private void put(byte[] data) {
+      put(data, 0, data.length);
+    }
+
+    private void put(byte[] data, int offset, int length) {
+      ensure(length);
+      System.arraycopy(data, offset, this.buf, this.len, length);
+      this.len += length;
+    }
+
+    private void putShort(int value) {
+      ensure(2);
+      setShort(this.len, value);
+      this.len += 2;
+    }
+
+    private void putInt(int value) {
+      ensure(4);
+      setInt(this.len, value);
+      this.len += 4;
+    }
+
+    private void putLong(long value) {
+      putInt((int) value);
+      putInt((int) (value >>> 32));
+    }
+
+    private void setShort(int pos, int value) {
+      this.buf[pos] = (byte) value;
+      this.buf[pos + 1] = (byte) (value >>> 8);
+    }
+
+    private void setInt(int pos, int value) {
+      this.buf[pos] = (byte) value;
+      this.buf[pos + 1] = (byte) (value >>> 8);
+      this.buf[pos + 2] = (byte) (value >>> 16);
+      this.buf[pos + 3] = (byte) (value >>> 24);
+    }
+  }
+}
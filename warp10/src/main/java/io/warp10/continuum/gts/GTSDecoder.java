@@ -18,6 +18,7 @@ package io.warp10.continuum.gts;
 
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.CryptoUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -37,11 +38,6 @@ import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.bouncycastle.crypto.CipherParameters;
-import org.bouncycastle.crypto.InvalidCipherTextException;
-import org.bouncycastle.crypto.engines.AESWrapEngine;
-import org.bouncycastle.crypto.paddings.PKCS7Padding;
-import org.bouncycastle.crypto.params.KeyParameter;
 
 import com.geoxp.GeoXPLib;
 /**
@@ -230,47 +226,46 @@ public class GTSDecoder {
         return next();
       }
       
-      byte[] encrypted = new byte[enclen];
-      buffer.get(encrypted);
-             
       //
-      // Decrypt the encrypted data
+      // Decrypt the encrypted data, it was encrypted using AES-GCM if it starts with
+      // the AES-GCM version byte, AES key wrap otherwise
       //
       
-      AESWrapEngine engine = new AESWrapEngine();
-      CipherParameters params = new KeyParameter(this.wrappingKey);
-      engine.init(false, params);
+      byte[] decrypted = null;
       
-      try {
-        byte[] decrypted = engine.unwrap(encrypted, 0, encrypted.length);
-        //
-        // Unpad the decrypted data
-        //
-
-        PKCS7Padding padding = new PKCS7Padding();
-        int padcount = padding.padCount(decrypted);
-        
+      if (buffer.hasArray()) {
+        decrypted = CryptoUtils.unwrap(this.wrappingKey, buffer.array(), buffer.arrayOffset() + buffer.position(), enclen);
+        buffer.position(buffer.position() + enclen);
+      } else {
+        byte[] encrypted = new byte[enclen];
+        buffer.get(encrypted);
+        decrypted = CryptoUtils.unwrap(this.wrappingKey, encrypted);
+      }
+      
+      if (null != decrypted) {
         //
         // Replace the current buffer with a new one containing the
         // decrypted data followed by any remaining data in the original
         // buffer.
         //
         
-        ByteBuffer bb = ByteBuffer.allocate(decrypted.length - padcount + this.buffer.remaining());
-        
-        bb.put(decrypted, 0, decrypted.length - padcount);
-        bb.put(this.buffer);
-        bb.flip();
-        
-        this.buffer = bb;
+        if (this.buffer.hasRemaining()) {
+          ByteBuffer bb = ByteBuffer.allocate(decrypted.length + this.buffer.remaining());
+          
+          bb.put(decrypted);
+          bb.put(this.buffer);
+          bb.flip();
+          
+          this.buffer = bb;
+        } else {
+          this.buffer = ByteBuffer.wrap(decrypted);
+        }
         decodedEncrypted = true;
-      } catch (InvalidCipherTextException icte) {
-        // FIXME(hbs): log this somewhere...
-        //
-        // Skip the encrypted chunk we failed to decrypt
-        //
       }
       
+      // FIXME(hbs): log failed decryptions somewhere...
+      // Encrypted chunks we failed to decrypt are skipped
+      
       //
       // Call next recursively
       //
@@ -415,7 +410,30 @@ public class GTSDecoder {
       case GTSEncoder.FLAGS_TYPE_DOUBLE:
         lastType = TYPE.DOUBLE;
         if (GTSEncoder.FLAGS_VALUE_IDENTICAL != (tsTypeFlag & GTSEncoder.FLAGS_VALUE_IDENTICAL)) {
-          if (GTSEncoder.FLAGS_DOUBLE_IEEE754 == (tsTypeFlag & GTSEncoder.FLAGS_DOUBLE_IEEE754)) {
+          if (GTSEncoder.FLAGS_DOUBLE_IEEE754 == (tsTypeFlag & GTSEncoder.FLAGS_DOUBLE_IEEE754) && GTSEncoder.FLAGS_DOUBLE_XOR == (tsTypeFlag & GTSEncoder.FLAGS_DOUBLE_XOR)) {
+            //
+            // Value is XORed with the previous double value, only the bytes between
+            // the leading and trailing zero bytes were stored
+            //
+            int zeros = buffer.get() & 0xff;
+            int leading = zeros >>> 4;
+            int trailing = zeros & 0x0f;
+
+            if (leading + trailing > 7) {
+              throw new RuntimeException("Invalid XOR encoded double.");
+            }
+
+            long xor = 0L;
+            for (int i = leading + trailing; i < 8; i++) {
+              xor = (xor << 8) | (buffer.get() & 0xffL);
+            }
+            xor = xor << (trailing << 3);
+
+            previousLastDoubleValue = lastDoubleValue;
+            lastDoubleValue = Double.longBitsToDouble(Double.doubleToRawLongBits(lastDoubleValue) ^ xor);
+            previousLastBDValue = lastBDValue;
+            lastBDValue = null;
+          } else if (GTSEncoder.FLAGS_DOUBLE_IEEE754 == (tsTypeFlag & GTSEncoder.FLAGS_DOUBLE_IEEE754)) {
             ByteOrder order = buffer.order();
             buffer.order(ByteOrder.BIG_ENDIAN);
             previousLastDoubleValue = lastDoubleValue;
@@ -17,6 +17,7 @@
 package io.warp10.continuum.gts;
 
 import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.CryptoUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -124,6 +125,15 @@ public class GTSEncoder implements Cloneable {
 
   static final byte FLAGS_DOUBLE_IEEE754 = 0x04;
 
+  //
+  // Only valid with FLAGS_DOUBLE_IEEE754, the value is encoded as the XOR of its
+  // IEEE754 representation with that of the previous double value, the XORed bits
+  // are preceded by a byte with the number of leading (4 high bits) and trailing
+  // (4 low bits) zero bytes which are not stored.
+  //
+
+  static final byte FLAGS_DOUBLE_XOR = 0x02;
+
   static final byte FLAGS_VALUE_IDENTICAL = 0x01;
 
   static final byte FLAGS_LOCATION = 0x40;
@@ -224,6 +234,29 @@ public class GTSEncoder implements Cloneable {
   private boolean validLastBDValue = false;
   private boolean validLastStringValue = false;
 
+  /**
+   * Flag indicating whether or not double values can be XOR encoded with the previous one.
+   * Encoders produced with this flag set can only be read by versions which support it.
+   */
+  private boolean doubleXOR = false;
+
+  /**
+   * XOR of the current double value with the last one, set when FLAGS_DOUBLE_XOR is selected
+   */
+  private long doubleXORBits = 0L;
+
+  /**
+   * Flag indicating whether or not the content is encrypted using AES-GCM instead of AES key wrap.
+   * Encoders produced with this flag set can only be read by versions which support it.
+   */
+  private boolean aesGCM = false;
+
+  /**
+   * Batch used to encrypt the content using AES-GCM, shared with other encoders using the same key.
+   * Batches are not thread safe so they are not propagated to clones.
+   */
+  private CryptoUtils.AESGCMBatch aesGCMBatch = null;
+
   public GTSEncoder() {
     this.stream = new ByteArrayOutputStream();
     this.wrappingKey = null;
@@ -407,6 +440,7 @@ public class GTSEncoder implements Cloneable {
         tsTypeFlag |= FLAGS_VALUE_IDENTICAL;
       } else {
         tsTypeFlag |= FLAGS_DOUBLE_IEEE754;
+        tsTypeFlag |= doubleXORFlag(((Number) value).doubleValue());
       }
     } else if (value instanceof BigDecimal) {
       tsTypeFlag |= FLAGS_TYPE_DOUBLE;
@@ -423,6 +457,7 @@ public class GTSEncoder implements Cloneable {
         // If scale does not fit on a byte, use IEEE754
         if (scale > 127 || scale < -128) {
           tsTypeFlag |= FLAGS_DOUBLE_IEEE754;
+          tsTypeFlag |= doubleXORFlag(doubleValue.doubleValue());
         } else {
           BigInteger bi = doubleValue.unscaledValue();
 
@@ -431,6 +466,7 @@ public class GTSEncoder implements Cloneable {
           // If mantissa is greater than 46 bits, use IEEE754
           if (bitlen > 46) {
             tsTypeFlag |= FLAGS_DOUBLE_IEEE754;
+            tsTypeFlag |= doubleXORFlag(doubleValue.doubleValue());
           }
         }
       }
@@ -703,7 +739,26 @@ public class GTSEncoder implements Cloneable {
       case FLAGS_TYPE_DOUBLE:
         if (FLAGS_VALUE_IDENTICAL != (tsTypeFlag & FLAGS_VALUE_IDENTICAL)) {
 
-          if (FLAGS_DOUBLE_IEEE754 == (tsTypeFlag & FLAGS_DOUBLE_IEEE754)) {
+          if (FLAGS_DOUBLE_IEEE754 == (tsTypeFlag & FLAGS_DOUBLE_IEEE754) && FLAGS_DOUBLE_XOR == (tsTypeFlag & FLAGS_DOUBLE_XOR)) {
+            //
+            // Only store the bytes of the XOR which are between the leading and trailing zero bytes
+            //
+            int leading = Long.numberOfLeadingZeros(doubleXORBits) >>> 3;
+            int trailing = Long.numberOfTrailingZeros(doubleXORBits) >>> 3;
+
+            byte[] buf = buf10;
+            int len = 0;
+            buf[len++] = (byte) ((leading << 4) | trailing);
+            for (int shift = 56 - (leading << 3); shift >= (trailing << 3); shift -= 8) {
+              buf[len++] = (byte) ((doubleXORBits >>> shift) & 0xff);
+            }
+            this.stream.write(buf, 0, len);
+            // Keep track of last value
+            lastDoubleValue = ((Number) value).doubleValue();
+            lastBDValue = null;
+            validLastDoubleValue = true;
+            validLastBDValue = false;
+          } else if (FLAGS_DOUBLE_IEEE754 == (tsTypeFlag & FLAGS_DOUBLE_IEEE754)) {
             byte[] buf = buf8; //new byte[8];
             ByteBuffer bb = ByteBuffer.wrap(buf);
             bb.order(ByteOrder.BIG_ENDIAN);
@@ -746,6 +801,96 @@ public class GTSEncoder implements Cloneable {
     return this.stream.size();
   }
 
+  /**
+   * Determine if a double value should be XOR encoded with the last double value.
+   * XOR encoding is only selected when it produces less than the 8 bytes of the
+   * IEEE754 representation.
+   *
+   * @param value The double value to encode
+   * @return FLAGS_DOUBLE_XOR if the value should be XOR encoded, 0 otherwise
+   */
+  private byte doubleXORFlag(double value) {
+    // NaNs are not XOR encoded as their bits might not survive a round trip
+    if (!this.doubleXOR || !this.validLastDoubleValue || Double.isNaN(value) || Double.isNaN(this.lastDoubleValue)) {
+      return 0;
+    }
+
+    long xor = Double.doubleToRawLongBits(value) ^ Double.doubleToRawLongBits(this.lastDoubleValue);
+
+    // Identical bits are handled by FLAGS_VALUE_IDENTICAL, which ignores the sign of zero, so they may end up here
+    if (0L == xor) {
+      return 0;
+    }
+
+    int zeros = (Long.numberOfLeadingZeros(xor) >>> 3) + (Long.numberOfTrailingZeros(xor) >>> 3);
+
+    // Header byte + significant bytes must be less than 8 bytes
+    if (1 + 8 - zeros >= 8) {
+      return 0;
+    }
+
+    this.doubleXORBits = xor;
+
+    return FLAGS_DOUBLE_XOR;
+  }
+
+  /**
+   * Enable or disable the XOR encoding of double values. When enabled, double values
+   * which are close to the previous double value are stored on less than 8 bytes.
+   * The resulting encoded data cannot be read by versions without XOR support.
+   *
+   * @param doubleXOR
+   */
+  public void setDoubleXOR(boolean doubleXOR) {
+    if (this.readonly) {
+      throw new RuntimeException("Encoder is read-only.");
+    }
+
+    this.doubleXOR = doubleXOR;
+  }
+
+  public boolean isDoubleXOR() {
+    return this.doubleXOR;
+  }
+
+  /**
+   * Encrypt the content returned by 'getBytes' using AES-GCM instead of AES key wrap. AES-GCM
+   * benefits from the AES instructions of the CPU and also authenticates the content.
+   * The resulting encrypted data cannot be read by versions without AES-GCM support.
+   *
+   * @param aesGCM
+   */
+  public void setAESGCM(boolean aesGCM) {
+    if (this.readonly) {
+      throw new RuntimeException("Encoder is read-only.");
+    }
+
+    this.aesGCM = aesGCM;
+  }
+
+  public boolean isAESGCM() {
+    return this.aesGCM;
+  }
+
+  /**
+   * Encrypt the content returned by 'getBytes' using AES-GCM as part of a batch, which must have been
+   * created with the wrapping key of this encoder. Encrypting many small encoders with a single batch
+   * avoids deriving a key for each of them.
+   *
+   * @param batch Batch to use or null to encrypt on its own
+   */
+  public void setAESGCMBatch(CryptoUtils.AESGCMBatch batch) {
+    if (this.readonly) {
+      throw new RuntimeException("Encoder is read-only.");
+    }
+
+    this.aesGCMBatch = batch;
+
+    if (null != batch) {
+      this.aesGCM = true;
+    }
+  }
+
   public void setWrappingKey(byte[] key) {
     if (this.readonly) {
       throw new RuntimeException("Encoder is read-only.");
@@ -765,6 +910,30 @@ public class GTSEncoder implements Cloneable {
   public byte[] getBytes() {
     if (null == this.wrappingKey) {
       return this.stream.toByteArray();
+    } else if (this.aesGCM) {
+      byte[] encrypted;
+
+      if (null != this.aesGCMBatch) {
+        encrypted = this.aesGCMBatch.encrypt(this.stream.toByteArray());
+      } else {
+        encrypted = CryptoUtils.encrypt(this.wrappingKey, this.stream.toByteArray());
+      }
+
+      //
+      // Add 0x0 flag and encrypted data size, the leading byte of the encrypted data
+      // tells the decoder it uses AES-GCM
+      //
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(encrypted.length + 6);
+
+      try {
+        baos.write(GTSEncoder.FLAGS_ENCRYPTED);
+        baos.write(Varint.encodeUnsignedLong(encrypted.length));
+        baos.write(encrypted);
+        return baos.toByteArray();
+      } catch (IOException ioe) {
+        return null;
+      }
     } else {
       AESWrapEngine engine = new AESWrapEngine();
       KeyParameter params = new KeyParameter(this.wrappingKey);
@@ -1026,6 +1195,10 @@ public class GTSEncoder implements Cloneable {
 
     this.wrappingKey = encoder.wrappingKey;
 
+    this.doubleXOR = encoder.doubleXOR;
+
+    this.aesGCM = encoder.aesGCM;
+
     this.noDeltaMetaTimestamp = encoder.noDeltaMetaTimestamp;
 
     this.validLastGeoXPPoint = encoder.validLastGeoXPPoint;
@@ -1348,6 +1521,9 @@ public class GTSEncoder implements Cloneable {
 
     encoder.setMetadata(this.getMetadata());
 
+    encoder.doubleXOR = this.doubleXOR;
+    encoder.aesGCM = this.aesGCM;
+
     return encoder;
   }
 
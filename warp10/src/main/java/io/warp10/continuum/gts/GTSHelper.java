@@ -77,6 +77,7 @@ import io.warp10.script.SAXUtils;
 import io.warp10.script.WarpScriptAggregatorFunction;
 import io.warp10.script.WarpScriptBinaryOp;
 import io.warp10.script.WarpScriptBucketizerFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptFillerFunction;
 import io.warp10.script.WarpScriptFilterFunction;
@@ -84,6 +85,8 @@ import io.warp10.script.WarpScriptLib;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction.SlidingWindow;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStack.Macro;
 import io.warp10.script.functions.MACROMAPPER;
@@ -112,6 +115,8 @@ public class GTSHelper {
     //
     
     if (gts.sorted && gts.reversed != reversed) {
+      gts.unshare();
+
       if (null != gts.ticks) {
         int i = 0;
         int j = gts.values - 1;
@@ -223,6 +228,8 @@ public class GTSHelper {
       return gts;
     }
     
+    gts.unshare();
+    
     quicksort(gts, 0, gts.values - 1, reversed);
     
     gts.sorted = true;
@@ -288,8 +295,10 @@ public class GTSHelper {
       }
 
       // Sort using the computed ranges.
+      gts.unshare();
       fullquicksort(gts, ranges, reversed);
     } else {
+      gts.unshare();
       fullquicksort(gts, 0, gts.values - 1, reversed);
     }
 
@@ -478,6 +487,7 @@ public class GTSHelper {
   }
   
   public static final GeoTimeSerie valueSort(GeoTimeSerie gts, boolean reversed) {
+    gts.unshare();
     gts.sorted = false;
 
     quicksortByValue(gts, 0, gts.values - 1, reversed);
@@ -949,6 +959,7 @@ public class GTSHelper {
   }
 
   public static GeoTimeSerie locationSort(GeoTimeSerie gts) {
+    gts.unshare();
     gts.sorted = false;
     
     quicksortByLocation(gts,0,gts.values - 1,false);
@@ -1274,6 +1285,28 @@ public class GTSHelper {
     }
   }
   
+  /**
+   * Return the value of a LONG GTS at a given index, without boxing it.
+   * 
+   * @param gts GeoTimeSerie instance of type LONG from which to extract the value.
+   * @param idx Index at which to read the value, MUST be lower than the number of values.
+   * @return The value at the given index.
+   */
+  public static long longValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.longValues[idx];
+  }
+  
+  /**
+   * Return the value of a DOUBLE GTS at a given index, without boxing it.
+   * 
+   * @param gts GeoTimeSerie instance of type DOUBLE from which to extract the value.
+   * @param idx Index at which to read the value, MUST be lower than the number of values.
+   * @return The value at the given index.
+   */
+  public static double doubleValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.doubleValues[idx];
+  }
+  
   /**
    * Return the location in a Geo Time Serie at a given timestamp.
    * 
@@ -1328,6 +1361,7 @@ public class GTSHelper {
     }
     
     if (null != gts.locations) {
+      gts.unshare();
       gts.locations[idx] = location;
     } else {
       if (GeoTimeSerie.NO_LOCATION != location) {
@@ -1376,6 +1410,7 @@ public class GTSHelper {
     }
     
     if (null != gts.elevations) {
+      gts.unshare();
       gts.elevations[idx] = elevation;
     } else {
       if (GeoTimeSerie.NO_ELEVATION != elevation) {
@@ -1456,6 +1491,12 @@ public class GTSHelper {
       value = new String((byte[]) value, StandardCharsets.ISO_8859_1);
     }
     
+    //
+    // Arrays shared with a clone must be copied before being modified
+    //
+    
+    gts.unshare();
+    
     //
     // If 'overwrite' is true, check if 'timestamp' is already in 'ticks'
     // If so, record new value there.
@@ -1643,7 +1684,7 @@ public class GTSHelper {
       // We need to grow 'ticks', 'locations', 'elevations' and associated value array.
       //
       
-      int newlen = gts.ticks.length + (int) Math.min(GeoTimeSerie.MAX_ARRAY_GROWTH, Math.max(GeoTimeSerie.MIN_ARRAY_GROWTH, gts.ticks.length * GeoTimeSerie.ARRAY_GROWTH_FACTOR));
+      int newlen = grow(gts.ticks.length, gts.values + 1);
 
       if (newlen < gts.sizehint) {
         newlen = gts.sizehint;
@@ -1730,6 +1771,23 @@ public class GTSHelper {
     }    
   }
 
+  /**
+   * Compute the new length of an array which must hold at least 'needed' elements.
+   * Arrays grow geometrically so appending values has an amortized constant cost.
+   * 
+   * @param length Current length of the array
+   * @param needed Minimum number of elements the array must hold
+   */
+  static final int grow(int length, int needed) {
+    long newlen = length + Math.max(GeoTimeSerie.MIN_ARRAY_GROWTH, (long) (length * GeoTimeSerie.ARRAY_GROWTH_FACTOR));
+    
+    if (newlen < needed) {
+      newlen = needed;
+    }
+    
+    return (int) Math.min(Integer.MAX_VALUE - 8, newlen);
+  }
+
   /**
    * Provision GTS arrays for several values. If the arrays have enough space left, no provision is done.
    * If arrays have not enough space left, a provision is done according to the given parameter.
@@ -1739,6 +1797,8 @@ public class GTSHelper {
    */
   public static final void multiProvision(GeoTimeSerie gts, GeoTimeSerie.TYPE fallbackType, int numberOfValuesToAdd, int provisionSize) {
     if (0 < numberOfValuesToAdd) {
+      gts.unshare();
+
       int newSize = gts.values + provisionSize;
 
       if (null == gts.ticks) { // gts is empty
@@ -1815,7 +1875,9 @@ public class GTSHelper {
     // Create sub GTS
     //
     
-    if (null == subgts) {
+    boolean created = null == subgts;
+    
+    if (created) {
       subgts = new GeoTimeSerie(gts.sizehint);
       //
       // Copy name and labels
@@ -1835,12 +1897,128 @@ public class GTSHelper {
       return subgts;
     }
 
+    int[] range = new int[2];
+
+    if (!subSerieRange(gts, starttimestamp, stoptimestamp, range)) {
+      return subgts;
+    }
+
+    int firstidx = range[0];
+    int lastidx = range[1] - 1;
+
+    //
+    // Extract values/locations/elevations that lie in the requested interval
+    //
+
+    int count = lastidx - firstidx + 1;
+
+    //
+    // If we created the sub GTS and duplicate ticks are retained, the datapoints can be
+    // copied in bulk. When the range starts at the first datapoint, the sub GTS is a view
+    // of 'gts' which shares its arrays until one of them is modified.
+    //
+    
+    if (created && !overwrite) {
+      subgts.type = gts.type;
+      
+      if (0 == firstidx) {
+        subgts.ticks = gts.ticks;
+        subgts.locations = hasDefined(gts.locations, 0, count, GeoTimeSerie.NO_LOCATION) ? gts.locations : null;
+        subgts.elevations = hasDefined(gts.elevations, 0, count, GeoTimeSerie.NO_ELEVATION) ? gts.elevations : null;
+        switch (gts.type) {
+          case LONG:
+            subgts.longValues = gts.longValues;
+            break;
+          case DOUBLE:
+            subgts.doubleValues = gts.doubleValues;
+            break;
+          case STRING:
+            subgts.stringValues = gts.stringValues;
+            break;
+          case BOOLEAN:
+            subgts.booleanValues = gts.booleanValues;
+            break;
+          default:
+        }
+        subgts.shared = true;
+        gts.shared = true;
+      } else {
+        subgts.ticks = Arrays.copyOfRange(gts.ticks, firstidx, lastidx + 1);
+        subgts.locations = hasDefined(gts.locations, firstidx, lastidx + 1, GeoTimeSerie.NO_LOCATION) ? Arrays.copyOfRange(gts.locations, firstidx, lastidx + 1) : null;
+        subgts.elevations = hasDefined(gts.elevations, firstidx, lastidx + 1, GeoTimeSerie.NO_ELEVATION) ? Arrays.copyOfRange(gts.elevations, firstidx, lastidx + 1) : null;
+        switch (gts.type) {
+          case LONG:
+            subgts.longValues = Arrays.copyOfRange(gts.longValues, firstidx, lastidx + 1);
+            break;
+          case DOUBLE:
+            subgts.doubleValues = Arrays.copyOfRange(gts.doubleValues, firstidx, lastidx + 1);
+            break;
+          case STRING:
+            subgts.stringValues = Arrays.copyOfRange(gts.stringValues, firstidx, lastidx + 1);
+            break;
+          case BOOLEAN:
+            subgts.booleanValues = gts.booleanValues.get(firstidx, lastidx + 1);
+            break;
+          default:
+        }
+      }
+      
+      subgts.values = count;
+      // subSerieRange sorted 'gts' in chronological order
+      subgts.sorted = true;
+      subgts.reversed = false;
+      
+      return subgts;
+    }
+    
+    // We know how many data will the new GTS so we provision arrays to receive the data.
+    GTSHelper.multiProvision(subgts, gts.type, count, count);
+    
+    for (int i = firstidx; i <= lastidx; i++) {
+      setValue(subgts, gts.ticks[i], null != gts.locations ? gts.locations[i] : GeoTimeSerie.NO_LOCATION, null != gts.elevations ? gts.elevations[i] : GeoTimeSerie.NO_ELEVATION, valueAtIndex(gts, i), overwrite);
+    }
+
+    return subgts;
+  }
+
+  /**
+   * Check if an array of locations or elevations has a defined value in [from,to[
+   */
+  private static final boolean hasDefined(long[] array, int from, int to, long undefined) {
+    if (null == array) {
+      return false;
+    }
+    
+    for (int i = from; i < to; i++) {
+      if (undefined != array[i]) {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+
+  /**
+   * Determine the range of indices of the datapoints of a GTS whose ticks are within [starttimestamp,stoptimestamp].
+   * The GTS will be sorted.
+   *
+   * @param gts GTS instance to consider
+   * @param starttimestamp Lower timestamp (inclusive)
+   * @param stoptimestamp Upper timestamp (inclusive)
+   * @param range Array in which the first index (inclusive) and the last index (exclusive) will be stored
+   * @return false if no datapoint lies in the requested interval, in which case 'range' is left untouched
+   */
+  public static final boolean subSerieRange(GeoTimeSerie gts, long starttimestamp, long stoptimestamp, int[] range) {
+    if (null == gts.ticks || 0 == gts.values) {
+      return false;
+    }
+
     //
     // No value to return in the following case
     //
 
     if (starttimestamp > stoptimestamp) {
-      return subgts;
+      return false;
     }
 
     //
@@ -1857,7 +2035,7 @@ public class GTSHelper {
     
     if (-1 == lastidx) {
       // The upper timestamp is less than the first tick, so subserie is necessarly empty
-      return subgts;
+      return false;
     } else if (lastidx < 0) {
 
       // The upper timestamp is in between ticks, so we set the last index to the tick
@@ -1887,7 +2065,7 @@ public class GTSHelper {
 
       // Start after the last tick of the GTS
       if (firstidx >= gts.values) {
-        return subgts;
+        return false;
       }
     } else if (firstidx > 0) {
       // We found the start timestamp, we now must find the first occurrence of it
@@ -1906,22 +2084,13 @@ public class GTSHelper {
     //
     
     if (gts.ticks[firstidx] > stoptimestamp || gts.ticks[lastidx] < starttimestamp) {
-      return subgts;
+      return false;
     }
     
-    //
-    // Extract values/locations/elevations that lie in the requested interval
-    //
-
-    // We know how many data will the new GTS so we provision arrays to receive the data.
-    int count = lastidx - firstidx + 1;
-    GTSHelper.multiProvision(subgts, gts.type, count, count);
-    
-    for (int i = firstidx; i <= lastidx; i++) {
-      setValue(subgts, gts.ticks[i], null != gts.locations ? gts.locations[i] : GeoTimeSerie.NO_LOCATION, null != gts.elevations ? gts.elevations[i] : GeoTimeSerie.NO_ELEVATION, valueAtIndex(gts, i), overwrite);
-    }
+    range[0] = firstidx;
+    range[1] = lastidx + 1;
 
-    return subgts;
+    return true;
   }
 
   public static final GeoTimeSerie subSerie(GeoTimeSerie gts, long starttimestamp, long stoptimestamp, boolean overwrite) {
@@ -2154,10 +2323,38 @@ public class GTSHelper {
     // Allocate a stable GTS instance which we will reuse when calling subserie
     GeoTimeSerie subgts = null;
     
+    //
+    // Aggregate directly from the arrays of 'gts' if the bucketizer supports it
+    //
+    
+    WarpScriptDoubleAggregatorFunction primitive = null;
+    
+    if (null == stack && aggregator instanceof WarpScriptBucketizerFunction && aggregator instanceof WarpScriptDoubleAggregatorFunction && TYPE.DOUBLE == gts.type) {
+      primitive = (WarpScriptDoubleAggregatorFunction) aggregator;
+    }
+    
+    int[] range = new int[2];
+    
     for (int i = 0; i < bucketcount; i++) {
       
       long bucketend = lastbucket - i * bucketspan;
       
+      Object[] aggregated = null;
+      
+      if (null != primitive) {
+        if (!subSerieRange(gts, bucketend - bucketspan + 1, bucketend, range)) {
+          continue;
+        }
+        
+        aggregated = primitive.apply(bucketend, gts.ticks, gts.locations, gts.elevations, gts.doubleValues, range[0], range[1]);
+        
+        if (null != aggregated[3]) {
+          setValue(bucketized, bucketend, (long) aggregated[1], (long) aggregated[2], aggregated[3], false);
+        }
+        
+        continue;
+      }
+      
       //
       // Extract GTS containing the values that fall in the bucket
       // Keep multiple values that fall on the same timestamp, the
@@ -2170,8 +2367,6 @@ public class GTSHelper {
         continue;
       }
       
-      Object[] aggregated = null;
-      
       if (null != stack) {
         if (!(aggregator instanceof Macro)) {
           throw new WarpScriptException("Expected a macro as bucketizer.");
@@ -3885,24 +4080,56 @@ public class GTSHelper {
         return base;
       }
       
+      //
+      // If 'base' is empty, simply share the arrays of 'gts'
+      //
+      
+      if (0 == base.values) {
+        base.type = gtsType;
+        base.ticks = gts.ticks;
+        base.locations = gts.locations;
+        base.elevations = gts.elevations;
+        base.longValues = TYPE.LONG == gtsType ? gts.longValues : null;
+        base.doubleValues = TYPE.DOUBLE == gtsType ? gts.doubleValues : null;
+        base.stringValues = TYPE.STRING == gtsType ? gts.stringValues : null;
+        base.booleanValues = TYPE.BOOLEAN == gtsType ? gts.booleanValues : null;
+        base.values = gts.values;
+        base.sorted = gts.sorted;
+        base.reversed = gts.reversed;
+        base.shared = true;
+        gts.shared = true;
+        return base;
+      }
+      
+      base.unshare();
+      
+      //
+      // Grow the arrays of 'base' geometrically so merging many series into 'base' does
+      // not copy its content each time.
+      //
+      
+      int newlen = base.values + gts.values;
+      
       if (null == base.ticks) {
         base.ticks = Arrays.copyOf(gts.ticks, gts.values);
       } else {
-        if (base.ticks.length < base.values + gts.values) {
-          base.ticks = Arrays.copyOf(base.ticks, base.values + gts.values);
+        if (base.ticks.length < newlen) {
+          base.ticks = Arrays.copyOf(base.ticks, grow(base.ticks.length, newlen));
         }
         System.arraycopy(gts.ticks, 0, base.ticks, base.values, gts.values);
       }
+      
+      newlen = base.ticks.length;
 
       if (null == base.locations) {
         if (null != gts.locations) {
-          base.locations = new long[base.ticks.length];
+          base.locations = new long[newlen];
           Arrays.fill(base.locations, GeoTimeSerie.NO_LOCATION);
           System.arraycopy(gts.locations, 0, base.locations, base.values, gts.values);
         }
       } else {
-        if (base.locations.length < base.values + gts.values) {
-          base.locations = Arrays.copyOf(base.locations, base.values + gts.values);
+        if (base.locations.length < newlen) {
+          base.locations = Arrays.copyOf(base.locations, newlen);
         }
         if (null != gts.locations) {
           System.arraycopy(gts.locations, 0, base.locations, base.values, gts.values);
@@ -3913,13 +4140,13 @@ public class GTSHelper {
 
       if (null == base.elevations) {
         if (null != gts.elevations) {
-          base.elevations = new long[base.ticks.length];
+          base.elevations = new long[newlen];
           Arrays.fill(base.elevations, GeoTimeSerie.NO_ELEVATION);
           System.arraycopy(gts.elevations, 0, base.elevations, base.values, gts.values);
         }
       } else {
-        if (base.elevations.length < base.values + gts.values) {
-          base.elevations = Arrays.copyOf(base.elevations, base.values + gts.values);
+        if (base.elevations.length < newlen) {
+          base.elevations = Arrays.copyOf(base.elevations, newlen);
         }
         if (null != gts.elevations) {
           System.arraycopy(gts.elevations, 0, base.elevations, base.values, gts.values);
@@ -3934,8 +4161,8 @@ public class GTSHelper {
           if (null == base.longValues) {
             base.longValues = Arrays.copyOf(gts.longValues, gts.values);
           } else {
-            if (base.longValues.length < base.values + gts.values) {
-              base.longValues = Arrays.copyOf(base.longValues, base.values + gts.values);
+            if (base.longValues.length < newlen) {
+              base.longValues = Arrays.copyOf(base.longValues, newlen);
             }
             System.arraycopy(gts.longValues, 0, base.longValues, base.values, gts.values);
           }
@@ -3945,8 +4172,8 @@ public class GTSHelper {
           if (null == base.doubleValues) {
             base.doubleValues = Arrays.copyOf(gts.doubleValues, gts.values);
           } else {
-            if (base.doubleValues.length < base.values + gts.values) {
-              base.doubleValues = Arrays.copyOf(base.doubleValues, base.values + gts.values);
+            if (base.doubleValues.length < newlen) {
+              base.doubleValues = Arrays.copyOf(base.doubleValues, newlen);
             }
             System.arraycopy(gts.doubleValues, 0, base.doubleValues, base.values, gts.values);
           }
@@ -3956,8 +4183,8 @@ public class GTSHelper {
           if (null == base.stringValues) {
             base.stringValues = Arrays.copyOf(gts.stringValues, gts.values);
           } else {
-            if (base.stringValues.length < base.values + gts.values) {
-              base.stringValues = Arrays.copyOf(base.stringValues, base.values + gts.values);
+            if (base.stringValues.length < newlen) {
+              base.stringValues = Arrays.copyOf(base.stringValues, newlen);
             }
             System.arraycopy(gts.stringValues, 0, base.stringValues, base.values, gts.values);
           }
@@ -4781,6 +5008,8 @@ public class GTSHelper {
       return filled;
     }
     
+    filled.unshare();
+    
     //
     // Sort filled so ticks are in chronological orders
     //
@@ -4986,11 +5215,15 @@ public class GTSHelper {
     GeoTimeSerie shifted = gts.clone();
     
     //
-    // Shift ticks
+    // Shift ticks, only the ticks are copied, the other arrays remain shared with 'gts'
     //
     
+    if (null != gts.ticks) {
+      shifted.ticks = new long[gts.values];
+    }
+    
     for (int i = 0; i < shifted.values; i++) {
-      shifted.ticks[i] = shifted.ticks[i] + delta;
+      shifted.ticks[i] = gts.ticks[i] + delta;
     }
     
     //
@@ -5015,6 +5248,11 @@ public class GTSHelper {
   public static GeoTimeSerie tickindex(GeoTimeSerie gts) {
     GeoTimeSerie indexed = gts.clone();
     
+    // Only the ticks are copied, the other arrays remain shared with 'gts'
+    if (null != gts.ticks) {
+      indexed.ticks = new long[gts.values];
+    }
+    
     for (int i = 0; i < indexed.values; i++) {
       indexed.ticks[i] = i;
     }
@@ -5060,12 +5298,21 @@ public class GTSHelper {
     gts.doubleValues = null;
     gts.longValues = null;
     gts.stringValues = null;
+    gts.shared = false;
   }
   
   public static void reset(GeoTimeSerie gts) {
     gts.values = 0;
     gts.type = TYPE.UNDEFINED;
     
+    //
+    // Arrays shared with another instance cannot be reused
+    //
+    
+    if (gts.shared) {
+      clear(gts);
+    }
+    
     unbucketize(gts);
   }
   
@@ -5194,6 +5441,38 @@ public class GTSHelper {
 
     long lastTick = 0;
 
+    //
+    // Aggregate directly from the arrays of 'gts' if the mapper supports it
+    //
+
+    WarpScriptDoubleAggregatorFunction primitive = null;
+
+    if (null == stack && mapper instanceof WarpScriptMapperFunction && mapper instanceof WarpScriptDoubleAggregatorFunction && TYPE.DOUBLE == gts.type) {
+      primitive = (WarpScriptDoubleAggregatorFunction) mapper;
+    }
+
+    //
+    // Maintain the result incrementally as the window slides if the mapper supports it.
+    // The window is created lazily and recreated if it does not slide in the expected direction.
+    //
+
+    WarpScriptSlidingWindowMapperFunction sliding = null;
+    SlidingWindow window = null;
+    // Range of indices of 'gts' currently in the window
+    int wfrom = 0;
+    int wto = 0;
+
+    if (null == stack && mapper instanceof WarpScriptMapperFunction && mapper instanceof WarpScriptSlidingWindowMapperFunction && (TYPE.LONG == gts.type || TYPE.DOUBLE == gts.type)) {
+      // Window indices refer to the datapoints of 'gts' sorted by ascending ticks
+      sort(gts);
+      sliding = (WarpScriptSlidingWindowMapperFunction) mapper;
+      if (null == sliding.newWindow(gts.ticks, gts.locations, gts.elevations, TYPE.LONG == gts.type ? gts.longValues : null, TYPE.DOUBLE == gts.type ? gts.doubleValues : null)) {
+        sliding = null;
+      }
+    }
+
+    int[] range = new int[2];
+
     while (idx < nticks) {
 
       if (hasOccurrences && 0 == occurrences) {
@@ -5318,11 +5597,63 @@ public class GTSHelper {
       // Extract values
       //
 
-      subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
+      if (null == primitive && null == sliding) {
+        subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
+      }
 
       Object mapResult = null;
 
-      if (null != stack) {
+      if (null != sliding) {
+        int from = reversed ? wfrom : wto;
+        int to = from;
+
+        if (subSerieRange(gts, start, stop, range)) {
+          from = range[0];
+          to = range[1];
+        }
+
+        if (null != window && !reversed && from >= wfrom && to >= wto) {
+          for (int i = wfrom; i < Math.min(from, wto); i++) {
+            window.evict(i);
+          }
+          for (int i = Math.max(from, wto); i < to; i++) {
+            window.add(i);
+          }
+        } else if (null != window && reversed && from <= wfrom && to <= wto) {
+          for (int i = wto - 1; i >= Math.max(to, wfrom); i--) {
+            window.evict(i);
+          }
+          for (int i = Math.min(to, wfrom) - 1; i >= from; i--) {
+            window.add(i);
+          }
+        } else {
+          window = sliding.newWindow(gts.ticks, gts.locations, gts.elevations, TYPE.LONG == gts.type ? gts.longValues : null, TYPE.DOUBLE == gts.type ? gts.doubleValues : null);
+          if (reversed) {
+            for (int i = to - 1; i >= from; i--) {
+              window.add(i);
+            }
+          } else {
+            for (int i = from; i < to; i++) {
+              window.add(i);
+            }
+          }
+        }
+
+        wfrom = from;
+        wto = to;
+
+        mapResult = window.emit(tick);
+      } else if (null != primitive) {
+        int from = 0;
+        int to = 0;
+
+        if (subSerieRange(gts, start, stop, range)) {
+          from = range[0];
+          to = range[1];
+        }
+
+        mapResult = primitive.apply(tick, gts.ticks, gts.locations, gts.elevations, gts.doubleValues, from, to);
+      } else if (null != stack) {
         if (mapper instanceof Macro) {
           subgts.safeSetMetadata(mapped.getMetadata());
           stack.push(subgts);
@@ -6043,6 +6374,8 @@ public class GTSHelper {
     // and decrement the duplicate count
     //
     
+    clone.unshare();
+    
     int offset = 0;
       
     while(idx + offset < clone.values) {
@@ -6106,6 +6439,8 @@ public class GTSHelper {
     boolean setLocations = gts.locations != null;
     boolean setElevations = gts.elevations != null;
     
+    clone.unshare();
+    
     int i = 0;
     while (i < clone.values) {
       
@@ -7073,6 +7408,29 @@ public class GTSHelper {
       long[] elevations = new long[idx.length];
       Object[] values = new Object[idx.length];
       
+      //
+      // If the reducer supports it and all GTS are of type DOUBLE, values are not
+      // boxed for the ticks at which all GTS have a value
+      //
+      
+      WarpScriptDoubleAggregatorFunction primitive = null;
+      double[] dvalues = null;
+      boolean[] hasValue = null;
+      
+      if (reducer instanceof WarpScriptDoubleAggregatorFunction) {
+        primitive = (WarpScriptDoubleAggregatorFunction) reducer;
+        for (GeoTimeSerie gts: partitionSeries) {
+          if (TYPE.DOUBLE != gts.type) {
+            primitive = null;
+            break;
+          }
+        }
+        if (null != primitive) {
+          dvalues = new double[idx.length];
+          hasValue = new boolean[idx.length];
+        }
+      }
+      
       //
       // Reducers have 7 parameters (similar to those of binary ops and mappers)
       //
@@ -7116,6 +7474,12 @@ public class GTSHelper {
         // instances whose current tick is 'smallest'
         //
         
+        int present = 0;
+        
+        if (null != primitive) {
+          Arrays.fill(hasValue, false);
+        }
+        
         for (int i = 0; i < idx.length; i++) {
           GeoTimeSerie gts = partitionSeries.get(i); 
           if (idx[i] < gts.values && smallest == gts.ticks[idx[i]]) {
@@ -7124,7 +7488,13 @@ public class GTSHelper {
 
             locations[i] = null != gts.locations ? gts.locations[idx[i]] : GeoTimeSerie.NO_LOCATION;
             elevations[i] = null != gts.elevations ? gts.elevations[idx[i]] : GeoTimeSerie.NO_ELEVATION;
-            values[i] = GTSHelper.valueAtIndex(gts, idx[i]);
+            if (null != primitive) {
+              dvalues[i] = gts.doubleValues[idx[i]];
+              hasValue[i] = true;
+              present++;
+            } else {
+              values[i] = GTSHelper.valueAtIndex(gts, idx[i]);
+            }
             // Advance idx[i] since it was the smallest tick.
             idx[i]++;
           } else {
@@ -7147,15 +7517,30 @@ public class GTSHelper {
         //            ticks/locations/elevations/values would be arrays of arrays and an 8th param
         //            could contain the values.
         
-        params[0] = smallest;
-        params[1] = names;
-        params[2] = lbls;
-        params[3] = ticks;
-        params[4] = locations;
-        params[5] = elevations;
-        params[6] = values;
-                
-        Object reducerResult = reducer.apply(params);
+        Object reducerResult;
+        
+        if (null != primitive && present == idx.length) {
+          reducerResult = primitive.apply(smallest, ticks, locations, elevations, dvalues, 0, idx.length);
+        } else {
+          if (null != primitive) {
+            // Some GTS have no value at this tick, box the values of the others
+            for (int i = 0; i < idx.length; i++) {
+              if (hasValue[i]) {
+                values[i] = dvalues[i];
+              }
+            }
+          }
+          
+          params[0] = smallest;
+          params[1] = names;
+          params[2] = lbls;
+          params[3] = ticks;
+          params[4] = locations;
+          params[5] = elevations;
+          params[6] = values;
+                  
+          reducerResult = reducer.apply(params);
+        }
         
         if (reducerResult instanceof Map) {
           for (Entry<Object,Object> entry: ((Map<Object,Object>) reducerResult).entrySet()) {
@@ -7403,6 +7788,8 @@ public class GTSHelper {
     // Now scan the ticks and remove duplicate value/location/elevation tuples
     //
     
+    clone.unshare();
+    
     int idx = 0;
     int offset = 0;
     // Start at index 1 so we keep the first value
@@ -9025,8 +9412,13 @@ public class GTSHelper {
 
     GeoTimeSerie scaled = gts.clone();
 
+    // Only the ticks are copied, the other arrays remain shared with 'gts'
+    if (null != gts.ticks) {
+      scaled.ticks = new long[gts.values];
+    }
+
     for (int i = 0; i < scaled.values; i++) {
-      scaled.ticks[i] = (long) (scaled.ticks[i] * scale);
+      scaled.ticks[i] = (long) (gts.ticks[i] * scale);
     }
 
     if (scaled.sorted && scale < 0.0D) {
@@ -9573,6 +9965,10 @@ public class GTSHelper {
     if (p < 1) {
       throw new WarpScriptException("Degree of polynomial fit must be greater than 0");
     }
+
+    if (inplace) {
+      gts.unshare();
+    }
     
     if (p > 9) {
       throw new WarpScriptException("Degree of polynomial fit should remain small (lower than 10)");
@@ -10481,6 +10877,8 @@ public class GTSHelper {
     // Make sure dest is not UNDEFINED
     dest.type = src.type;
 
+    dest.unshare();
+
     // Make sure all receiving arrays are initialized and big enough
     int destMinLength = destPos + length;
 
@@ -11184,6 +11582,16 @@ public class GTSHelper {
   }
   
   public static void dump(GTSEncoder encoder, PrintWriter pw) {
+    dump(encoder, pw, true);
+  }
+  
+  /**
+   * Dump an encoder in the GTS input format
+   * 
+   * @param attributes If false, no attributes are output, not even an empty set,
+   *                   so the attributes of the GTS are left untouched when the output is ingested
+   */
+  public static void dump(GTSEncoder encoder, PrintWriter pw, boolean attributes) {
     StringBuilder sb = new StringBuilder(" ");
     Metadata meta = encoder.getMetadata();
     
@@ -11205,7 +11613,9 @@ public class GTSHelper {
       sb.append("{}");
     }
     
-    if (meta.getAttributesSize() > 0) {
+    if (!attributes) {
+      // Do not output attributes
+    } else if (meta.getAttributesSize() > 0) {
       sb.append("{");
       boolean first = true;    
       for (Entry<String,String> entry: meta.getAttributes().entrySet()) {
@@ -11326,6 +11736,7 @@ public class GTSHelper {
 
   public static void booleanNot(GeoTimeSerie gts) throws WarpScriptException {
     if (GeoTimeSerie.TYPE.BOOLEAN == gts.getType()) {
+      gts.unshare();
       gts.booleanValues.flip(0, gts.booleanValues.length());
     } else {
       throw new WarpScriptException("Non boolean Geo Time Series.");
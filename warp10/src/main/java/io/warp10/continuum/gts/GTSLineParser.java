@@ -0,0 +1,685 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.geoxp.GeoXPLib;
+
+import io.warp10.WarpURLDecoder;
+import io.warp10.continuum.MetadataUtils;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.ingress.SeriesCache;
+
+/**
+ * Parser of the GTS input format working directly on the bytes of an input stream.
+ *
+ * Lines are read in a reusable buffer and parsed in place. The name and labels of a
+ * series are only decoded when they differ from those of the previous line, timestamps,
+ * locations, elevations and the common LONG, DOUBLE and BOOLEAN values are parsed from
+ * the bytes without creating Strings. Other values are handed to GTSHelper.parseValue.
+ *
+ * The parsed datapoints are identical to those produced by GTSHelper.parse, which is the
+ * reference implementation of the input format, for input encoded in UTF-8.
+ */
+public class GTSLineParser {
+
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  private final InputStream in;
+
+  private byte[] buf;
+
+  /**
+   * Index of the first byte not yet read in 'buf'
+   */
+  private int pos = 0;
+
+  /**
+   * Index after the last valid byte of 'buf'
+   */
+  private int limit = 0;
+
+  private boolean eof = false;
+
+  //
+  // Bounds of the current line in 'buf'
+  //
+
+  private int lineStart = 0;
+  private int lineEnd = 0;
+
+  /**
+   * Current line as a String, only created on demand
+   */
+  private String line = null;
+
+  //
+  // Class and labels of the series of the last parsed line, as they appeared in
+  // the input and once decoded
+  //
+
+  private byte[] series = new byte[256];
+  private int seriesLength = -1;
+  private String seriesName = null;
+  private Map<String,String> seriesLabels = null;
+  private Map<String,String> seriesExtraLabels = null;
+  private GTSEncoder seriesEncoder = null;
+  private SeriesCache.Series seriesResolved = null;
+
+  //
+  // Cache of the series shared between requests
+  //
+
+  private SeriesCache seriesCache = null;
+  private byte[] seriesCachePrefix = null;
+  private Map<String,String> seriesCacheExtraLabels = null;
+
+  public GTSLineParser(InputStream in) {
+    this(in, DEFAULT_BUFFER_SIZE);
+  }
+
+  public GTSLineParser(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buf = new byte[Math.max(16, bufferSize)];
+  }
+
+  /**
+   * Resolve the series using a cache shared between requests. The cache is only used
+   * for the lines parsed with the given extra labels.
+   */
+  public void setSeriesCache(SeriesCache cache, Map<String,String> extraLabels) {
+    this.seriesCache = cache;
+    this.seriesCacheExtraLabels = extraLabels;
+    this.seriesCachePrefix = null != cache ? SeriesCache.prefix(extraLabels) : null;
+  }
+
+  /**
+   * Advance to the next line which is neither empty nor a comment. Lines are trimmed.
+   *
+   * @return true if a line is available, false if the end of the input was reached
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      int i = this.pos;
+
+      while (true) {
+        while (i < this.limit && '\n' != this.buf[i] && '\r' != this.buf[i]) {
+          i++;
+        }
+
+        if (i < this.limit || this.eof) {
+          break;
+        }
+
+        int scanned = i - this.pos;
+        fill();
+        i = this.pos + scanned;
+      }
+
+      boolean last = i >= this.limit;
+
+      int start = this.pos;
+      int end = i;
+
+      this.pos = last ? this.limit : i + 1;
+
+      // Trim the line like String.trim does
+      while (start < end && (this.buf[start] & 0xFF) <= ' ') {
+        start++;
+      }
+      while (end > start && (this.buf[end - 1] & 0xFF) <= ' ') {
+        end--;
+      }
+
+      if (start < end && '#' != this.buf[start]) {
+        this.lineStart = start;
+        this.lineEnd = end;
+        this.line = null;
+        return true;
+      }
+
+      if (last) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Move the unread bytes at the beginning of the buffer, growing it if it is full,
+   * and read more bytes from the input.
+   */
+  private void fill() throws IOException {
+    if (this.pos > 0) {
+      System.arraycopy(this.buf, this.pos, this.buf, 0, this.limit - this.pos);
+      this.limit -= this.pos;
+      this.pos = 0;
+    }
+
+    if (this.limit == this.buf.length) {
+      this.buf = Arrays.copyOf(this.buf, this.buf.length << 1);
+    }
+
+    int len = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+
+    if (len < 0) {
+      this.eof = true;
+    } else {
+      this.limit += len;
+    }
+  }
+
+  /**
+   * @return The current line as a String
+   */
+  public String getLine() {
+    if (null == this.line) {
+      this.line = new String(this.buf, this.lineStart, this.lineEnd - this.lineStart, StandardCharsets.UTF_8);
+    }
+    return this.line;
+  }
+
+  /**
+   * @return true if the current line is a continuation line, i.e. starts with '='
+   */
+  public boolean isContinuation() {
+    return '=' == this.buf[this.lineStart];
+  }
+
+  public void close() throws IOException {
+    this.in.close();
+  }
+
+  /**
+   * Parse the current line, the semantics are those of GTSHelper.parse.
+   *
+   * The decoded name and labels of the last series are reused as long as the input lines
+   * refer to the same series, 'extraLabels' should therefore not be modified between calls.
+   */
+  public GTSEncoder parse(GTSEncoder encoder, Map<String,String> extraLabels, Long now, long maxValueSize, AtomicBoolean parsedAttributes, Long maxpast, Long maxfuture, AtomicLong ignoredCount, boolean deltaAttributes) throws ParseException, IOException {
+    final byte[] buf = this.buf;
+    final int start = this.lineStart;
+    final int end = this.lineEnd;
+    final int length = end - start;
+
+    int tsoffset = 0;
+
+    if ('=' == buf[start]) {
+      if (null == encoder) {
+        throw new ParseException("Invalid continuation.", 0);
+      }
+      tsoffset = 1;
+    }
+
+    int idx = indexOf(buf, '/', start + tsoffset, end);
+
+    if (-1 == idx) {
+      throw new ParseException("Missing timestamp separator.", tsoffset);
+    }
+
+    long timestamp;
+
+    try {
+      if (start + tsoffset == idx) {
+        // No timestamp provided, use 'now'
+        timestamp = null != now ? (long) now : TimeSource.getTime();
+      } else {
+        if ('T' == buf[start + tsoffset]) {
+          // Timestamp relative to 'now'
+          timestamp = (null != now ? (long) now : TimeSource.getTime()) + parseLong(buf, start + tsoffset + 1, idx);
+        } else {
+          timestamp = parseLong(buf, start + tsoffset, idx);
+        }
+      }
+    } catch (NumberFormatException nfe) {
+      throw new ParseException("Invalid timestamp.", tsoffset);
+    }
+
+    boolean ignored = false;
+
+    if (null != maxpast && timestamp < maxpast) {
+      if (null == ignoredCount) {
+        throw new ParseException("Timestamp " + timestamp + " is too far in the past.", idx - start);
+      } else {
+        ignored = true;
+      }
+    } else if (null != maxfuture && timestamp > maxfuture) {
+      if (null == ignoredCount) {
+        throw new ParseException("Timestamp " + timestamp + " is too far in the future.", idx - start);
+      } else {
+        ignored = true;
+      }
+    }
+
+    // Advance past the '/'
+    idx++;
+
+    int idx2 = indexOf(buf, '/', idx, end);
+
+    if (-1 == idx2) {
+      throw new ParseException("Missing location/elevation separator.", idx - start);
+    }
+
+    long location = GeoTimeSerie.NO_LOCATION;
+
+    if (idx != idx2) {
+      // We have a location (lat:lon)
+      int colon = indexOf(buf, ':', idx, idx2);
+
+      try {
+        if (-1 != colon) {
+          location = GeoXPLib.toGeoXPPoint(Double.parseDouble(new String(buf, idx, colon - idx, StandardCharsets.UTF_8)), Double.parseDouble(new String(buf, colon + 1, idx2 - colon - 1, StandardCharsets.UTF_8)));
+        } else {
+          // Parse the location value as a Long
+          location = parseLong(buf, idx, idx2);
+        }
+      } catch (NumberFormatException nfe) {
+        throw new ParseException("Invalid location: '" + new String(buf, idx, idx2 - idx, StandardCharsets.UTF_8) + "'.", idx - start);
+      }
+    }
+
+    // Advance past the second '/'
+    idx = idx2 + 1;
+
+    idx2 = indexOf(buf, ' ', idx, end);
+
+    if (-1 == idx2) {
+      if (0 == tsoffset) {
+        throw new ParseException("Missing GTS name, labels and value.", idx - start);
+      } else {
+        throw new ParseException("Missing value.", idx - start);
+      }
+    }
+
+    long elevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (idx != idx2) {
+      // We have an elevation
+      try {
+        elevation = parseLong(buf, idx, idx2);
+      } catch (NumberFormatException nfe) {
+        throw new ParseException("Invalid elevation: '" + new String(buf, idx, idx2 - idx, StandardCharsets.UTF_8) + "'.", idx - start);
+      }
+    }
+
+    // Advance past the ' '
+    idx = idx2 + 1;
+
+    while (idx < end && ' ' == buf[idx]) {
+      idx++;
+    }
+
+    // If line started with '=', assume there is no class+labels component
+    if (tsoffset > 0) {
+      idx2 = -1;
+    } else {
+      idx2 = indexOf(buf, '{', idx, end);
+    }
+
+    String name = null;
+    Map<String,String> labels = null;
+    Map<String,String> attributes = null;
+
+    boolean reuseLabels = false;
+    boolean cached = false;
+    // Flag indicating the labels are shared with the series cache
+    boolean shared = false;
+    SeriesCache.Series resolved = null;
+
+    if (-1 == idx2) {
+      // If we are over the end of the line, we're missing a value
+      if (idx >= end) {
+        throw new ParseException("Missing value", idx - start);
+      }
+      // No class+labels, assume same class+labels as those in encoder
+      if (null == encoder) {
+        throw new ParseException("Missing or invalid GTS name and labels.", idx - start);
+      }
+      name = encoder.getMetadata().getName();
+      labels = encoder.getMetadata().getLabels();
+      reuseLabels = true;
+    } else {
+      int nameStart = idx;
+      int nameEnd = idx2;
+
+      // Advance past the '{'
+      idx = idx2 + 1;
+
+      idx2 = indexOf(buf, '}', idx, end);
+
+      if (-1 == idx2) {
+        throw new ParseException("Missing end of labels '}'.", length - 1);
+      }
+
+      //
+      // Reuse the name and labels of the previous series if they are identical
+      //
+
+      int serieslen = idx2 + 1 - nameStart;
+
+      if (serieslen == this.seriesLength && extraLabels == this.seriesExtraLabels && equals(buf, nameStart, this.series, serieslen)) {
+        name = this.seriesName;
+        labels = this.seriesLabels;
+        resolved = this.seriesResolved;
+        cached = true;
+      } else if (null != this.seriesCache && extraLabels == this.seriesCacheExtraLabels && null != (resolved = this.seriesCache.get(this.seriesCachePrefix, buf, nameStart, serieslen))) {
+        name = resolved.getName();
+        labels = resolved.getLabels();
+        shared = true;
+      } else {
+        name = WarpURLDecoder.decode(new String(buf, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+
+        try {
+          labels = GTSHelper.parseLabels(null != extraLabels ? extraLabels.size() : 0, new String(buf, idx, idx2 - idx, StandardCharsets.UTF_8));
+        } catch (ParseException pe) {
+          ParseException newpe = new ParseException("Invalid label definition.", pe.getErrorOffset() + idx - start);
+          newpe.initCause(pe);
+          throw newpe;
+        }
+      }
+
+      // Advance past the '}'
+      idx = idx2 + 1;
+
+      if (idx < end && '{' == buf[idx]) {
+        idx++;
+        int attrstart = idx;
+        while (idx < end && '}' != buf[idx]) {
+          idx++;
+        }
+        if (null != parsedAttributes) {
+          if (idx >= end) {
+            throw new ParseException("Missing end of attributes '}'.", length - 1);
+          }
+          try {
+            attributes = GTSHelper.parseLabels(new String(buf, attrstart, idx - attrstart, StandardCharsets.UTF_8));
+          } catch (ParseException pe) {
+            ParseException newpe = new ParseException("Invalid attribute definition.", pe.getErrorOffset() + idx - start);
+            newpe.initCause(pe);
+            throw newpe;
+          }
+          // Set the atomic boolean to true to indicate that attributes were parsed
+          parsedAttributes.set(true);
+        }
+        idx++;
+      }
+
+      while (idx < end && ' ' == buf[idx]) {
+        idx++;
+      }
+
+      if (idx >= end) {
+        throw new ParseException("Missing value.", length - 1);
+      }
+
+      if (!cached && !shared) {
+        //
+        // Add any provided extra labels, see GTSHelper.parse
+        //
+
+        if (null != extraLabels) {
+          labels.putAll(extraLabels);
+
+          if (extraLabels.containsValue(null)) {
+            Set<Entry<String,String>> entries = extraLabels.entrySet();
+
+            while (labels.containsValue(null)) {
+              for (Entry<String,String> entry: entries) {
+                if (null == entry.getValue()) {
+                  labels.remove(entry.getKey());
+                }
+              }
+            }
+          }
+        }
+
+        if (null != this.seriesCache && extraLabels == this.seriesCacheExtraLabels) {
+          resolved = this.seriesCache.put(this.seriesCachePrefix, buf, nameStart, serieslen, name, labels);
+        }
+      }
+
+      if (!cached) {
+        if (this.series.length < serieslen) {
+          this.series = new byte[serieslen];
+        }
+        System.arraycopy(buf, nameStart, this.series, 0, serieslen);
+        this.seriesLength = serieslen;
+        this.seriesName = name;
+        this.seriesLabels = labels;
+        this.seriesExtraLabels = extraLabels;
+        this.seriesResolved = resolved;
+        this.seriesEncoder = null;
+      }
+    }
+
+    //
+    // Extract value
+    //
+
+    Object value;
+
+    try {
+      value = parseValue(buf, idx, end);
+    } catch (ParseException pe) {
+      ParseException newpe = new ParseException("Cannot parse value.", pe.getErrorOffset() + idx - start);
+      newpe.initCause(pe);
+      throw newpe;
+    }
+
+    if (null == value) {
+      throw new ParseException("Unable to parse value '" + new String(buf, idx, end - idx, StandardCharsets.UTF_8) + "'", idx - start);
+    }
+
+    if ((value instanceof String && value.toString().length() > maxValueSize) || (value instanceof byte[] && ((byte[]) value).length > maxValueSize)) {
+      throw new ParseException("Value too large for GTS " + (null != encoder ? GTSHelper.buildSelector(encoder.getMetadata(), false) : ""), idx - start);
+    }
+
+    // Allocate a new Encoder if need be, with a base timestamp of 0L.
+    if (null == encoder || (!(cached && encoder == this.seriesEncoder) && (!name.equals(encoder.getName()) || !labels.equals(encoder.getMetadata().getLabels())))) {
+      encoder = new GTSEncoder(0L);
+      encoder.setName(name);
+      // Do not share the cached labels between encoders
+      encoder.getMetadata().setLabels(cached || shared ? new HashMap<String,String>(labels) : labels);
+      if (null != resolved) {
+        encoder.setClassId(resolved.getClassId());
+        encoder.setLabelsId(resolved.getLabelsId());
+      }
+    }
+
+    if (!reuseLabels) {
+      this.seriesEncoder = encoder;
+    }
+
+    // Update the attributes if some were parsed
+    if (null != attributes) {
+      if (!deltaAttributes) {
+        encoder.getMetadata().setAttributes(attributes);
+      } else {
+        if (0 == encoder.getMetadata().getAttributesSize()) {
+          encoder.getMetadata().setAttributes(new HashMap<String,String>());
+        }
+        for (Entry<String,String> attr: attributes.entrySet()) {
+          if ("".equals(attr.getValue())) {
+            encoder.getMetadata().getAttributes().remove(attr.getKey());
+          } else {
+            encoder.getMetadata().putToAttributes(attr.getKey(), attr.getValue());
+          }
+        }
+      }
+    }
+
+    if (!ignored) {
+      encoder.addValue(timestamp, location, elevation, value);
+    } else {
+      ignoredCount.addAndGet(1);
+    }
+
+    // Check labels/attributes sizes, subtract 6 to account for '// {} '
+    // Subtract value length
+    if (length - 6 - (end - idx) > MetadataUtils.SIZE_THRESHOLD && !MetadataUtils.validateMetadata(encoder.getMetadata())) {
+      throw new ParseException("Invalid or too large metadata", 0);
+    }
+
+    return encoder;
+  }
+
+  /**
+   * Parse a value, the LONG, DOUBLE and BOOLEAN values in their common forms are parsed
+   * from the bytes, the other ones are parsed by GTSHelper.parseValue.
+   */
+  private static Object parseValue(byte[] buf, int from, int to) throws ParseException {
+    int len = to - from;
+    byte first = buf[from];
+
+    if ((first >= '0' && first <= '9') || '-' == first || '+' == first) {
+      int i = from;
+
+      boolean negative = '-' == first;
+
+      if ('-' == first || '+' == first) {
+        i++;
+      }
+
+      long mantissa = 0L;
+      int digits = 0;
+      int scale = -1;
+
+      while (i < to) {
+        byte b = buf[i];
+        if (b >= '0' && b <= '9') {
+          // Beyond 18 digits the mantissa may overflow, use the generic path
+          if (18 == digits) {
+            break;
+          }
+          mantissa = mantissa * 10L + (b - '0');
+          digits++;
+          if (scale >= 0) {
+            scale++;
+          }
+        } else if ('.' == b && scale < 0) {
+          scale = 0;
+        } else {
+          break;
+        }
+        i++;
+      }
+
+      if (i == to && digits > 0) {
+        if (scale < 0) {
+          return negative ? -mantissa : mantissa;
+        } else if (len <= 15) {
+          // Same heuristics as in GTSHelper.parseValue
+          return BigDecimal.valueOf(negative ? -mantissa : mantissa, scale);
+        }
+      }
+    } else if (1 == len && ('t' == first || 'T' == first)) {
+      return Boolean.TRUE;
+    } else if (1 == len && ('f' == first || 'F' == first)) {
+      return Boolean.FALSE;
+    } else if (4 == len && equalsIgnoreCase(buf, from, "true")) {
+      return Boolean.TRUE;
+    } else if (5 == len && equalsIgnoreCase(buf, from, "false")) {
+      return Boolean.FALSE;
+    }
+
+    return GTSHelper.parseValue(new String(buf, from, len, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parse a long with the same semantics as Long.parseLong for ASCII input
+   */
+  static long parseLong(byte[] buf, int from, int to) throws NumberFormatException {
+    if (from >= to) {
+      throw new NumberFormatException();
+    }
+
+    int i = from;
+    boolean negative = false;
+    long limit = -Long.MAX_VALUE;
+
+    byte first = buf[i];
+
+    if (first < '0') {
+      if ('-' == first) {
+        negative = true;
+        limit = Long.MIN_VALUE;
+      } else if ('+' != first) {
+        throw new NumberFormatException();
+      }
+      i++;
+      if (i == to) {
+        throw new NumberFormatException();
+      }
+    }
+
+    long multmin = limit / 10L;
+    long result = 0L;
+
+    // Accumulate negatively to handle Long.MIN_VALUE
+    while (i < to) {
+      int digit = buf[i++] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw new NumberFormatException();
+      }
+      result *= 10L;
+      if (result < limit + digit) {
+        throw new NumberFormatException();
+      }
+      result -= digit;
+    }
+
+    return negative ? result : -result;
+  }
+
+  private static int indexOf(byte[] buf, char c, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (c == buf[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean equals(byte[] a, int offset, byte[] b, int len) {
+    for (int i = 0; i < len; i++) {
+      if (a[offset + i] != b[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean equalsIgnoreCase(byte[] buf, int offset, String lower) {
+    for (int i = 0; i < lower.length(); i++) {
+      if ((buf[offset + i] | 0x20) != lower.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -158,6 +158,8 @@ public class GTSOutliersHelper {
     
     GeoTimeSerie gts_ = inplace ? gts : gts.clone();
     
+    gts_.unshare();
+    
     for (int i = 0; i < gts_.values; i++) { 
       gts_.doubleValues[i] = (gts_.doubleValues[i] - m) / std;
     }
@@ -594,6 +596,8 @@ public class GTSOutliersHelper {
       
       // we don't start from the first bucket
       subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
+      // subgts is modified in place below, it must not share the arrays of gts
+      subgts.unshare();
       subgts.lastbucket = stop;
       subgts.bucketcount = bpp;
       subgts.bucketspan = bs;
@@ -679,6 +683,8 @@ public class GTSOutliersHelper {
       
       // we don't start from the first bucket
       subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
+      // subgts is modified in place below, it must not share the arrays of gts
+      subgts.unshare();
       subgts.lastbucket = stop;
       subgts.bucketcount = bpp;
       subgts.bucketspan = bs;
@@ -36,8 +36,21 @@ public class GTSWrapperHelper {
   public static final double DEFAULT_COMP_RATIO_THRESHOLD = 100.0D;
   
   public static GTSDecoder fromGTSWrapperToGTSDecoder(GTSWrapper wrapper) {    
-    byte[] unwrapped = unwrapEncoded(wrapper);
-    
+    return fromGTSWrapperToGTSDecoder(wrapper, unwrapEncoded(wrapper));
+  }
+  
+  /**
+   * Convert a GTSWrapper into a GTSDecoder, limiting the work done to uncompress its content.
+   * 
+   * @param maxsize Maximum size of the content after each decompression pass
+   * @param maxpasses Maximum number of compression passes
+   * @throws IOException if the content is invalid or exceeds one of the limits
+   */
+  public static GTSDecoder fromGTSWrapperToGTSDecoder(GTSWrapper wrapper, long maxsize, int maxpasses) throws IOException {
+    return fromGTSWrapperToGTSDecoder(wrapper, unwrapEncoded(wrapper, maxsize, maxpasses));
+  }
+  
+  private static GTSDecoder fromGTSWrapperToGTSDecoder(GTSWrapper wrapper, byte[] unwrapped) {
     GTSDecoder decoder = new GTSDecoder(wrapper.getBase(), ByteBuffer.wrap(unwrapped).order(ByteOrder.BIG_ENDIAN));
     if (wrapper.isSetMetadata()) {
       decoder.setMetadata(wrapper.getMetadata());
@@ -243,9 +256,19 @@ public class GTSWrapperHelper {
   }
   
   public static GTSWrapper fromGTSToGTSWrapper(GeoTimeSerie gts, boolean compress, double compratio, int maxpasses, boolean optimized, boolean setCount) {
+    return fromGTSToGTSWrapper(gts, compress, compratio, maxpasses, optimized, setCount, false);
+  }
+
+  /**
+   * Convert a GeoTimeSerie into a GTSWrapper
+   *
+   * @param doubleXOR Set to true to XOR encode double values, the resulting wrapper can only be unwrapped by versions supporting XOR encoding.
+   */
+  public static GTSWrapper fromGTSToGTSWrapper(GeoTimeSerie gts, boolean compress, double compratio, int maxpasses, boolean optimized, boolean setCount, boolean doubleXOR) {
 
     GTSEncoder encoder = new GTSEncoder(0L);
     encoder.setMetadata(gts.getMetadata());
+    encoder.setDoubleXOR(doubleXOR);
     
     try {
       if (optimized && TYPE.DOUBLE == gts.getType()) {
@@ -312,26 +335,48 @@ public class GTSWrapperHelper {
    * @return the raw encoded data
    */
   private static byte[] unwrapEncoded(GTSWrapper wrapper) {
+    try {
+      return unwrapEncoded(wrapper, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    } catch (IOException ioe) {
+      throw new RuntimeException("Invalid compressed content.");
+    }
+  }
+  
+  /**
+   * Extract the encoded data, removing compression if needed. Each decompression pass stops
+   * as soon as its output exceeds 'maxsize' so a small wrapper cannot inflate to an arbitrary size.
+   * 
+   * @param wrapper from which to extract the encoded data
+   * @param maxsize Maximum size of the content after each decompression pass
+   * @param maxpasses Maximum number of compression passes
+   * @return the raw encoded data
+   * @throws IOException if the compressed content is invalid or exceeds one of the limits
+   */
+  public static byte[] unwrapEncoded(GTSWrapper wrapper, long maxsize, int maxpasses) throws IOException {
     
     if (!wrapper.isCompressed()) {
       return wrapper.getEncoded();
     }
+    
+    int pass = wrapper.getCompressionPasses();
+    
+    if (pass > maxpasses) {
+      throw new IOException("Compressed content has " + pass + " compression passes, more than the maximum of " + maxpasses + ".");
+    }
         
     byte[] bytes = wrapper.getEncoded();
    
     ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length);
-
-    int pass = wrapper.getCompressionPasses();
+    
+    byte[] buf = new byte[1024];
     
     while(pass > 0) {
       ByteArrayInputStream in = new ByteArrayInputStream(bytes);
       baos.reset();
       
+      GZIPInputStream gzis = new GZIPInputStream(in, 2048);
+      
       try {
-        GZIPInputStream gzis = new GZIPInputStream(in, 2048);
-        
-        byte[] buf = new byte[1024];
-        
         while(true) {
           int len = gzis.read(buf);
           
@@ -339,13 +384,16 @@ public class GTSWrapperHelper {
             break;
           }
           
+          if (baos.size() + (long) len > maxsize) {
+            throw new IOException("Compressed content exceeds " + maxsize + " bytes once uncompressed.");
+          }
+          
           baos.write(buf, 0, len);
         }
-        
-        gzis.close();          
-      } catch (IOException ioe) {
-        throw new RuntimeException("Invalid compressed content.");
+      } finally {
+        gzis.close();
       }
+      
       bytes = baos.toByteArray();
       pass--;
     }
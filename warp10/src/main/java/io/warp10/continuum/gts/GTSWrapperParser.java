@@ -0,0 +1,279 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import io.warp10.continuum.MetadataUtils;
+import io.warp10.continuum.store.thrift.data.GTSWrapper;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+/**
+ * Parser of a binary update stream, i.e. a sequence of GTSWrapper instances as produced by
+ * WRAP, each one serialized with TCompactProtocol and preceded by its length encoded as an
+ * unsigned varint. Wrappers can be compressed.
+ *
+ * The encoders produced by 'parse' obey the same rules as those produced by the parsing of
+ * the GTS input format (extra labels, value size, time limits, attributes).
+ *
+ * The size of each serialized wrapper, the size of its content once uncompressed and its
+ * number of compression passes are limited.
+ */
+public class GTSWrapperParser {
+
+  /**
+   * Content type of binary update requests
+   */
+  public static final String CONTENT_TYPE = "application/x-gts-wrappers";
+
+  /**
+   * Default maximum size of a serialized wrapper
+   */
+  public static final int DEFAULT_MAX_WRAPPER_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * Default maximum size of the encoded content of a wrapper once uncompressed
+   */
+  public static final long DEFAULT_MAX_UNCOMPRESSED_SIZE = 128 * 1024 * 1024;
+
+  /**
+   * Default maximum number of compression passes of a wrapper
+   */
+  public static final int DEFAULT_MAX_COMPRESSION_PASSES = 4;
+
+  private final InputStream in;
+
+  private final int maxWrapperSize;
+
+  private final long maxUncompressedSize;
+
+  private final int maxCompressionPasses;
+
+  private final TDeserializer deser = new TDeserializer(new TCompactProtocol.Factory());
+
+  private GTSWrapper wrapper = null;
+
+  /**
+   * Index of the current wrapper in the stream
+   */
+  private long index = -1L;
+
+  public GTSWrapperParser(InputStream in) {
+    this(in, DEFAULT_MAX_WRAPPER_SIZE);
+  }
+
+  public GTSWrapperParser(InputStream in, int maxWrapperSize) {
+    this(in, maxWrapperSize, DEFAULT_MAX_UNCOMPRESSED_SIZE, DEFAULT_MAX_COMPRESSION_PASSES);
+  }
+
+  public GTSWrapperParser(InputStream in, int maxWrapperSize, long maxUncompressedSize, int maxCompressionPasses) {
+    this.in = in;
+    this.maxWrapperSize = maxWrapperSize;
+    this.maxUncompressedSize = maxUncompressedSize;
+    this.maxCompressionPasses = maxCompressionPasses;
+  }
+
+  /**
+   * Read the next wrapper of the stream
+   *
+   * @return false if the end of the stream was reached
+   */
+  public boolean next() throws IOException {
+    this.wrapper = null;
+
+    long len = 0L;
+    int shift = 0;
+
+    while (true) {
+      int b = this.in.read();
+
+      if (-1 == b) {
+        if (0 == shift) {
+          return false;
+        }
+        throw new EOFException("Truncated wrapper length.");
+      }
+
+      len |= (long) (b & 0x7F) << shift;
+
+      if (0 == (b & 0x80)) {
+        break;
+      }
+
+      shift += 7;
+
+      if (shift > 28) {
+        throw new IOException("Invalid wrapper length.");
+      }
+    }
+
+    this.index++;
+
+    if (len > this.maxWrapperSize) {
+      throw new IOException("Wrapper #" + this.index + " exceeds the maximum size of " + this.maxWrapperSize + " bytes.");
+    }
+
+    byte[] bytes = new byte[(int) len];
+
+    int off = 0;
+
+    while (off < bytes.length) {
+      int n = this.in.read(bytes, off, bytes.length - off);
+      if (n < 0) {
+        throw new EOFException("Truncated wrapper #" + this.index + ".");
+      }
+      off += n;
+    }
+
+    // Fresh instance so the previous wrapper is not modified
+    GTSWrapper wrapper = new GTSWrapper();
+
+    try {
+      this.deser.deserialize(wrapper, bytes);
+    } catch (TException te) {
+      throw new IOException("Invalid wrapper #" + this.index + ".", te);
+    }
+
+    this.wrapper = wrapper;
+
+    return true;
+  }
+
+  /**
+   * @return the index of the current wrapper in the stream, starting at 0
+   */
+  public long getIndex() {
+    return this.index;
+  }
+
+  /**
+   * Convert the current wrapper to an encoder
+   *
+   * @param extraLabels Labels to add to (or remove from if their value is null) those of the wrapper
+   * @param maxValueSize Maximum size of STRING and BINARY values
+   * @param parsedAttributes Set to true if the wrapper has attributes, attributes are ignored if null
+   * @param maxpast Timestamp below which datapoints are rejected, or null
+   * @param maxfuture Timestamp above which datapoints are rejected, or null
+   * @param ignoredCount If not null, out of range datapoints are counted and ignored instead of being rejected
+   * @return A new encoder with the Metadata and datapoints of the wrapper, class and labels Ids are not set
+   */
+  public GTSEncoder parse(Map<String,String> extraLabels, long maxValueSize, AtomicBoolean parsedAttributes, Long maxpast, Long maxfuture, AtomicLong ignoredCount) throws ParseException, IOException {
+    if (null == this.wrapper) {
+      throw new IOException("No current wrapper.");
+    }
+
+    if (!this.wrapper.isSetMetadata() || null == this.wrapper.getMetadata().getName()) {
+      throw new ParseException("Missing class name in wrapper #" + this.index + ".", 0);
+    }
+
+    Metadata wmeta = this.wrapper.getMetadata();
+
+    Map<String,String> labels = new HashMap<String,String>();
+
+    if (wmeta.getLabelsSize() > 0) {
+      labels.putAll(wmeta.getLabels());
+    }
+
+    if (null != extraLabels) {
+      labels.putAll(extraLabels);
+
+      if (extraLabels.containsValue(null)) {
+        Set<Entry<String,String>> entries = extraLabels.entrySet();
+
+        while (labels.containsValue(null)) {
+          for (Entry<String,String> entry: entries) {
+            if (null == entry.getValue()) {
+              labels.remove(entry.getKey());
+            }
+          }
+        }
+      }
+    }
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setName(wmeta.getName());
+    encoder.getMetadata().setLabels(labels);
+
+    // Empty attributes are ignored so they do not clear the existing ones
+    if (null != parsedAttributes && wmeta.getAttributesSize() > 0) {
+      encoder.getMetadata().setAttributes(new HashMap<String,String>(wmeta.getAttributes()));
+      parsedAttributes.set(true);
+    }
+
+    if (!MetadataUtils.validateMetadata(encoder.getMetadata())) {
+      throw new ParseException("Invalid or too large metadata in wrapper #" + this.index + ".", 0);
+    }
+
+    if (!this.wrapper.isSetEncoded() || 0 == this.wrapper.getEncoded().length) {
+      return encoder;
+    }
+
+    GTSDecoder decoder = null;
+
+    // Invalid or oversized compressed content is an error of the input, not of the server
+    try {
+      decoder = GTSWrapperHelper.fromGTSWrapperToGTSDecoder(this.wrapper, this.maxUncompressedSize, this.maxCompressionPasses);
+    } catch (IOException ioe) {
+      throw new ParseException("Invalid content in wrapper #" + this.index + ": " + ioe.getMessage(), 0);
+    }
+
+    while (decoder.next()) {
+      long timestamp = decoder.getTimestamp();
+
+      if (null != maxpast && timestamp < maxpast) {
+        if (null == ignoredCount) {
+          throw new ParseException("Timestamp " + timestamp + " is too far in the past.", 0);
+        }
+        ignoredCount.addAndGet(1);
+        continue;
+      } else if (null != maxfuture && timestamp > maxfuture) {
+        if (null == ignoredCount) {
+          throw new ParseException("Timestamp " + timestamp + " is too far in the future.", 0);
+        }
+        ignoredCount.addAndGet(1);
+        continue;
+      }
+
+      Object value = decoder.getBinaryValue();
+
+      if ((value instanceof String && value.toString().length() > maxValueSize) || (value instanceof byte[] && ((byte[]) value).length > maxValueSize)) {
+        throw new ParseException("Value too large for GTS " + GTSHelper.buildSelector(encoder.getMetadata(), false), 0);
+      }
+
+      encoder.addValue(timestamp, decoder.getLocation(), decoder.getElevation(), value);
+    }
+
+    return encoder;
+  }
+
+  public void close() throws IOException {
+    this.in.close();
+  }
+}
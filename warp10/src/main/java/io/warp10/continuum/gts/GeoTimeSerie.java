@@ -45,6 +45,7 @@ public class GeoTimeSerie implements Cloneable {
   
   /**
    * Factor by which we grow arrays when they filled up.
+   * Growth is geometric so appending values has an amortized constant cost.
    */
   static final float ARRAY_GROWTH_FACTOR = 0.2F;
   
@@ -54,12 +55,6 @@ public class GeoTimeSerie implements Cloneable {
    */
   static final int MIN_ARRAY_GROWTH = 64;
   
-  /**
-   * Maximum number of elements to add to arrays when growing them.
-   * 32768 represents ~1Mb when location/elevation are present
-   */
-  static final int MAX_ARRAY_GROWTH = 32768;
-  
   /**
    * Value used for elevation when there is no elevation.
    */
@@ -157,6 +152,13 @@ public class GeoTimeSerie implements Cloneable {
    */
   boolean reversed = false;
 
+  /**
+   * Flag indicating that the arrays may be referenced by another GeoTimeSerie
+   * instance, typically a clone. Arrays must be copied by calling 'unshare'
+   * before being modified in place.
+   */
+  boolean shared = false;
+
   private Metadata metadata;
   
   /**
@@ -324,46 +326,83 @@ public class GeoTimeSerie implements Cloneable {
     return this.values;
   }
   
+  /**
+   * Clone this Geo Time Series.
+   * 
+   * The arrays are not copied but shared by both instances until one of them
+   * is modified, so cloning is cheap whatever the size of the series.
+   */
   @Override
   public GeoTimeSerie clone() {
     GeoTimeSerie serie = cloneEmpty();
     
     serie.type = this.type;
     
-    if (null != this.ticks) {
-      serie.ticks = Arrays.copyOf(this.ticks, this.values);
-    }
-    if (null != this.locations) {
-      serie.locations = Arrays.copyOf(this.locations, this.values);
-    }
-    if (null != this.elevations) {
-      serie.elevations = Arrays.copyOf(this.elevations, this.values);
-    }
+    serie.ticks = this.ticks;
+    serie.locations = this.locations;
+    serie.elevations = this.elevations;
     
     //
-    // Only copy the relevant arrays.
+    // Only share the relevant arrays.
     //
     
-    if (TYPE.BOOLEAN == this.type && null != this.booleanValues) {
-      serie.booleanValues = (BitSet) this.booleanValues.clone();
+    if (TYPE.BOOLEAN == this.type) {
+      serie.booleanValues = this.booleanValues;
     }
-    if (TYPE.DOUBLE == this.type && null != this.doubleValues) {
-      serie.doubleValues = Arrays.copyOf(this.doubleValues, this.values);
+    if (TYPE.DOUBLE == this.type) {
+      serie.doubleValues = this.doubleValues;
     }
-    if (TYPE.LONG == this.type && null != this.longValues) {
-      serie.longValues = Arrays.copyOf(this.longValues, this.values);
+    if (TYPE.LONG == this.type) {
+      serie.longValues = this.longValues;
     }
-    if (TYPE.STRING == this.type && null != this.stringValues) {
-      serie.stringValues = Arrays.copyOf(this.stringValues, this.values);
+    if (TYPE.STRING == this.type) {
+      serie.stringValues = this.stringValues;
     }
     
     serie.values = this.values;
     serie.sorted = this.sorted;
     serie.reversed = this.reversed;
     
+    this.shared = true;
+    serie.shared = true;
+    
     return serie;
   }
   
+  /**
+   * Copy the arrays if they may be referenced by another instance, so they can
+   * be modified in place. This MUST be called prior to any in place modification.
+   */
+  void unshare() {
+    if (!this.shared) {
+      return;
+    }
+    
+    if (null != this.ticks) {
+      this.ticks = this.ticks.clone();
+    }
+    if (null != this.locations) {
+      this.locations = this.locations.clone();
+    }
+    if (null != this.elevations) {
+      this.elevations = this.elevations.clone();
+    }
+    if (null != this.booleanValues) {
+      this.booleanValues = (BitSet) this.booleanValues.clone();
+    }
+    if (null != this.doubleValues) {
+      this.doubleValues = this.doubleValues.clone();
+    }
+    if (null != this.longValues) {
+      this.longValues = this.longValues.clone();
+    }
+    if (null != this.stringValues) {
+      this.stringValues = this.stringValues.clone();
+    }
+    
+    this.shared = false;
+  }
+  
   /**
    * Clone everything except the type/values/locations/elevations.
    * 
@@ -492,6 +531,7 @@ public class GeoTimeSerie implements Cloneable {
     this.booleanValues = null;
     this.stringValues = null;
     this.sorted = false;
+    this.shared = false;
     this.values = size;
     this.sizehint = n;
     
@@ -514,6 +554,7 @@ public class GeoTimeSerie implements Cloneable {
     this.booleanValues = null;
     this.stringValues = null;
     this.sorted = false;
+    this.shared = false;
     this.values = size;
     this.sizehint = n;
     
@@ -536,6 +577,7 @@ public class GeoTimeSerie implements Cloneable {
     this.booleanValues = null;
     this.stringValues = values;
     this.sorted = false;
+    this.shared = false;
     this.values = size;
     this.sizehint = n;
     
@@ -558,6 +600,7 @@ public class GeoTimeSerie implements Cloneable {
     this.booleanValues = values;
     this.stringValues = null;
     this.sorted = false;
+    this.shared = false;
     this.values = size;
     this.sizehint = n;
     
@@ -76,6 +76,8 @@ public class INTERPOLATE extends GTSStackFunction {
       return filled;
     }
     
+    filled.unshare();
+    
     //
     // Extract initial number of values
     //
@@ -103,6 +103,7 @@ import io.warp10.continuum.egress.EgressFetchHandler;
 import io.warp10.continuum.egress.ThriftDirectoryClient;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GTSLineParser;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.DirectoryClient;
@@ -296,6 +297,11 @@ public class Ingress extends AbstractHandler implements Runnable {
   
   final boolean allowDeltaAttributes;
   
+  /**
+   * Cache of the series ingested by /update, null if disabled
+   */
+  private final SeriesCache seriesCache;
+  
   public Ingress(KeyStore keystore, Properties props) {
 
     //
@@ -473,6 +479,15 @@ public class Ingress extends AbstractHandler implements Runnable {
       this.plugin = null;
     }
     
+    int seriesCacheSize = Integer.parseInt(props.getProperty(Configuration.INGRESS_SERIES_CACHE_SIZE, "0"));
+    
+    // The cache is not used with a plugin as it could modify the series
+    if (seriesCacheSize > 0 && null == this.plugin) {
+      this.seriesCache = new SeriesCache(seriesCacheSize, this.classKey, this.labelsKey);
+    } else {
+      this.seriesCache = null;
+    }
+    
     ///???? dataProps.setProperty("block.on.buffer.full", "true");
     
     // FIXME(hbs): compression does not work
@@ -837,13 +852,17 @@ public class Ingress extends AbstractHandler implements Runnable {
           gzipped = true;
         }
         
-        BufferedReader br = null;
+        GTSLineParser parser = null;
             
         if (gzipped) {
           GZIPInputStream is = new GZIPInputStream(request.getInputStream());
-          br = new BufferedReader(new InputStreamReader(is));
+          parser = new GTSLineParser(is);
         } else {    
-          br = request.getReader();
+          parser = new GTSLineParser(request.getInputStream());
+        }
+
+        if (null != this.seriesCache) {
+          parser.setSeriesCache(this.seriesCache, extraLabels);
         }
         
         Long now = TimeSource.getTime();
@@ -1015,26 +1034,16 @@ public class Ingress extends AbstractHandler implements Runnable {
             hadAttributes.set(false);
           }
           
-          String line = br.readLine();
-          
-          if (null == line) {
+          // Lines are trimmed, empty lines and lines which start with '#' are skipped by the parser
+          if (!parser.next()) {
             break;
           }
-        
-          if ("".equals(line)) {
-            continue;
-          }
-          
-          // Skip lines which start with '#'
-          if ('#' == line.charAt(0)) {
-            continue;
-          }
                     
           try {
-            encoder = GTSHelper.parse(lastencoder, line, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes);
+            encoder = parser.parse(lastencoder, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes);
             if (null != this.plugin) {
               GTSEncoder enc = encoder;
-              if (!this.plugin.update(this, writeToken, line, encoder)) {                
+              if (!this.plugin.update(this, writeToken, parser.getLine(), encoder)) {                
                 hadAttributes.set(false);
                 continue;
               }
@@ -1043,7 +1052,7 @@ public class Ingress extends AbstractHandler implements Runnable {
           } catch (ParseException pe) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_PARSEERRORS, sensisionLabels, 1);
             httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
-            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + line + "'", pe);
+            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + parser.getLine() + "'", pe);
           }
                   
           if (encoder != lastencoder || dms.get() + 16 + lastencoder.size() > DATA_MESSAGES_THRESHOLD) {
@@ -1051,8 +1060,11 @@ public class Ingress extends AbstractHandler implements Runnable {
             // Determine if we should push the metadata or not
             //
             
-            encoder.setClassId(GTSHelper.classId(this.classKey, encoder.getMetadata().getName()));
-            encoder.setLabelsId(GTSHelper.labelsId(this.labelsKey, encoder.getMetadata().getLabels()));
+            // The Ids are already set if the series was resolved by the series cache
+            if (null == this.seriesCache || !encoder.getMetadata().isSetClassId()) {
+              encoder.setClassId(GTSHelper.classId(this.classKey, encoder.getMetadata().getName()));
+              encoder.setLabelsId(GTSHelper.labelsId(this.labelsKey, encoder.getMetadata().getLabels()));
+            }
 
             GTSHelper.fillGTSIds(bytes, 0, encoder.getClassId(), encoder.getLabelsId());
 
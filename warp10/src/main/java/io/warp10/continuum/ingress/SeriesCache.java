@@ -0,0 +1,252 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.ingress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.sensision.Sensision;
+
+/**
+ * Bounded LRU cache of the series seen on the ingestion path.
+ *
+ * Entries are keyed by the raw bytes of the class and labels of a series as they appear in
+ * the input ('class{labels}') prefixed by the extra labels added by the write token
+ * (owner, producer, application...), so the entries of different token owners never collide.
+ * Each entry holds the decoded name and labels of the series and its class and labels Ids.
+ *
+ * The cache is split in segments to reduce contention between concurrent requests.
+ */
+public class SeriesCache {
+
+  private static final int SEGMENTS = 16;
+
+  /**
+   * Series resolved from its raw bytes
+   */
+  public static final class Series {
+    private final String name;
+    private final Map<String,String> labels;
+    private final long classId;
+    private final long labelsId;
+
+    private Series(String name, Map<String,String> labels, long classId, long labelsId) {
+      this.name = name;
+      this.labels = labels;
+      this.classId = classId;
+      this.labelsId = labelsId;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return The labels of the series, including the extra labels. The map is shared and must not be modified.
+     */
+    public Map<String,String> getLabels() {
+      return this.labels;
+    }
+
+    public long getClassId() {
+      return this.classId;
+    }
+
+    public long getLabelsId() {
+      return this.labelsId;
+    }
+  }
+
+  private static final class Key {
+    private final byte[] prefix;
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int hash;
+
+    private Key(byte[] prefix, byte[] bytes, int offset, int length) {
+      this.prefix = prefix;
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+
+      int h = Arrays.hashCode(prefix);
+      for (int i = offset; i < offset + length; i++) {
+        h = 31 * h + bytes[i];
+      }
+      this.hash = h;
+    }
+
+    /**
+     * Copy the bytes so the key can be stored in the cache
+     */
+    private Key copy() {
+      return new Key(this.prefix, Arrays.copyOfRange(this.bytes, this.offset, this.offset + this.length), 0, this.length);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+
+      if (this.hash != other.hash || this.length != other.length) {
+        return false;
+      }
+
+      if (this.prefix != other.prefix && !Arrays.equals(this.prefix, other.prefix)) {
+        return false;
+      }
+
+      for (int i = 0; i < this.length; i++) {
+        if (this.bytes[this.offset + i] != other.bytes[other.offset + i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  private final long ckl0;
+  private final long ckl1;
+  private final long lkl0;
+  private final long lkl1;
+
+  private final Map<Key,Series>[] segments;
+
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  @SuppressWarnings("unchecked")
+  public SeriesCache(int maxsize, long[] classKey, long[] labelsKey) {
+    this.ckl0 = classKey[0];
+    this.ckl1 = classKey[1];
+    this.lkl0 = labelsKey[0];
+    this.lkl1 = labelsKey[1];
+
+    final int segmentsize = Math.max(1, maxsize / SEGMENTS);
+
+    this.segments = new Map[SEGMENTS];
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      this.segments[i] = new LinkedHashMap<Key,Series>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<Key,Series> eldest) {
+          if (this.size() > segmentsize) {
+            size.decrementAndGet();
+            Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_EVICTIONS, Sensision.EMPTY_LABELS, 1);
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+  }
+
+  /**
+   * Compute the prefix of the keys for a given set of extra labels
+   */
+  public static byte[] prefix(Map<String,String> extraLabels) {
+    if (null == extraLabels || extraLabels.isEmpty()) {
+      return new byte[0];
+    }
+
+    StringBuilder sb = new StringBuilder();
+
+    // Sort the extra labels so the prefix does not depend on the map order
+    for (Entry<String,String> entry: new TreeMap<String,String>(extraLabels).entrySet()) {
+      sb.append(entry.getKey());
+      sb.append('\u0000');
+      sb.append(entry.getValue());
+      sb.append('\u0000');
+    }
+
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private Map<Key,Series> segment(Key key) {
+    int h = key.hash ^ (key.hash >>> 16);
+    return this.segments[(h & 0x7FFFFFFF) % SEGMENTS];
+  }
+
+  /**
+   * Retrieve a series from the cache
+   *
+   * @param prefix Key prefix computed by 'prefix' for the extra labels of the request
+   * @param bytes Buffer containing the raw series
+   * @param offset Offset of the raw series in 'bytes'
+   * @param length Length of the raw series
+   * @return The cached series or null if it is not in the cache
+   */
+  public Series get(byte[] prefix, byte[] bytes, int offset, int length) {
+    Key key = new Key(prefix, bytes, offset, length);
+    Map<Key,Series> segment = segment(key);
+
+    Series series;
+
+    synchronized(segment) {
+      series = segment.get(key);
+    }
+
+    if (null != series) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_HITS, Sensision.EMPTY_LABELS, 1);
+    } else {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_MISSES, Sensision.EMPTY_LABELS, 1);
+    }
+
+    return series;
+  }
+
+  /**
+   * Compute the Ids of a series and store it in the cache
+   *
+   * @param labels Labels of the series, including the extra labels. They are copied.
+   * @return The cached series
+   */
+  public Series put(byte[] prefix, byte[] bytes, int offset, int length, String name, Map<String,String> labels) {
+    Series series = new Series(name, Collections.unmodifiableMap(new HashMap<String,String>(labels)), GTSHelper.classId(this.ckl0, this.ckl1, name), GTSHelper.labelsId(this.lkl0, this.lkl1, labels));
+
+    Key key = new Key(prefix, bytes, offset, length).copy();
+    Map<Key,Series> segment = segment(key);
+
+    synchronized(segment) {
+      if (null == segment.put(key, series)) {
+        this.size.incrementAndGet();
+      }
+    }
+
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_SIZE, Sensision.EMPTY_LABELS, this.size.get());
+
+    return series;
+  }
+}
@@ -108,7 +108,7 @@ public class PlasmaFrontEnd extends StandalonePlasmaHandler implements Runnable,
 
   public PlasmaFrontEnd(KeyStore keystore, final Properties properties) throws Exception {
     
-    super(keystore, properties, null, false);
+    super(keystore, properties, null);
   
     // Extract Directory PSK
     KeyStore.checkAndSetKey(keystore, KeyStore.SIPHASH_DIRECTORY_PSK, properties, Configuration.DIRECTORY_PSK, 128);
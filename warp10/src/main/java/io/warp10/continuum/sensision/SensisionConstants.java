@@ -359,6 +359,26 @@ public class SensisionConstants {
    * Number of 'update' requests which had gzipped content
    */
   public static final String SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_GZIPPED = "warp.ingress.update.gzipped";
+
+  /**
+   * Number of series found in the ingress series cache
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_HITS = "warp.ingress.seriescache.hits";
+
+  /**
+   * Number of series not found in the ingress series cache
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_MISSES = "warp.ingress.seriescache.misses";
+
+  /**
+   * Number of series evicted from the ingress series cache
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_EVICTIONS = "warp.ingress.seriescache.evictions";
+
+  /**
+   * Number of series in the ingress series cache
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_INGRESS_SERIESCACHE_SIZE = "warp.ingress.seriescache.size";
   
   /**
    * Number of parse error encountered in Ingress 'update' requests
@@ -465,6 +485,16 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_REQUESTS = "warp.standalone.update.requests";
 
+  /**
+   * Number of 'update' requests processed by the update pipeline in the standalone version of continuum
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_PIPELINED = "warp.standalone.update.pipelined";
+
+  /**
+   * Number of 'update' requests with a stream of GTS wrappers in the standalone version of continuum
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_WRAPPERS = "warp.standalone.update.wrappers";
+
   /**
    * Number of 'update' requests received by the standlone streaming version of continuum
    */
@@ -720,6 +750,16 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_CLIENT_PARALLEL_SCANNERS_MUTEX = "warp.standalone.client.scanners.parallel.mutex";
 
+  /**
+   * Number of fetch requests split into partitions in the standalone version
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_CLIENT_PARTITIONED_FETCHES = "warp.standalone.client.fetch.partitioned";
+
+  /**
+   * Number of partitions scanned by partitioned fetch requests in the standalone version
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_CLIENT_FETCH_PARTITIONS = "warp.standalone.client.fetch.partitions";
+
   /**
    * Number of failed MAC verification for Kafka messages read in 'Directory'
    */
@@ -909,6 +949,21 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_WARPSCRIPT_OPSCOUNT_EXCEEDED = "warp.script.opscount.exceeded";
 
+  /**
+   * Number of scripts found in the parse cache
+   */
+  public static final String SENSISION_CLASS_WARPSCRIPT_PARSECACHE_HITS = "warp.script.parsecache.hits";
+
+  /**
+   * Number of scripts not found in the parse cache
+   */
+  public static final String SENSISION_CLASS_WARPSCRIPT_PARSECACHE_MISSES = "warp.script.parsecache.misses";
+
+  /**
+   * Total length in characters of the scripts in the parse cache
+   */
+  public static final String SENSISION_CLASS_WARPSCRIPT_PARSECACHE_SIZE = "warp.script.parsecache.size";
+
   /**
    * Number of times the fetch limit was reached
    */
@@ -1014,6 +1069,21 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_GC_DATAPOINTS = "warp.standalone.inmemory.gc.datapoints";
 
+  /**
+   * Number of bytes of direct memory allocated for storing sealed chunks off heap
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_OFFHEAP_RESERVED = "warp.standalone.inmemory.offheap.reserved";
+
+  /**
+   * Number of bytes of direct memory in slots holding sealed chunks
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_OFFHEAP_USED = "warp.standalone.inmemory.offheap.used";
+
+  /**
+   * Number of bytes of sealed chunk content stored off heap
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_OFFHEAP_DATA = "warp.standalone.inmemory.offheap.data";
+
   /**
    * Number of cached estimators for GTS uniqueness estimation
    */
@@ -1139,6 +1209,16 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_TIME_US = "warp.plasma.frontend.dispatch.time.ns";
   
+  /**
+   * Number of publications waiting in the queues of the sessions
+   */
+  public static final String SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_QUEUED = "warp.plasma.frontend.dispatch.queued";
+
+  /**
+   * Number of publications dropped because the queue of a session was full
+   */
+  public static final String SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_DROPPED = "warp.plasma.frontend.dispatch.dropped";
+  
   /**
    * Number of distinct GTS as estimated by HLL+
    */
@@ -204,6 +204,11 @@ public class Constants {
    */
   public static final String HTTP_HEADER_ATTRIBUTES_DEFAULT = "X-Warp10-Attributes";
   
+  /**
+   * Header name for specifying the number of store lanes of an update request
+   */
+  public static final String HTTP_HEADER_UPDATE_PARALLELISM_DEFAULT = "X-Warp10-Update-Parallelism";
+  
   public static final String DATALOG_UPDATE = "UPDATE";
   public static final String DATALOG_META = "META";
   public static final String DATALOG_DELETE = "DELETE";
@@ -350,6 +355,7 @@ public class Constants {
   public static final String HTTP_PARAM_SUFFIX = "suffix";
   public static final String HTTP_PARAM_UNPACK = "unpack";
   public static final String HTTP_PARAM_CHUNKSIZE = "chunksize";
+  public static final String HTTP_PARAM_BATCHSIZE = "batchsize";
   public static final String HTTP_PARAM_ACTIVEAFTER = "activeafter";
   public static final String HTTP_PARAM_QUIETAFTER = "quietafter";
   public static final String HTTP_PARAM_LIMIT = "limit";
@@ -369,6 +375,8 @@ public class Constants {
   public static final String WARP10_FUNCTION_DOC_URL = "http://www.warp10.io/doc/";
 
   public static final int WARP_PLASMA_MAXSUBS_DEFAULT = 256000;
+  public static final int WARP_PLASMA_QUEUE_SIZE_DEFAULT = 1024;
+  public static final int WARP_PLASMA_DISPATCHERS_DEFAULT = 2;
   
   public static final String KEY_MODULUS = "modulus";
   public static final String KEY_ALGORITHM = "algorithm";
@@ -510,6 +518,7 @@ public class Constants {
     HEADERS.put(Configuration.HTTP_HEADER_EXPOSE_HEADERS, WarpConfig.getProperty(Configuration.HTTP_HEADER_EXPOSE_HEADERS, HTTP_HEADER_EXPOSE_HEADERS_DEFAULT));
     HEADERS.put(Configuration.HTTP_HEADER_DATALOG, WarpConfig.getProperty(Configuration.HTTP_HEADER_DATALOG, HTTP_HEADER_DATALOG_DEFAULT));
     HEADERS.put(Configuration.HTTP_HEADER_ATTRIBUTES, WarpConfig.getProperty(Configuration.HTTP_HEADER_ATTRIBUTES, HTTP_HEADER_ATTRIBUTES_DEFAULT));    
+    HEADERS.put(Configuration.HTTP_HEADER_UPDATE_PARALLELISM, WarpConfig.getProperty(Configuration.HTTP_HEADER_UPDATE_PARALLELISM, HTTP_HEADER_UPDATE_PARALLELISM_DEFAULT));
   }
   
   public static String getHeader(String name) {
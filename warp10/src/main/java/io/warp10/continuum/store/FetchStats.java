@@ -0,0 +1,104 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics about the scans performed to serve a fetch request.
+ * Counters may be updated concurrently by the threads scanning the partitions of a request.
+ */
+public class FetchStats {
+
+  public static final String KEY_KEYS = "keys";
+  public static final String KEY_BYTES = "bytes";
+  public static final String KEY_SEEKS = "seeks";
+  public static final String KEY_PARTITIONS = "partitions";
+
+  /**
+   * Number of keys read from the underlying store
+   */
+  private final AtomicLong keys = new AtomicLong(0L);
+
+  /**
+   * Number of bytes (keys and values) read from the underlying store
+   */
+  private final AtomicLong bytes = new AtomicLong(0L);
+
+  /**
+   * Number of seeks performed in the underlying store
+   */
+  private final AtomicLong seeks = new AtomicLong(0L);
+
+  /**
+   * Number of partitions the request was split into
+   */
+  private final AtomicLong partitions = new AtomicLong(0L);
+
+  public void read(long keylen, long valuelen) {
+    this.keys.incrementAndGet();
+    this.bytes.addAndGet(keylen + valuelen);
+  }
+
+  public void seek() {
+    this.seeks.incrementAndGet();
+  }
+
+  public void partitions(long count) {
+    this.partitions.addAndGet(count);
+  }
+
+  public long getKeys() {
+    return this.keys.get();
+  }
+
+  public long getBytes() {
+    return this.bytes.get();
+  }
+
+  public long getSeeks() {
+    return this.seeks.get();
+  }
+
+  public long getPartitions() {
+    return this.partitions.get();
+  }
+
+  /**
+   * Add the counters of another instance to those of this one
+   */
+  public void add(FetchStats stats) {
+    if (null == stats) {
+      return;
+    }
+    this.keys.addAndGet(stats.getKeys());
+    this.bytes.addAndGet(stats.getBytes());
+    this.seeks.addAndGet(stats.getSeeks());
+    this.partitions.addAndGet(stats.getPartitions());
+  }
+
+  public Map<String,Object> toMap() {
+    Map<String,Object> map = new LinkedHashMap<String,Object>();
+    map.put(KEY_KEYS, getKeys());
+    map.put(KEY_BYTES, getBytes());
+    map.put(KEY_SEEKS, getSeeks());
+    map.put(KEY_PARTITIONS, getPartitions());
+    return map;
+  }
+}
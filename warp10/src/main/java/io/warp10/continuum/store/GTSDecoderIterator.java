@@ -21,4 +21,11 @@ import io.warp10.continuum.gts.GTSDecoder;
 import java.util.Iterator;
 
 public abstract class GTSDecoderIterator implements Iterator<GTSDecoder>, AutoCloseable {
+  /**
+   * Return the statistics of the scans performed by this iterator, or null if the
+   * iterator does not track them.
+   */
+  public FetchStats getStats() {
+    return null;
+  }
 }
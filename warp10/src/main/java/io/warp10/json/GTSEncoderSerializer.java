@@ -42,6 +42,8 @@ public class GTSEncoderSerializer extends StdSerializer<GTSEncoder> {
     gen.writeFieldName(GeoTimeSerieSerializer.FIELD_VALUES);
     gen.writeStartArray();
 
+    char[] buf = new char[JsonUtils.NUMBER_BUFFER_SIZE];
+
     GTSDecoder decoder = encoder.getUnsafeDecoder(false);
     while (decoder.next()) {
       long ts = decoder.getTimestamp();
@@ -54,8 +56,8 @@ public class GTSEncoderSerializer extends StdSerializer<GTSEncoder> {
       gen.writeNumber(ts);
       if (GeoTimeSerie.NO_LOCATION != location) {
         double[] latlon = GeoXPLib.fromGeoXPPoint(location);
-        gen.writeNumber(latlon[0]);
-        gen.writeNumber(latlon[1]);
+        JsonUtils.writeNumber(gen, latlon[0], buf);
+        JsonUtils.writeNumber(gen, latlon[1], buf);
       }
       if (GeoTimeSerie.NO_ELEVATION != elevation) {
         gen.writeNumber(elevation);
@@ -67,7 +69,7 @@ public class GTSEncoderSerializer extends StdSerializer<GTSEncoder> {
       } else if (v instanceof Long) {
         gen.writeNumber((long) v);
       } else if (v instanceof Double) {
-        gen.writeNumber((double) v);
+        JsonUtils.writeNumber(gen, (double) v, buf);
       } else if (v instanceof String) {
         gen.writeString((String) v);
       } else {
@@ -43,39 +43,41 @@ public class GeoTimeSerieSerializer extends StdSerializer<GeoTimeSerie> {
     gen.writeFieldName(FIELD_VALUES);
     gen.writeStartArray(gts.size());
 
+    char[] buf = new char[JsonUtils.NUMBER_BUFFER_SIZE];
+
     for (int i = 0; i < gts.size(); i++) {
       long ts = GTSHelper.tickAtIndex(gts, i);
       long location = GTSHelper.locationAtIndex(gts, i);
       long elevation = GTSHelper.elevationAtIndex(gts, i);
-      Object v = GTSHelper.valueAtIndex(gts, i);
 
       gen.writeStartArray();
       gen.writeNumber(ts);
       if (GeoTimeSerie.NO_LOCATION != location) {
         double[] latlon = GeoXPLib.fromGeoXPPoint(location);
-        gen.writeNumber(latlon[0]);
-        gen.writeNumber(latlon[1]);
+        JsonUtils.writeNumber(gen, latlon[0], buf);
+        JsonUtils.writeNumber(gen, latlon[1], buf);
       }
       if (GeoTimeSerie.NO_ELEVATION != elevation) {
         gen.writeNumber(elevation);
       }
 
       // Do not use directly gen.writeObject() because it is VERY slow.
+      // Numeric values are read without boxing them.
       switch (gts.getType()) {
         case UNDEFINED:
-          gen.writeObject(v);
+          gen.writeObject(GTSHelper.valueAtIndex(gts, i));
           break;
         case LONG:
-          gen.writeNumber((long) v);
+          gen.writeNumber(GTSHelper.longValueAtIndex(gts, i));
           break;
         case DOUBLE:
-          gen.writeNumber((double) v);
+          JsonUtils.writeNumber(gen, GTSHelper.doubleValueAtIndex(gts, i), buf);
           break;
         case BOOLEAN:
-          gen.writeBoolean((boolean) v);
+          gen.writeBoolean((boolean) GTSHelper.valueAtIndex(gts, i));
           break;
         case STRING:
-          gen.writeString((String) v);
+          gen.writeString((String) GTSHelper.valueAtIndex(gts, i));
           break;
       }
       gen.writeEndArray();
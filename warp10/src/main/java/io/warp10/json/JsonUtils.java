@@ -150,6 +150,11 @@ public class JsonUtils {
 
   private static List<JsonTransformer> transformers;
 
+  /**
+   * Minimum size of the buffers passed to writeNumber
+   */
+  public static final int NUMBER_BUFFER_SIZE = 16;
+
   static {
     //
     // Configure a module to handle the serialization of non-base classes.
@@ -244,6 +249,66 @@ public class JsonUtils {
     }
   }
 
+  /**
+   * Create a generator configured like the one used by objectToJson, so several objects can be
+   * serialized in a row without creating a generator for each one.
+   *
+   * @param writer The writer to output to, it is not closed when the generator is closed.
+   * @param isStrict Whether NaN and Infinity should be output as Strings.
+   */
+  public static JsonGenerator createGenerator(Writer writer, boolean isStrict) throws IOException {
+    ObjectMapper mapper = isStrict ? STRICT_MAPPER : LOOSE_MAPPER;
+    JsonGenerator gen = mapper.getFactory().createGenerator(writer);
+    mapper.getSerializationConfig().initialize(gen);
+    return gen;
+  }
+
+  /**
+   * Serialize an object using a generator created by createGenerator.
+   * The generator is flushed once the object has been written.
+   */
+  public static void objectToJson(JsonGenerator gen, Object o, boolean isStrict) throws IOException {
+    if (isStrict) {
+      STRICT_MAPPER.writeValue(gen, o);
+    } else {
+      LOOSE_MAPPER.writeValue(gen, o);
+    }
+  }
+
+  /**
+   * Write a double like JsonGenerator#writeNumber(double), i.e. as Double.toString would format it.
+   * Integral values below 10^7, which Double.toString formats as 'long.0', are formatted in 'buf'
+   * instead of allocating a String.
+   *
+   * @param buf Reusable buffer of at least NUMBER_BUFFER_SIZE chars.
+   */
+  public static void writeNumber(JsonGenerator gen, double d, char[] buf) throws IOException {
+    long l = (long) d;
+
+    // Negative zero is excluded as it is formatted as -0.0
+    if (l != d || l <= -10000000L || l >= 10000000L || Long.MIN_VALUE == Double.doubleToRawLongBits(d)) {
+      gen.writeNumber(d);
+      return;
+    }
+
+    int pos = buf.length;
+    buf[--pos] = '0';
+    buf[--pos] = '.';
+
+    long v = Math.abs(l);
+
+    do {
+      buf[--pos] = (char) ('0' + (v % 10));
+      v /= 10;
+    } while (0 != v);
+
+    if (l < 0) {
+      buf[--pos] = '-';
+    }
+
+    gen.writeRawValue(buf, pos, buf.length - pos);
+  }
+
   /**
    * Add a transformer to convert un-serializable objects to serializable ones or raw Strings included in the JSON.
    *
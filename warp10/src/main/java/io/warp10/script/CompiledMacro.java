@@ -0,0 +1,96 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.warp10.script.WarpScriptStack.Macro;
+
+/**
+ * Flat form of the statements of a Macro.
+ *
+ * Each instruction pushes a block of consecutive literals and then optionally
+ * calls a function. Instructions are stored in parallel arrays so the interpreter
+ * does not need to check the type of each statement.
+ *
+ * Instances are immutable and may be shared by all the stacks executing the macro.
+ */
+public class CompiledMacro {
+
+  private static final Object[] NO_LITERALS = new Object[0];
+
+  /**
+   * Number of instructions
+   */
+  final int size;
+
+  /**
+   * Index in the macro of the first statement of each instruction
+   */
+  final int[] offsets;
+
+  /**
+   * Literals pushed by each instruction
+   */
+  final Object[][] literals;
+
+  /**
+   * Function called by each instruction after its literals were pushed, or null
+   */
+  final WarpScriptStackFunction[] functions;
+
+  public CompiledMacro(Macro macro) {
+    int n = macro.size();
+
+    List<Integer> offsets = new ArrayList<Integer>();
+    List<Object[]> literals = new ArrayList<Object[]>();
+    List<WarpScriptStackFunction> functions = new ArrayList<WarpScriptStackFunction>();
+
+    List<Object> block = new ArrayList<Object>();
+    int offset = 0;
+
+    for (int i = 0; i < n; i++) {
+      Object stmt = macro.get(i);
+
+      if (stmt instanceof WarpScriptStackFunction) {
+        offsets.add(offset);
+        literals.add(block.isEmpty() ? NO_LITERALS : block.toArray());
+        functions.add((WarpScriptStackFunction) stmt);
+        block.clear();
+        offset = i + 1;
+      } else {
+        block.add(stmt);
+      }
+    }
+
+    if (!block.isEmpty()) {
+      offsets.add(offset);
+      literals.add(block.toArray());
+      functions.add(null);
+    }
+
+    this.size = offsets.size();
+    this.offsets = new int[this.size];
+    this.literals = literals.toArray(new Object[this.size][]);
+    this.functions = functions.toArray(new WarpScriptStackFunction[this.size]);
+
+    for (int i = 0; i < this.size; i++) {
+      this.offsets[i] = offsets.get(i);
+    }
+  }
+}
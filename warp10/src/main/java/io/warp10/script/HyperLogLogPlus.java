@@ -188,9 +188,10 @@ public class HyperLogLogPlus {
   private int sparse_list_len = 0;
   
   /**
-   * Current format of the estimator
+   * Current format of the estimator. Volatile so 'isNew' can check NORMAL estimators without locking,
+   * 'toNormal' allocates M before switching the format.
    */
-  private Format format = Format.SPARSE;
+  private volatile Format format = Format.SPARSE;
 
   private int _64minusp;
   private int _64minuspprime;
@@ -278,10 +279,29 @@ public class HyperLogLogPlus {
   /**
    * Check if 'x' would modify the cardinality estimation
    * 
+   * In the NORMAL format registers are first read without locking. Registers spanning two bytes
+   * may then be read while only one of them was updated, so a value which appears to be new is
+   * checked again with the lock held. A read racing with such an update may also report a new value
+   * as known, it will then be seen again on its next occurrence.
+   * 
    * @param x
    * @return
    */
-  public synchronized boolean isNew(long x) {
+  public boolean isNew(long x) {
+    if (Format.NORMAL == this.format) {
+      int idx = (int) (x >>> _64minusp);
+      long w = x & pmask;
+      if (getRho(idx) >= rho(w, _64minusp)) {
+        return false;
+      }
+    }
+    
+    synchronized(this) {
+      return isNewLocked(x);
+    }
+  }
+  
+  private boolean isNewLocked(long x) {
     
     switch(format) {
       case NORMAL:
@@ -306,8 +326,8 @@ public class HyperLogLogPlus {
           if (pidx != idx) {
             continue;
           }
-          if (tmp_set[i] < k) {
-            // There is one value with a higher bit count in tmp_set, so the
+          if (tmp_set[i] <= k) {
+            // There is one value with the same or a higher bit count in tmp_set, so the
             // value is not new
             return false;
           }
@@ -439,53 +459,44 @@ public class HyperLogLogPlus {
     int firstbyte = bits / 8;
     int bitoffset = bits % 8;
     
+    //
+    // Each byte is written once with its final value, so 'isNew' never reads a cleared register
+    //
+
     switch (bitoffset) {
       case 0:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & 0x3);
-        this.M[firstbyte] |= (byte) ((rho << 2) & (byte) 0xfc);
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0x3) | ((rho << 2) & 0xfc));
         break;
       case 1:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0x81);
-        this.M[firstbyte] |= (byte) ((rho << 1) & 0x7e);
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0x81) | ((rho << 1) & 0x7e));
         break;
       case 2:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0xc0);
-        this.M[firstbyte] |= (byte) (rho & 0x3f);
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0xc0) | (rho & 0x3f));
         break;
       case 3:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0xe0);
-        // Copy 5 bits
-        this.M[firstbyte] |= (byte) ((rho >> 1) & 0x1f);
-        this.M[firstbyte + 1] = (byte) (this.M[firstbyte + 1] & 0x7f);
-        this.M[firstbyte + 1] |= (byte) ((rho << 7) & (byte) 0x80);
+        // Copy 5 bits then 1 bit
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0xe0) | ((rho >> 1) & 0x1f));
+        this.M[firstbyte + 1] = (byte) ((this.M[firstbyte + 1] & 0x7f) | ((rho << 7) & 0x80));
         break;
       case 4:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0xf0);
-        // Copy 4 bits
-        this.M[firstbyte] |= (byte) ((rho >> 2) & 0xf);
-        this.M[firstbyte + 1] = (byte) (this.M[firstbyte + 1] & 0x3f);
-        this.M[firstbyte + 1] |= (byte) ((rho << 6) & (byte) 0xc0);
+        // Copy 4 bits then 2 bits
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0xf0) | ((rho >> 2) & 0xf));
+        this.M[firstbyte + 1] = (byte) ((this.M[firstbyte + 1] & 0x3f) | ((rho << 6) & 0xc0));
         break;
       case 5:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0xf8);
-        // Copy 3 bits
-        this.M[firstbyte] |= (byte) ((rho >> 3) & 0x7);
-        this.M[firstbyte + 1] = (byte) (this.M[firstbyte + 1] & 0x1f);
-        this.M[firstbyte + 1] |= (byte) ((rho << 5) & (byte) 0xe0);
+        // Copy 3 bits then 3 bits
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0xf8) | ((rho >> 3) & 0x7));
+        this.M[firstbyte + 1] = (byte) ((this.M[firstbyte + 1] & 0x1f) | ((rho << 5) & 0xe0));
         break;
       case 6:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0xfc);
-        // Copy 2 bits
-        this.M[firstbyte] |= (byte) ((rho >> 4) & 0x3);
-        this.M[firstbyte + 1] = (byte) (this.M[firstbyte + 1] & 0xf);
-        this.M[firstbyte + 1] |= (byte) ((rho << 4) & (byte) 0xf0);
+        // Copy 2 bits then 4 bits
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0xfc) | ((rho >> 4) & 0x3));
+        this.M[firstbyte + 1] = (byte) ((this.M[firstbyte + 1] & 0xf) | ((rho << 4) & 0xf0));
         break;
       case 7:
-        this.M[firstbyte] = (byte) (this.M[firstbyte] & (byte) 0xfe);
-        // Copy 1 bit
-        this.M[firstbyte] |= (byte) ((rho >> 5) & 0x1);
-        this.M[firstbyte + 1] = (byte) (this.M[firstbyte + 1] & 0x7);
-        this.M[firstbyte + 1] |= (byte) ((rho << 3) & (byte) 0xf8);
+        // Copy 1 bit then 5 bits
+        this.M[firstbyte] = (byte) ((this.M[firstbyte] & 0xfe) | ((rho >> 5) & 0x1));
+        this.M[firstbyte + 1] = (byte) ((this.M[firstbyte + 1] & 0x7) | ((rho << 3) & 0xf8));
         break;
     }
     
@@ -513,7 +524,7 @@ public class HyperLogLogPlus {
       case 6:
         return (byte) (((this.M[firstbyte] & 0x3) << 4) | ((this.M[firstbyte + 1] & 0xf0) >>> 4));
       case 7:
-        return (byte) (((this.M[firstbyte] & 0x1) << 5) | ((this.M[firstbyte + 1] & 0xf80) >>> 3));
+        return (byte) (((this.M[firstbyte] & 0x1) << 5) | ((this.M[firstbyte + 1] & 0xf8) >>> 3));
       default:
         throw new RuntimeException();
     }
@@ -163,6 +163,11 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
   
   private final boolean unshadow;
   
+  /**
+   * Should macros be executed from their compiled form
+   */
+  private final boolean compile;
+  
   private final long creationTime = System.currentTimeMillis();
   
   public static class StackContext extends WarpScriptStack.StackContext {
@@ -196,6 +201,7 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     }
     
     this.unshadow = "true".equals(properties.getProperty(Configuration.WARPSCRIPT_DEF_UNSHADOW));
+    this.compile = "true".equals(properties.getProperty(Configuration.WARPSCRIPT_MACRO_COMPILE));
     
     if (init) {
       setAttribute(WarpScriptStack.ATTRIBUTE_DEBUG_DEPTH, 0);
@@ -498,6 +504,25 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     
   @Override
   public void execMulti(String script) throws WarpScriptException {
+    if (WarpScriptParseCache.isEnabled()) {
+      WarpScriptParseCache.ParsedScript parsed = WarpScriptParseCache.get(script);
+      
+      int i = 0;
+      
+      try {
+        for (i = 0; i < parsed.size(); i++) {
+          exec(parsed, i);
+        }
+      } catch (WarpScriptStopException wsse) {
+        // Rethrow WarpScriptStopExceptions as is
+        throw wsse;
+      } catch (Exception e) {
+        throw new WarpScriptException("Line #" + (i + 1), e);
+      }
+      
+      return;
+    }
+    
     BufferedReader br = new BufferedReader(new StringReader(script));
     
     int i = 1;
@@ -531,6 +556,112 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
   
   @Override
   public void exec(String line) throws WarpScriptException {
+    exec(line, null, null);
+  }
+  
+  /**
+   * Marker for statements which are not literals
+   */
+  static final Object NOT_A_LITERAL = new Object();
+  
+  /**
+   * Split a line into statements, as done when not in multiline mode
+   */
+  static String[] tokenize(String line) {
+    line = line.trim();
+    
+    //
+    // Replace whitespaces in Strings with '%20'
+    //
+    
+    line = UnsafeString.sanitizeStrings(line);
+    
+    if (-1 != UnsafeString.indexOf(line, ' ')) {
+      //statements = line.split(" +");
+      return UnsafeString.split(line, ' ');
+    } else {
+      // The line had no whitespace inside
+      return new String[] { line };
+    }
+  }
+  
+  /**
+   * Compute the value of the literal statements, other statements are set to NOT_A_LITERAL.
+   * Statements which cannot be parsed are left null so the error is raised when they are executed.
+   */
+  static Object[] parseLiterals(String[] statements) {
+    Object[] literals = new Object[statements.length];
+    
+    for (int i = 0; i < statements.length; i++) {
+      String stmt = statements[i].trim();
+      
+      if (0 == stmt.length()) {
+        continue;
+      }
+      
+      try {
+        literals[i] = parseLiteral(stmt);
+      } catch (Exception e) {
+        literals[i] = null;
+      }
+    }
+    
+    return literals;
+  }
+  
+  /**
+   * Compute the value of a String, LONG, DOUBLE or BOOLEAN statement
+   * 
+   * @param stmt Non empty trimmed statement
+   * @return The value of the statement or NOT_A_LITERAL
+   */
+  private static Object parseLiteral(String stmt) throws WarpScriptException {
+    if ((stmt.charAt(0) == '\'' && stmt.charAt(stmt.length() - 1) == '\'')
+        || (stmt.charAt(0) == '\"' && stmt.charAt(stmt.length() - 1) == '\"')) {
+      try {
+        String str = stmt.substring(1, stmt.length() - 1);
+
+        return WarpURLDecoder.decode(str, StandardCharsets.UTF_8);
+      } catch (UnsupportedEncodingException uee) {
+        // Cannot happen...
+        throw new WarpScriptException(uee);
+      }
+    } else if (stmt.length() > 2 && stmt.charAt(1) == 'x' && stmt.charAt(0) == '0') {
+      return stmt.length() < 18 ? Long.parseLong(stmt.substring(2), 16) : new BigInteger(stmt.substring(2), 16).longValue();
+    } else if (stmt.length() > 2 && stmt.charAt(1) == 'b' && stmt.charAt(0) == '0') {
+      return stmt.length() < 66 ? Long.parseLong(stmt.substring(2), 2) : new BigInteger(stmt.substring(2), 2).longValue();
+    } else if (UnsafeString.isLong(stmt)) {
+      return Long.valueOf(stmt);
+    } else if (UnsafeString.isDouble(stmt)) {
+      return Double.valueOf(stmt);
+    } else if (stmt.equalsIgnoreCase("T")
+               || stmt.equalsIgnoreCase("F")
+               || stmt.equalsIgnoreCase("true")
+               || stmt.equalsIgnoreCase("false")) {
+      return stmt.startsWith("T") || stmt.startsWith("t");
+    }
+    
+    return NOT_A_LITERAL;
+  }
+  
+  /**
+   * Execute a line of a script parsed by WarpScriptParseCache
+   * 
+   * @param script Parsed script
+   * @param idx Index of the line to execute
+   */
+  public void exec(WarpScriptParseCache.ParsedScript script, int idx) throws WarpScriptException {
+    exec(script.lines[idx], script.statements[idx], script.literals[idx]);
+  }
+  
+  /**
+   * Execute a line of WarpScript
+   * 
+   * @param line Line to execute
+   * @param tokens Statements of the line as split by tokenize, or null to split the line
+   * @param literals Values of the statements as computed by parseLiterals, or null
+   */
+  private void exec(String line, String[] tokens, Object[] literals) throws WarpScriptException {
     
     String rawline = line;
     
@@ -539,30 +670,30 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
       
       String[] statements;
       
-      line = line.trim();
-                              
-      //
-      // Replace whitespaces in Strings with '%20'
-      //
-            
-      line = UnsafeString.sanitizeStrings(line);
-      
-      if (-1 != UnsafeString.indexOf(line, ' ') && !inMultiline.get()) {
-        //statements = line.split(" +");
-        statements = UnsafeString.split(line, ' ');
+      if (null != tokens && !inMultiline.get()) {
+        statements = tokens;
+      } else if (!inMultiline.get()) {
+        statements = tokenize(line);
+        literals = null;
       } else {
-        // We're either in multiline mode or the line had no whitespace inside
+        literals = null;
+        
+        line = line.trim();
+        
+        //
+        // Replace whitespaces in Strings with '%20'
+        //
+        
+        line = UnsafeString.sanitizeStrings(line);
+        
+        // We're in multiline mode
         statements = new String[1];
-        if (inMultiline.get()) {
-          // If the line only contained the end of multiline indicator with possible wsp on both sides
-          // then set the statement to that, otherwise set it to the raw line
-          if(WarpScriptStack.MULTILINE_END.equals(line)) {
-            statements[0] = line;
-          } else {
-            statements[0] = rawline;
-          }
-        } else {
+        // If the line only contained the end of multiline indicator with possible wsp on both sides
+        // then set the statement to that, otherwise set it to the raw line
+        if(WarpScriptStack.MULTILINE_END.equals(line)) {
           statements[0] = line;
+        } else {
+          statements[0] = rawline;
         }
       }
       
@@ -580,6 +711,7 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
         handleSignal();
 
         String stmt = statements[st];
+        Object literal = null;
 
         try {
           //
@@ -714,78 +846,15 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
             //
 
             macros.add(0, new Macro());
-          } else if ((stmt.charAt(0) == '\'' && stmt.charAt(stmt.length() - 1) == '\'')
-              || (stmt.charAt(0) == '\"' && stmt.charAt(stmt.length() - 1) == '\"')) {
-            //
-            // Push Strings onto the stack
-            //
-
-            try {
-              String str = stmt.substring(1, stmt.length() - 1);
-
-              str = WarpURLDecoder.decode(str, StandardCharsets.UTF_8);
-
-              if (macros.isEmpty()) {
-                push(str);
-              } else {
-                macros.get(0).add(str);
-              }
-            } catch (UnsupportedEncodingException uee) {
-              // Cannot happen...
-              throw new WarpScriptException(uee);
-            }
-          } else if (stmt.length() > 2 && stmt.charAt(1) == 'x' && stmt.charAt(0) == '0') {
-            long hexl = stmt.length() < 18 ? Long.parseLong(stmt.substring(2), 16) : new BigInteger(stmt.substring(2), 16).longValue();
-            if (macros.isEmpty()) {
-              push(hexl);
-            } else {
-              macros.get(0).add(hexl);
-            }
-          } else if (stmt.length() > 2 && stmt.charAt(1) == 'b' && stmt.charAt(0) == '0') {
-            long binl = stmt.length() < 66 ? Long.parseLong(stmt.substring(2), 2) : new BigInteger(stmt.substring(2), 2).longValue();
-            if (macros.isEmpty()) {
-              push(binl);
-            } else {
-              macros.get(0).add(binl);
-            }
-          } else if (UnsafeString.isLong(stmt)) {
+          } else if (NOT_A_LITERAL != (literal = null != literals && null != literals[st] ? literals[st] : parseLiteral(stmt))) {
             //
-            // Push longs onto the stack
+            // Push literals (Strings, LONGs, DOUBLEs and BOOLEANs) onto the stack
             //
 
             if (macros.isEmpty()) {
-              push(Long.valueOf(stmt));
-            } else {
-              macros.get(0).add(Long.valueOf(stmt));
-            }
-          } else if (UnsafeString.isDouble(stmt)) {
-            //
-            // Push doubles onto the stack
-            //
-            if (macros.isEmpty()) {
-              push(Double.valueOf(stmt));
-            } else {
-              macros.get(0).add(Double.valueOf(stmt));
-            }
-          } else if (stmt.equalsIgnoreCase("T")
-                     || stmt.equalsIgnoreCase("F")
-                     || stmt.equalsIgnoreCase("true")
-                     || stmt.equalsIgnoreCase("false")) {
-            //
-            // Push booleans onto the stack
-            //
-            if (stmt.startsWith("T") || stmt.startsWith("t")) {
-              if (macros.isEmpty()) {
-                push(true);
-              } else {
-                macros.get(0).add(true);
-              }
+              push(literal);
             } else {
-              if (macros.isEmpty()) {
-                push(false);
-              } else {
-                macros.get(0).add(false);
-              }
+              macros.get(0).add(literal);
             }
           } else if (stmt.startsWith("$")) {
             if (macros.isEmpty()) {
@@ -957,7 +1026,45 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
       // Notify progress
       progress();
 
-      for (i = 0; i < n; i++) {        
+      if (this.compile) {
+        CompiledMacro code = macro.compiled();
+        
+        for (int k = 0; k < code.size; k++) {
+          // Signals are checked once per instruction
+          handleSignal();
+          
+          Object[] literals = code.literals[k];
+          int start = code.offsets[k];
+          int end = start + literals.length;
+          
+          i = start;
+          
+          if (start < end) {
+            incOps(literals.length);
+            
+            try {
+              for (; i < end; i++) {
+                push(literals[i - start]);
+              }
+            } catch (WarpScriptException wse) {
+              // Only count the literals up to the one which could not be pushed
+              incOps(i + 1 - end);
+              throw wse;
+            }
+          }
+          
+          WarpScriptStackFunction esf = code.functions[k];
+          
+          if (null != esf) {
+            incOps();
+            esf.apply(this);
+          }
+        }
+        
+        i = n;
+      }
+      
+      for (; i < n; i++) {        
         handleSignal();
         
         Object stmt = stmts.get(i);
@@ -1319,6 +1426,10 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     this.currentops++;    
   }
   
+  protected void incOps(long ops) throws WarpScriptException {
+    this.currentops += ops;
+  }
+  
   public void checkOps() throws WarpScriptException {
     if (this.currentops > this.maxops) {
       Sensision.update(SensisionConstants.SENSISION_CLASS_WARPSCRIPT_OPSCOUNT_EXCEEDED, Sensision.EMPTY_LABELS, 1);
@@ -1521,6 +1632,11 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
         parentStack.incOps();
       }
 
+      @Override
+      protected void incOps(long ops) throws WarpScriptException {
+        parentStack.incOps(ops);
+      }
+
       @Override
       public void checkOps() throws WarpScriptException {
         parentStack.checkOps();
@@ -43,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.geoxp.GeoXPLib;
 
 public class StackUtils {
@@ -53,6 +54,31 @@ public class StackUtils {
 
     int depth = Math.min(stack.depth(), maxdepth);
 
+    if (Long.MAX_VALUE == maxJsonSize) {
+      //
+      // No size limit, a single generator streams the whole stack to 'out'. The output is identical
+      // to the one produced below, the generator is flushed after each level of the stack.
+      //
+
+      JsonGenerator gen = JsonUtils.createGenerator(out, strictJSON);
+
+      try {
+        gen.writeStartArray();
+
+        for (int i = 0; i < depth; i++) {
+          JsonUtils.objectToJson(gen, stack.get(i), strictJSON);
+        }
+
+        gen.writeEndArray();
+      } finally {
+        // Do not close the array on error, only output what was produced so far
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        gen.close();
+      }
+
+      return;
+    }
+
     out.print("[");
 
     boolean first = true;
@@ -229,10 +255,12 @@ public class StackUtils {
       
       if (inGTS.hasLocations()) {
         long[] locations = GTSHelper.getOriginalLocations(inGTS);
-        gts.latitudes = new float[locations.length];
-        gts.longitudes = new float[locations.length];
+        // The array may be larger than the number of values
+        int n = GTSHelper.nvalues(inGTS);
+        gts.latitudes = new float[n];
+        gts.longitudes = new float[n];
         
-        for (int i = 0; i < locations.length; i++) {
+        for (int i = 0; i < n; i++) {
           if (GeoTimeSerie.NO_LOCATION != locations[i]) {
             double[] latlon = GeoXPLib.fromGeoXPPoint(locations[i]);
             gts.latitudes[i] = (float) latlon[0];
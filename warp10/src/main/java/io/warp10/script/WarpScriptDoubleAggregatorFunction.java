@@ -0,0 +1,42 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+/**
+ * Optional interface for Mappers, Reducers and Bucketizers which can aggregate
+ * DOUBLE values directly from primitive arrays.
+ *
+ * When all the values to aggregate are DOUBLE, GTSHelper calls this method instead
+ * of apply(Object[]), passing the arrays of the Geo Time Series and the range of
+ * indices to consider, so no boxed values or sub series are created.
+ *
+ * The result MUST be identical to that of apply(Object[]) called with the same datapoints.
+ * The arrays MUST NOT be modified.
+ */
+public interface WarpScriptDoubleAggregatorFunction {
+  /**
+   * @param tick Tick for which the value is computed
+   * @param ticks Array of ticks
+   * @param locations Array of locations, null if no datapoint has a location
+   * @param elevations Array of elevations, null if no datapoint has an elevation
+   * @param values Array of values
+   * @param from Index of the first datapoint to aggregate (inclusive)
+   * @param to Index of the last datapoint to aggregate (exclusive)
+   * @return An array with timestamp, location, elevation and value, as returned by apply(Object[])
+   */
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException;
+}
@@ -1048,6 +1048,7 @@ public class WarpScriptLib {
   public static final String TOMAP = "->MAP";
   public static final String TOJSON = "->JSON";
   public static final String TOPICKLE = "->PICKLE";
+  public static final String TOARROW = "->ARROW";
   public static final String TOLONGBYTES = "->LONGBYTES";
   public static final String TODOUBLEBITS = "->DOUBLEBITS";
   public static final String TOFLOATBITS = "->FLOATBITS";
@@ -1219,6 +1220,7 @@ public class WarpScriptLib {
     addNamedWarpScriptFunction(new JSONTO(JSONTO));
     addNamedWarpScriptFunction(new TOPICKLE(TOPICKLE));
     addNamedWarpScriptFunction(new PICKLETO(PICKLETO));
+    addNamedWarpScriptFunction(new TOARROW(TOARROW));
     addNamedWarpScriptFunction(new GET(GET));
     addNamedWarpScriptFunction(new SET(SET));
     addNamedWarpScriptFunction(new PUT(PUT));
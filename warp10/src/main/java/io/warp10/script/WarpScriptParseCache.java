@@ -0,0 +1,252 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.crypto.SipHashInline;
+import io.warp10.sensision.Sensision;
+
+/**
+ * LRU cache of parsed WarpScript scripts, keyed by a hash of the content of the script.
+ *
+ * Only the context independent part of the parsing is cached, i.e. the split of the
+ * lines into statements and the values of the String, LONG, DOUBLE and BOOLEAN literals.
+ * Functions, variables, macros and secure scripts are still handled by the stack
+ * when the script is executed, so the execution of a cached script is identical
+ * to that of the original text.
+ *
+ * The cache is bounded by the total length of the cached scripts, the memory it uses is
+ * a small multiple of this length as the parsed scripts hold the lines and the statements.
+ */
+public class WarpScriptParseCache {
+
+  public static final int DEFAULT_MAX_LENGTH = 1000000;
+
+  /**
+   * Script split into lines, with the statements and literal values of each line
+   */
+  public static final class ParsedScript {
+    final String[] lines;
+    final String[][] statements;
+    final Object[][] literals;
+
+    /**
+     * Length of the script
+     */
+    private final int length;
+
+    private ParsedScript(String script) {
+      List<String> lines = new ArrayList<String>();
+
+      try {
+        // Split lines like execMulti does
+        BufferedReader br = new BufferedReader(new StringReader(script));
+        String line;
+        while (null != (line = br.readLine())) {
+          lines.add(line);
+        }
+        br.close();
+      } catch (IOException ioe) {
+        // Cannot happen with a StringReader
+        throw new RuntimeException(ioe);
+      }
+
+      this.length = script.length();
+      this.lines = lines.toArray(new String[lines.size()]);
+      this.statements = new String[this.lines.length][];
+      this.literals = new Object[this.lines.length][];
+
+      for (int i = 0; i < this.lines.length; i++) {
+        this.statements[i] = MemoryWarpScriptStack.tokenize(this.lines[i]);
+        this.literals[i] = MemoryWarpScriptStack.parseLiterals(this.statements[i]);
+      }
+    }
+
+    public int size() {
+      return this.lines.length;
+    }
+
+    public String getLine(int idx) {
+      return this.lines[idx];
+    }
+  }
+
+  /**
+   * Key of a script, two SipHash of its UTF-8 bytes with random keys and its length.
+   * The scripts themselves are not retained by the cache.
+   */
+  private static final class Key {
+    private final long h0;
+    private final long h1;
+    private final int length;
+
+    private Key(String script) {
+      byte[] bytes = script.getBytes(StandardCharsets.UTF_8);
+      this.h0 = SipHashInline.hash24(SIPHASH_KEYS[0], SIPHASH_KEYS[1], bytes, 0, bytes.length);
+      this.h1 = SipHashInline.hash24(SIPHASH_KEYS[2], SIPHASH_KEYS[3], bytes, 0, bytes.length);
+      this.length = bytes.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) this.h0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return this.h0 == other.h0 && this.h1 == other.h1 && this.length == other.length;
+    }
+  }
+
+  /**
+   * Random SipHash keys, so colliding scripts cannot be crafted
+   */
+  private static final long[] SIPHASH_KEYS = new long[4];
+
+  static {
+    SecureRandom sr = new SecureRandom();
+    for (int i = 0; i < SIPHASH_KEYS.length; i++) {
+      SIPHASH_KEYS[i] = sr.nextLong();
+    }
+  }
+
+  private static final WarpScriptParseCache CACHE = new WarpScriptParseCache(
+      Long.parseLong(WarpConfig.getProperty(Configuration.WARPSCRIPT_PARSE_CACHE_SIZE, "0")),
+      Integer.parseInt(WarpConfig.getProperty(Configuration.WARPSCRIPT_PARSE_CACHE_MAXLENGTH, Integer.toString(DEFAULT_MAX_LENGTH))));
+
+  /**
+   * Maximum total length of the cached scripts, 0 disables the cache
+   */
+  private final long maxsize;
+
+  /**
+   * Maximum length of cached scripts
+   */
+  private final long maxlength;
+
+  /**
+   * Total length of the cached scripts
+   */
+  private long size = 0L;
+
+  private final LinkedHashMap<Key,ParsedScript> cache = new LinkedHashMap<Key,ParsedScript>(16, 0.75F, true);
+
+  WarpScriptParseCache(long maxsize, int maxlength) {
+    this.maxsize = maxsize;
+    // Scripts longer than the cache itself are never cached
+    this.maxlength = Math.min(maxsize, maxlength);
+  }
+
+  public static boolean isEnabled() {
+    return CACHE.maxsize > 0;
+  }
+
+  /**
+   * Parse a script, retrieving it from the cache if it was already parsed.
+   *
+   * @param script Content of the script
+   * @return The parsed script
+   */
+  public static ParsedScript get(String script) {
+    return CACHE.parse(script);
+  }
+
+  ParsedScript parse(String script) {
+    if (this.maxsize <= 0 || script.length() > this.maxlength) {
+      return new ParsedScript(script);
+    }
+
+    Key key = new Key(script);
+
+    ParsedScript parsed;
+
+    synchronized(this.cache) {
+      parsed = this.cache.get(key);
+    }
+
+    if (null != parsed) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_WARPSCRIPT_PARSECACHE_HITS, Sensision.EMPTY_LABELS, 1);
+      return parsed;
+    }
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARPSCRIPT_PARSECACHE_MISSES, Sensision.EMPTY_LABELS, 1);
+
+    parsed = new ParsedScript(script);
+
+    long size;
+
+    synchronized(this.cache) {
+      ParsedScript previous = this.cache.put(key, parsed);
+
+      // The script may have been parsed concurrently
+      if (null != previous) {
+        this.size -= previous.length;
+      }
+
+      this.size += parsed.length;
+
+      // Evict the least recently used scripts, the script which was just added is the last one
+      Iterator<ParsedScript> iter = this.cache.values().iterator();
+
+      while (this.size > this.maxsize) {
+        this.size -= iter.next().length;
+        iter.remove();
+      }
+
+      size = this.size;
+    }
+
+    Sensision.set(SensisionConstants.SENSISION_CLASS_WARPSCRIPT_PARSECACHE_SIZE, Sensision.EMPTY_LABELS, size);
+
+    return parsed;
+  }
+
+  /**
+   * Total length of the cached scripts
+   */
+  long size() {
+    synchronized(this.cache) {
+      return this.size;
+    }
+  }
+
+  /**
+   * Number of cached scripts
+   */
+  int entries() {
+    synchronized(this.cache) {
+      return this.cache.size();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+/**
+ * Optional interface for Mappers which can maintain their result incrementally
+ * while the window slides over a Geo Time Series.
+ *
+ * When applicable, GTSHelper.map creates a single window per GTS and adds and evicts
+ * datapoints as the window slides instead of extracting a sub series for each tick.
+ */
+public interface WarpScriptSlidingWindowMapperFunction {
+
+  /**
+   * Window over the datapoints of a GTS. Datapoints are designated by their index
+   * in the arrays passed to newWindow, sorted by ascending ticks.
+   *
+   * The datapoints in the window always form a contiguous range of indices. The
+   * window either always grows towards the higher indices or always towards the lower ones,
+   * and datapoints are evicted in the order they were added.
+   */
+  public static interface SlidingWindow {
+    public void add(int idx);
+    public void evict(int idx);
+
+    /**
+     * @param tick Tick for which the value is computed
+     * @return An array with timestamp, location, elevation and value, as returned by apply(Object[]) for the datapoints in the window
+     */
+    public Object[] emit(long tick) throws WarpScriptException;
+  }
+
+  /**
+   * Create a new empty window. Exactly one of longValues and doubleValues is not null.
+   * The arrays MUST NOT be modified.
+   *
+   * @param ticks Array of ticks, sorted in ascending order
+   * @param locations Array of locations, null if no datapoint has a location
+   * @param elevations Array of elevations, null if no datapoint has an elevation
+   * @param longValues Array of LONG values or null
+   * @param doubleValues Array of DOUBLE values or null
+   * @return A new window or null if the window would not produce results identical to apply(Object[]) for these values
+   */
+  public SlidingWindow newWindow(long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues);
+}
@@ -22,6 +22,7 @@ import io.warp10.script.functions.SNAPSHOT;
 import io.warp10.script.functions.SNAPSHOT.Snapshotable;
 import io.warp10.warp.sdk.WarpScriptJavaFunction;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -164,6 +165,11 @@ public interface WarpScriptStack {
    */
   public static final String ATTRIBUTE_FETCH_COUNT = "fetch.count";
 
+  /**
+   * Statistics (keys, bytes, seeks and partitions) of the scans performed by the last FETCH
+   */
+  public static final String ATTRIBUTE_FETCH_STATS = "fetch.stats";
+
   /**
    * Number of GTS retrieved so far in the session
    */
@@ -321,6 +327,11 @@ public interface WarpScriptStack {
     private int size = 0;
     private Object[] statements = new Object[16];
     
+    /**
+     * Compiled form of the statements, cleared whenever they are modified
+     */
+    private volatile CompiledMacro compiled = null;
+    
     public boolean isExpired() {
       return (Long.MIN_VALUE != this.expiry) && (this.expiry < System.currentTimeMillis());
     }
@@ -332,6 +343,7 @@ public interface WarpScriptStack {
     public void add(Object o) {
       ensureCapacity(1);
       statements[size++] = o;
+      this.compiled = null;
     }
     
     public Object get(int idx) {
@@ -345,11 +357,51 @@ public interface WarpScriptStack {
     public void setSize(int size) {
       if (size < this.size && size >= 0) {
         this.size = size;
+        this.compiled = null;
       }
     }
 
     public List<Object> statements() {
-      return Arrays.asList(this.statements).subList(0, size);
+      // Writes through to the statements, invalidating the compiled form
+      return new AbstractList<Object>() {
+        @Override
+        public Object get(int index) {
+          if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+          }
+          return statements[index];
+        }
+
+        @Override
+        public Object set(int index, Object element) {
+          if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+          }
+          Object previous = statements[index];
+          statements[index] = element;
+          compiled = null;
+          return previous;
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+    
+    /**
+     * Return the compiled form of the macro, compiling it if needed.
+     */
+    public CompiledMacro compiled() {
+      CompiledMacro code = this.compiled;
+      
+      if (null == code) {
+        code = new CompiledMacro(this);
+        this.compiled = code;
+      }
+      
+      return code;
     }
     
     public void addAll(Macro macro) {
@@ -359,6 +411,7 @@ public interface WarpScriptStack {
       
       System.arraycopy(macro.statements, 0, this.statements, size, n);
       size += n;
+      this.compiled = null;
     }
     
     public void setSecure(boolean secure) {
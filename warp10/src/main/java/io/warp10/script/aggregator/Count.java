@@ -18,6 +18,7 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
@@ -27,7 +28,7 @@ import io.warp10.script.WarpScriptException;
  * Return the number of measures with elevation and location from
  * the latest measure.
  */
-public class Count extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Count extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptDoubleAggregatorFunction {
   
   private final boolean omitNulls;
   
@@ -71,4 +72,32 @@ public class Count extends NamedWarpScriptFunction implements WarpScriptMapperFu
     
     return new Object[] { tick, location, elevation, count };    
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    int idx = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    for (int i = from; i < to; i++) {
+      if (ticks[i] > timestamp) {
+        idx = i;
+        timestamp = ticks[i];
+      }
+    }
+
+    long location = GeoTimeSerie.NO_LOCATION;
+    long elevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (-1 != idx) {
+      location = null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION;
+      elevation = null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION;
+    }
+
+    // DOUBLE values are never null
+    return new Object[] { tick, location, elevation, (long) (to - from) };
+  }
 }
@@ -0,0 +1,109 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script.aggregator;
+
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction.SlidingWindow;
+
+/**
+ * Sliding window retaining the datapoint with the minimum or maximum value, ties being
+ * resolved by retaining the datapoint with the lowest index, like Min and Max do.
+ *
+ * Candidates are kept in a monotonic deque, so each datapoint is added and removed at most once.
+ */
+class ExtremumWindow implements SlidingWindow {
+
+  private final boolean max;
+
+  private final long[] ticks;
+  private final long[] locations;
+  private final long[] elevations;
+  private final long[] longValues;
+  private final double[] doubleValues;
+
+  /**
+   * Ring buffer of candidate indices, the retained datapoint is at 'head'
+   */
+  private int[] deque = new int[16];
+  private int head = 0;
+  private int size = 0;
+
+  ExtremumWindow(boolean max, long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues) {
+    this.max = max;
+    this.ticks = ticks;
+    this.locations = locations;
+    this.elevations = elevations;
+    this.longValues = longValues;
+    this.doubleValues = doubleValues;
+  }
+
+  @Override
+  public void add(int idx) {
+    //
+    // Drop the candidates which can no longer be retained while 'idx' is in the window
+    //
+
+    while (size > 0) {
+      int last = deque[(head + size - 1) & (deque.length - 1)];
+      int comp = null != longValues ? Long.compare(longValues[last], longValues[idx]) : Double.compare(doubleValues[last], doubleValues[idx]);
+
+      if (max) {
+        comp = -comp;
+      }
+
+      if (comp > 0 || (0 == comp && idx < last)) {
+        size--;
+      } else {
+        break;
+      }
+    }
+
+    if (size == deque.length) {
+      int[] newdeque = new int[deque.length << 1];
+      for (int i = 0; i < size; i++) {
+        newdeque[i] = deque[(head + i) & (deque.length - 1)];
+      }
+      deque = newdeque;
+      head = 0;
+    }
+
+    deque[(head + size) & (deque.length - 1)] = idx;
+    size++;
+  }
+
+  @Override
+  public void evict(int idx) {
+    // Datapoints are evicted in the order they were added, so if 'idx' is still a candidate it is the oldest one
+    if (size > 0 && deque[head] == idx) {
+      head = (head + 1) & (deque.length - 1);
+      size--;
+    }
+  }
+
+  @Override
+  public Object[] emit(long tick) {
+    if (0 == size) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    int idx = deque[head];
+
+    Object value = null != longValues ? (Object) longValues[idx] : (Object) doubleValues[idx];
+
+    return new Object[] { ticks[idx], null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION, value };
+  }
+}
@@ -18,6 +18,7 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
@@ -26,7 +27,7 @@ import io.warp10.script.WarpScriptException;
 /**
  * Retain the first measurement of the interval
  */
-public class First extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class First extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptDoubleAggregatorFunction {
   
   public First(String name) {
     super(name);
@@ -54,4 +55,22 @@ public class First extends NamedWarpScriptFunction implements WarpScriptMapperFu
     
     return new Object[] { ticks[idx], locations[idx], elevations[idx], values[idx] };
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    long t = Long.MAX_VALUE;
+    int idx = from;
+    for (int i = from; i < to; i++) {
+      if (ticks[i] < t) {
+        t = ticks[i];
+        idx = i;
+      }
+    }
+
+    return new Object[] { ticks[idx], null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION, values[idx] };
+  }
 }
@@ -18,6 +18,7 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
@@ -26,7 +27,7 @@ import io.warp10.script.WarpScriptException;
 /**
  * Retain the last measurement of the interval
  */
-public class Last extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Last extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptDoubleAggregatorFunction {
   
   public Last(String name) {
     super(name);
@@ -53,4 +54,22 @@ public class Last extends NamedWarpScriptFunction implements WarpScriptMapperFun
     }
     return new Object[] { ticks[idx], locations[idx], elevations[idx], values[idx] };
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    long t = Long.MIN_VALUE;
+    int idx = from;
+    for (int i = from; i < to; i++) {
+      if (ticks[i] > t) {
+        t = ticks[i];
+        idx = i;
+      }
+    }
+
+    return new Object[] { ticks[idx], null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION, values[idx] };
+  }
 }
@@ -19,9 +19,11 @@ package io.warp10.script.aggregator;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 import com.geoxp.GeoXPLib;
@@ -31,7 +33,7 @@ import com.geoxp.GeoXPLib;
  * The returned location will be the centroid of all locations.
  * The returned elevation will be the average of all elevations.
  */
-public class Mean extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Mean extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptDoubleAggregatorFunction, WarpScriptSlidingWindowMapperFunction {
   
   private final boolean ignoreNulls;
   
@@ -141,4 +143,152 @@ public class Mean extends NamedWarpScriptFunction implements WarpScriptMapperFun
     
     return new Object[] { ticks[0] + (ticksum / ticks.length), meanlocation, meanelevation, meanvalue };
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    double sumd = values[from];
+    long ticksum = 0L;
+    long latitudes = 0L;
+    long longitudes = 0L;
+    int locationcount = 0;
+    long elev = 0L;
+    int elevationcount = 0;
+
+    for (int i = from; i < to; i++) {
+      ticksum += ticks[i] - ticks[from];
+
+      if (null != locations && GeoTimeSerie.NO_LOCATION != locations[i]) {
+        long[] xy = GeoXPLib.xyFromGeoXPPoint(locations[i]);
+        latitudes += xy[0];
+        longitudes += xy[1];
+        locationcount++;
+      }
+
+      if (null != elevations && GeoTimeSerie.NO_ELEVATION != elevations[i]) {
+        elev += elevations[i];
+        elevationcount++;
+      }
+
+      if (i > from) {
+        sumd = sumd + values[i];
+      }
+    }
+
+    long meanlocation = GeoTimeSerie.NO_LOCATION;
+    long meanelevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (locationcount > 0) {
+      latitudes = latitudes / locationcount;
+      longitudes = longitudes / locationcount;
+      meanlocation = GeoXPLib.toGeoXPPoint(latitudes, longitudes);
+    }
+
+    if (elevationcount > 0) {
+      meanelevation = elev / elevationcount;
+    }
+
+    return new Object[] { ticks[from] + (ticksum / (to - from)), meanlocation, meanelevation, sumd / (to - from) };
+  }
+
+  @Override
+  public SlidingWindow newWindow(long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues) {
+    //
+    // A running sum of DOUBLE values would not round like the sum computed by apply,
+    // only LONG values can be averaged incrementally.
+    //
+
+    if (null == longValues) {
+      return null;
+    }
+
+    return new MeanWindow(ticks, locations, elevations, longValues);
+  }
+
+  private static final class MeanWindow implements SlidingWindow {
+    private final long[] ticks;
+    private final long[] locations;
+    private final long[] elevations;
+    private final long[] values;
+
+    private long suml = 0L;
+    private long ticksum = 0L;
+    private long latitudes = 0L;
+    private long longitudes = 0L;
+    private int locationcount = 0;
+    private long elev = 0L;
+    private int elevationcount = 0;
+    private int count = 0;
+    private int first = 0;
+
+    MeanWindow(long[] ticks, long[] locations, long[] elevations, long[] values) {
+      this.ticks = ticks;
+      this.locations = locations;
+      this.elevations = elevations;
+      this.values = values;
+    }
+
+    @Override
+    public void add(int idx) {
+      if (0 == count || idx < first) {
+        first = idx;
+      }
+
+      update(idx, 1);
+    }
+
+    @Override
+    public void evict(int idx) {
+      if (idx == first) {
+        first++;
+      }
+
+      update(idx, -1);
+    }
+
+    private void update(int idx, int sign) {
+      // All sums wrap around like those computed by apply
+      suml += sign * values[idx];
+      ticksum += sign * ticks[idx];
+      count += sign;
+
+      if (null != locations && GeoTimeSerie.NO_LOCATION != locations[idx]) {
+        long[] xy = GeoXPLib.xyFromGeoXPPoint(locations[idx]);
+        latitudes += sign * xy[0];
+        longitudes += sign * xy[1];
+        locationcount += sign;
+      }
+
+      if (null != elevations && GeoTimeSerie.NO_ELEVATION != elevations[idx]) {
+        elev += sign * elevations[idx];
+        elevationcount += sign;
+      }
+    }
+
+    @Override
+    public Object[] emit(long tick) {
+      if (0 == count) {
+        return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+      }
+
+      long meanlocation = GeoTimeSerie.NO_LOCATION;
+      long meanelevation = GeoTimeSerie.NO_ELEVATION;
+
+      if (locationcount > 0) {
+        meanlocation = GeoXPLib.toGeoXPPoint(latitudes / locationcount, longitudes / locationcount);
+      }
+
+      if (elevationcount > 0) {
+        meanelevation = elev / elevationcount;
+      }
+
+      // Sum of the offsets of the ticks relative to the first one
+      long offsets = ticksum - count * ticks[first];
+
+      return new Object[] { ticks[first] + (offsets / count), meanlocation, meanelevation, suml / (double) count };
+    }
+  }
 }
@@ -18,15 +18,17 @@ package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 /**
  * Retain the measurement with the minimum value and timestamp
  */
-public class Min extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Min extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptDoubleAggregatorFunction, WarpScriptSlidingWindowMapperFunction {
   
   private final boolean ignoreNulls;
   
@@ -137,4 +139,31 @@ public class Min extends NamedWarpScriptFunction implements WarpScriptMapperFunc
     
     return new Object[] { ticks[idx], locations[idx], elevations[idx], value };
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    long t = ticks[from];
+    int idx = from;
+    double mind = values[from];
+
+    for (int i = from + 1; i < to; i++) {
+      int comp = Double.compare(mind, values[i]);
+      if (comp > 0 || (0 == comp && ticks[i] < t)) {
+        t = ticks[i];
+        mind = values[i];
+        idx = i;
+      }
+    }
+
+    return new Object[] { ticks[idx], null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION, mind };
+  }
+
+  @Override
+  public SlidingWindow newWindow(long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues) {
+    return new ExtremumWindow(false, ticks, locations, elevations, longValues, doubleValues);
+  }
 }
@@ -19,16 +19,18 @@ package io.warp10.script.aggregator;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptException;
 
 /**
  * Return the sum of measures with elevation and location from
  * the latest measure.
  */
-public class Sum extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Sum extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptDoubleAggregatorFunction, WarpScriptSlidingWindowMapperFunction {
   
   private final boolean ignoreNulls;
   
@@ -110,4 +112,121 @@ public class Sum extends NamedWarpScriptFunction implements WarpScriptMapperFunc
     
     return new Object[] { 0L, location, elevation, sum };    
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    int idx = -1;
+    long timestamp = Long.MIN_VALUE;
+
+    double sumd = values[from];
+
+    for (int i = from; i < to; i++) {
+      if (ticks[i] > timestamp) {
+        idx = i;
+        timestamp = ticks[i];
+      }
+
+      if (i > from) {
+        sumd = sumd + values[i];
+      }
+    }
+
+    long location = GeoTimeSerie.NO_LOCATION;
+    long elevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (-1 != idx) {
+      location = null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION;
+      elevation = null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION;
+    }
+
+    return new Object[] { 0L, location, elevation, sumd };
+  }
+
+  @Override
+  public SlidingWindow newWindow(long[] ticks, long[] locations, long[] elevations, long[] longValues, double[] doubleValues) {
+    //
+    // A running sum of DOUBLE values would not round like the sum computed by apply,
+    // only LONG values can be summed incrementally.
+    //
+
+    if (null == longValues) {
+      return null;
+    }
+
+    return new SumWindow(ticks, locations, elevations, longValues);
+  }
+
+  private static final class SumWindow implements SlidingWindow {
+    private final long[] ticks;
+    private final long[] locations;
+    private final long[] elevations;
+    private final long[] values;
+
+    private long suml = 0L;
+    private int count = 0;
+    private int first = 0;
+    private int last = -1;
+
+    SumWindow(long[] ticks, long[] locations, long[] elevations, long[] values) {
+      this.ticks = ticks;
+      this.locations = locations;
+      this.elevations = elevations;
+      this.values = values;
+    }
+
+    @Override
+    public void add(int idx) {
+      if (0 == count) {
+        first = idx;
+        last = idx;
+      } else if (idx > last) {
+        last = idx;
+      } else {
+        first = idx;
+      }
+      suml += values[idx];
+      count++;
+    }
+
+    @Override
+    public void evict(int idx) {
+      if (idx == first) {
+        first++;
+      } else {
+        last--;
+      }
+      suml -= values[idx];
+      count--;
+    }
+
+    @Override
+    public Object[] emit(long tick) {
+      if (0 == count) {
+        return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+      }
+
+      //
+      // Location and elevation are those of the first datapoint with the most recent tick
+      //
+
+      long location = GeoTimeSerie.NO_LOCATION;
+      long elevation = GeoTimeSerie.NO_ELEVATION;
+
+      if (Long.MIN_VALUE != ticks[last]) {
+        int idx = last;
+        while (idx > first && ticks[idx - 1] == ticks[last]) {
+          idx--;
+        }
+
+        location = null != locations ? locations[idx] : GeoTimeSerie.NO_LOCATION;
+        elevation = null != elevations ? elevations[idx] : GeoTimeSerie.NO_ELEVATION;
+      }
+
+      return new Object[] { 0L, location, elevation, suml };
+    }
+  }
 }
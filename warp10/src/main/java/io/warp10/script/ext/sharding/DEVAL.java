@@ -16,7 +16,9 @@
 
 package io.warp10.script.ext.sharding;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,15 +39,17 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
 import java.util.zip.GZIPInputStream;
 
@@ -81,8 +85,48 @@ public class DEVAL extends NamedWarpScriptFunction implements WarpScriptStackFun
   
   private static JSONTO JSONTO;
   
+  /**
+   * Should the stacks of the shards be retrieved in binary form
+   */
+  private static final boolean binary;
+  
+  /**
+   * Maximum size of the binary stack of a shard
+   */
+  private static final long maxsize;
+  
+  /**
+   * Key of the macro to execute on the shards when DEVAL is called with a map
+   */
+  public static final String KEY_MACRO = "macro";
+  
+  /**
+   * Key of the macro merging the results of two shards when DEVAL is called with a map
+   */
+  public static final String KEY_MERGE = "merge";
+  
   static {    
     snapshot = WarpConfig.getProperty(ShardingWarpScriptExtension.SHARDING_SNAPSHOT, WarpScriptLib.SNAPSHOT).trim().getBytes(StandardCharsets.UTF_8);
+    binary = "true".equals(WarpConfig.getProperty(ShardingWarpScriptExtension.SHARDING_BINARY));
+    maxsize = Long.parseLong(WarpConfig.getProperty(ShardingWarpScriptExtension.SHARDING_MAXSIZE, "100000000"));
+    
+    //
+    // In binary mode the snapshot code is only run by shards which will not honor the binary request,
+    // so a shard replying in JSON still applies it
+    //
+    
+    if (binary) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("'");
+      sb.append(StackCodec.SYMBOL);
+      sb.append("' ");
+      sb.append(WarpScriptLib.DEFINED);
+      sb.append(" <% %> <% ");
+      sb.append(new String(snapshot, StandardCharsets.UTF_8));
+      sb.append(" %> ");
+      sb.append(WarpScriptLib.IFTE);
+      snapshot = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
     
     int poolsize = Integer.parseInt(WarpConfig.getProperty(ShardingWarpScriptExtension.SHARDING_POOLSIZE, "4"));
     maxThreadsPerRequest = Integer.parseInt(WarpConfig.getProperty(ShardingWarpScriptExtension.SHARDING_MAXTHREADSPERCALL, Integer.toString(poolsize)));
@@ -169,13 +213,37 @@ public class DEVAL extends NamedWarpScriptFunction implements WarpScriptStackFun
     super(name);
   }
   
+  /**
+   * Result of a shard, either its JSON output or its decoded binary output
+   */
+  private static final class ShardResult {
+    private String json = null;
+    private List<Object> levels = null;
+    private StackCodec.Decoder decoder = null;
+  }
+
   @Override
   public Object apply(WarpScriptStack stack) throws WarpScriptException {
     
     Object top = stack.pop();
     
+    Macro merge = null;
+    
+    if (top instanceof Map) {
+      Map<Object,Object> map = (Map<Object,Object>) top;
+      
+      top = map.get(KEY_MACRO);
+      
+      if (null != map.get(KEY_MERGE)) {
+        if (!(map.get(KEY_MERGE) instanceof Macro)) {
+          throw new WarpScriptException(getName() + " expects '" + KEY_MERGE + "' to be a Macro.");
+        }
+        merge = (Macro) map.get(KEY_MERGE);
+      }
+    }
+    
     if (!(top instanceof Macro)) {
-      throw new WarpScriptException(getName() + " operates on a Macro.");
+      throw new WarpScriptException(getName() + " operates on a Macro or on a map with a '" + KEY_MACRO + "' Macro.");
     }
     
     StringBuilder sb = new StringBuilder();
@@ -186,7 +254,6 @@ public class DEVAL extends NamedWarpScriptFunction implements WarpScriptStackFun
     sb.append(WarpScriptLib.EVAL);
     
     final String params = sb.toString();    
-    final AtomicInteger pending = new AtomicInteger(0);    
     final AtomicBoolean aborted = new AtomicBoolean(false);
         
     // Get the endpoints and shuffle them
@@ -212,147 +279,179 @@ public class DEVAL extends NamedWarpScriptFunction implements WarpScriptStackFun
         break;
       }
     }
-        
-    @SuppressWarnings("unchecked")
-    Future<String>[] futures = new Future[finaluris.size()];
-
-    int i = 0;
     
-    while(i < futures.length) {
-      // Wait until we have less than maxThreadsPerRequest pending requests
-      while(!aborted.get() && pending.get() >= maxThreadsPerRequest) {
-        LockSupport.parkNanos(1000000);
-      }
-      
-      if (aborted.get()) {
-        break;
-      }
-      
-      try {
-        final URL endpoint = finaluris.get(i).toURL();
-        futures[i] = executor.submit(new Callable<String>() {
-          @Override
-          public String call() throws Exception {
-      
-            if (aborted.get()) {
-              throw new WarpScriptException("Execution aborted.");
-            }
-            
-            HttpURLConnection conn = null;
-            
-            try {
-              // Connect to the endpoint
-              conn = (HttpURLConnection) endpoint.openConnection();
-              conn.setChunkedStreamingMode(8192);
-              conn.setRequestProperty("Accept-Encoding", "gzip");
-
-              // Issue the command
-              conn.setDoInput(true);
-              conn.setDoOutput(true);
-              conn.setRequestMethod("POST");
-              
-              OutputStream connout = conn.getOutputStream();
-              OutputStream out = connout;
-              
-              out.write(params.getBytes(StandardCharsets.UTF_8));
-              out.write('\n');
-              out.write(snapshot);
-              out.write('\n');
-              
-              connout.flush();
-              
-              InputStream in = conn.getInputStream();
+    //
+    // At most maxThreadsPerRequest requests are pending, results are consumed as they complete
+    //
+    
+    final Semaphore slots = new Semaphore(maxThreadsPerRequest);
+    CompletionService<ShardResult> completion = new ExecutorCompletionService<ShardResult>(executor);
+    List<Future<ShardResult>> futures = new ArrayList<Future<ShardResult>>(finaluris.size());
 
-              // Retrieve result
-              if ("gzip".equals(conn.getContentEncoding())) {
-                in = new GZIPInputStream(in);
-              }
-              
-              if (HttpURLConnection.HTTP_OK != conn.getResponseCode()) {
-                throw new WarpScriptException(getName() + " remote execution encountered an error: " + conn.getHeaderField(Constants.getHeader(Configuration.HTTP_HEADER_ERROR_MESSAGEX)));
+    try {
+      int i = 0;
+      
+      while(i < finaluris.size() && !aborted.get()) {
+        final URL endpoint;
+        
+        try {
+          endpoint = finaluris.get(i).toURL();
+        } catch (MalformedURLException mue) {
+          throw new WarpScriptException(getName() + " invalid shard endpoint " + finaluris.get(i) + ".", mue);
+        }
+        
+        slots.acquire();
+        
+        try {
+          futures.add(completion.submit(new Callable<ShardResult>() {
+            @Override
+            public ShardResult call() throws Exception {
+        
+              if (aborted.get()) {
+                throw new WarpScriptException("Execution aborted.");
               }
               
-              ByteArrayOutputStream baos = new ByteArrayOutputStream();
+              HttpURLConnection conn = null;
               
-              byte[] buf = new byte[1024];
-              
-              while(true) {
-                int len = in.read(buf);
-                if (len < 0) {
-                  break;
+              try {
+                // Connect to the endpoint
+                conn = (HttpURLConnection) endpoint.openConnection();
+                conn.setChunkedStreamingMode(8192);
+                conn.setRequestProperty("Accept-Encoding", "gzip");
+                if (binary) {
+                  conn.setRequestProperty("Accept", StackCodec.CONTENT_TYPE);
                 }
-                baos.write(buf, 0, len);
-              }
-
-              byte[] bytes = baos.toByteArray();
-              
-              String result = new String(bytes, StandardCharsets.UTF_8);
-              
-              return result;
-            } catch (IOException ioe) {
-              aborted.set(true);
-              if (null != conn) {
-                throw new IOException(conn.getResponseMessage());
-              } else {
-                throw ioe;
-              }
-            } finally {
-              if (null != conn) {
-                conn.disconnect();
+  
+                // Issue the command
+                conn.setDoInput(true);
+                conn.setDoOutput(true);
+                conn.setRequestMethod("POST");
+                
+                OutputStream connout = conn.getOutputStream();
+                OutputStream out = connout;
+                
+                out.write(params.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                out.write(snapshot);
+                out.write('\n');
+                
+                connout.flush();
+                
+                InputStream in = conn.getInputStream();
+  
+                // Retrieve result
+                if ("gzip".equals(conn.getContentEncoding())) {
+                  in = new GZIPInputStream(in);
+                }
+                
+                if (HttpURLConnection.HTTP_OK != conn.getResponseCode()) {
+                  throw new WarpScriptException(getName() + " remote execution encountered an error: " + conn.getHeaderField(Constants.getHeader(Configuration.HTTP_HEADER_ERROR_MESSAGEX)));
+                }
+                
+                ShardResult result = new ShardResult();
+                
+                // Decode the binary stack as it is received
+                if (binary && StackCodec.CONTENT_TYPE.equals(conn.getContentType())) {
+                  result.decoder = new StackCodec.Decoder(new DataInputStream(new BufferedInputStream(in)), maxsize);
+                  result.levels = result.decoder.decode();
+                  return result;
+                }
+                
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                
+                byte[] buf = new byte[1024];
+                
+                while(true) {
+                  int len = in.read(buf);
+                  if (len < 0) {
+                    break;
+                  }
+                  baos.write(buf, 0, len);
+                }
+  
+                byte[] bytes = baos.toByteArray();
+                
+                result.json = new String(bytes, StandardCharsets.UTF_8);
+                
+                return result;
+              } catch (IOException ioe) {
+                aborted.set(true);
+                if (null != conn) {
+                  throw new IOException(conn.getResponseMessage());
+                } else {
+                  throw ioe;
+                }
+              } finally {
+                if (null != conn) {
+                  conn.disconnect();
+                }
+                slots.release();
               }
-              pending.addAndGet(-1);
             }
-          }
-        });
-        pending.addAndGet(1);
-      } catch (MalformedURLException | RejectedExecutionException e) {
-        continue;
+          }));
+        } catch (RejectedExecutionException ree) {
+          // The shared queue is full, retry shortly
+          slots.release();
+          LockSupport.parkNanos(1000000L);
+          continue;
+        }
+        i++;
       }
-      i++;
-    }
-    
-    //
-    // Wait until all tasks have completed or the execution was aborted
-    //
-    
-    while(!aborted.get() && pending.get() > 0) {
-      LockSupport.parkNanos(1000000L);
-    }
-
-    if (aborted.get()) {
-      for (i = 0; i < futures.length; i++) {
-        if (null != futures[i]) {
-          try {
-            futures[i].get();
-          } catch (ExecutionException ee) {            
-            throw new WarpScriptException(getName() + " execution was aborted.", ee);
-          } catch (InterruptedException ie) {
-            throw new WarpScriptException(getName() + " execution was interrupted.", ie);
-          }
+      
+      //
+      // Consume the results in the order they complete, merging them if a merge macro was given
+      //
+      
+      List<Object> results = new ArrayList<Object>();
+      Object merged = null;
+      
+      for (i = 0; i < futures.size(); i++) {
+        ShardResult result;
+        
+        try {
+          result = completion.take().get();
+        } catch (ExecutionException ee) {
+          throw new WarpScriptException(ee.getCause());
+        }
+        
+        Object levels;
+        
+        if (null != result.json) {
+          stack.push(result.json);
+          // Unwrap the JSON
+          JSONTO.apply(stack);
+          levels = stack.pop();
+        } else {
+          levels = result.decoder.resolve(result.levels);
+        }
+        
+        if (null == merge) {
+          results.add(levels);
+        } else if (0 == i) {
+          merged = levels;
+        } else {
+          stack.push(merged);
+          stack.push(levels);
+          stack.exec(merge);
+          merged = stack.pop();
         }
       }
+      
+      if (null == merge) {
+        stack.push(results);
+      } else {
+        stack.push(merged);
+      }
+    } catch (InterruptedException ie) {
+      throw new WarpScriptException(getName() + " execution was interrupted.", ie);
+    } finally {
+      // Stop the requests still running if we bailed out early
+      aborted.set(true);
+      for (Future<ShardResult> future: futures) {
+        future.cancel(true);
+      }
     }
     
-    List<Object> results = new ArrayList<Object>();
-    
-    for (i = 0; i < futures.length; i++) {
-      try {
-        String result = futures[i].get();
-        stack.push(result);
-        // Unwrap the JSON
-        JSONTO.apply(stack);
-        results.add(stack.pop());
-      } catch (ExecutionException ee) {
-        throw new WarpScriptException(ee.getCause());
-      } catch (WarpScriptException wse) {
-        throw wse;
-      } catch (Exception e) {        
-        throw new WarpScriptException(e);
-      }      
-    }
-
-    stack.push(results);
-    
     return stack;
   }  
 }
@@ -41,6 +41,16 @@ public class ShardingWarpScriptExtension extends WarpScriptExtension {
    * Snapshot command to use when talking to shards, defaults to SNAPSHOT
    */
   public static final String SHARDING_SNAPSHOT = "sharding.snapshot";
+
+  /**
+   * Set to true to retrieve the stacks of the shards in binary form instead of JSON. All shards must support it.
+   */
+  public static final String SHARDING_BINARY = "sharding.binary";
+
+  /**
+   * Maximum size in bytes of the binary stack of a shard, defaults to 100000000
+   */
+  public static final String SHARDING_MAXSIZE = "sharding.maxsize";
     
   private static final Map<String,Object> functions;
   
@@ -0,0 +1,347 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package io.warp10.script.ext.sharding;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSWrapperHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.thrift.data.GTSWrapper;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptStack;
+import io.warp10.script.functions.SNAPSHOT;
+
+/**
+ * Binary encoding of the levels of a stack, used by /exec when DEVAL asks for it.
+ *
+ * Each level is a tagged element. Geo Time Series and encoders are wrapped, lists and maps
+ * are encoded recursively, numbers, booleans, strings and byte arrays are written as is. Any
+ * other object is written as its snapshot, which is returned as a string once decoded, like in
+ * the JSON output of a shard. Code sent by a shard is never executed by the decoder.
+ */
+public class StackCodec {
+
+  /**
+   * Content type of the encoded stack, DEVAL sets it as the Accept header of its requests
+   */
+  public static final String CONTENT_TYPE = "application/x-warp10-stack";
+
+  /**
+   * Symbol defined by /exec while the script of a binary request runs, DEVAL uses it to skip the snapshot code
+   */
+  public static final String SYMBOL = ".sharding.binary";
+
+  /**
+   * Maximum nesting of lists and maps accepted by the decoder
+   */
+  private static final int MAX_NESTING = 1024;
+
+  /**
+   * Lists are never preallocated beyond this capacity, their size comes from the peer
+   */
+  private static final int MAX_PREALLOCATION = 1024;
+
+  private static final byte NULL = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte BOOLEAN = 3;
+  private static final byte STRING = 4;
+  private static final byte BYTES = 5;
+  private static final byte GTS = 6;
+  private static final byte ENCODER = 7;
+  private static final byte LIST = 8;
+  private static final byte MAP = 9;
+  private static final byte WARPSCRIPT = 10;
+
+  /**
+   * Placeholder of an element sent as its snapshot
+   */
+  private static final class Snapshot {
+    private final String code;
+
+    private Snapshot(String code) {
+      this.code = code;
+    }
+  }
+
+  /**
+   * Encode the levels of the stack, top first like the JSON output
+   */
+  public static void encode(DataOutputStream out, WarpScriptStack stack) throws IOException, WarpScriptException {
+    int depth = stack.depth();
+
+    out.writeInt(depth);
+
+    TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+
+    for (int i = 0; i < depth; i++) {
+      encode(out, serializer, stack.get(i));
+    }
+
+    out.flush();
+  }
+
+  private static void encode(DataOutputStream out, TSerializer serializer, Object o) throws IOException, WarpScriptException {
+    if (null == o) {
+      out.writeByte(NULL);
+    } else if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte) {
+      out.writeByte(LONG);
+      out.writeLong(((Number) o).longValue());
+    } else if (o instanceof Double || o instanceof Float) {
+      out.writeByte(DOUBLE);
+      out.writeDouble(((Number) o).doubleValue());
+    } else if (o instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) o);
+    } else if (o instanceof String) {
+      out.writeByte(STRING);
+      writeBytes(out, o.toString().getBytes(StandardCharsets.UTF_8));
+    } else if (o instanceof byte[]) {
+      out.writeByte(BYTES);
+      writeBytes(out, (byte[]) o);
+    } else if (o instanceof GeoTimeSerie || o instanceof GTSEncoder) {
+      GTSWrapper wrapper;
+
+      if (o instanceof GeoTimeSerie) {
+        out.writeByte(GTS);
+        wrapper = GTSWrapperHelper.fromGTSToGTSWrapper((GeoTimeSerie) o, false);
+      } else {
+        out.writeByte(ENCODER);
+        wrapper = GTSWrapperHelper.fromGTSEncoderToGTSWrapper((GTSEncoder) o, false);
+      }
+
+      try {
+        writeBytes(out, serializer.serialize(wrapper));
+      } catch (TException te) {
+        throw new WarpScriptException("Error wrapping Geo Time Series.", te);
+      }
+    } else if (o instanceof List) {
+      List<Object> list = (List<Object>) o;
+      out.writeByte(LIST);
+      out.writeInt(list.size());
+      for (Object elt: list) {
+        encode(out, serializer, elt);
+      }
+    } else if (o instanceof Map) {
+      Map<Object,Object> map = (Map<Object,Object>) o;
+      out.writeByte(MAP);
+      out.writeInt(map.size());
+      for (Entry<Object,Object> entry: map.entrySet()) {
+        encode(out, serializer, entry.getKey());
+        encode(out, serializer, entry.getValue());
+      }
+    } else {
+      StringBuilder sb = new StringBuilder();
+      SNAPSHOT.addElement(sb, o);
+      out.writeByte(WARPSCRIPT);
+      writeBytes(out, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Decoder of an encoded stack, elements are read as they arrive from the stream
+   */
+  public static class Decoder {
+
+    private final DataInputStream in;
+
+    private final TDeserializer deser = new TDeserializer(new TCompactProtocol.Factory());
+
+    /**
+     * Number of elements which need to be replaced by 'resolve'
+     */
+    private int snapshots = 0;
+
+    /**
+     * Number of bytes which may still be read, every count or length sent by the peer is checked against it
+     */
+    private long remaining;
+
+    /**
+     * @param in Stream to decode
+     * @param maxsize Maximum number of bytes the encoded stack may span
+     */
+    public Decoder(DataInputStream in, long maxsize) {
+      this.in = in;
+      this.remaining = maxsize;
+    }
+
+    /**
+     * Decode the levels of a stack, top first
+     */
+    public List<Object> decode() throws IOException, WarpScriptException {
+      // Each level spans at least one byte
+      int depth = readCount(1);
+
+      List<Object> levels = new ArrayList<Object>(Math.min(depth, MAX_PREALLOCATION));
+
+      for (int i = 0; i < depth; i++) {
+        levels.add(decodeElement(0));
+      }
+
+      return levels;
+    }
+
+    private Object decodeElement(int nesting) throws IOException, WarpScriptException {
+      consume(1);
+      byte type = this.in.readByte();
+
+      switch (type) {
+        case NULL:
+          return null;
+        case LONG:
+          consume(8);
+          return this.in.readLong();
+        case DOUBLE:
+          consume(8);
+          return this.in.readDouble();
+        case BOOLEAN:
+          consume(1);
+          return this.in.readBoolean();
+        case STRING:
+          return new String(readBytes(), StandardCharsets.UTF_8);
+        case BYTES:
+          return readBytes();
+        case GTS:
+        case ENCODER:
+          try {
+            GTSWrapper wrapper = new GTSWrapper();
+            this.deser.deserialize(wrapper, readBytes());
+            if (GTS == type) {
+              return GTSWrapperHelper.fromGTSWrapperToGTS(wrapper);
+            } else {
+              return GTSWrapperHelper.fromGTSWrapperToGTSEncoder(wrapper);
+            }
+          } catch (TException te) {
+            throw new WarpScriptException("Error unwrapping Geo Time Series.", te);
+          }
+        case LIST:
+          checkNesting(nesting);
+          int size = readCount(1);
+          List<Object> list = new ArrayList<Object>(Math.min(size, MAX_PREALLOCATION));
+          for (int i = 0; i < size; i++) {
+            list.add(decodeElement(nesting + 1));
+          }
+          return list;
+        case MAP:
+          checkNesting(nesting);
+          // Each entry spans at least two bytes, its key and its value
+          int entries = readCount(2);
+          Map<Object,Object> map = new LinkedHashMap<Object,Object>();
+          for (int i = 0; i < entries; i++) {
+            Object key = decodeElement(nesting + 1);
+            map.put(key, decodeElement(nesting + 1));
+          }
+          return map;
+        case WARPSCRIPT:
+          this.snapshots++;
+          return new Snapshot(new String(readBytes(), StandardCharsets.UTF_8));
+        default:
+          throw new WarpScriptException("Invalid element type " + type + ".");
+      }
+    }
+
+    private byte[] readBytes() throws IOException, WarpScriptException {
+      consume(4);
+      int len = this.in.readInt();
+
+      if (len < 0) {
+        throw new WarpScriptException("Invalid length " + len + ".");
+      }
+
+      consume(len);
+
+      byte[] bytes = new byte[len];
+      this.in.readFully(bytes);
+      return bytes;
+    }
+
+    /**
+     * Read a number of elements, each of them spanning at least 'minsize' bytes
+     */
+    private int readCount(int minsize) throws IOException, WarpScriptException {
+      consume(4);
+      int count = this.in.readInt();
+
+      if (count < 0 || (long) count * minsize > this.remaining) {
+        throw new WarpScriptException("Invalid element count " + count + ".");
+      }
+
+      return count;
+    }
+
+    private void consume(long len) throws WarpScriptException {
+      if (len > this.remaining) {
+        throw new WarpScriptException("Encoded stack exceeds the maximum size.");
+      }
+      this.remaining -= len;
+    }
+
+    private void checkNesting(int nesting) throws WarpScriptException {
+      if (nesting >= MAX_NESTING) {
+        throw new WarpScriptException("Encoded stack exceeds the maximum nesting of " + MAX_NESTING + ".");
+      }
+    }
+
+    /**
+     * Replace the elements sent as snapshots by their WarpScript code, it is up to the caller to evaluate it
+     */
+    public Object resolve(Object o) {
+      if (0 == this.snapshots) {
+        return o;
+      }
+
+      if (o instanceof Snapshot) {
+        return ((Snapshot) o).code;
+      } else if (o instanceof List) {
+        List<Object> list = (List<Object>) o;
+        for (int i = 0; i < list.size(); i++) {
+          list.set(i, resolve(list.get(i)));
+        }
+      } else if (o instanceof Map) {
+        Map<Object,Object> map = (Map<Object,Object>) o;
+        Map<Object,Object> resolved = new LinkedHashMap<Object,Object>();
+        for (Entry<Object,Object> entry: map.entrySet()) {
+          resolved.put(resolve(entry.getKey()), resolve(entry.getValue()));
+        }
+        return resolved;
+      }
+
+      return o;
+    }
+  }
+}
@@ -29,6 +29,8 @@ import io.warp10.standalone.AcceleratorConfig;
 public class ACCELREPORT extends NamedWarpScriptFunction implements WarpScriptStackFunction {
   
   private static final String KEY_ACCELERATED = "accelerated";
+  private static final String KEY_HYBRID = "hybrid";
+  private static final String KEY_COVERAGE = "coverage";
   private static final String KEY_STATUS = "status";
   private static final String KEY_CACHE = "cache";
   private static final String KEY_PERSIST = "persist";
@@ -54,6 +56,8 @@ public class ACCELREPORT extends NamedWarpScriptFunction implements WarpScriptSt
     report.put(KEY_PERSIST, AcceleratorConfig.isPersist());
 
     report.put(KEY_ACCELERATED, AcceleratorConfig.accelerated());
+    report.put(KEY_HYBRID, AcceleratorConfig.hybrid());
+    report.put(KEY_COVERAGE, AcceleratorConfig.coverage());
 
     report.put(KEY_CHUNK_COUNT, (long) AcceleratorConfig.getChunkCount());
     report.put(KEY_CHUNK_SPAN, AcceleratorConfig.getChunkSpan());
@@ -222,8 +222,8 @@ public class DTW extends NamedWarpScriptFunction implements WarpScriptStackFunct
         throw new WarpScriptException(getName() + " expects GTSs to have locations when DTW is applied to them.");
       }
 
-      values1 = new double[2][locations1.length];
-      for (int i = 0; i < locations1.length; i++) {
+      values1 = new double[2][GTSHelper.nvalues(gts1)];
+      for (int i = 0; i < GTSHelper.nvalues(gts1); i++) {
         if (GeoTimeSerie.NO_LOCATION == locations1[i]) {
           throw new WarpScriptException(getName() + " expects GTSs to have locations when DTW is applied to them.");
         }
@@ -237,8 +237,8 @@ public class DTW extends NamedWarpScriptFunction implements WarpScriptStackFunct
         throw new WarpScriptException(getName() + " expects GTSs to have locations when DTW is applied to them.");
       }
 
-      values2 = new double[2][locations2.length];
-      for (int i = 0; i < locations2.length; i++) {
+      values2 = new double[2][GTSHelper.nvalues(gts2)];
+      for (int i = 0; i < GTSHelper.nvalues(gts2); i++) {
         if (GeoTimeSerie.NO_LOCATION == locations2[i]) {
           throw new WarpScriptException(getName() + " expects GTSs to have locations when DTW is applied to them.");
         }
@@ -252,8 +252,8 @@ public class DTW extends NamedWarpScriptFunction implements WarpScriptStackFunct
         throw new WarpScriptException(getName() + " expects GTSs to have elevations when DTW is applied to them.");
       }
 
-      values1 = new double[1][elev1.length];
-      for (int i = 0; i < elev1.length; i++) {
+      values1 = new double[1][GTSHelper.nvalues(gts1)];
+      for (int i = 0; i < GTSHelper.nvalues(gts1); i++) {
         if (GeoTimeSerie.NO_ELEVATION == elev1[i]) {
           throw new WarpScriptException(getName() + " expects GTSs to have elevations when DTW is applied to them.");
         }
@@ -265,8 +265,8 @@ public class DTW extends NamedWarpScriptFunction implements WarpScriptStackFunct
         throw new WarpScriptException(getName() + " expects GTSs to have elevations when DTW is applied to them.");
       }
 
-      values2 = new double[1][elev2.length];
-      for (int i = 0; i < elev1.length; i++) {
+      values2 = new double[1][GTSHelper.nvalues(gts2)];
+      for (int i = 0; i < GTSHelper.nvalues(gts2); i++) {
         if (GeoTimeSerie.NO_ELEVATION == elev2[i]) {
           throw new WarpScriptException(getName() + " expects GTSs to have elevations when DTW is applied to them.");
         }
@@ -58,6 +58,7 @@ import io.warp10.continuum.gts.MetadataSelectorMatcher;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.DirectoryClient;
+import io.warp10.continuum.store.FetchStats;
 import io.warp10.continuum.store.GTSDecoderIterator;
 import io.warp10.continuum.store.MetadataIterator;
 import io.warp10.continuum.store.StoreClient;
@@ -429,6 +430,9 @@ public class FETCH extends NamedWarpScriptFunction implements WarpScriptStackFun
     long gtsLimit = (long) stack.getAttribute(WarpScriptStack.ATTRIBUTE_GTS_LIMIT);
 
     AtomicLong gtscount = (AtomicLong) stack.getAttribute(WarpScriptStack.ATTRIBUTE_GTS_COUNT);    
+
+    // Statistics of the scans performed by this FETCH
+    FetchStats stats = new FetchStats();
     
     // Variables to keep track of the last Metadata and fetched count
     Metadata lastMetadata = null;
@@ -632,7 +636,15 @@ public class FETCH extends NamedWarpScriptFunction implements WarpScriptStackFun
                 base = bases[gtsidx];
                 
                 if (null == base || !base.getMetadata().getName().equals(decoderMeta.getName()) || !base.getMetadata().getLabels().equals(decoderMeta.getLabels())) {
-                  bases[gtsidx] = new GeoTimeSerie();
+                  //
+                  // Use the number of datapoints in the decoder as a size hint so the
+                  // arrays of the GTS are not grown repeatedly
+                  //
+                  long sizehint = decoder.getCount();
+                  if (countOnly) {
+                    sizehint = Math.min(sizehint, Math.max(0L, count - lastCount));
+                  }
+                  bases[gtsidx] = new GeoTimeSerie((int) Math.min(Integer.MAX_VALUE, sizehint));
                   base = bases[gtsidx];
                   series.add(base);
                   // Copy labels to GTS, producer and owner have already been removed
@@ -757,7 +769,9 @@ public class FETCH extends NamedWarpScriptFunction implements WarpScriptStackFun
             }
             
             stack.handleSignal();
-          }      
+          }
+          
+          stats.add(gtsiter.getStats());
         } catch (WarpScriptException ee) {
           throw ee;
         } catch (Throwable t) {          
@@ -790,6 +804,8 @@ public class FETCH extends NamedWarpScriptFunction implements WarpScriptStackFun
         }
       }
     }
+    
+    stack.setAttribute(WarpScriptStack.ATTRIBUTE_FETCH_STATS, stats.toMap());
         
     stack.push(series);
     
@@ -0,0 +1,119 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script.functions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import io.warp10.continuum.gts.GTSArrowWriter;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptStack;
+import io.warp10.script.WarpScriptStackFunction;
+
+/**
+ * Converts a GTS, an encoder or a list thereof to a byte array containing an Apache Arrow stream,
+ * with the same layout as the 'arrow' format of /fetch.
+ *
+ * The batch size can optionally be specified as a LONG on top of the stack.
+ */
+public class TOARROW extends NamedWarpScriptFunction implements WarpScriptStackFunction {
+
+  public TOARROW(String name) {
+    super(name);
+  }
+
+  @Override
+  public Object apply(WarpScriptStack stack) throws WarpScriptException {
+
+    Object top = stack.pop();
+
+    int batchSize = GTSArrowWriter.DEFAULT_BATCH_SIZE;
+
+    if (top instanceof Long) {
+      long size = ((Long) top).longValue();
+
+      if (size < 1 || size > Integer.MAX_VALUE) {
+        throw new WarpScriptException(getName() + " invalid batch size.");
+      }
+
+      batchSize = (int) size;
+      top = stack.pop();
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+    try (GTSArrowWriter writer = new GTSArrowWriter(baos, batchSize)) {
+      StringBuilder sb = new StringBuilder();
+
+      if (top instanceof List) {
+        for (Object o: (List<Object>) top) {
+          add(writer, sb, o);
+        }
+      } else {
+        add(writer, sb, top);
+      }
+    } catch (IOException ioe) {
+      throw new WarpScriptException(getName() + " error while encoding datapoints.", ioe);
+    }
+
+    stack.push(baos.toByteArray());
+
+    return stack;
+  }
+
+  private void add(GTSArrowWriter writer, StringBuilder sb, Object o) throws WarpScriptException, IOException {
+    if (o instanceof GeoTimeSerie) {
+      GeoTimeSerie gts = (GeoTimeSerie) o;
+
+      int n = GTSHelper.nvalues(gts);
+
+      if (0 == n) {
+        return;
+      }
+
+      sb.setLength(0);
+      GTSHelper.metadataToString(sb, gts.getName(), gts.getLabels(), true);
+      int series = writer.series(sb.toString());
+
+      for (int i = 0; i < n; i++) {
+        writer.add(series, GTSHelper.tickAtIndex(gts, i), GTSHelper.locationAtIndex(gts, i), GTSHelper.elevationAtIndex(gts, i), GTSHelper.valueAtIndex(gts, i));
+      }
+    } else if (o instanceof GTSEncoder) {
+      GTSDecoder decoder = ((GTSEncoder) o).getDecoder(true);
+
+      if (!decoder.next()) {
+        return;
+      }
+
+      sb.setLength(0);
+      GTSHelper.metadataToString(sb, decoder.getName(), decoder.getLabels(), true);
+      int series = writer.series(sb.toString());
+
+      do {
+        writer.add(series, decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      } while (decoder.next());
+    } else {
+      throw new WarpScriptException(getName() + " operates on a Geo Time Series, an encoder or a list thereof.");
+    }
+  }
+}
@@ -16,6 +16,8 @@
 
 package io.warp10.script.functions;
 
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSWrapperHelper;
 import io.warp10.continuum.gts.GeoTimeSerie;
@@ -39,6 +41,7 @@ public class WRAP extends ElementOrListStackFunction {
   private final boolean compress;
   private final boolean raw;
   private final boolean mv;
+  private final boolean doubleXOR;
   
   private final ElementStackFunction function;
 
@@ -64,6 +67,7 @@ public class WRAP extends ElementOrListStackFunction {
     this.compress = compress;
     this.raw = raw;
     this.mv = mv;
+    this.doubleXOR = "true".equals(WarpConfig.getProperty(Configuration.WARPSCRIPT_WRAP_DOUBLE_XOR));
     
     function = generateFunctionOnce();    
   }
@@ -74,7 +78,9 @@ public class WRAP extends ElementOrListStackFunction {
       public Object applyOnElement(Object element) throws WarpScriptException {
         GTSWrapper wrapper;
         if (element instanceof GeoTimeSerie) {
-          if (opt) {
+          if (doubleXOR) {
+            wrapper = GTSWrapperHelper.fromGTSToGTSWrapper((GeoTimeSerie) element, compress, opt ? 1.0 : GTSWrapperHelper.DEFAULT_COMP_RATIO_THRESHOLD, Integer.MAX_VALUE, opt, true, true);
+          } else if (opt) {
             wrapper = GTSWrapperHelper.fromGTSToGTSWrapper((GeoTimeSerie) element, compress, 1.0, true);
           } else {
             wrapper = GTSWrapperHelper.fromGTSToGTSWrapper((GeoTimeSerie) element, compress);
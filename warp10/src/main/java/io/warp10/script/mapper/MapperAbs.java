@@ -18,6 +18,7 @@ package io.warp10.script.mapper;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptException;
 
@@ -26,7 +27,7 @@ import java.util.Map;
 /**
  * Mapper which returns the absolute value of the value passed as parameter
  */
-public class MapperAbs extends NamedWarpScriptFunction implements WarpScriptMapperFunction {
+public class MapperAbs extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptDoubleAggregatorFunction {
 
   public MapperAbs(String name) {
     super(name);
@@ -64,4 +65,17 @@ public class MapperAbs extends NamedWarpScriptFunction implements WarpScriptMapp
     
     return new Object[] { tick, location, elevation, value };
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (to - from > 1) {
+      throw new WarpScriptException(getName() + " can only be applied to a single value.");
+    }
+
+    if (from >= to) {
+      return new Object[] { tick, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    return new Object[] { tick, null != locations ? locations[from] : GeoTimeSerie.NO_LOCATION, null != elevations ? elevations[from] : GeoTimeSerie.NO_ELEVATION, Math.abs(values[from]) };
+  }
 }
@@ -19,6 +19,7 @@ package io.warp10.script.mapper;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.StackUtils;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptStackFunction;
@@ -30,7 +31,7 @@ import java.util.Map;
 /**
  * Mapper which adds a value to the value passed as parameter
  */
-public class MapperAdd extends NamedWarpScriptFunction implements WarpScriptMapperFunction {
+public class MapperAdd extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptDoubleAggregatorFunction {
   
   private TYPE type = TYPE.UNDEFINED;
   private long lvalue;
@@ -123,4 +124,28 @@ public class MapperAdd extends NamedWarpScriptFunction implements WarpScriptMapp
     sb.append(this.getName());
     return sb.toString();
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { 0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    if (1 != to - from) {
+      throw new WarpScriptException(getName() + " can only be applied to a single value.");
+    }
+
+    long location = null != locations ? locations[from] : GeoTimeSerie.NO_LOCATION;
+    long elevation = null != elevations ? elevations[from] : GeoTimeSerie.NO_ELEVATION;
+
+    Object value;
+
+    if (TYPE.LONG.equals(this.type)) {
+      value = lvalue + (long) values[from];
+    } else {
+      value = dvalue + values[from];
+    }
+
+    return new Object[] { tick, location, elevation, value };
+  }
 }
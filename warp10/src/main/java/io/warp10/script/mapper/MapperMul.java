@@ -19,6 +19,7 @@ package io.warp10.script.mapper;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
+import io.warp10.script.WarpScriptDoubleAggregatorFunction;
 import io.warp10.script.StackUtils;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptStackFunction;
@@ -30,7 +31,7 @@ import java.util.Map;
 /**
  * Mapper which multiplies by a value the value passed as parameter
  */
-public class MapperMul extends NamedWarpScriptFunction implements WarpScriptMapperFunction {
+public class MapperMul extends NamedWarpScriptFunction implements WarpScriptMapperFunction, WarpScriptDoubleAggregatorFunction {
   
   private TYPE type = TYPE.UNDEFINED;
   private long lvalue;
@@ -120,4 +121,33 @@ public class MapperMul extends NamedWarpScriptFunction implements WarpScriptMapp
     sb.append(this.getName());
     return sb.toString();
   }
+
+  @Override
+  public Object[] apply(long tick, long[] ticks, long[] locations, long[] elevations, double[] values, int from, int to) throws WarpScriptException {
+    if (from >= to) {
+      return new Object[] { 0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+
+    if (1 != to - from) {
+      throw new WarpScriptException(getName() + " can only be applied to a single value.");
+    }
+
+    long location = null != locations ? locations[from] : GeoTimeSerie.NO_LOCATION;
+    long elevation = null != elevations ? elevations[from] : GeoTimeSerie.NO_ELEVATION;
+
+    Object value;
+
+    switch (this.type) {
+      case LONG:
+        value = lvalue * (long) values[from];
+        break;
+      case DOUBLE:
+        value = dvalue * values[from];
+        break;
+      default:
+        value = null;
+    }
+
+    return new Object[] { tick, location, elevation, value };
+  }
 }
@@ -50,6 +50,25 @@ public class AcceleratorConfig {
     };
   };
   
+  /**
+   * Was the last FETCH of the given Thread served by both the cache and the persistent store?
+   */
+  static final ThreadLocal<Boolean> hybrid = new ThreadLocal<Boolean>() {
+    protected Boolean initialValue() {
+      return Boolean.FALSE;
+    };
+  };
+
+  /**
+   * Number of datapoints of the last hybrid FETCH of the given Thread served by the cache (index 0)
+   * and by the persistent store (index 1). Updated as the decoders are consumed.
+   */
+  static final ThreadLocal<long[]> datapoints = new ThreadLocal<long[]>() {
+    protected long[] initialValue() {
+      return new long[2];
+    };
+  };
+
   static final ThreadLocal<Boolean> nocache = new ThreadLocal<Boolean>() {
     @Override
     protected Boolean initialValue() {
@@ -139,6 +158,35 @@ public class AcceleratorConfig {
     }
   }
   
+  public static final boolean hybrid() {
+    if (instantiated) {
+      return hybrid.get();
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Return the fraction of the datapoints of the last FETCH which were served by the cache
+   */
+  public static final double coverage() {
+    if (!instantiated) {
+      return 0.0D;
+    }
+
+    if (!hybrid.get()) {
+      return accelerated.get() ? 1.0D : 0.0D;
+    }
+
+    long[] dps = datapoints.get();
+
+    if (0 == dps[0] + dps[1]) {
+      return 1.0D;
+    }
+
+    return (double) dps[0] / (double) (dps[0] + dps[1]);
+  }
+
   public static final boolean isInstantiated() {
     return instantiated;
   }
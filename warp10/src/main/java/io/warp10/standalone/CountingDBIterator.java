@@ -0,0 +1,95 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import org.iq80.leveldb.DBIterator;
+
+import io.warp10.continuum.store.FetchStats;
+
+/**
+ * DBIterator which records the keys, bytes and seeks of a scan in a FetchStats instance
+ */
+public class CountingDBIterator implements DBIterator {
+
+  private final DBIterator iter;
+  private final FetchStats stats;
+
+  public CountingDBIterator(DBIterator iter, FetchStats stats) {
+    this.iter = iter;
+    this.stats = stats;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return this.iter.hasNext();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.iter.close();
+  }
+
+  @Override
+  public boolean hasPrev() {
+    return this.iter.hasPrev();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> peekNext() {
+    return this.iter.peekNext();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> peekPrev() {
+    return this.iter.peekPrev();
+  }
+
+  @Override
+  public Entry<byte[], byte[]> next() {
+    Entry<byte[], byte[]> kv = this.iter.next();
+    this.stats.read(kv.getKey().length, kv.getValue().length);
+    return kv;
+  }
+
+  @Override
+  public Entry<byte[], byte[]> prev() {
+    Entry<byte[], byte[]> kv = this.iter.prev();
+    this.stats.read(kv.getKey().length, kv.getValue().length);
+    return kv;
+  }
+
+  @Override
+  public void seek(byte[] key) {
+    this.stats.seek();
+    this.iter.seek(key);
+  }
+
+  @Override
+  public void seekToFirst() {
+    this.stats.seek();
+    this.iter.seekToFirst();
+  }
+
+  @Override
+  public void seekToLast() {
+    this.stats.seek();
+    this.iter.seekToLast();
+  }
+}
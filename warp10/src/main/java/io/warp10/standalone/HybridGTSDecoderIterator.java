@@ -0,0 +1,399 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.store.FetchStats;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+/**
+ * GTSDecoderIterator for fetches whose time range starts before the range covered by the accelerator.
+ *
+ * The part of the range covered by the accelerator, [cachestart, now], is fetched from the cache, the
+ * remaining part, [thents, cachestart - 1], and the boundaries are fetched from the persistent store.
+ *
+ * When fetching by count, the cache part is fetched first and only the missing datapoints of each GTS
+ * are requested from the persistent store, GTS with the same number of missing datapoints are grouped
+ * in a single request. As in the persistent store, the pre boundary is not fetched for a GTS whose count
+ * was reached before 'thents', this includes those whose count was reached in the accelerated range.
+ *
+ * The decoders of a GTS are returned contiguously, the cache ones first, so the count based truncation
+ * done by FETCH keeps the most recent datapoints.
+ *
+ * The GTS are processed in batches so only the cache decoders of the current batch are held in memory,
+ * they are pulled from the cache as the iteration proceeds.
+ */
+class HybridGTSDecoderIterator extends GTSDecoderIterator {
+
+  /**
+   * Default number of GTS per batch
+   */
+  static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private final FetchRequest req;
+
+  private final long cachestart;
+
+  private final StoreClient persistent;
+
+  private final int batchsize;
+
+  /**
+   * Iterator on the decoders of the accelerated part of the range
+   */
+  private final GTSDecoderIterator cached;
+
+  /**
+   * Decoder read from 'cached' which belongs to a later batch
+   */
+  private GTSDecoder lookahead = null;
+
+  /**
+   * Index in the requested Metadata of the first GTS of the next batch
+   */
+  private int metaidx = 0;
+
+  /**
+   * Decoders from the cache and post boundaries, per GTS, not yet returned
+   */
+  private final Map<UUID,List<GTSDecoder>> pending = new LinkedHashMap<UUID,List<GTSDecoder>>();
+
+  /**
+   * Requests for the older part of the range to issue to the persistent store for the current batch
+   */
+  private final List<FetchRequest> requests = new ArrayList<FetchRequest>();
+
+  private int reqidx = 0;
+
+  private GTSDecoderIterator iter = null;
+
+  private final LinkedList<GTSDecoder> ready = new LinkedList<GTSDecoder>();
+
+  private final FetchStats stats = new FetchStats();
+
+  /**
+   * Datapoints served by the cache (index 0) and the persistent store (index 1)
+   */
+  private final long[] datapoints;
+
+  HybridGTSDecoderIterator(FetchRequest req, long cachestart, StandaloneChunkedMemoryStore cache, StoreClient persistent, long[] datapoints) {
+    this(req, cachestart, cache, persistent, datapoints, DEFAULT_BATCH_SIZE);
+  }
+
+  HybridGTSDecoderIterator(FetchRequest req, long cachestart, StandaloneChunkedMemoryStore cache, StoreClient persistent, long[] datapoints, int batchsize) {
+    this.req = req;
+    this.cachestart = cachestart;
+    this.persistent = persistent;
+    this.datapoints = datapoints;
+    this.batchsize = batchsize;
+
+    //
+    // Fetch the accelerated part of the range, without boundaries. The whole part is fetched
+    // and trimmed to 'count' datapoints in nextBatch as the chunks only honor 'count' when fetching
+    // from Long.MIN_VALUE. The cache returns the decoders in the order of the Metadata.
+    //
+
+    this.cached = cache.fetch(subRequest(req, req.getMetadatas(), req.getNow(), cachestart, -1L, 0L, 0L));
+  }
+
+  /**
+   * Prepare the next batch of GTS, retrieve their decoders from the cache and their post boundaries
+   * from the persistent store, and build the requests for the older part of the range.
+   *
+   * @return false if all GTS were processed
+   */
+  private boolean nextBatch() throws IOException {
+    List<Metadata> all = this.req.getMetadatas();
+
+    if (this.metaidx >= all.size()) {
+      return false;
+    }
+
+    List<Metadata> metadatas = new ArrayList<Metadata>(all.subList(this.metaidx, Math.min(all.size(), this.metaidx + this.batchsize)));
+    this.metaidx += metadatas.size();
+
+    this.requests.clear();
+    this.reqidx = 0;
+
+    Set<UUID> ids = new HashSet<UUID>();
+
+    for (Metadata metadata: metadatas) {
+      ids.add(new UUID(metadata.getClassId(), metadata.getLabelsId()));
+    }
+
+    Map<UUID,Long> cached = new HashMap<UUID,Long>();
+
+    while(true) {
+      if (null == this.lookahead) {
+        if (!this.cached.hasNext()) {
+          break;
+        }
+        this.lookahead = this.cached.next();
+      }
+
+      UUID id = new UUID(this.lookahead.getClassId(), this.lookahead.getLabelsId());
+
+      // The decoder belongs to a later batch
+      if (!ids.contains(id)) {
+        break;
+      }
+
+      GTSDecoder decoder = this.lookahead;
+      this.lookahead = null;
+
+      if (this.req.getCount() >= 0 && decoder.getCount() > this.req.getCount()) {
+        decoder = mostRecent(decoder, this.req.getCount());
+
+        if (0 == decoder.getCount()) {
+          continue;
+        }
+      }
+
+      add(id, decoder);
+      cached.put(id, decoder.getCount());
+      this.datapoints[0] += decoder.getCount();
+    }
+
+    //
+    // The post boundary may extend past the end of the accelerated range, fetch it
+    // from the persistent store, a count of 0 only retrieves boundaries
+    //
+
+    if (this.req.getPostBoundary() > 0) {
+      try (GTSDecoderIterator boundaries = this.persistent.fetch(subRequest(this.req, metadatas, this.req.getNow(), this.req.getNow(), 0L, 0L, this.req.getPostBoundary()))) {
+        while(boundaries.hasNext()) {
+          GTSDecoder decoder = boundaries.next();
+          add(new UUID(decoder.getClassId(), decoder.getLabelsId()), decoder);
+          this.datapoints[1] += decoder.getCount();
+        }
+        this.stats.add(boundaries.getStats());
+      } catch (IOException ioe) {
+        throw ioe;
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+
+    //
+    // Build the requests for the older part of the range
+    //
+
+    long oldnow = this.cachestart - 1;
+
+    if (this.req.getCount() < 0) {
+      this.requests.add(subRequest(this.req, metadatas, oldnow, this.req.getThents(), this.req.getCount(), this.req.getPreBoundary(), 0L));
+    } else {
+      Map<Long,List<Metadata>> groups = new LinkedHashMap<Long,List<Metadata>>();
+
+      for (Metadata metadata: metadatas) {
+        Long n = cached.get(new UUID(metadata.getClassId(), metadata.getLabelsId()));
+        long remaining = this.req.getCount() - (null == n ? 0L : n.longValue());
+
+        if (remaining <= 0) {
+          continue;
+        }
+
+        List<Metadata> group = groups.get(remaining);
+
+        if (null == group) {
+          group = new ArrayList<Metadata>();
+          groups.put(remaining, group);
+        }
+
+        group.add(metadata);
+      }
+
+      for (Entry<Long,List<Metadata>> entry: groups.entrySet()) {
+        this.requests.add(subRequest(this.req, entry.getValue(), oldnow, this.req.getThents(), entry.getKey(), this.req.getPreBoundary(), 0L));
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Return a decoder with the 'count' most recent datapoints of 'decoder'
+   */
+  static GTSDecoder mostRecent(GTSDecoder decoder, long count) throws IOException {
+    GTSDecoder dup = decoder.duplicate();
+
+    long[] ticks = new long[(int) decoder.getCount()];
+    int n = 0;
+
+    while(dup.next() && n < ticks.length) {
+      ticks[n++] = dup.getTimestamp();
+    }
+
+    Arrays.sort(ticks, 0, n);
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(decoder.getMetadata());
+
+    if (count > 0 && n > 0) {
+      // Timestamp of the oldest datapoint to keep, datapoints at that timestamp are kept until 'count' is reached
+      long oldest = ticks[(int) Math.max(0L, n - count)];
+      long atoldest = 0L;
+
+      for (int i = (int) Math.max(0L, n - count); i < n && oldest == ticks[i]; i++) {
+        atoldest++;
+      }
+
+      while(decoder.next()) {
+        long ts = decoder.getTimestamp();
+
+        if (ts < oldest) {
+          continue;
+        }
+
+        if (ts == oldest) {
+          if (0 == atoldest) {
+            continue;
+          }
+          atoldest--;
+        }
+
+        encoder.addValue(ts, decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      }
+    }
+
+    return encoder.getDecoder(true);
+  }
+
+  private void add(UUID id, GTSDecoder decoder) {
+    List<GTSDecoder> decoders = this.pending.get(id);
+
+    if (null == decoders) {
+      decoders = new ArrayList<GTSDecoder>(1);
+      this.pending.put(id, decoders);
+    }
+
+    decoders.add(decoder);
+  }
+
+  private static FetchRequest subRequest(FetchRequest req, List<Metadata> metadatas, long now, long thents, long count, long preBoundary, long postBoundary) {
+    FetchRequest sub = new FetchRequest();
+    sub.setToken(req.getToken());
+    sub.setMetadatas(metadatas);
+    sub.setNow(now);
+    sub.setThents(thents);
+    sub.setCount(count);
+    sub.setSkip(req.getSkip());
+    sub.setStep(req.getStep());
+    sub.setTimestep(req.getTimestep());
+    sub.setSample(req.getSample());
+    sub.setWriteTimestamp(req.isWriteTimestamp());
+    sub.setPreBoundary(preBoundary);
+    sub.setPostBoundary(postBoundary);
+    sub.setTTL(req.isTTL());
+    sub.setParallelScanners(req.isParallelScanners());
+    return sub;
+  }
+
+  @Override
+  public boolean hasNext() {
+    try {
+      while(true) {
+        if (!this.ready.isEmpty()) {
+          return true;
+        }
+
+        if (null != this.iter && this.iter.hasNext()) {
+          GTSDecoder decoder = this.iter.next();
+          this.datapoints[1] += decoder.getCount();
+
+          // Return the decoders from the cache before the first one from the persistent store
+          List<GTSDecoder> decoders = this.pending.remove(new UUID(decoder.getClassId(), decoder.getLabelsId()));
+
+          if (null != decoders) {
+            this.ready.addAll(decoders);
+          }
+
+          this.ready.add(decoder);
+          continue;
+        }
+
+        if (null != this.iter) {
+          this.stats.add(this.iter.getStats());
+          this.iter.close();
+          this.iter = null;
+        }
+
+        if (this.reqidx < this.requests.size()) {
+          this.iter = this.persistent.fetch(this.requests.get(this.reqidx++));
+          continue;
+        }
+
+        if (!this.pending.isEmpty()) {
+          // GTS of the batch without any data in the persistent store
+          for (List<GTSDecoder> decoders: this.pending.values()) {
+            this.ready.addAll(decoders);
+          }
+          this.pending.clear();
+          continue;
+        }
+
+        if (!nextBatch()) {
+          return false;
+        }
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public GTSDecoder next() {
+    return this.ready.poll();
+  }
+
+  @Override
+  public void remove() {}
+
+  @Override
+  public void close() throws Exception {
+    try {
+      if (null != this.iter) {
+        this.iter.close();
+        this.iter = null;
+      }
+    } finally {
+      this.cached.close();
+    }
+  }
+
+  @Override
+  public FetchStats getStats() {
+    return this.stats;
+  }
+}
@@ -17,6 +17,7 @@
 package io.warp10.standalone;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -40,6 +41,13 @@ public class InMemoryChunkSet {
    */
   private static final int ENCODER_MAX_WASTED = 1024;
   
+  /**
+   * Outcomes of adopt
+   */
+  static final int ADOPTED = 1;
+  static final int EXPIRED = 0;
+  static final int SLOT_IN_USE = -1;
+  
   /**
    * Chunks, organized in a ring. A given timestamp will lead to a specific chunk in the ring
    */
@@ -75,14 +83,41 @@ public class InMemoryChunkSet {
    */
   private final boolean ephemeral;
   
+  /**
+   * Should double values be XOR encoded in chunks?
+   */
+  private final boolean doubleXOR;
+  
+  /**
+   * Arena in which the content of sealed chunks is stored, or null if chunks are kept on heap
+   */
+  private final OffHeapChunkArena arena;
+  
+  /**
+   * Sealed chunks whose content is stored off heap, either in the arena or in a mapped snapshot.
+   * A chunk is either in 'chunks' or in 'sealed'. Allocated when the first chunk is sealed.
+   */
+  private OffHeapChunkArena.Chunk[] sealed;
+  
   private static final Random prng = new Random();
   
   public InMemoryChunkSet(int chunkcount, long chunklen, boolean ephemeral) {
+    this(chunkcount, chunklen, ephemeral, false);
+  }
+  
+  public InMemoryChunkSet(int chunkcount, long chunklen, boolean ephemeral, boolean doubleXOR) {
+    this(chunkcount, chunklen, ephemeral, doubleXOR, null);
+  }
+  
+  public InMemoryChunkSet(int chunkcount, long chunklen, boolean ephemeral, boolean doubleXOR, OffHeapChunkArena arena) {
     this.chunks = new GTSEncoder[chunkcount];
     this.chunkends = new long[chunkcount];
     this.chronological = new BitSet(chunkcount);
     this.lasttimestamp = new long[chunkcount];
     this.ephemeral = ephemeral;
+    this.doubleXOR = doubleXOR;
+    // Ephemeral chunk sets are never sealed
+    this.arena = ephemeral ? null : arena;
     if (ephemeral) {
       this.chunklen = Long.MAX_VALUE;
       this.chunkcount = 1;
@@ -141,39 +176,79 @@ public class InMemoryChunkSet {
       // Compute the chunkid
       int chunkid = chunk(timestamp);
     
-      if (chunkid != lastchunk) {
-        chunkEncoder = null;
-      
-        synchronized(this.chunks) {
-          // Is the chunk non existent or has expired?
-          if (null == this.chunks[chunkid] || this.chunkends[chunkid] < firstChunkStart) {
-            long end = chunkEnd(timestamp);
-            this.chunks[chunkid] = new GTSEncoder(0L);
-            this.lasttimestamp[chunkid] = end - this.chunklen;
-            this.chronological.set(chunkid);
-            this.chunkends[chunkid] = end;          
+      while (true) {
+        if (chunkid != lastchunk) {
+          chunkEncoder = null;
+        
+          synchronized(this.chunks) {
+            // Bring a sealed chunk back on heap so it can be modified
+            if (null == this.chunks[chunkid] && null != this.sealed && null != this.sealed[chunkid] && this.chunkends[chunkid] >= firstChunkStart) {
+              thaw(chunkid);
+            }
+            
+            // Is the chunk non existent or has expired?
+            if (null == this.chunks[chunkid] || this.chunkends[chunkid] < firstChunkStart) {
+              long end = chunkEnd(timestamp);
+              drop(chunkid);
+              this.chunks[chunkid] = new GTSEncoder(0L);
+              this.chunks[chunkid].setDoubleXOR(this.doubleXOR);
+              this.lasttimestamp[chunkid] = end - this.chunklen;
+              this.chronological.set(chunkid);
+              this.chunkends[chunkid] = end;          
+            }
+            
+            chunkEncoder = this.chunks[chunkid];          
+          }
+          
+          lastchunk = chunkid;
+        }
+  
+        synchronized(chunkEncoder) {
+          // The chunk was sealed or replaced since we retrieved it, retrieve it again
+          if (chunkEncoder != this.chunks[chunkid]) {
+            lastchunk = -1;
+            continue;
           }
           
-          chunkEncoder = this.chunks[chunkid];          
+          if (timestamp < this.lasttimestamp[chunkid]) {
+            this.chronological.set(chunkid, false);
+          }
+          this.lasttimestamp[chunkid] = timestamp;
+  
+          chunkEncoder.addValue(timestamp, decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+          stored = true;
         }
         
-        lastchunk = chunkid;
+        break;
       }
-
-      synchronized(this.chunks[chunkid]) {
-        if (timestamp < this.lasttimestamp[chunkid]) {
-          this.chronological.set(chunkid, false);
-        }
-        this.lasttimestamp[chunkid] = timestamp;
-
-        chunkEncoder.addValue(timestamp, decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
-        stored = true;
-      }      
     }
     
     return stored;
   }
   
+  /**
+   * Move the content of a sealed chunk back on heap. Must be called while holding the lock on 'chunks'.
+   */
+  private void thaw(int chunkid) throws IOException {
+    OffHeapChunkArena.Chunk chunk = this.sealed[chunkid];
+    GTSEncoder encoder = new GTSEncoder(0L, null, chunk.getBytes());
+    encoder.setDoubleXOR(this.doubleXOR);
+    encoder.setCount(chunk.getCount());
+    this.chunks[chunkid] = encoder;
+    this.sealed[chunkid] = null;
+    chunk.release();
+  }
+  
+  /**
+   * Drop the off heap content of a chunk. Must be called while holding the lock on 'chunks'.
+   */
+  private void drop(int chunkid) {
+    if (null != this.sealed && null != this.sealed[chunkid]) {
+      this.sealed[chunkid].release();
+      this.sealed[chunkid] = null;
+    }
+  }
+  
   /**
    * Compute the chunk id given a timestamp.
    * @param timestamp
@@ -250,10 +325,12 @@ public class InMemoryChunkSet {
     
     synchronized (this.chunks) {
       for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i]) {
-          continue;
+        if (null != this.chunks[i]) {
+          decoders.add(this.chunks[i].getUnsafeDecoder(false));
+        } else if (null != this.sealed && null != this.sealed[i]) {
+          // Copy the content on heap as the decoders may outlive the sealed chunk
+          decoders.add(new GTSDecoder(0L, ByteBuffer.wrap(this.sealed[i].getBytes())));
         }
-        decoders.add(this.chunks[i].getUnsafeDecoder(false));
       }
     }
     
@@ -314,6 +391,7 @@ public class InMemoryChunkSet {
         int chunk = (nowchunk + i) % this.chunkcount;
         
         GTSDecoder chunkDecoder = null;
+        OffHeapChunkArena.Chunk offheap = null;
         
         synchronized(this.chunks) {
           // Ignore a given chunk if it is before 'now'
@@ -324,6 +402,10 @@ public class InMemoryChunkSet {
           // Extract a decoder to scan the chunk
           if (null != this.chunks[chunk]) {
             chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
+          } else if (null != this.sealed && null != this.sealed[chunk]) {
+            offheap = this.sealed[chunk];
+            offheap.retain();
+            chunkDecoder = offheap.getDecoder();
           }
         }
         
@@ -331,15 +413,21 @@ public class InMemoryChunkSet {
           continue;
         }
 
-        // Add datapoints from the decoder
+        try {
+          // Add datapoints from the decoder
 
-        while (chunkDecoder.next()) {
-          if (chunkDecoder.getTimestamp() > now) {
-            boundary.add(new Object[] { seq++, chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue() });
-            if (boundary.size() > postBoundary) {
-              boundary.remove();
+          while (chunkDecoder.next()) {
+            if (chunkDecoder.getTimestamp() > now) {
+              boundary.add(new Object[] { seq++, chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue() });
+              if (boundary.size() > postBoundary) {
+                boundary.remove();
+              }
             }
           }
+        } finally {
+          if (null != offheap) {
+            offheap.release();
+          }
         }
         
         // If we have enough datapoints, stop
@@ -380,6 +468,7 @@ public class InMemoryChunkSet {
       int chunk = (nowchunk - i) % this.chunkcount;
       
       GTSDecoder chunkDecoder = null;
+      OffHeapChunkArena.Chunk offheap = null;
       
       boolean boundaryOnly = false;
       
@@ -392,6 +481,10 @@ public class InMemoryChunkSet {
         // Extract a decoder to scan the chunk
         if (null != this.chunks[chunk] && !(boundaryOnly && null == boundary)) {
           chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
+        } else if (null != this.sealed && null != this.sealed[chunk] && !(boundaryOnly && null == boundary)) {
+          offheap = this.sealed[chunk];
+          offheap.retain();
+          chunkDecoder = offheap.getDecoder();
         }
       }
       
@@ -399,44 +492,50 @@ public class InMemoryChunkSet {
         continue;
       }
       
-      long nvalues = count >= 0 ? count : Long.MAX_VALUE;
+      try {
+        long nvalues = count >= 0 ? count : Long.MAX_VALUE;
 
-      // Merge the data from chunkDecoder which is in the requested range in 'encoder'
-      while(chunkDecoder.next()) {
-        long ts = chunkDecoder.getTimestamp();
+        // Merge the data from chunkDecoder which is in the requested range in 'encoder'
+        while(chunkDecoder.next()) {
+          long ts = chunkDecoder.getTimestamp();
         
-        if (ts > now || ts < firstTimestamp) {
-          if (null != boundary) {
-            boundary.add(new Object[] { seq++, chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue() });
-            if (boundary.size() > preBoundary) {
-              boundary.remove();
+          if (ts > now || ts < firstTimestamp) {
+            if (null != boundary) {
+              boundary.add(new Object[] { seq++, chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue() });
+              if (boundary.size() > preBoundary) {
+                boundary.remove();
+              }
             }
+            continue;
           }
-          continue;
-        }
         
-        if (!boundaryOnly) {
-          // Do we have more datapoints to retrieve?
-          if (nvalues > 0) {
-            // Skip
-            if (skip > 0) {
-              skip--;
-              continue;
-            }
+          if (!boundaryOnly) {
+            // Do we have more datapoints to retrieve?
+            if (nvalues > 0) {
+              // Skip
+              if (skip > 0) {
+                skip--;
+                continue;
+              }
             
-            // Sample
-            if (1.0D != sample && prng.nextDouble() > sample) {
-              continue;
-            }          
+              // Sample
+              if (1.0D != sample && prng.nextDouble() > sample) {
+                continue;
+              }          
 
-            encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-            nvalues--;
+              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+              nvalues--;
+            }
           }
-        }
         
-        // If we are done fetching and have no preBoundary, exit
-        if (0 == nvalues && 0 == preBoundary) {
-          break;
+          // If we are done fetching and have no preBoundary, exit
+          if (0 == nvalues && 0 == preBoundary) {
+            break;
+          }
+        }
+      } finally {
+        if (null != offheap) {
+          offheap.release();
         }
       }
       // If the pre boundary has enough datapoints, add them to the encoder and nullify boundary
@@ -510,6 +609,7 @@ public class InMemoryChunkSet {
         int chunk = (nowchunk + i) % this.chunkcount;
         
         GTSDecoder chunkDecoder = null;
+        OffHeapChunkArena.Chunk offheap = null;
         
         synchronized(this.chunks) {
           // Ignore a given chunk if it is before 'now'
@@ -520,6 +620,10 @@ public class InMemoryChunkSet {
           // Extract a decoder to scan the chunk
           if (null != this.chunks[chunk]) {
             chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
+          } else if (null != this.sealed && null != this.sealed[chunk]) {
+            offheap = this.sealed[chunk];
+            offheap.retain();
+            chunkDecoder = offheap.getDecoder();
           }
         }
         
@@ -527,15 +631,21 @@ public class InMemoryChunkSet {
           continue;
         }
 
-        // Add datapoints from the decoder
+        try {
+          // Add datapoints from the decoder
 
-        while (chunkDecoder.next()) {
-          if (chunkDecoder.getTimestamp() > now) {
-            boundary.add(new Object[] { seq++, chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue() });
-            if (boundary.size() > postBoundary) {
-              boundary.remove();
+          while (chunkDecoder.next()) {
+            if (chunkDecoder.getTimestamp() > now) {
+              boundary.add(new Object[] { seq++, chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue() });
+              if (boundary.size() > postBoundary) {
+                boundary.remove();
+              }
             }
           }
+        } finally {
+          if (null != offheap) {
+            offheap.release();
+          }
         }
         
         // If we have enough datapoints, stop
@@ -566,6 +676,8 @@ public class InMemoryChunkSet {
       int chunk = (nowchunk - i) % this.chunkcount;
       
       GTSDecoder chunkDecoder = null;
+      OffHeapChunkArena.Chunk offheap = null;
+      long chunkCount = 0L;
       boolean inorder = true;
       long chunkEnd = -1;
       
@@ -578,6 +690,14 @@ public class InMemoryChunkSet {
         // Extract a decoder to scan the chunk
         if (null != this.chunks[chunk]) {
           chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
+          chunkCount = chunkDecoder.getCount();
+          inorder = this.chronological.get(chunk);
+          chunkEnd = this.chunkends[chunk];
+        } else if (null != this.sealed && null != this.sealed[chunk]) {
+          offheap = this.sealed[chunk];
+          offheap.retain();
+          chunkDecoder = offheap.getDecoder();
+          chunkCount = offheap.getCount();
           inorder = this.chronological.get(chunk);
           chunkEnd = this.chunkends[chunk];
         }
@@ -587,163 +707,169 @@ public class InMemoryChunkSet {
         continue;
       }
       
-      // We now have a chunk, we will treat it differently depending if
-      // it is in chronological order or not
+      try {
+        // We now have a chunk, we will treat it differently depending if
+        // it is in chronological order or not
       
-      if (inorder) {
+        if (inorder) {
         
-        if (chunkEnd <= now && chunkDecoder.getCount() <= nvalues) {
-          //
-          // If the end timestamp of the chunk is before 'now' and the
-          // chunk contains less than the remaining values we need to fetch
-          // we can add everything.
-          //
-          while(chunkDecoder.next()) {
-            encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-            nvalues--;
-          }
-        } else if (chunkDecoder.getCount() <= nvalues) {
-          //
-          // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
-          // so we add all the values whose timestamp is <= 'now'
-          //
-          while(chunkDecoder.next()) {
-            long ts = chunkDecoder.getTimestamp();
-            if (ts > now) {
-              // we can break because we know the encoder is in chronological order.
-              break;
-            }
-            encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-            nvalues--;
-          }          
-        } else {
-          //
-          // The chunk has more values than what we need.
-          // If the end of the chunk is <= now then we know we must skip count - nvalues and
-          // add the rest to the result.
-          // Otherwise it's a little trickier
-          //
-          
-          if (chunkEnd <= now) {
-            long skip = chunkDecoder.getCount() - nvalues;
-            while(skip > 0 && chunkDecoder.next()) {
-              skip--;
-            }
+          if (chunkEnd <= now && chunkCount <= nvalues) {
+            //
+            // If the end timestamp of the chunk is before 'now' and the
+            // chunk contains less than the remaining values we need to fetch
+            // we can add everything.
+            //
             while(chunkDecoder.next()) {
               encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
               nvalues--;
-            }          
-          } else {            
-            // Duplicate the decoder so we can scan it again later
-            GTSDecoder dupdecoder = chunkDecoder.duplicate();
-            // We will count the number of datapoints whose timestamp is <= now
-            long valid = 0;
+            }
+          } else if (chunkCount <= nvalues) {
+            //
+            // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
+            // so we add all the values whose timestamp is <= 'now'
+            //
             while(chunkDecoder.next()) {
               long ts = chunkDecoder.getTimestamp();
               if (ts > now) {
                 // we can break because we know the encoder is in chronological order.
                 break;
               }
-              valid++;
-            }
+              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+              nvalues--;
+            }          
+          } else {
+            //
+            // The chunk has more values than what we need.
+            // If the end of the chunk is <= now then we know we must skip count - nvalues and
+            // add the rest to the result.
+            // Otherwise it's a little trickier
+            //
+          
+            if (chunkEnd <= now) {
+              long skip = chunkCount - nvalues;
+              while(skip > 0 && chunkDecoder.next()) {
+                skip--;
+              }
+              while(chunkDecoder.next()) {
+                encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+                nvalues--;
+              }          
+            } else {            
+              // Duplicate the decoder so we can scan it again later
+              GTSDecoder dupdecoder = chunkDecoder.duplicate();
+              // We will count the number of datapoints whose timestamp is <= now
+              long valid = 0;
+              while(chunkDecoder.next()) {
+                long ts = chunkDecoder.getTimestamp();
+                if (ts > now) {
+                  // we can break because we know the encoder is in chronological order.
+                  break;
+                }
+                valid++;
+              }
             
-            chunkDecoder = dupdecoder;
-            long skip = valid - nvalues;
-            while(skip > 0 && chunkDecoder.next()) {
-              skip--;
-              valid--;
+              chunkDecoder = dupdecoder;
+              long skip = valid - nvalues;
+              while(skip > 0 && chunkDecoder.next()) {
+                skip--;
+                valid--;
+              }
+              while(valid > 0 && chunkDecoder.next()) {
+                encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+                nvalues--;
+                valid--;
+              }                      
             }
-            while(valid > 0 && chunkDecoder.next()) {
-              encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-              nvalues--;
-              valid--;
-            }                      
           }
-        }
-      } else {
-        // The chunk decoder is not in chronological order...
+        } else {
+          // The chunk decoder is not in chronological order...
         
-        // Create a duplicate of the buffer in case we need it later
-        GTSDecoder dupdecoder = chunkDecoder.duplicate();
+          // Create a duplicate of the buffer in case we need it later
+          GTSDecoder dupdecoder = chunkDecoder.duplicate();
                 
-        if (chunkEnd <= now && chunkDecoder.getCount() <= nvalues) {
-          //
-          // If the chunk decoder end is <= 'now' and the decoder contains less values than
-          // what is still needed, add everything.
-          //
-          while(chunkDecoder.next()) {
-            encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-            nvalues--;
-          }          
-        } else if(chunkDecoder.getCount() <= nvalues) {
-          //
-          // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
-          // so we add all the values whose timestamp is <= 'now'
-          //
-          while(chunkDecoder.next()) {
-            long ts = chunkDecoder.getTimestamp();
-            if (ts > now) {
-              // we skip the value as the encoder is not in chronological order
-              continue;
-            }
-            encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-            nvalues--;
-          }          
-        } else {
-          // We have a chunk which has more values than what we need and/or whose end
-          // is after 'now'
-          // We will transfer the datapoints whose timestamp is <= now in an array so we can sort them
+          if (chunkEnd <= now && chunkCount <= nvalues) {
+            //
+            // If the chunk decoder end is <= 'now' and the decoder contains less values than
+            // what is still needed, add everything.
+            //
+            while(chunkDecoder.next()) {
+              encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+              nvalues--;
+            }          
+          } else if(chunkCount <= nvalues) {
+            //
+            // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
+            // so we add all the values whose timestamp is <= 'now'
+            //
+            while(chunkDecoder.next()) {
+              long ts = chunkDecoder.getTimestamp();
+              if (ts > now) {
+                // we skip the value as the encoder is not in chronological order
+                continue;
+              }
+              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+              nvalues--;
+            }          
+          } else {
+            // We have a chunk which has more values than what we need and/or whose end
+            // is after 'now'
+            // We will transfer the datapoints whose timestamp is <= now in an array so we can sort them
           
-          long[] ticks = new long[(int) chunkDecoder.getCount()];
+            long[] ticks = new long[(int) chunkCount];
 
-          int idx = 0;
+            int idx = 0;
           
-          while(chunkDecoder.next()) {
-            long ts = chunkDecoder.getTimestamp();
-            if (ts > now) {
-              continue;
-            }
+            while(chunkDecoder.next()) {
+              long ts = chunkDecoder.getTimestamp();
+              if (ts > now) {
+                continue;
+              }
             
-            ticks[idx++] = ts;
-          }
+              ticks[idx++] = ts;
+            }
           
-          if (idx > 1) {
-            Arrays.sort(ticks, 0, idx);
-          }
+            if (idx > 1) {
+              Arrays.sort(ticks, 0, idx);
+            }
         
-          chunkDecoder = dupdecoder;
+            chunkDecoder = dupdecoder;
           
-          // We must skip values whose timestamp is <= ticks[idx - nvalues]
+            // We must skip values whose timestamp is <= ticks[idx - nvalues]
           
-          if (idx > nvalues) {
-            long lowest = ticks[idx - (int) nvalues];
+            if (idx > nvalues) {
+              long lowest = ticks[idx - (int) nvalues];
             
-            while(chunkDecoder.next() && nvalues > 0) {
-              long ts = chunkDecoder.getTimestamp();
-              if (ts < lowest) {
-                continue;
-              }
-              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-              nvalues--;
-            }                                  
-          } else {
-            // The intermediary decoder has less than nvalues whose ts is <= now, transfer everything
-            chunkDecoder = dupdecoder;
+              while(chunkDecoder.next() && nvalues > 0) {
+                long ts = chunkDecoder.getTimestamp();
+                if (ts < lowest) {
+                  continue;
+                }
+                encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+                nvalues--;
+              }                                  
+            } else {
+              // The intermediary decoder has less than nvalues whose ts is <= now, transfer everything
+              chunkDecoder = dupdecoder;
             
-            int valid = idx;
+              int valid = idx;
             
-            while(valid > 0 && chunkDecoder.next()) {
-              long ts = chunkDecoder.getTimestamp();
-              if (ts > now) {
-                continue;
-              }
-              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
-              nvalues--;
-              valid--;
-            }                                              
+              while(valid > 0 && chunkDecoder.next()) {
+                long ts = chunkDecoder.getTimestamp();
+                if (ts > now) {
+                  continue;
+                }
+                encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getBinaryValue());
+                nvalues--;
+                valid--;
+              }                                              
+            }
           }
+        }      
+      } finally {
+        if (null != offheap) {
+          offheap.release();
         }
-      }      
+      }
     }
         
     return encoder;
@@ -763,6 +889,16 @@ public class InMemoryChunkSet {
       }
     }
     
+    OffHeapChunkArena.Chunk[] sealed = this.sealed;
+    
+    if (null != sealed) {
+      for (OffHeapChunkArena.Chunk chunk: sealed) {
+        if (null != chunk) {
+          count += chunk.getCount();
+        }
+      }
+    }
+    
     return count;
   }
   
@@ -780,6 +916,16 @@ public class InMemoryChunkSet {
       }
     }
     
+    OffHeapChunkArena.Chunk[] sealed = this.sealed;
+    
+    if (null != sealed) {
+      for (OffHeapChunkArena.Chunk chunk: sealed) {
+        if (null != chunk) {
+          size += chunk.size();
+        }
+      }
+    }
+    
     return size;
   }
   
@@ -799,13 +945,17 @@ public class InMemoryChunkSet {
     long droppedDatapoints = 0L;
     synchronized(this.chunks) {
       for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i]) {
+        if (this.chunkends[i] > cutoff) {
           continue;
         }
-        if (this.chunkends[i] <= cutoff) {
+        if (null != this.chunks[i]) {
           droppedDatapoints += this.chunks[i].getCount();
           this.chunks[i] = null;
           dropped++;
+        } else if (null != this.sealed && null != this.sealed[i]) {
+          droppedDatapoints += this.sealed[i].getCount();
+          drop(i);
+          dropped++;
         }
       }
     }
@@ -816,7 +966,23 @@ public class InMemoryChunkSet {
   }
   
   /**
-   * Optimize all non current chunks by shrinking their buffers.
+   * Return the off heap content of the chunks to the arena, the chunk set must no longer be in use
+   */
+  void free() {
+    if (null == this.sealed) {
+      return;
+    }
+    
+    synchronized(this.chunks) {
+      for (int i = 0; i < this.sealed.length; i++) {
+        drop(i);
+      }
+    }
+  }
+  
+  /**
+   * Optimize all non current chunks by shrinking their buffers or by moving
+   * their content off heap if an arena was configured.
    * 
    * @param now
    */
@@ -837,6 +1003,19 @@ public class InMemoryChunkSet {
         }
         int size = this.chunks[i].size();
         
+        if (null != this.arena) {
+          if (null == this.sealed) {
+            this.sealed = new OffHeapChunkArena.Chunk[this.chunks.length];
+          }
+          try {
+            this.chunks[i].writeTo(out);
+            reclaimed += out.getCapacity();
+          } catch (IOException ioe) {
+          }
+          seal(i);
+          continue;
+        }
+        
         try {
           this.chunks[i].writeTo(out);
           int capacity = out.getCapacity();
@@ -854,6 +1033,129 @@ public class InMemoryChunkSet {
     return reclaimed;
   }
   
+  /**
+   * Move the content of a chunk off heap. Must be called while holding the lock on 'chunks'.
+   */
+  private void seal(int chunkid) {
+    GTSEncoder encoder = this.chunks[chunkid];
+    
+    // Wait for pending writes to the encoder, later writers will notice the chunk was sealed
+    synchronized(encoder) {
+      if (0 == encoder.size()) {
+        this.chunks[chunkid] = null;
+        return;
+      }
+      
+      try {
+        this.sealed[chunkid] = this.arena.allocate(encoder);
+        this.chunks[chunkid] = null;
+      } catch (IOException ioe) {
+      }
+    }
+  }
+  
+  /**
+   * Export the content of a chunk so it can be written in a snapshot
+   * 
+   * @param chunkid Index of the chunk in the ring
+   * @param state Array receiving the end timestamp, number of datapoints, last timestamp, chronological flag (1 if set) and base timestamp of the chunk
+   * @return The content of the chunk or null if the chunk is empty
+   */
+  byte[] export(int chunkid, long[] state) {
+    synchronized(this.chunks) {
+      byte[] content = null;
+      
+      if (null != this.chunks[chunkid]) {
+        synchronized(this.chunks[chunkid]) {
+          content = this.chunks[chunkid].getBytes();
+          state[1] = this.chunks[chunkid].getCount();
+          state[4] = this.chunks[chunkid].getBaseTimestamp();
+        }
+      } else if (null != this.sealed && null != this.sealed[chunkid]) {
+        content = this.sealed[chunkid].getBytes();
+        state[1] = this.sealed[chunkid].getCount();
+        state[4] = 0L;
+      }
+      
+      if (null == content || 0 == content.length) {
+        return null;
+      }
+      
+      state[0] = this.chunkends[chunkid];
+      state[2] = this.lasttimestamp[chunkid];
+      state[3] = this.chronological.get(chunkid) ? 1L : 0L;
+      
+      return content;
+    }
+  }
+  
+  /**
+   * Adopt a chunk read from a snapshot. Its content is read in place until the chunk set is warmed up.
+   * Chunks which have already expired are ignored.
+   * 
+   * @return ADOPTED if the chunk was installed, EXPIRED if it was ignored because it has expired,
+   *         SLOT_IN_USE if it could not be adopted because its slot in the ring is already in use
+   */
+  int adopt(long chunkend, long lasttimestamp, boolean chronological, OffHeapChunkArena.Chunk chunk) {
+    if (this.ephemeral) {
+      return SLOT_IN_USE;
+    }
+    
+    long firstChunkStart = chunkEnd(TimeSource.getTime()) - (chunkcount * chunklen) + 1;
+    
+    if (chunkend < firstChunkStart) {
+      return EXPIRED;
+    }
+    
+    int chunkid = chunk(chunkend);
+    
+    synchronized(this.chunks) {
+      if ((null != this.chunks[chunkid] || (null != this.sealed && null != this.sealed[chunkid])) && this.chunkends[chunkid] >= firstChunkStart) {
+        return SLOT_IN_USE;
+      }
+      
+      this.chunks[chunkid] = null;
+      drop(chunkid);
+      
+      if (null == this.sealed) {
+        this.sealed = new OffHeapChunkArena.Chunk[this.chunks.length];
+      }
+      
+      this.sealed[chunkid] = chunk;
+      this.chunkends[chunkid] = chunkend;
+      this.lasttimestamp[chunkid] = lasttimestamp;
+      this.chronological.set(chunkid, chronological);
+    }
+    
+    return ADOPTED;
+  }
+  
+  /**
+   * Move the content of the chunks adopted from a snapshot into the arena, or on heap
+   * if no arena was configured.
+   */
+  void warmup() throws IOException {
+    synchronized(this.chunks) {
+      if (null == this.sealed) {
+        return;
+      }
+      
+      for (int i = 0; i < this.sealed.length; i++) {
+        if (null == this.sealed[i] || !this.sealed[i].isMapped()) {
+          continue;
+        }
+        
+        if (null != this.arena) {
+          OffHeapChunkArena.Chunk chunk = this.sealed[i];
+          this.sealed[i] = this.arena.allocate(chunk);
+          chunk.release();
+        } else {
+          thaw(i);
+        }
+      }
+    }
+  }
+  
   /**
    * Delete datapoints whose timestamp if >= start and <= end
    * 
@@ -868,8 +1170,24 @@ public class InMemoryChunkSet {
       if (!this.ephemeral && (chunkends[i] < start || chunkends[i] >= end + chunklen)) {
         continue;
       }
+      if (null == chunks[i]) {
+        // Bring a sealed chunk back on heap so it can be modified
+        synchronized(this.chunks) {
+          if (null == chunks[i] && null != this.sealed && null != this.sealed[i]) {
+            try {
+              thaw(i);
+            } catch (IOException ioe) {
+              throw new RuntimeException("Error while deleting data.", ioe);
+            }
+          }
+        }
+        if (null == chunks[i]) {
+          continue;
+        }
+      }
       synchronized(chunks[i]) {
         GTSEncoder encoder = new GTSEncoder();
+        encoder.setDoubleXOR(this.doubleXOR);
         GTSDecoder decoder = chunks[i].getUnsafeDecoder(false);
         boolean deleted = false;
         while (decoder.next()) {
@@ -0,0 +1,408 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.warp10.SmartPattern;
+
+/**
+ * Inverted index of the labels of the Geo Time Series of a given class.
+ *
+ * For each label name the index maps each label value to the labelsIds
+ * of the GTS having this label value.
+ *
+ * Selectors may also match attributes when a GTS does not have the selected label,
+ * so the index can only narrow a search using the labels present in all the GTS of
+ * the class. The returned candidates MUST still be checked against the selectors.
+ *
+ * Updates are serialized, lookups take no lock.
+ */
+public class LabelsIndex {
+
+  /**
+   * Set of labelsIds. The ids are spread in buckets on their low bits, each bucket is a
+   * sorted array replaced on every change so readers always see a consistent bucket.
+   * The number of buckets doubles when they hold BUCKET_SIZE ids on average, so a change
+   * copies a bounded number of ids. MUST be modified with the index lock held.
+   */
+  private static final class Ids {
+    private static final int BUCKET_SIZE = 256;
+
+    private static final long[] EMPTY = new long[0];
+
+    private volatile AtomicReferenceArray<long[]> buckets;
+
+    private volatile int size = 0;
+
+    private Ids() {
+      this.buckets = new AtomicReferenceArray<long[]>(new long[][] { EMPTY });
+    }
+
+    /**
+     * Build a set from distinct ids
+     */
+    private Ids(long[] ids) {
+      int nbuckets = 1;
+
+      while (nbuckets * BUCKET_SIZE < ids.length) {
+        nbuckets <<= 1;
+      }
+
+      int[] counts = new int[nbuckets];
+
+      for (long id: ids) {
+        counts[(int) id & (nbuckets - 1)]++;
+      }
+
+      long[][] buckets = new long[nbuckets][];
+
+      for (int i = 0; i < nbuckets; i++) {
+        buckets[i] = 0 == counts[i] ? EMPTY : new long[counts[i]];
+        counts[i] = 0;
+      }
+
+      for (long id: ids) {
+        int b = (int) id & (nbuckets - 1);
+        buckets[b][counts[b]++] = id;
+      }
+
+      for (long[] bucket: buckets) {
+        Arrays.sort(bucket);
+      }
+
+      this.buckets = new AtomicReferenceArray<long[]>(buckets);
+      this.size = ids.length;
+    }
+
+    private int size() {
+      return this.size;
+    }
+
+    private boolean contains(long id) {
+      AtomicReferenceArray<long[]> buckets = this.buckets;
+      return Arrays.binarySearch(buckets.get((int) id & (buckets.length() - 1)), id) >= 0;
+    }
+
+    private boolean add(long id) {
+      AtomicReferenceArray<long[]> buckets = this.buckets;
+      int b = (int) id & (buckets.length() - 1);
+      long[] ids = buckets.get(b);
+
+      int idx = Arrays.binarySearch(ids, id);
+
+      if (idx >= 0) {
+        return false;
+      }
+
+      idx = -idx - 1;
+
+      long[] updated = new long[ids.length + 1];
+      System.arraycopy(ids, 0, updated, 0, idx);
+      updated[idx] = id;
+      System.arraycopy(ids, idx, updated, idx + 1, ids.length - idx);
+
+      buckets.set(b, updated);
+      this.size++;
+
+      if (this.size > buckets.length() * BUCKET_SIZE) {
+        split();
+      }
+
+      return true;
+    }
+
+    private boolean remove(long id) {
+      AtomicReferenceArray<long[]> buckets = this.buckets;
+      int b = (int) id & (buckets.length() - 1);
+      long[] ids = buckets.get(b);
+
+      int idx = Arrays.binarySearch(ids, id);
+
+      if (idx < 0) {
+        return false;
+      }
+
+      long[] updated = 1 == ids.length ? EMPTY : new long[ids.length - 1];
+      System.arraycopy(ids, 0, updated, 0, idx);
+      System.arraycopy(ids, idx + 1, updated, idx, ids.length - idx - 1);
+
+      buckets.set(b, updated);
+      this.size--;
+
+      return true;
+    }
+
+    /**
+     * Double the number of buckets, bucket i is split between buckets i and i + n
+     */
+    private void split() {
+      AtomicReferenceArray<long[]> old = this.buckets;
+      int n = old.length();
+
+      long[][] buckets = new long[n * 2][];
+
+      for (int i = 0; i < n; i++) {
+        long[] ids = old.get(i);
+
+        int low = 0;
+
+        for (long id: ids) {
+          if (0 == (id & n)) {
+            low++;
+          }
+        }
+
+        long[] lo = new long[low];
+        long[] hi = new long[ids.length - low];
+
+        int l = 0;
+        int h = 0;
+
+        for (long id: ids) {
+          if (0 == (id & n)) {
+            lo[l++] = id;
+          } else {
+            hi[h++] = id;
+          }
+        }
+
+        buckets[i] = lo;
+        buckets[i + n] = hi;
+      }
+
+      this.buckets = new AtomicReferenceArray<long[]>(buckets);
+    }
+
+    private long[] toArray() {
+      AtomicReferenceArray<long[]> buckets = this.buckets;
+      long[][] snapshot = new long[buckets.length()][];
+
+      int total = 0;
+
+      for (int i = 0; i < snapshot.length; i++) {
+        snapshot[i] = buckets.get(i);
+        total += snapshot[i].length;
+      }
+
+      long[] ids = new long[total];
+      int offset = 0;
+
+      for (long[] bucket: snapshot) {
+        System.arraycopy(bucket, 0, ids, offset, bucket.length);
+        offset += bucket.length;
+      }
+
+      return ids;
+    }
+  }
+
+  private static final class Postings {
+    /**
+     * Map of label value to labelsIds
+     */
+    private final ConcurrentHashMap<String,Ids> values = new ConcurrentHashMap<String,Ids>();
+
+    /**
+     * Number of GTS having this label
+     */
+    private final AtomicLong count = new AtomicLong(0L);
+  }
+
+  private static final Comparator<Ids> SIZE_COMPARATOR = new Comparator<Ids>() {
+    @Override
+    public int compare(Ids o1, Ids o2) {
+      return Integer.compare(o1.size(), o2.size());
+    }
+  };
+
+  private final ConcurrentHashMap<String,Postings> postings = new ConcurrentHashMap<String,Postings>();
+
+  /**
+   * Number of GTS in the index
+   */
+  private final AtomicLong size = new AtomicLong(0L);
+
+  public synchronized void add(long labelsId, Map<String,String> labels) {
+    // The labels determine the labelsId, a GTS already indexed is not counted twice
+    boolean added = labels.isEmpty();
+
+    for (Entry<String,String> label: labels.entrySet()) {
+      Postings p = postings.get(label.getKey());
+
+      if (null == p) {
+        p = new Postings();
+        postings.put(label.getKey(), p);
+      }
+
+      Ids ids = p.values.get(label.getValue());
+
+      if (null == ids) {
+        ids = new Ids();
+        p.values.put(label.getValue(), ids);
+      }
+
+      if (ids.add(labelsId)) {
+        p.count.incrementAndGet();
+        added = true;
+      }
+    }
+
+    if (added) {
+      size.incrementAndGet();
+    }
+  }
+
+  public synchronized void remove(long labelsId, Map<String,String> labels) {
+    boolean removed = labels.isEmpty();
+
+    for (Entry<String,String> label: labels.entrySet()) {
+      Postings p = postings.get(label.getKey());
+
+      if (null == p) {
+        continue;
+      }
+
+      Ids ids = p.values.get(label.getValue());
+
+      if (null != ids && ids.remove(labelsId)) {
+        p.count.decrementAndGet();
+        removed = true;
+        if (0 == ids.size()) {
+          p.values.remove(label.getValue());
+        }
+      }
+    }
+
+    if (removed) {
+      size.decrementAndGet();
+    }
+  }
+
+  public long size() {
+    return size.get();
+  }
+
+  /**
+   * Compute the candidate labelsIds for a set of label selectors.
+   *
+   * @param labelNames Names of the selected labels
+   * @param patterns Patterns the values of the labels must match
+   * @return The candidate labelsIds, in no particular order, or null if the index could not narrow the search
+   */
+  public long[] candidates(List<String> labelNames, List<SmartPattern> patterns) {
+    long total = size.get();
+
+    List<Ids> sets = new ArrayList<Ids>(labelNames.size());
+
+    for (int i = 0; i < labelNames.size(); i++) {
+      Postings p = postings.get(labelNames.get(i));
+
+      //
+      // If some GTS do not have the label, the selector could match one of their attributes,
+      // we cannot use this selector to narrow the search
+      //
+
+      if (null == p || p.count.get() < total) {
+        continue;
+      }
+
+      SmartPattern pattern = patterns.get(i);
+
+      if (pattern.matchesAll()) {
+        continue;
+      }
+
+      String exact = pattern.getExactMatch();
+
+      if (null != exact) {
+        Ids ids = p.values.get(exact);
+        if (null == ids) {
+          return Ids.EMPTY;
+        }
+        sets.add(ids);
+      } else {
+        //
+        // Only scan the distinct values of the label, a GTS has a single value per label
+        // so the ids of the matching values are distinct
+        //
+
+        List<long[]> matching = new ArrayList<long[]>();
+        int count = 0;
+
+        for (Entry<String,Ids> entry: p.values.entrySet()) {
+          if (pattern.matches(entry.getKey())) {
+            long[] ids = entry.getValue().toArray();
+            matching.add(ids);
+            count += ids.length;
+          }
+        }
+
+        if (0 == count) {
+          return Ids.EMPTY;
+        }
+
+        long[] union = new long[count];
+        int offset = 0;
+
+        for (long[] ids: matching) {
+          System.arraycopy(ids, 0, union, offset, ids.length);
+          offset += ids.length;
+        }
+
+        sets.add(new Ids(union));
+      }
+    }
+
+    if (sets.isEmpty()) {
+      return null;
+    }
+
+    //
+    // Intersect the postings, starting with the smallest one
+    //
+
+    Collections.sort(sets, SIZE_COMPARATOR);
+
+    long[] result = sets.get(0).toArray();
+    int n = 0;
+
+    for (long id: result) {
+      boolean match = true;
+      for (int i = 1; i < sets.size(); i++) {
+        if (!sets.get(i).contains(id)) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        result[n++] = id;
+      }
+    }
+
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+}
@@ -0,0 +1,324 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+
+/**
+ * Arena of direct memory in which the content of sealed chunks of the in-memory store is kept.
+ *
+ * Memory is allocated by slabs which are carved into slots whose size is a power of two.
+ * Freed slots are kept in a free list per size class and reused by later allocations.
+ * Chunks larger than a slab are allocated in a dedicated direct buffer.
+ */
+public class OffHeapChunkArena {
+
+  /**
+   * Size of the smallest slots, as a power of 2
+   */
+  private static final int MIN_SLOT_SHIFT = 6;
+
+  public static final int DEFAULT_SLAB_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * Chunk content stored in the arena. Instances are reference counted, the slot
+   * is returned to the arena when the last reference is released.
+   */
+  public static final class Chunk {
+    private final OffHeapChunkArena arena;
+    private final ByteBuffer slot;
+    private final int sizeClass;
+    private final int length;
+    private final long count;
+
+    /**
+     * The owner holds the initial reference
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private Chunk(OffHeapChunkArena arena, ByteBuffer slot, int sizeClass, int length, long count) {
+      this.arena = arena;
+      this.slot = slot;
+      this.sizeClass = sizeClass;
+      this.length = length;
+      this.count = count;
+    }
+
+    public int size() {
+      return this.length;
+    }
+
+    public long getCount() {
+      return this.count;
+    }
+
+    /**
+     * @return true if the content is not owned by an arena but mapped from a snapshot file
+     */
+    public boolean isMapped() {
+      return null == this.arena;
+    }
+
+    /**
+     * Take an additional reference on the chunk. This must be done while the owner
+     * is known to still hold its reference.
+     */
+    public void retain() {
+      this.refs.incrementAndGet();
+    }
+
+    public void release() {
+      if (0 == this.refs.decrementAndGet() && null != this.arena) {
+        this.arena.free(this);
+      }
+    }
+
+    /**
+     * Return a decoder reading the chunk content directly from the arena.
+     * The caller must hold a reference until it is done with the decoder.
+     */
+    public GTSDecoder getDecoder() {
+      ByteBuffer bb = this.slot.duplicate();
+      bb.position(0);
+      bb.limit(this.length);
+      GTSDecoder decoder = new GTSDecoder(0L, null, bb.slice());
+      return decoder;
+    }
+
+    /**
+     * Copy the chunk content on heap
+     */
+    public byte[] getBytes() {
+      byte[] bytes = new byte[this.length];
+      ByteBuffer bb = this.slot.duplicate();
+      bb.position(0);
+      bb.get(bytes);
+      return bytes;
+    }
+  }
+
+  private final int slabSize;
+
+  /**
+   * Free slots, indexed by size class
+   */
+  private final ArrayDeque<ByteBuffer>[] freelists;
+
+  /**
+   * Slab currently being carved
+   */
+  private ByteBuffer slab = null;
+
+  /**
+   * Number of bytes of direct memory allocated
+   */
+  private final AtomicLong reserved = new AtomicLong(0L);
+
+  /**
+   * Number of bytes in slots currently in use
+   */
+  private final AtomicLong used = new AtomicLong(0L);
+
+  /**
+   * Number of bytes of chunk content currently stored
+   */
+  private final AtomicLong data = new AtomicLong(0L);
+
+  @SuppressWarnings("unchecked")
+  public OffHeapChunkArena(int slabSize) {
+    if (slabSize < (1 << MIN_SLOT_SHIFT)) {
+      throw new IllegalArgumentException("Slab size must be at least " + (1 << MIN_SLOT_SHIFT) + " bytes.");
+    }
+
+    // Round the slab size to a power of 2
+    this.slabSize = Integer.highestOneBit(slabSize);
+    this.freelists = new ArrayDeque[sizeClass(this.slabSize) + 1];
+
+    for (int i = 0; i < this.freelists.length; i++) {
+      this.freelists[i] = new ArrayDeque<ByteBuffer>();
+    }
+  }
+
+  private static int sizeClass(int length) {
+    if (length <= (1 << MIN_SLOT_SHIFT)) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_SLOT_SHIFT;
+  }
+
+  /**
+   * Wrap some content which is not owned by an arena, such as a region of a mapped file
+   *
+   * @param content Buffer whose remaining bytes are the content
+   * @param count Number of datapoints in the content
+   */
+  public static Chunk wrap(ByteBuffer content, long count) {
+    return new Chunk(null, content.slice(), -1, content.remaining(), count);
+  }
+
+  /**
+   * Copy some content in the arena
+   *
+   * @param bytes Array containing the content
+   * @param offset Offset of the content in 'bytes'
+   * @param length Length of the content
+   * @param count Number of datapoints in the content
+   */
+  public Chunk allocate(byte[] bytes, int offset, int length, long count) {
+    ByteBuffer slot = slot(length);
+
+    ByteBuffer bb = slot.duplicate();
+    bb.position(0);
+    bb.put(bytes, offset, length);
+
+    this.data.addAndGet(length);
+
+    return new Chunk(this, slot, length > this.slabSize ? -1 : sizeClass(length), length, count);
+  }
+
+  /**
+   * Copy the content of a chunk, possibly from another arena, in this arena
+   */
+  public Chunk allocate(Chunk chunk) {
+    ByteBuffer slot = slot(chunk.length);
+
+    ByteBuffer src = chunk.slot.duplicate();
+    src.position(0);
+    src.limit(chunk.length);
+
+    ByteBuffer bb = slot.duplicate();
+    bb.position(0);
+    bb.put(src);
+
+    this.data.addAndGet(chunk.length);
+
+    return new Chunk(this, slot, chunk.length > this.slabSize ? -1 : sizeClass(chunk.length), chunk.length, chunk.count);
+  }
+
+  /**
+   * Allocate a slot able to hold 'length' bytes
+   */
+  private ByteBuffer slot(int length) {
+    ByteBuffer slot;
+
+    if (length > this.slabSize) {
+      // Dedicated buffer, released by the GC when the chunk is freed
+      slot = ByteBuffer.allocateDirect(length);
+      this.reserved.addAndGet(length);
+      this.used.addAndGet(length);
+    } else {
+      int sizeClass = sizeClass(length);
+      int slotSize = 1 << (sizeClass + MIN_SLOT_SHIFT);
+
+      synchronized(this) {
+        slot = this.freelists[sizeClass].poll();
+
+        if (null == slot) {
+          if (null == this.slab || this.slab.remaining() < slotSize) {
+            // Carve what is left of the current slab into smaller slots
+            while (null != this.slab && this.slab.remaining() >= (1 << MIN_SLOT_SHIFT)) {
+              int sc = sizeClass(Integer.highestOneBit(this.slab.remaining()));
+              this.freelists[sc].add(carve(1 << (sc + MIN_SLOT_SHIFT)));
+            }
+            this.slab = ByteBuffer.allocateDirect(this.slabSize);
+            this.reserved.addAndGet(this.slabSize);
+          }
+          slot = carve(slotSize);
+        }
+      }
+
+      this.used.addAndGet(slotSize);
+    }
+
+    return slot;
+  }
+
+  /**
+   * Copy the content of an encoder in the arena
+   */
+  public Chunk allocate(GTSEncoder encoder) throws IOException {
+    final Chunk[] chunk = new Chunk[1];
+    final long count = encoder.getCount();
+
+    // Access the buffer of the encoder without copying it
+    encoder.writeTo(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Unsupported.");
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        chunk[0] = allocate(b, off, len, count);
+      }
+    });
+
+    return chunk[0];
+  }
+
+  private ByteBuffer carve(int size) {
+    int position = this.slab.position();
+    this.slab.limit(position + size);
+    ByteBuffer slot = this.slab.slice();
+    this.slab.limit(this.slab.capacity());
+    this.slab.position(position + size);
+    return slot;
+  }
+
+  private void free(Chunk chunk) {
+    this.data.addAndGet(-chunk.length);
+    this.used.addAndGet(-chunk.slot.capacity());
+
+    if (chunk.sizeClass < 0) {
+      this.reserved.addAndGet(-chunk.slot.capacity());
+      return;
+    }
+
+    synchronized(this) {
+      this.freelists[chunk.sizeClass].add(chunk.slot);
+    }
+  }
+
+  /**
+   * @return The number of bytes of direct memory allocated by the arena
+   */
+  public long getReserved() {
+    return this.reserved.get();
+  }
+
+  /**
+   * @return The number of bytes in slots currently in use
+   */
+  public long getUsed() {
+    return this.used.get();
+  }
+
+  /**
+   * @return The number of bytes of chunk content stored in the arena
+   */
+  public long getDataSize() {
+    return this.data.get();
+  }
+}
@@ -0,0 +1,338 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.MetadataIdComparator;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.continuum.store.FetchStats;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.sensision.Sensision;
+
+/**
+ * GTSDecoderIterator which splits the GTS of a fetch request into contiguous key ranges
+ * (partitions) which are scanned concurrently on a shared work stealing pool.
+ *
+ * Each partition fills a bounded queue of decoders. A partition whose queue is full
+ * suspends itself, freeing its pool thread, and is rescheduled once the consumer has
+ * taken decoders from its queue. Only the partitions in a window of 'maxinflight'
+ * partitions starting at the one being consumed are scheduled, so the decoders are
+ * returned in the same order as a sequential scan of the sorted GTS would return them.
+ */
+public class PartitionedGTSDecoderIterator extends GTSDecoderIterator {
+
+  /**
+   * Number of decoders buffered per partition
+   */
+  private static final int QUEUE_SIZE = 16;
+
+  /**
+   * Delay after which the consumer re-checks a partition if it was not woken up
+   */
+  private static final long PARK_NANOS = 10000000L;
+
+  private static final int POOLSIZE;
+  private static final int MAX_INFLIGHT;
+  private static final int MIN_GTS;
+  private static final int MAX_PARTITIONS;
+
+  private static final ForkJoinPool pool;
+
+  static {
+    POOLSIZE = Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_FETCH_PARTITIONS_POOLSIZE, "0"));
+    MAX_INFLIGHT = Math.max(1, Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_FETCH_PARTITIONS_MAXINFLIGHT, "4")));
+    MIN_GTS = Math.max(1, Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_FETCH_PARTITIONS_MIN_GTS, "8")));
+    MAX_PARTITIONS = Math.max(1, Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_FETCH_PARTITIONS_MAX, "16")));
+
+    if (POOLSIZE > 0) {
+      pool = new ForkJoinPool(POOLSIZE, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    } else {
+      pool = null;
+    }
+  }
+
+  private final class Partition implements Runnable {
+
+    private final FetchRequest req;
+
+    private final ArrayBlockingQueue<GTSDecoder> queue = new ArrayBlockingQueue<GTSDecoder>(QUEUE_SIZE);
+
+    /**
+     * Flag set while the partition is scheduled or running, whoever sets it owns the iterator
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private GTSDecoderIterator iterator = null;
+
+    private volatile FetchStats stats = null;
+
+    private volatile boolean done = false;
+
+    private volatile Throwable error = null;
+
+    private boolean closed = false;
+
+    private Partition(FetchRequest req) {
+      this.req = req;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!PartitionedGTSDecoderIterator.this.closed && !this.done) {
+          if (null == this.iterator) {
+            this.iterator = parent.fetch(this.req);
+            this.stats = this.iterator.getStats();
+          }
+
+          boolean exhausted = false;
+
+          while (!PartitionedGTSDecoderIterator.this.closed && this.queue.remainingCapacity() > 0) {
+            if (!this.iterator.hasNext()) {
+              exhausted = true;
+              break;
+            }
+            this.queue.offer(this.iterator.next());
+          }
+
+          if (exhausted) {
+            closeIterator();
+            this.done = true;
+          }
+        }
+      } catch (Throwable t) {
+        this.error = t;
+        this.done = true;
+      } finally {
+        this.scheduled.set(false);
+
+        // If the request was closed while we were running, nobody else will close the iterator
+        if (PartitionedGTSDecoderIterator.this.closed && this.scheduled.compareAndSet(false, true)) {
+          closeIterator();
+        }
+
+        LockSupport.unpark(consumer);
+      }
+    }
+
+    private void schedule() {
+      if (!this.done && !PartitionedGTSDecoderIterator.this.closed && this.scheduled.compareAndSet(false, true)) {
+        pool.execute(this);
+      }
+    }
+
+    private synchronized void closeIterator() {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      if (null != this.iterator) {
+        try {
+          this.iterator.close();
+        } catch (Exception e) {
+        }
+      }
+    }
+
+    private void close() {
+      // The iterator can only be closed when the partition is not running
+      if (this.scheduled.compareAndSet(false, true)) {
+        closeIterator();
+      }
+    }
+  }
+
+  private final StoreClient parent;
+
+  private final List<Partition> partitions;
+
+  /**
+   * Index of the partition currently being consumed
+   */
+  private int current = 0;
+
+  private GTSDecoder nextDecoder = null;
+
+  private volatile boolean closed = false;
+
+  private volatile Thread consumer = null;
+
+  /**
+   * @return true if partitioned fetches are enabled and a request for 'gtscount' GTS should be partitioned
+   */
+  public static boolean usePartitions(int gtscount) {
+    return null != pool && gtscount >= 2 * MIN_GTS;
+  }
+
+  public static boolean isEnabled() {
+    return null != pool;
+  }
+
+  public PartitionedGTSDecoderIterator(StoreClient parent, FetchRequest req) {
+    this.parent = parent;
+
+    //
+    // Sort the GTS by increasing classId,labelsId so the partitions are contiguous
+    // key ranges of the store
+    //
+
+    List<Metadata> metadatas = new ArrayList<Metadata>(req.getMetadatas());
+    Collections.sort(metadatas, MetadataIdComparator.COMPARATOR);
+
+    int count = Math.max(1, Math.min(MAX_PARTITIONS, metadatas.size() / MIN_GTS));
+
+    this.partitions = new ArrayList<Partition>(count);
+
+    // Remove Metadatas from FetchRequest otherwise new FetchRequest(req) will do a deep copy
+    List<Metadata> lm = req.getMetadatas();
+    req.unsetMetadatas();
+
+    try {
+      //
+      // Split the GTS in 'count' balanced ranges
+      //
+
+      int start = 0;
+
+      for (int i = 0; i < count; i++) {
+        int end = (int) ((long) metadatas.size() * (i + 1) / count);
+
+        FetchRequest freq = new FetchRequest(req);
+        // For standalone writeTimestamp and TTL are forced to false
+        freq.setWriteTimestamp(false);
+        freq.setTTL(false);
+        freq.setParallelScanners(false);
+        freq.setMetadatas(new ArrayList<Metadata>(metadatas.subList(start, end)));
+
+        this.partitions.add(new Partition(freq));
+
+        start = end;
+      }
+    } finally {
+      // Restore Metadatas
+      req.setMetadatas(lm);
+    }
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_CLIENT_PARTITIONED_FETCHES, Sensision.EMPTY_LABELS, 1);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_CLIENT_FETCH_PARTITIONS, Sensision.EMPTY_LABELS, count);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (null != this.nextDecoder) {
+      return true;
+    }
+
+    if (this.closed) {
+      return false;
+    }
+
+    this.consumer = Thread.currentThread();
+
+    while (this.current < this.partitions.size()) {
+      //
+      // Schedule the partitions of the window, the current one first
+      //
+
+      int end = Math.min(this.partitions.size(), this.current + MAX_INFLIGHT);
+
+      for (int i = this.current; i < end; i++) {
+        this.partitions.get(i).schedule();
+      }
+
+      Partition partition = this.partitions.get(this.current);
+
+      // Read 'done' before polling so we do not miss the last decoders
+      boolean done = partition.done;
+
+      GTSDecoder decoder = partition.queue.poll();
+
+      if (null != decoder) {
+        this.nextDecoder = decoder;
+        return true;
+      }
+
+      if (done) {
+        if (null != partition.error) {
+          throw new RuntimeException("Error while fetching partition " + this.current + ".", partition.error);
+        }
+        this.current++;
+        continue;
+      }
+
+      LockSupport.parkNanos(this, PARK_NANOS);
+
+      if (Thread.interrupted()) {
+        throw new RuntimeException("Interrupted while waiting for fetched data.");
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public GTSDecoder next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    GTSDecoder decoder = this.nextDecoder;
+    this.nextDecoder = null;
+    return decoder;
+  }
+
+  @Override
+  public void remove() {
+  }
+
+  @Override
+  public FetchStats getStats() {
+    FetchStats stats = new FetchStats();
+
+    for (Partition partition: this.partitions) {
+      stats.add(partition.stats);
+    }
+
+    stats.partitions(this.partitions.size());
+
+    return stats;
+  }
+
+  @Override
+  public void close() throws Exception {
+    this.closed = true;
+
+    for (Partition partition: this.partitions) {
+      partition.close();
+      partition.queue.clear();
+    }
+  }
+}
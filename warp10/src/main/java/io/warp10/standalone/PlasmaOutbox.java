@@ -0,0 +1,146 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.sensision.Sensision;
+
+/**
+ * Bounded queue of the publications of a Plasma session. An outbox is scheduled on the dispatchers
+ * when it receives data and is not already scheduled, so a session is served by one thread at a time
+ * and receives its data in the order it was published.
+ */
+public class PlasmaOutbox<T> implements Runnable {
+
+  public interface Sender<T> {
+    public void send(T publication) throws IOException;
+  }
+
+  private final Sender<T> sender;
+
+  private final ArrayBlockingQueue<T> queue;
+
+  /**
+   * Number of ms a publisher waits when the queue is full, 0 means the data is dropped
+   */
+  private final long wait;
+
+  /**
+   * Number of publications sent before the dispatcher moves to another outbox
+   */
+  private final int batch;
+
+  private final Executor dispatchers;
+
+  /**
+   * Number of publications queued in all the outboxes sharing the dispatchers
+   */
+  private final AtomicLong queued;
+
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  public PlasmaOutbox(Sender<T> sender, int size, long wait, int batch, Executor dispatchers, AtomicLong queued) {
+    this.sender = sender;
+    this.queue = new ArrayBlockingQueue<T>(size);
+    this.wait = wait;
+    this.batch = batch;
+    this.dispatchers = dispatchers;
+    this.queued = queued;
+  }
+
+  /**
+   * Queue a publication
+   *
+   * @return false if the queue was full and the publication was dropped
+   */
+  public boolean offer(T publication) {
+    boolean offered;
+
+    if (this.wait > 0L) {
+      try {
+        offered = this.queue.offer(publication, this.wait, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ie) {
+        offered = false;
+      }
+    } else {
+      offered = this.queue.offer(publication);
+    }
+
+    if (!offered) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_DROPPED, Sensision.EMPTY_LABELS, 1);
+      return false;
+    }
+
+    this.queued.incrementAndGet();
+    schedule();
+
+    return true;
+  }
+
+  private void schedule() {
+    if (this.scheduled.compareAndSet(false, true)) {
+      this.dispatchers.execute(this);
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      for (int i = 0; i < this.batch; i++) {
+        T publication = this.queue.poll();
+
+        if (null == publication) {
+          break;
+        }
+
+        this.queued.decrementAndGet();
+
+        try {
+          this.sender.send(publication);
+        } catch (IOException ioe) {
+        }
+      }
+    } finally {
+      this.scheduled.set(false);
+
+      Sensision.set(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_QUEUED, Sensision.EMPTY_LABELS, this.queued.get());
+
+      // Data may have been queued after the last poll
+      if (!this.queue.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+  /**
+   * Discard the queued publications
+   */
+  public void clear() {
+    List<T> discarded = new ArrayList<T>();
+    this.queue.drainTo(discarded);
+    this.queued.addAndGet(-discarded.size());
+  }
+}
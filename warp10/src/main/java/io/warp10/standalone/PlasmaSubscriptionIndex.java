@@ -0,0 +1,217 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map of 128 bits series Ids (class Id, labels Id) to values, backed by primitive arrays
+ * with open addressing so lookups do not allocate.
+ *
+ * Lookups take no lock and may run concurrently with one writer, writers MUST be serialized
+ * by the caller. An entry is changed by replacing its value, values are expected to be
+ * immutable so a change only copies the value of the affected series. The table is only
+ * rebuilt when it grows or when removed entries take too much room.
+ */
+public class PlasmaSubscriptionIndex<V> {
+
+  /**
+   * Marker of a removed entry, probe sequences go past it
+   */
+  private static final Object REMOVED = new Object();
+
+  private static final class Table {
+    /**
+     * Class and labels Ids, two slots per entry. They are written before the value of the
+     * entry is set and are not modified afterwards, a reader which sees the value sees them.
+     */
+    private final long[] keys;
+
+    private final AtomicReferenceArray<Object> values;
+
+    private final int mask;
+
+    /**
+     * Number of slots in use, including removed entries
+     */
+    private int used = 0;
+
+    private Table(int capacity) {
+      this.keys = new long[capacity * 2];
+      this.values = new AtomicReferenceArray<Object>(capacity);
+      this.mask = capacity - 1;
+    }
+  }
+
+  private volatile Table table;
+
+  private int size = 0;
+
+  public PlasmaSubscriptionIndex() {
+    this.table = new Table(16);
+  }
+
+  private static int hash(long classId, long labelsId) {
+    // Ids are SipHash values, mixing their bits is enough
+    long h = classId ^ (labelsId * 0x9E3779B97F4A7C15L);
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * @return The slot of the series or -1 if it is not in the table
+   */
+  private static int find(Table table, long classId, long labelsId) {
+    int idx = hash(classId, labelsId) & table.mask;
+
+    while (true) {
+      Object value = table.values.get(idx);
+
+      if (null == value) {
+        return -1;
+      }
+
+      if (table.keys[idx << 1] == classId && table.keys[(idx << 1) + 1] == labelsId) {
+        return idx;
+      }
+
+      idx = (idx + 1) & table.mask;
+    }
+  }
+
+  /**
+   * Add or replace an entry
+   */
+  public void put(long classId, long labelsId, V value) {
+    if (null == value) {
+      throw new IllegalArgumentException("Null values are not supported.");
+    }
+
+    Table table = this.table;
+
+    int idx = find(table, classId, labelsId);
+
+    if (idx >= 0) {
+      if (REMOVED == table.values.get(idx)) {
+        this.size++;
+      }
+      table.values.set(idx, value);
+      return;
+    }
+
+    // Keep the load factor, removed entries included, at or below 0.5 so probe sequences stay short
+    if ((table.used + 1) * 2 > table.values.length()) {
+      table = resize(Math.max(16, Integer.highestOneBit((this.size + 1) * 4 - 1) << 1));
+    }
+
+    // Removed slots are only reused by their own series, a reader could otherwise match the Ids
+    // of the new entry against the value of the removed one
+    idx = hash(classId, labelsId) & table.mask;
+
+    while (null != table.values.get(idx)) {
+      idx = (idx + 1) & table.mask;
+    }
+
+    table.keys[idx << 1] = classId;
+    table.keys[(idx << 1) + 1] = labelsId;
+    table.values.set(idx, value);
+    table.used++;
+    this.size++;
+  }
+
+  /**
+   * Remove an entry
+   *
+   * @return The value which was associated with the series or null if there was none
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long classId, long labelsId) {
+    Table table = this.table;
+
+    int idx = find(table, classId, labelsId);
+
+    if (idx < 0) {
+      return null;
+    }
+
+    Object value = table.values.get(idx);
+
+    if (REMOVED == value) {
+      return null;
+    }
+
+    table.values.set(idx, REMOVED);
+    this.size--;
+
+    return (V) value;
+  }
+
+  /**
+   * @return The value associated with the series or null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long classId, long labelsId) {
+    Table table = this.table;
+
+    int idx = find(table, classId, labelsId);
+
+    if (idx < 0) {
+      return null;
+    }
+
+    Object value = table.values.get(idx);
+
+    return REMOVED == value ? null : (V) value;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Copy the live entries in a new table and publish it
+   */
+  private Table resize(int capacity) {
+    Table old = this.table;
+    Table table = new Table(capacity);
+
+    for (int i = 0; i < old.values.length(); i++) {
+      Object value = old.values.get(i);
+
+      if (null == value || REMOVED == value) {
+        continue;
+      }
+
+      long classId = old.keys[i << 1];
+      long labelsId = old.keys[(i << 1) + 1];
+
+      int idx = hash(classId, labelsId) & table.mask;
+
+      while (null != table.values.get(idx)) {
+        idx = (idx + 1) & table.mask;
+      }
+
+      table.keys[idx << 1] = classId;
+      table.keys[(idx << 1) + 1] = labelsId;
+      table.values.set(idx, value);
+      table.used++;
+    }
+
+    this.table = table;
+
+    return table;
+  }
+}
@@ -54,6 +54,7 @@ public class StandaloneAcceleratedStoreClient implements StoreClient {
   private final StoreClient persistent;
   private final StandaloneChunkedMemoryStore cache;
   private final boolean ephemeral;
+  private final boolean hybrid;
 
   private static StandaloneAcceleratedStoreClient instance = null;
     
@@ -120,6 +121,7 @@ public class StandaloneAcceleratedStoreClient implements StoreClient {
     WarpConfig.setProperty(Configuration.STANDALONE_MEMORY_STORE_DUMP, null);
     
     this.ephemeral = "true".equals(WarpConfig.getProperty(Configuration.IN_MEMORY_EPHEMERAL)); 
+    this.hybrid = "true".equals(WarpConfig.getProperty(Configuration.ACCELERATOR_HYBRID));
 
     if (!this.ephemeral && (null == WarpConfig.getProperty(Configuration.ACCELERATOR_CHUNK_COUNT)
         || null == WarpConfig.getProperty(Configuration.ACCELERATOR_CHUNK_LENGTH))) {
@@ -290,6 +292,8 @@ public class StandaloneAcceleratedStoreClient implements StoreClient {
     long cacheend = InMemoryChunkSet.chunkEnd(TimeSource.getTime(), this.cache.getChunkSpan());
     long cachestart = cacheend - this.cache.getChunkCount() * this.cache.getChunkSpan() + 1;
 
+    AcceleratorConfig.hybrid.set(Boolean.FALSE);
+
     //
     // If fetching a single value from Long.MAX_VALUE with an ephemeral cache, always use the cache
     // unless ACCEL.NOCACHE was called.
@@ -299,6 +303,23 @@ public class StandaloneAcceleratedStoreClient implements StoreClient {
       AcceleratorConfig.accelerated.set(Boolean.TRUE);
       return this.cache.fetch(req);      
     }
+
+    //
+    // If the time range ends in the accelerated range but starts before it, serve the accelerated part
+    // from the cache and the older part and the boundaries from the persistent store.
+    // Skipping, stepping and the HBase specific flags cannot be split across both stores.
+    //
+
+    if (this.hybrid && !this.ephemeral && !AcceleratorConfig.nocache.get() && !AcceleratorConfig.nopersist.get()
+        && req.getNow() <= cacheend && req.getNow() >= cachestart
+        && req.getThents() < cachestart
+        && req.getSkip() <= 0 && req.getStep() <= 1L && req.getTimestep() <= 1L && !req.isWriteTimestamp() && !req.isTTL()) {
+      AcceleratorConfig.accelerated.set(Boolean.TRUE);
+      AcceleratorConfig.hybrid.set(Boolean.TRUE);
+      long[] datapoints = new long[2];
+      AcceleratorConfig.datapoints.set(datapoints);
+      return new HybridGTSDecoderIterator(req, cachestart, this.cache, this.persistent, datapoints);
+    }
         
     // Use the persistent store if the accelerator is in ephemeral mode,
     // if the requested time range is larger than the accelerated range or
@@ -0,0 +1,1186 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.Tokens;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.MetadataIdComparator;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.FetchStats;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.quasar.token.thrift.data.ReadToken;
+import io.warp10.quasar.token.thrift.data.WriteToken;
+import io.warp10.sensision.Sensision;
+
+/**
+ * StoreClient storing datapoints in LevelDB in time bounded blocks.
+ *
+ * Each LevelDB key is prefix + classId + labelsId + reversed block start, the associated
+ * value is a GTSEncoder whose base timestamp is the block start and which contains all the
+ * datapoints of the block, sorted in chronological order and without duplicate timestamps.
+ *
+ * A block holds at most 'leveldb.data.block.maxsize' datapoints. The first block of a time span
+ * starts at the start of the span, when a block is full the datapoints in excess are moved to
+ * new blocks of the same span starting at their first timestamp. A datapoint therefore belongs
+ * to the most recent block of its span which starts at or before its timestamp.
+ *
+ * Blocks are updated using a read-modify-merge cycle, the most recent write of a timestamp
+ * wins, just like when overwriting a key in the one key per datapoint layout.
+ */
+public class StandaloneBlockStoreClient implements StoreClient {
+
+  /**
+   * Offset of the reversed block start in the keys
+   */
+  // 128bits
+  private static final int KEY_TS_OFFSET = Constants.HBASE_RAW_DATA_KEY_PREFIX.length + 8 + 8;
+
+  /**
+   * Key under which the layout of the datapoints is recorded, its value is the block span
+   * as a long, 0 meaning one key per datapoint. It sorts before the metadata and datapoints keys.
+   */
+  static final byte[] LAYOUT_KEY = "Layout".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Number of locks used to serialize the read-modify-merge cycles of a given GTS
+   */
+  private static final int LOCK_STRIPES = 1024;
+
+  private final long MAX_ENCODER_SIZE;
+
+  private static final String DEFAULT_MAX_ENCODER_SIZE = "1000000";
+
+  /**
+   * Maximum number of datapoints per block
+   */
+  private final int maxBlockSize;
+
+  static final int DEFAULT_MAX_BLOCK_SIZE = 10000;
+
+  private final int MAX_DELETE_BATCHSIZE;
+  private static final int DEFAULT_MAX_DELETE_BATCHSIZE = 10000;
+
+  private final WarpDB db;
+  private final KeyStore keystore;
+
+  /**
+   * Span of each block in time units
+   */
+  private final long span;
+
+  /**
+   * Should double values be XOR encoded in blocks
+   */
+  private final boolean doubleXOR;
+
+  /**
+   * Should blocks be encrypted using AES-GCM
+   */
+  private final boolean aesGCM;
+
+  private final List<StandalonePlasmaHandlerInterface> plasmaHandlers;
+
+  private final Object[] locks;
+
+  private final boolean syncwrites;
+  private final double syncrate;
+  private final int blockcacheThreshold;
+
+  public StandaloneBlockStoreClient(WarpDB db, KeyStore keystore, Properties properties) {
+    this.db = db;
+    this.keystore = keystore;
+    this.plasmaHandlers = new ArrayList<StandalonePlasmaHandlerInterface>();
+    this.blockcacheThreshold = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_BLOCKCACHE_GTS_THRESHOLD, "0"));
+    MAX_ENCODER_SIZE = Long.valueOf(properties.getProperty(Configuration.STANDALONE_MAX_ENCODER_SIZE, DEFAULT_MAX_ENCODER_SIZE));
+    MAX_DELETE_BATCHSIZE = Integer.parseInt(properties.getProperty(Configuration.STANDALONE_MAX_DELETE_BATCHSIZE, Integer.toString(DEFAULT_MAX_DELETE_BATCHSIZE)));
+
+    this.span = Long.parseLong(properties.getProperty(Configuration.LEVELDB_DATA_BLOCKSPAN, "0"));
+
+    if (this.span <= 0) {
+      throw new RuntimeException("Invalid block span, '" + Configuration.LEVELDB_DATA_BLOCKSPAN + "' MUST be strictly positive.");
+    }
+
+    this.maxBlockSize = Integer.parseInt(properties.getProperty(Configuration.LEVELDB_DATA_BLOCK_MAXSIZE, Integer.toString(DEFAULT_MAX_BLOCK_SIZE)));
+
+    if (this.maxBlockSize <= 0) {
+      throw new RuntimeException("Invalid block size, '" + Configuration.LEVELDB_DATA_BLOCK_MAXSIZE + "' MUST be strictly positive.");
+    }
+
+    this.doubleXOR = "true".equals(properties.getProperty(Configuration.LEVELDB_DATA_DOUBLE_XOR));
+    this.aesGCM = "true".equals(properties.getProperty(Configuration.LEVELDB_DATA_AES_GCM));
+
+    syncrate = Math.min(1.0D, Math.max(0.0D, Double.parseDouble(properties.getProperty(Configuration.LEVELDB_DATA_SYNCRATE, "1.0"))));
+    syncwrites = 0.0 < syncrate && syncrate < 1.0 ;
+
+    this.locks = new Object[LOCK_STRIPES];
+    for (int i = 0; i < this.locks.length; i++) {
+      this.locks[i] = new Object();
+    }
+  }
+
+  @Override
+  public GTSDecoderIterator fetch(FetchRequest req) {
+    final ReadToken token = req.getToken();
+    final List<Metadata> metadatas = req.getMetadatas();
+    final long now = req.getNow();
+    final long then = req.getThents();
+    long count = req.getCount();
+    long skip = req.getSkip();
+    long step = req.getStep();
+    long timestep = req.getTimestep();
+    double sample = req.getSample();
+    long preBoundary = req.getPreBoundary();
+    long postBoundary = req.getPostBoundary();
+    final boolean writeTimestamp = req.isWriteTimestamp();
+
+    if (preBoundary < 0) {
+      preBoundary = 0;
+    }
+
+    if (postBoundary < 0) {
+      postBoundary = 0;
+    }
+
+    if (sample <= 0.0D || sample > 1.0D) {
+      sample = 1.0D;
+    }
+
+    if (skip < 0) {
+      skip = 0;
+    }
+
+    if (count < -1L) {
+      count = -1L;
+    }
+
+    //
+    // If we are fetching up to Long.MAX_VALUE, then don't fetch a post boundary
+    if (Long.MAX_VALUE == now) {
+      postBoundary = 0;
+    }
+
+    //
+    // If we are fetching from Long.MIN_VALUE, then don't fetch a pre boundary
+    //
+    if (Long.MIN_VALUE == then) {
+      preBoundary = 0;
+    }
+
+    if (writeTimestamp) {
+      throw new RuntimeException("No support for write timestamp retrieval.");
+    }
+
+    if (step < 1L) {
+      step = 1L;
+    }
+
+    if (timestep < 1L) {
+      timestep = 1L;
+    }
+
+    final boolean hasStep = 1L != step;
+    final boolean hasTimestep = 1L != timestep;
+    final long fstep = step;
+    final long ftimestep = timestep;
+
+    ReadOptions options = new ReadOptions().fillCache(true);
+
+    if (this.blockcacheThreshold > 0) {
+      if (metadatas.size() >= this.blockcacheThreshold) {
+        options = new ReadOptions();
+        options.fillCache(false);
+      }
+    }
+
+    final FetchStats stats = new FetchStats();
+    final DBIterator iterator = new CountingDBIterator(db.iterator(options), stats);
+
+    Map<String,String> labels = new HashMap<String,String>();
+
+    if (null != token && null != token.getAppName()) {
+      labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, token.getAppName());
+    }
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_COUNT, labels, 1);
+
+    //
+    // Sort metadatas by increasing classId,labelsId so as to optimize the range scans
+    //
+
+    Collections.sort(metadatas, MetadataIdComparator.COMPARATOR);
+
+    final long preB = preBoundary;
+    final long postB = postBoundary;
+
+    final long fskip = skip;
+    final double fsample = sample;
+    final long fcount = count;
+
+    final byte[] aesKey = keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+
+    return new GTSDecoderIterator() {
+
+      Random prng = fsample < 1.0D ? new Random() : null;
+
+      long skip = fskip;
+      long preBoundary = preB;
+      long postBoundary = postB;
+      long step = fstep;
+      long timestep = ftimestep;
+      long nextTimestamp = Long.MAX_VALUE;
+      long steps = 0L;
+
+      int idx = -1;
+
+      long classId;
+      long labelsId;
+
+      /**
+       * Number of values yet to retrieve for the current GTS
+       */
+      long nvalues = Long.MAX_VALUE;
+
+      /**
+       * Flag indicating we are still scanning the [then,now] range of the current GTS
+       */
+      boolean inRange = false;
+
+      /**
+       * Flag indicating the current GTS has been completely scanned
+       */
+      boolean done = true;
+
+      //
+      // Block cursor, walks the datapoints of the current GTS in reverse chronological order
+      //
+
+      Block block = null;
+      int pos = -1;
+      long upper = Long.MAX_VALUE;
+
+      long keyBytes = 0L;
+      long valueBytes = 0L;
+
+      /**
+       * Encoder filled by hasNext and returned by next
+       */
+      GTSEncoder current = null;
+
+      @Override
+      public void close() throws Exception {
+        iterator.close();
+      }
+
+      @Override
+      public FetchStats getStats() {
+        return stats;
+      }
+
+      @Override
+      public void remove() {
+      }
+
+      @Override
+      public boolean hasNext() {
+        while(true) {
+          if (null != current) {
+            return true;
+          }
+
+          if (!done) {
+            fill();
+            continue;
+          }
+
+          idx++;
+
+          // All the metadatas have been itered on, there is no more GTSEncoder to return.
+          if (idx >= metadatas.size()) {
+            return false;
+          }
+
+          classId = metadatas.get(idx).getClassId();
+          labelsId = metadatas.get(idx).getLabelsId();
+
+          //
+          // Reset number of values retrieved since we just skipped to a new GTS.
+          //
+
+          nvalues = fcount >= 0L ? fcount : Long.MAX_VALUE;
+
+          preBoundary = preB;
+          postBoundary = postB;
+          skip = fskip;
+          steps = 0L;
+          nextTimestamp = Long.MAX_VALUE;
+
+          done = false;
+          inRange = nvalues > 0;
+
+          if (inRange) {
+            seek(now);
+          } else if (preBoundary > 0) {
+            seek(then - 1);
+          }
+        }
+      }
+
+      @Override
+      public GTSDecoder next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        GTSEncoder encoder = current;
+        current = null;
+        return encoder.getDecoder();
+      }
+
+      /**
+       * Position the cursor so the next datapoint it returns is the most recent
+       * one at or before 'ts'
+       */
+      private void seek(long ts) {
+        // The first key at or after key(ts) is the one of the block containing 'ts'
+        iterator.seek(key(classId, labelsId, ts));
+        block = null;
+        pos = -1;
+        upper = ts;
+      }
+
+      /**
+       * Advance the cursor to the next (older) datapoint.
+       *
+       * @return false if there are no more datapoints for the current GTS
+       */
+      private boolean advance() {
+        while(true) {
+          if (null != block) {
+            while(pos >= 0 && block.ticks[pos] > upper) {
+              pos--;
+            }
+
+            if (pos >= 0) {
+              return true;
+            }
+
+            block = null;
+          }
+
+          if (!iterator.hasNext()) {
+            return false;
+          }
+
+          Entry<byte[],byte[]> kv = iterator.next();
+
+          if (!isKeyFor(kv.getKey(), classId, labelsId)) {
+            return false;
+          }
+
+          keyBytes += kv.getKey().length;
+          valueBytes += kv.getValue().length;
+
+          block = Block.decode(keyTimestamp(kv.getKey()), aesKey, kv.getValue());
+          pos = block.size - 1;
+        }
+      }
+
+      private void fetchPostBoundary(GTSEncoder encoder) throws IOException {
+        byte[] nowKey = key(classId, labelsId, now);
+
+        iterator.seek(nowKey);
+
+        //
+        // Datapoints more recent than 'now' in the block which contains 'now'
+        //
+
+        if (iterator.hasNext()) {
+          Entry<byte[],byte[]> kv = iterator.peekNext();
+
+          if (isKeyFor(kv.getKey(), classId, labelsId)) {
+            keyBytes += kv.getKey().length;
+            valueBytes += kv.getValue().length;
+            Block b = Block.decode(keyTimestamp(kv.getKey()), aesKey, kv.getValue());
+            for (int i = 0; i < b.size && postBoundary > 0; i++) {
+              if (b.ticks[i] > now) {
+                encoder.addValue(b.ticks[i], b.locations[i], b.elevations[i], b.values[i]);
+                postBoundary--;
+              }
+            }
+          }
+        } else {
+          // We are past the last key, position the iterator on it as it might be a more recent block of the current GTS
+          iterator.seekToLast();
+          if (iterator.hasNext()) {
+            Entry<byte[],byte[]> kv = iterator.peekNext();
+            if (isKeyFor(kv.getKey(), classId, labelsId) && Bytes.compareTo(kv.getKey(), nowKey) < 0) {
+              postBoundary = addAscending(encoder, kv, postBoundary);
+            }
+          }
+        }
+
+        //
+        // Walk the more recent blocks backwards
+        //
+
+        while(postBoundary > 0 && iterator.hasPrev()) {
+          Entry<byte[],byte[]> kv = iterator.prev();
+
+          if (!isKeyFor(kv.getKey(), classId, labelsId)) {
+            break;
+          }
+
+          postBoundary = addAscending(encoder, kv, postBoundary);
+        }
+
+        postBoundary = 0;
+      }
+
+      private long addAscending(GTSEncoder encoder, Entry<byte[],byte[]> kv, long n) throws IOException {
+        keyBytes += kv.getKey().length;
+        valueBytes += kv.getValue().length;
+        Block b = Block.decode(keyTimestamp(kv.getKey()), aesKey, kv.getValue());
+        for (int i = 0; i < b.size && n > 0; i++) {
+          encoder.addValue(b.ticks[i], b.locations[i], b.elevations[i], b.values[i]);
+          n--;
+        }
+        return n;
+      }
+
+      private void fill() {
+        GTSEncoder encoder = new GTSEncoder(0L);
+
+        keyBytes = 0L;
+        valueBytes = 0L;
+        long datapoints = 0L;
+
+        try {
+          //
+          // Fetch the post boundary, it is always part of the first encoder returned for a GTS
+          //
+
+          if (postBoundary > 0) {
+            fetchPostBoundary(encoder);
+
+            if (inRange) {
+              seek(now);
+            } else if (preBoundary > 0) {
+              seek(then - 1);
+            }
+          }
+
+          //
+          // Fetch datapoints from the [then,now] range
+          //
+
+          while(inRange && encoder.size() < MAX_ENCODER_SIZE) {
+            if (nvalues <= 0 || !advance() || block.ticks[pos] < then) {
+              inRange = false;
+              // Position the cursor just before 'then' for the pre boundary
+              if (preBoundary > 0) {
+                seek(then - 1);
+              }
+              break;
+            }
+
+            int i = pos--;
+            long basets = block.ticks[i];
+
+            //
+            // Skip datapoints
+            //
+
+            if (skip > 0) {
+              skip--;
+              continue;
+            }
+
+            //
+            // Check that the datapoint timestamp is compatible with the timestep parameter, i.e. it is at least
+            // 'timestep' time units before the previous one we selected
+            //
+
+            if (basets > nextTimestamp) {
+              continue;
+            }
+
+            //
+            // Compute the new value of nextTimestamp if timestep is set
+            //
+
+            if (hasTimestep) {
+              try {
+                nextTimestamp = Math.subtractExact(basets, timestep);
+              } catch (ArithmeticException ae) {
+                nextTimestamp = Long.MIN_VALUE;
+                nvalues = 0L;
+              }
+
+              // Seek directly to the block containing nextTimestamp if it is not the current one
+              if (nvalues > 0 && nextTimestamp < block.ticks[0]) {
+                seek(nextTimestamp);
+              }
+            }
+
+            //
+            // Check that the data point should not be stepped over
+            //
+
+            if (steps > 0) {
+              steps--;
+              continue;
+            }
+
+            if (hasStep) {
+              steps = step - 1L;
+            }
+
+            //
+            // Sample datapoints
+            //
+
+            if (fsample < 1.0D && prng.nextDouble() > fsample) {
+              continue;
+            }
+
+            datapoints++;
+            nvalues--;
+
+            encoder.addValue(basets, block.locations[i], block.elevations[i], block.values[i]);
+          }
+
+          //
+          // Fetch the pre boundary
+          //
+
+          while(!inRange && preBoundary > 0 && encoder.size() < MAX_ENCODER_SIZE) {
+            if (!advance()) {
+              preBoundary = 0;
+              break;
+            }
+            int i = pos--;
+            encoder.addValue(block.ticks[i], block.locations[i], block.elevations[i], block.values[i]);
+            preBoundary--;
+          }
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+
+        if (!inRange && preBoundary <= 0) {
+          done = true;
+        }
+
+        if (encoder.getCount() > 0) {
+          encoder.setMetadata(metadatas.get(idx));
+          current = encoder;
+        }
+
+        //
+        // Update Sensision
+        //
+
+        Map<String,String> labels = new HashMap<String,String>();
+
+        Map<String,String> metadataLabels = metadatas.get(idx).getLabels();
+
+        String billedCustomerId = null != token ? Tokens.getUUID(token.getBilledId()) : null;
+
+        if (null != billedCustomerId) {
+          labels.put(SensisionConstants.SENSISION_LABEL_CONSUMERID, billedCustomerId);
+        }
+
+        if (metadataLabels.containsKey(Constants.APPLICATION_LABEL)) {
+          labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, metadataLabels.get(Constants.APPLICATION_LABEL));
+        }
+
+        if (metadataLabels.containsKey(Constants.OWNER_LABEL)) {
+          labels.put(SensisionConstants.SENSISION_LABEL_OWNER, metadataLabels.get(Constants.OWNER_LABEL));
+        }
+
+        if (null != token && null != token.getAppName()) {
+          labels.put(SensisionConstants.SENSISION_LABEL_CONSUMERAPP, token.getAppName());
+        }
+
+        //
+        // Update per owner statistics, use a TTL for those
+        //
+
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_VALUES_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, valueBytes);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_KEYS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, keyBytes);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_DATAPOINTS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, datapoints);
+
+        //
+        // Update summary statistics
+        //
+
+        // Remove 'owner' label
+        labels.remove(SensisionConstants.SENSISION_LABEL_OWNER);
+
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_VALUES, labels, valueBytes);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_KEYS, labels, keyBytes);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_DATAPOINTS, labels, datapoints);
+      }
+    };
+  }
+
+  private WriteOptions writeOptions() {
+    WriteOptions options = new WriteOptions().sync(1.0 == syncrate);
+
+    if (syncwrites) {
+      options = new WriteOptions().sync(Math.random() < syncrate);
+    }
+
+    return options;
+  }
+
+  private Object lock(long classId, long labelsId) {
+    long h = classId ^ labelsId;
+    h ^= (h >>> 32);
+    return this.locks[(int) ((h & 0x7FFFFFFFL) % this.locks.length)];
+  }
+
+  @Override
+  public void store(GTSEncoder encoder) throws IOException {
+
+    //
+    // Blocks are written upon each call, there is nothing to flush
+    //
+
+    if (null == encoder) {
+      return;
+    }
+
+    //
+    // Sort the new datapoints, the last write of a timestamp wins
+    //
+
+    GTSDecoder decoder = encoder.getDecoder(true);
+
+    Block datapoints = new Block(16);
+
+    while(decoder.next()) {
+      datapoints.add(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+    }
+
+    if (datapoints.size > 0) {
+      datapoints.normalize();
+
+      long classId = encoder.getClassId();
+      long labelsId = encoder.getLabelsId();
+      byte[] aesKey = this.keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+
+      synchronized (lock(classId, labelsId)) {
+        WriteBatch batch = this.db.createWriteBatch();
+        DBIterator iterator = this.db.iterator();
+
+        try {
+          //
+          // Merge the new datapoints with the existing blocks. Blocks are scanned
+          // from the most recent to the oldest so the iterator only moves forward.
+          // Blocks written in the batch start after the datapoints which remain to
+          // be merged, so they never need to be read back.
+          //
+
+          int end = datapoints.size;
+
+          while (end > 0) {
+            long ts = datapoints.ticks[end - 1];
+            long basets = blockStart(ts, span);
+
+            Block block = null;
+
+            iterator.seek(key(classId, labelsId, ts));
+
+            if (iterator.hasNext()) {
+              Entry<byte[],byte[]> kv = iterator.peekNext();
+              // The block must be in the same span as 'ts'
+              if (isKeyFor(kv.getKey(), classId, labelsId) && keyTimestamp(kv.getKey()) >= basets) {
+                basets = keyTimestamp(kv.getKey());
+                block = Block.decode(basets, aesKey, kv.getValue());
+              }
+            }
+
+            int from = end - 1;
+
+            while (from > 0 && datapoints.ticks[from - 1] >= basets) {
+              from--;
+            }
+
+            if (null == block) {
+              block = new Block(end - from);
+            }
+
+            block.merge(datapoints, from, end);
+            block.normalize();
+
+            put(batch, classId, labelsId, basets, block, maxBlockSize, aesKey, doubleXOR, aesGCM);
+
+            end = from;
+          }
+
+          this.db.write(batch, writeOptions());
+        } finally {
+          batch.close();
+          try {
+            iterator.close();
+          } catch (Throwable t) {
+          }
+        }
+      }
+    }
+
+    for (StandalonePlasmaHandlerInterface plasmaHandler: this.plasmaHandlers) {
+      if (plasmaHandler.hasSubscriptions()) {
+        plasmaHandler.publish(encoder);
+      }
+    }
+  }
+
+  @Override
+  public long delete(WriteToken token, Metadata metadata, long start, long end) throws IOException {
+
+    //
+    // Regen classId/labelsId
+    //
+
+    // 128BITS
+    metadata.setLabelsId(GTSHelper.labelsId(this.keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
+    metadata.setClassId(GTSHelper.classId(this.keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
+
+    long classId = metadata.getClassId();
+    long labelsId = metadata.getLabelsId();
+
+    byte[] aesKey = this.keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+
+    long count = 0L;
+
+    synchronized (lock(classId, labelsId)) {
+      DBIterator iterator = null;
+
+      try {
+        iterator = this.db.iterator();
+
+        //
+        // Seek the block containing the most recent timestamp
+        //
+
+        iterator.seek(key(classId, labelsId, end));
+
+        WriteBatch batch = this.db.createWriteBatchUnlocked();
+        int batchsize = 0;
+
+        //
+        // Scan the blocks, deleting or rewriting the ones which overlap [start,end]
+        //
+
+        while (iterator.hasNext()) {
+          Entry<byte[],byte[]> entry = iterator.next();
+
+          if (!isKeyFor(entry.getKey(), classId, labelsId)) {
+            break;
+          }
+
+          long basets = keyTimestamp(entry.getKey());
+          Block block = Block.decode(basets, aesKey, entry.getValue());
+
+          int before = block.size;
+          block.remove(start, end);
+
+          if (before != block.size) {
+            count += before - block.size;
+
+            if (0 == block.size) {
+              batch.delete(entry.getKey());
+            } else {
+              batch.put(entry.getKey(), block.encode(basets, aesKey, doubleXOR, aesGCM));
+            }
+
+            batchsize++;
+
+            if (MAX_DELETE_BATCHSIZE <= batchsize) {
+              this.db.writeUnlocked(batch, writeOptions());
+              batch.close();
+              batch = this.db.createWriteBatchUnlocked();
+              batchsize = 0;
+            }
+          }
+
+          // The block containing 'start' is the last one to inspect
+          if (basets <= start) {
+            break;
+          }
+        }
+
+        if (batchsize > 0) {
+          this.db.writeUnlocked(batch, writeOptions());
+        }
+        batch.close();
+
+        return count;
+      } finally {
+        //
+        // We need to close those so pendingOps is correctly updated
+        //
+        if (null != iterator) {
+          try {
+            iterator.close();
+          } catch (Throwable t) {
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addPlasmaHandler(StandalonePlasmaHandlerInterface plasmaHandler) {
+    this.plasmaHandlers.add(plasmaHandler);
+  }
+
+  /**
+   * Check that the datapoints stored in 'db' use the layout for 'span', record it if the
+   * database holds no datapoints yet. Databases without a layout marker but with datapoints
+   * were written with one key per datapoint.
+   *
+   * @throws RuntimeException if the stored layout differs from the configured one
+   */
+  static void checkLayout(DB db, long span) throws IOException {
+    byte[] marker = db.get(LAYOUT_KEY);
+
+    long stored;
+
+    if (null != marker) {
+      if (8 != marker.length) {
+        throw new RuntimeException("Invalid LevelDB layout marker.");
+      }
+      stored = Bytes.toLong(marker);
+    } else {
+      boolean empty;
+
+      try (DBIterator iter = db.iterator()) {
+        iter.seek(Constants.HBASE_RAW_DATA_KEY_PREFIX);
+        empty = !iter.hasNext() || 0 != Bytes.compareTo(iter.peekNext().getKey(), 0, Constants.HBASE_RAW_DATA_KEY_PREFIX.length, Constants.HBASE_RAW_DATA_KEY_PREFIX, 0, Constants.HBASE_RAW_DATA_KEY_PREFIX.length);
+      }
+
+      if (empty) {
+        db.put(LAYOUT_KEY, Bytes.toBytes(span));
+        return;
+      }
+
+      stored = 0L;
+    }
+
+    if (stored != span) {
+      String layout = null == marker ? "without a layout marker (one key per datapoint)" : ("with a block span of " + stored);
+      throw new RuntimeException("LevelDB datapoints were stored " + layout + " but '" + Configuration.LEVELDB_DATA_BLOCKSPAN + "' is " + span + ", migrate the data using WarpBlockMigrate.");
+    }
+
+    if (null == marker) {
+      db.put(LAYOUT_KEY, Bytes.toBytes(span));
+    }
+  }
+
+  /**
+   * Compute the start of the block containing 'ts'.
+   * Timestamps whose block start would be before Long.MIN_VALUE all belong to the block starting at Long.MIN_VALUE.
+   */
+  static long blockStart(long ts, long span) {
+    long offset = Math.floorMod(ts, span);
+    if (ts < Long.MIN_VALUE + offset) {
+      return Long.MIN_VALUE;
+    }
+    return ts - offset;
+  }
+
+  /**
+   * Add 'block', which must be normalized, to 'batch' under the key of 'basets'. Datapoints beyond
+   * the first 'maxsize' ones are split in new blocks keyed by the timestamp of their first datapoint.
+   *
+   * @return the number of keys written
+   */
+  static int put(WriteBatch batch, long classId, long labelsId, long basets, Block block, int maxsize, byte[] aesKey, boolean doubleXOR, boolean aesGCM) throws IOException {
+    int keys = 0;
+
+    for (int from = 0; from < block.size; from += maxsize) {
+      long start = 0 == from ? basets : block.ticks[from];
+      batch.put(key(classId, labelsId, start), block.encode(start, from, Math.min(block.size, from + maxsize), aesKey, doubleXOR, aesGCM));
+      keys++;
+    }
+
+    return keys;
+  }
+
+  static byte[] key(long classId, long labelsId, long basets) {
+    // 128bits
+    byte[] key = new byte[KEY_TS_OFFSET + 8];
+    ByteBuffer bb = ByteBuffer.wrap(key).order(ByteOrder.BIG_ENDIAN);
+    bb.put(Constants.HBASE_RAW_DATA_KEY_PREFIX);
+    bb.putLong(classId);
+    bb.putLong(labelsId);
+    bb.putLong(Long.MAX_VALUE - basets);
+    return key;
+  }
+
+  static long keyTimestamp(byte[] key) {
+    return Long.MAX_VALUE - Bytes.toLong(key, KEY_TS_OFFSET);
+  }
+
+  private static boolean isKeyFor(byte[] key, long classId, long labelsId) {
+    if (key.length != KEY_TS_OFFSET + 8) {
+      return false;
+    }
+
+    if (0 != Bytes.compareTo(key, 0, Constants.HBASE_RAW_DATA_KEY_PREFIX.length, Constants.HBASE_RAW_DATA_KEY_PREFIX, 0, Constants.HBASE_RAW_DATA_KEY_PREFIX.length)) {
+      return false;
+    }
+
+    return classId == Bytes.toLong(key, Constants.HBASE_RAW_DATA_KEY_PREFIX.length) && labelsId == Bytes.toLong(key, Constants.HBASE_RAW_DATA_KEY_PREFIX.length + 8);
+  }
+
+  /**
+   * Datapoints of a block, held in parallel arrays
+   */
+  static final class Block {
+    long[] ticks;
+    long[] locations;
+    long[] elevations;
+    Object[] values;
+    int size = 0;
+
+    Block(int capacity) {
+      capacity = Math.max(1, capacity);
+      this.ticks = new long[capacity];
+      this.locations = new long[capacity];
+      this.elevations = new long[capacity];
+      this.values = new Object[capacity];
+    }
+
+    /**
+     * Decode a stored block, the resulting block is sorted in chronological order.
+     */
+    static Block decode(long basets, byte[] aesKey, byte[] value) {
+      GTSDecoder decoder = new GTSDecoder(basets, aesKey, ByteBuffer.wrap(value));
+
+      Block block = new Block(value.length / 4);
+
+      boolean sorted = true;
+
+      while(decoder.next()) {
+        if (block.size > 0 && decoder.getTimestamp() <= block.ticks[block.size - 1]) {
+          sorted = false;
+        }
+        block.add(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
+      }
+
+      if (!sorted) {
+        block.normalize();
+      }
+
+      return block;
+    }
+
+    void add(long tick, long location, long elevation, Object value) {
+      if (size == ticks.length) {
+        int capacity = ticks.length + Math.max(16, ticks.length >> 1);
+        ticks = Arrays.copyOf(ticks, capacity);
+        locations = Arrays.copyOf(locations, capacity);
+        elevations = Arrays.copyOf(elevations, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+
+      ticks[size] = tick;
+      locations[size] = location;
+      elevations[size] = elevation;
+      values[size] = value;
+      size++;
+    }
+
+    /**
+     * Append the datapoints of 'block', they will take precedence over
+     * the existing ones with the same timestamps when normalizing.
+     */
+    void merge(Block block, int from, int to) {
+      for (int i = from; i < to; i++) {
+        add(block.ticks[i], block.locations[i], block.elevations[i], block.values[i]);
+      }
+    }
+
+    /**
+     * Sort the datapoints in chronological order, keeping only the last
+     * datapoint added for each timestamp
+     */
+    void normalize() {
+      int[] idx = new int[size];
+      for (int i = 0; i < size; i++) {
+        idx[i] = i;
+      }
+
+      final long[] t = ticks;
+
+      sort(idx, t, 0, size - 1);
+
+      long[] nticks = new long[size];
+      long[] nlocations = new long[size];
+      long[] nelevations = new long[size];
+      Object[] nvalues = new Object[size];
+
+      int n = 0;
+
+      for (int i = 0; i < size; i++) {
+        int k = idx[i];
+        // Skip the datapoint if a more recent write exists for the same timestamp
+        if (i + 1 < size && t[idx[i + 1]] == t[k]) {
+          continue;
+        }
+
+        nticks[n] = t[k];
+        nlocations[n] = locations[k];
+        nelevations[n] = elevations[k];
+        nvalues[n] = values[k];
+        n++;
+      }
+
+      ticks = nticks;
+      locations = nlocations;
+      elevations = nelevations;
+      values = nvalues;
+      size = n;
+    }
+
+    /**
+     * Sort indices by timestamp then by insertion order, so the last datapoint added
+     * for a timestamp comes last
+     */
+    private static void sort(int[] idx, long[] t, int low, int high) {
+      while (low < high) {
+        if (high - low < 16) {
+          for (int i = low + 1; i <= high; i++) {
+            int k = idx[i];
+            int j = i - 1;
+            while (j >= low && before(t, k, idx[j])) {
+              idx[j + 1] = idx[j];
+              j--;
+            }
+            idx[j + 1] = k;
+          }
+          return;
+        }
+
+        int pivot = idx[(low + high) >>> 1];
+        int i = low;
+        int j = high;
+
+        while (i <= j) {
+          while (before(t, idx[i], pivot)) {
+            i++;
+          }
+          while (before(t, pivot, idx[j])) {
+            j--;
+          }
+          if (i <= j) {
+            int tmp = idx[i];
+            idx[i] = idx[j];
+            idx[j] = tmp;
+            i++;
+            j--;
+          }
+        }
+
+        // Recurse on the smaller part so the depth stays logarithmic
+        if (j - low < high - i) {
+          sort(idx, t, low, j);
+          low = i;
+        } else {
+          sort(idx, t, i, high);
+          high = j;
+        }
+      }
+    }
+
+    private static boolean before(long[] t, int a, int b) {
+      return t[a] < t[b] || (t[a] == t[b] && a < b);
+    }
+
+    /**
+     * Remove the datapoints within [start,end]
+     */
+    void remove(long start, long end) {
+      int n = 0;
+      for (int i = 0; i < size; i++) {
+        if (ticks[i] >= start && ticks[i] <= end) {
+          continue;
+        }
+        ticks[n] = ticks[i];
+        locations[n] = locations[i];
+        elevations[n] = elevations[i];
+        values[n] = values[i];
+        n++;
+      }
+
+      Arrays.fill(values, n, size, null);
+      size = n;
+    }
+
+    byte[] encode(long basets, byte[] aesKey, boolean doubleXOR, boolean aesGCM) throws IOException {
+      return encode(basets, 0, size, aesKey, doubleXOR, aesGCM);
+    }
+
+    /**
+     * Encode the datapoints at indices [from,to)
+     */
+    byte[] encode(long basets, int from, int to, byte[] aesKey, boolean doubleXOR, boolean aesGCM) throws IOException {
+      GTSEncoder encoder = new GTSEncoder(basets, aesKey);
+      encoder.setDoubleXOR(doubleXOR);
+      encoder.setAESGCM(aesGCM);
+
+      for (int i = from; i < to; i++) {
+        encoder.addValue(ticks[i], locations[i], elevations[i], values[i]);
+      }
+
+      return encoder.getBytes();
+    }
+  }
+}
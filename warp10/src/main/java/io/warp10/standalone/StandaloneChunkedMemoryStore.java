@@ -16,11 +16,25 @@
 
 package io.warp10.standalone;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -72,6 +86,20 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
   private static final Logger LOG = LoggerFactory.getLogger(StandaloneChunkedMemoryStore.class);
 
+  /**
+   * Magic bytes at the start of snapshot files
+   */
+  private static final byte[] SNAPSHOT_MAGIC = "W10MSNAP".getBytes(StandardCharsets.US_ASCII);
+
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private static final int SNAPSHOT_HEADER_SIZE = 64;
+
+  /**
+   * Maximum size of a segment of a snapshot, segments are mapped individually
+   */
+  private static final long SNAPSHOT_MAX_SEGMENT_SIZE = 1L << 30;
+
   private final Map<BigInteger,InMemoryChunkSet> series;
 
   private List<StandalonePlasmaHandlerInterface> plasmaHandlers = new ArrayList<StandalonePlasmaHandlerInterface>();
@@ -92,6 +120,13 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
   private final boolean ephemeral;
 
+  private final boolean doubleXOR;
+
+  /**
+   * Arena storing the content of sealed chunks off heap, or null
+   */
+  private final OffHeapChunkArena arena;
+
   private final long[] classKeyLongs;
   private final long[] labelsKeyLongs;
 
@@ -110,6 +145,14 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       this.ephemeral = false;
     }
 
+    this.doubleXOR = "true".equals(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_DOUBLE_XOR));
+
+    if (!this.ephemeral && "true".equals(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_OFFHEAP))) {
+      this.arena = new OffHeapChunkArena(Integer.parseInt(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_OFFHEAP_SLAB_SIZE, Integer.toString(OffHeapChunkArena.DEFAULT_SLAB_SIZE))));
+    } else {
+      this.arena = null;
+    }
+
     this.labelsKeyLongs = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_LABELS));
     this.classKeyLongs = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_CLASS));
 
@@ -264,16 +307,12 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     return iterator;
   }
 
-  public void store(GTSEncoder encoder) throws IOException {
-
-    if (null == encoder) {
-      return;
-    }
-
+  /**
+   * Retrieve the chunk set of a GTS, allocating it if needed
+   */
+  private InMemoryChunkSet getChunkSet(Metadata meta) {
     byte[] bytes = new byte[16];
 
-    Metadata meta = encoder.getMetadata();
-
     // 128BITS
     long id = meta.getClassId();
 
@@ -301,10 +340,6 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
     BigInteger clslbls = new BigInteger(bytes);
 
-    //
-    // Retrieve the chunk for the current GTS
-    //
-
     InMemoryChunkSet chunkset = null;
 
     synchronized (this.series) {
@@ -315,11 +350,26 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       //
 
       if (null == chunkset) {
-        chunkset = new InMemoryChunkSet(this.chunkcount, this.chunkspan, this.ephemeral);
+        chunkset = new InMemoryChunkSet(this.chunkcount, this.chunkspan, this.ephemeral, this.doubleXOR, this.arena);
         this.series.put(clslbls,  chunkset);
       }
     }
 
+    return chunkset;
+  }
+
+  public void store(GTSEncoder encoder) throws IOException {
+
+    if (null == encoder) {
+      return;
+    }
+
+    //
+    // Retrieve the chunk for the current GTS
+    //
+
+    InMemoryChunkSet chunkset = getChunkSet(encoder.getMetadata());
+
     //
     // Store data
     //
@@ -459,6 +509,12 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_DATAPOINTS, Sensision.EMPTY_LABELS, datapoints);
       Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_GTS, Sensision.EMPTY_LABELS, this.series.size());
 
+      if (null != this.arena) {
+        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_OFFHEAP_RESERVED, Sensision.EMPTY_LABELS, this.arena.getReserved());
+        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_OFFHEAP_USED, Sensision.EMPTY_LABELS, this.arena.getUsed());
+        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_OFFHEAP_DATA, Sensision.EMPTY_LABELS, this.arena.getDataSize());
+      }
+
       if (datapointsdelta > 0) {
         Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_GC_DATAPOINTS, Sensision.EMPTY_LABELS, datapointsdelta);
       }
@@ -510,15 +566,20 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     BigInteger clslbls = new BigInteger(bytes);
 
     InMemoryChunkSet set = null;
+    InMemoryChunkSet removed = null;
 
     synchronized(this.series) {
       if (Long.MIN_VALUE == start && Long.MAX_VALUE == end) {
-        this.series.remove(clslbls);
+        removed = this.series.remove(clslbls);
       } else {
         set = this.series.get(clslbls);
       }
     }
 
+    if (null != removed) {
+      removed.free();
+    }
+
     if (null != set) {
       return set.delete(start, end);
     }
@@ -536,6 +597,11 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       return;
     }
 
+    if ("true".equals(properties.getProperty(io.warp10.continuum.Configuration.STANDALONE_MEMORY_STORE_DUMP_SNAPSHOT))) {
+      dumpSnapshot(path);
+      return;
+    }
+
     long nano = System.nanoTime();
     int gts = 0;
     long chunks = 0;
@@ -627,6 +693,11 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
 
   private void load(String path) throws IOException {
 
+    if (isSnapshot(path)) {
+      loadSnapshot(path);
+      return;
+    }
+
     long nano = System.nanoTime();
     long chunks = 0;
     long datapoints = 0;
@@ -695,6 +766,386 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     System.out.println("Loaded " + chunks + " chunks (" + datapoints + " datapoints, " + bytes + " bytes) in " + (nano / 1000000.0D) + " ms.");
   }
 
+  /**
+   * Dump the memory store as a snapshot which can be mapped in memory when loaded.
+   *
+   * The snapshot starts with a fixed size header, followed by the content of the chunks
+   * grouped in segments, one or more per slot of the chunk ring, and by an index containing
+   * the segment table and the Metadata and chunk table of each GTS.
+   * The snapshot is written in a temporary file and then renamed, as the previous snapshot
+   * may still be mapped.
+   */
+  private void dumpSnapshot(String path) throws IOException {
+    long nano = System.nanoTime();
+    long chunks = 0;
+    long bytes = 0L;
+    long datapoints = 0;
+
+    List<BigInteger> keys = new ArrayList<BigInteger>(this.series.keySet());
+
+    //
+    // Chunks of each GTS, as segment, offset in segment, length, end, count, last timestamp, chronological flag, base timestamp
+    //
+
+    long[][][] entries = new long[keys.size()][][];
+
+    // Segments as slot, offset and length
+    List<long[]> segments = new ArrayList<long[]>();
+
+    File tmp = new File(path + ".tmp");
+
+    System.out.println("Dumping memory snapshot to '" + path + "'.");
+
+    int gts = 0;
+
+    try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+      raf.setLength(0L);
+      FileChannel channel = raf.getChannel();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20));
+
+      // Placeholder for the header which is written last
+      out.write(new byte[SNAPSHOT_HEADER_SIZE]);
+      long offset = SNAPSHOT_HEADER_SIZE;
+
+      long[] state = new long[5];
+
+      for (int slot = 0; slot < this.chunkcount; slot++) {
+        long[] segment = null;
+
+        for (int i = 0; i < keys.size(); i++) {
+          InMemoryChunkSet chunkset = this.series.get(keys.get(i));
+
+          if (null == chunkset) {
+            continue;
+          }
+
+          byte[] content = chunkset.export(slot, state);
+
+          if (null == content) {
+            continue;
+          }
+
+          if (null == segment || segment[2] + content.length > SNAPSHOT_MAX_SEGMENT_SIZE) {
+            segment = new long[] { slot, offset, 0L };
+            segments.add(segment);
+          }
+
+          if (null == entries[i]) {
+            entries[i] = new long[this.chunkcount][];
+          }
+
+          entries[i][slot] = new long[] { segments.size() - 1, segment[2], content.length, state[0], state[1], state[2], state[3], state[4] };
+
+          out.write(content);
+          segment[2] += content.length;
+          offset += content.length;
+
+          chunks++;
+          datapoints += state[1];
+          bytes += content.length;
+        }
+      }
+
+      long indexOffset = offset;
+
+      out.writeInt(segments.size());
+
+      for (long[] segment: segments) {
+        out.writeInt((int) segment[0]);
+        out.writeLong(segment[1]);
+        out.writeLong(segment[2]);
+      }
+
+      //
+      // Retrieve the Metadata of the GTS with chunks
+      //
+
+      TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+
+      byte[][] metadatas = new byte[keys.size()][];
+
+      for (int i = 0; i < keys.size(); i++) {
+        if (null == entries[i]) {
+          continue;
+        }
+
+        Metadata metadata = this.directoryClient.getMetadataById(keys.get(i));
+
+        if (null == metadata) {
+          continue;
+        }
+
+        metadatas[i] = serializer.serialize(metadata);
+        gts++;
+      }
+
+      out.writeInt(gts);
+
+      for (int i = 0; i < keys.size(); i++) {
+        if (null == metadatas[i]) {
+          continue;
+        }
+
+        out.writeInt(metadatas[i].length);
+        out.write(metadatas[i]);
+
+        int n = 0;
+
+        for (long[] entry: entries[i]) {
+          if (null != entry) {
+            n++;
+          }
+        }
+
+        out.writeInt(n);
+
+        for (long[] entry: entries[i]) {
+          if (null == entry) {
+            continue;
+          }
+          out.writeInt((int) entry[0]);
+          out.writeInt((int) entry[1]);
+          out.writeInt((int) entry[2]);
+          out.writeLong(entry[3]);
+          out.writeLong(entry[4]);
+          out.writeLong(entry[5]);
+          out.writeBoolean(1L == entry[6]);
+          out.writeLong(entry[7]);
+        }
+      }
+
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+      header.put(SNAPSHOT_MAGIC);
+      header.putInt(SNAPSHOT_VERSION);
+      header.putInt(this.chunkcount);
+      header.putLong(this.chunkspan);
+      header.put((byte) (this.ephemeral ? 1 : 0));
+      header.putLong(indexOffset);
+      header.rewind();
+
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+
+      channel.force(true);
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+      throw ioe;
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new IOException(e);
+    }
+
+    Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    nano = System.nanoTime() - nano;
+
+    System.out.println("Dumped " + gts + " GTS (" + chunks + " chunks, " + datapoints + " datapoints, " + bytes + " bytes) in " + (nano / 1000000.0D) + " ms.");
+  }
+
+  /**
+   * Check if a file is a snapshot produced by dumpSnapshot
+   */
+  private static boolean isSnapshot(String path) {
+    byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+      in.readFully(magic);
+    } catch (IOException ioe) {
+      return false;
+    }
+
+    return Arrays.equals(SNAPSHOT_MAGIC, magic);
+  }
+
+  /**
+   * Load a snapshot. The segments are mapped and the chunks are adopted in place when the
+   * layout of the chunk ring did not change, their content is then moved on heap or in the
+   * off heap arena by a background thread. Otherwise the datapoints are stored again.
+   */
+  private void loadSnapshot(String path) throws IOException {
+    long nano = System.nanoTime();
+    long chunks = 0;
+    long adopted = 0;
+    long datapoints = 0;
+    long bytes = 0L;
+
+    boolean failsafe = "true".equals(properties.getProperty(io.warp10.continuum.Configuration.STANDALONE_MEMORY_STORE_LOAD_FAILSAFE));
+
+    System.out.println("Mapping snapshot '" + path + "' in memory.");
+
+    try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+      FileChannel channel = raf.getChannel();
+
+      ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+
+      while (header.hasRemaining()) {
+        if (channel.read(header, header.position()) < 0) {
+          throw new IOException("Truncated snapshot header.");
+        }
+      }
+
+      header.flip();
+      header.position(SNAPSHOT_MAGIC.length);
+
+      int version = header.getInt();
+
+      if (SNAPSHOT_VERSION != version) {
+        throw new IOException("Unsupported snapshot version " + version + ".");
+      }
+
+      int chunkcount = header.getInt();
+      long chunkspan = header.getLong();
+      boolean ephemeral = 0 != header.get();
+      long indexOffset = header.getLong();
+
+      // Chunks can only be adopted if the layout of the chunk ring is unchanged
+      boolean inplace = !this.ephemeral && !ephemeral && chunkcount == this.chunkcount && chunkspan == this.chunkspan;
+
+      if (indexOffset < SNAPSHOT_HEADER_SIZE || indexOffset > channel.size()) {
+        throw new IOException("Invalid snapshot index offset " + indexOffset + ".");
+      }
+
+      channel.position(indexOffset);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 20));
+
+      int nsegments = in.readInt();
+
+      // Each segment is described by 20 bytes in the index
+      if (nsegments < 0 || 20L * nsegments > channel.size() - indexOffset) {
+        throw new IOException("Invalid snapshot segment count " + nsegments + ".");
+      }
+
+      ByteBuffer[] segments = new ByteBuffer[nsegments];
+
+      for (int i = 0; i < segments.length; i++) {
+        in.readInt();
+        long offset = in.readLong();
+        long length = in.readLong();
+        if (offset < SNAPSHOT_HEADER_SIZE || length < 0L || length > SNAPSHOT_MAX_SEGMENT_SIZE || offset + length > indexOffset) {
+          throw new IOException("Invalid snapshot segment " + i + ".");
+        }
+        segments[i] = channel.map(MapMode.READ_ONLY, offset, length);
+      }
+
+      TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+
+      int gts = in.readInt();
+
+      for (int i = 0; i < gts; i++) {
+        try {
+          int len = in.readInt();
+          if (len < 0 || len > channel.size() - indexOffset) {
+            throw new IOException("Invalid snapshot Metadata length " + len + ".");
+          }
+          byte[] data = new byte[len];
+          in.readFully(data);
+          Metadata metadata = new Metadata();
+          deserializer.deserialize(metadata, data);
+
+          if (null != this.directoryClient) {
+            this.directoryClient.register(metadata);
+          }
+
+          int n = in.readInt();
+
+          for (int j = 0; j < n; j++) {
+            int segment = in.readInt();
+            int offset = in.readInt();
+            int length = in.readInt();
+            long chunkend = in.readLong();
+            long count = in.readLong();
+            long lasttimestamp = in.readLong();
+            boolean chronological = in.readBoolean();
+            long base = in.readLong();
+
+            chunks++;
+            datapoints += count;
+            bytes += length;
+
+            ByteBuffer content = segments[segment].duplicate();
+            content.position(offset);
+            content.limit(offset + length);
+
+            if (inplace && 0L == base) {
+              int outcome = getChunkSet(metadata).adopt(chunkend, lasttimestamp, chronological, OffHeapChunkArena.wrap(content, count));
+
+              // Expired chunks are skipped, only the installed ones need to be warmed up
+              if (InMemoryChunkSet.ADOPTED == outcome) {
+                adopted++;
+                continue;
+              } else if (InMemoryChunkSet.EXPIRED == outcome) {
+                continue;
+              }
+            }
+
+            byte[] value = new byte[length];
+            content.get(value);
+            GTSEncoder encoder = new GTSEncoder(base, null, value);
+            encoder.setCount(count);
+            encoder.safeSetMetadata(metadata);
+            store(encoder);
+          }
+        } catch (IOException ioe) {
+          if (!failsafe) {
+            throw ioe;
+          } else {
+            LOG.error("Ignoring exception " + ioe.getMessage() + ".");
+          }
+        } catch (Exception e) {
+          if (!failsafe) {
+            throw new IOException(e);
+          } else {
+            LOG.error("Ignoring exception " + e.getMessage() + ".");
+          }
+        }
+      }
+    } catch (FileNotFoundException fnfe) {
+      LOG.error("File '" + path + "' was not found, skipping.");
+      return;
+    }
+
+    nano = System.nanoTime() - nano;
+
+    System.out.println("Mapped " + chunks + " chunks (" + adopted + " adopted, " + datapoints + " datapoints, " + bytes + " bytes) in " + (nano / 1000000.0D) + " ms.");
+
+    if (0 == adopted) {
+      return;
+    }
+
+    //
+    // Warm up the adopted chunks in the background so the mapped file is no longer needed
+    //
+
+    final StandaloneChunkedMemoryStore self = this;
+
+    Thread warmup = new Thread() {
+      @Override
+      public void run() {
+        long nano = System.nanoTime();
+
+        for (InMemoryChunkSet chunkset: self.series.values()) {
+          try {
+            chunkset.warmup();
+          } catch (IOException ioe) {
+            LOG.error("Error while warming up chunks.", ioe);
+          }
+        }
+
+        nano = System.nanoTime() - nano;
+
+        LOG.info("Warmed up chunks adopted from snapshot in " + (nano / 1000000.0D) + " ms.");
+      }
+    };
+
+    warmup.setDaemon(true);
+    warmup.setName("[StandaloneChunkedMemoryStore Warmup]");
+    warmup.setPriority(Thread.MIN_PRIORITY);
+    warmup.start();
+  }
+
   public void setDirectoryClient(StandaloneDirectoryClient directoryClient) {
     this.directoryClient = directoryClient;
   }
@@ -94,6 +94,11 @@ public class StandaloneDeleteHandler extends AbstractHandler {
    * Key to wrap the token in the file names
    */
   private final byte[] datalogPSK;
+
+  /**
+   * Should datalog requests be encrypted using AES-GCM
+   */
+  private final boolean datalogPSKGCM;
   
   private final long[] classKeyLongs;
   private final long[] labelsKeyLongs;
@@ -156,6 +161,7 @@ public class StandaloneDeleteHandler extends AbstractHandler {
     } else {
       this.datalogPSK = null;
     }
+    this.datalogPSKGCM = "true".equals(WarpConfig.getProperty(Configuration.DATALOG_PSK_GCM));
         
     this.logforwarded = "true".equals(WarpConfig.getProperty(Configuration.DATALOG_LOGFORWARDED));
     this.datalogSync = "true".equals(WarpConfig.getProperty(Configuration.DATALOG_SYNC));        
@@ -399,7 +405,7 @@ public class StandaloneDeleteHandler extends AbstractHandler {
         }
         
         if (null != this.datalogPSK) {
-          encoded = CryptoUtils.wrap(this.datalogPSK, encoded);
+          encoded = CryptoUtils.wrap(this.datalogPSK, encoded, this.datalogPSKGCM);
         }
         
         encoded = OrderPreservingBase64.encode(encoded);
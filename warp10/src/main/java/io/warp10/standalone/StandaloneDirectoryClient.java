@@ -144,6 +144,13 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
   private static final Map<BigInteger,Metadata> metadatasById = new MapMaker().concurrencyLevel(64).makeMap();
 
+  /**
+   * Map of class name to inverted index of labels, only populated when the labels index is enabled
+   */
+  private static final Map<String,LabelsIndex> labelsIndexes = new ConcurrentHashMap<String,LabelsIndex>();
+
+  private final boolean labelsIndex;
+
   private long activityWindow = 0L;
 
   public static interface ShardFilter {
@@ -166,6 +173,8 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
     this.initNThreads = Integer.parseInt(WarpConfig.getProperty(Configuration.DIRECTORY_INIT_NTHREADS, DIRECTORY_INIT_NTHREADS_DEFAULT));
 
+    this.labelsIndex = "true".equals(WarpConfig.getProperty(Configuration.DIRECTORY_LABELS_INDEX));
+
     this.db = db;
     this.keystore = keystore;
 
@@ -306,6 +315,10 @@ public class StandaloneDirectoryClient implements DirectoryClient {
                 if (!metadatasForClassName.containsKey(labelsId)) {
                   metadatasForClassName.put(labelsId, metadata);
 
+                  if (labelsIndex) {
+                    index(metadata.getName(), labelsId, metadata.getLabels());
+                  }
+
                   //
                   // Store Metadata under 'id'
                   //
@@ -502,7 +515,37 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
           // Check for nullity because of possible concurrent unregistration.
           if(null != metadatasForClassname) {
-            for (Metadata metadata: metadatasForClassname.values()) {
+            Collection<Metadata> candidates = metadatasForClassname.values();
+
+            //
+            // Narrow the GTS to check using the labels index
+            //
+
+            if (labelsIndex && !labelNames.isEmpty()) {
+              LabelsIndex index = labelsIndexes.get(className);
+              long[] ids = null != index ? index.candidates(labelNames, labelSmartPatterns) : null;
+
+              if (null != ids) {
+                // Preserve the order in which the GTS would have been returned without the index
+                List<Long> sorted = new ArrayList<Long>(ids.length);
+                for (long id: ids) {
+                  sorted.add(id);
+                }
+                Collections.sort(sorted, Directory.ID_COMPARATOR);
+
+                candidates = new ArrayList<Metadata>(sorted.size());
+
+                for (Long id: sorted) {
+                  Metadata metadata = metadatasForClassname.get(id);
+                  // Check for nullity because of possible concurrent unregistration.
+                  if (null != metadata) {
+                    candidates.add(metadata);
+                  }
+                }
+              }
+            }
+
+            for (Metadata metadata: candidates) {
 
               //
               // Check activity
@@ -721,9 +764,16 @@ public class StandaloneDirectoryClient implements DirectoryClient {
         return;
       }
       metadatas.get(metadata.getName()).remove(labelsId);
+      if (labelsIndex) {
+        LabelsIndex index = labelsIndexes.get(metadata.getName());
+        if (null != index) {
+          index.remove(labelsId, metadata.getLabels());
+        }
+      }
       if (metadatas.get(metadata.getName()).isEmpty()) {
         metadatas.remove(metadata.getName());
         classids.remove(metadata.getName());
+        labelsIndexes.remove(metadata.getName());
       }
     }
 
@@ -934,6 +984,9 @@ public class StandaloneDirectoryClient implements DirectoryClient {
           metadatas.put(metadata.getName(), new ConcurrentSkipListMap<Long, Metadata>(Directory.ID_COMPARATOR));
         }
         if (null == metadatas.get(metadata.getName()).put(labelsId, metadata)) {
+          if (labelsIndex) {
+            index(metadata.getName(), labelsId, metadata.getLabels());
+          }
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, 1);
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS_PERAPP, sensisionLabels, 1);
         }
@@ -952,6 +1005,22 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     }
   }
 
+  private static void index(String className, long labelsId, Map<String,String> labels) {
+    LabelsIndex index = labelsIndexes.get(className);
+
+    if (null == index) {
+      synchronized(labelsIndexes) {
+        index = labelsIndexes.get(className);
+        if (null == index) {
+          index = new LabelsIndex();
+          labelsIndexes.put(className, index);
+        }
+      }
+    }
+
+    index.add(labelsId, labels);
+  }
+
   public Metadata getMetadataById(BigInteger id) {
     return this.metadatasById.get(id);
   }
@@ -28,6 +28,9 @@ import io.warp10.continuum.Tokens;
 import io.warp10.continuum.WarpException;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GTSLineParser;
+import io.warp10.continuum.gts.GTSWrapperParser;
+import io.warp10.continuum.ingress.SeriesCache;
 import io.warp10.continuum.ingress.DatalogForwarder;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
@@ -59,7 +62,13 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
@@ -110,6 +119,11 @@ public class StandaloneIngressHandler extends AbstractHandler {
    */
   private final byte[] datalogPSK;
 
+  /**
+   * Should datalog requests be encrypted using AES-GCM
+   */
+  private final boolean datalogPSKGCM;
+
   private final long[] classKeyLongs;
   private final long ckl0;
   private final long ckl1;
@@ -144,6 +158,31 @@ public class StandaloneIngressHandler extends AbstractHandler {
   private final boolean allowDeltaAttributes;
   
   private final IngressPlugin plugin;
+
+  /**
+   * Maximum number of store lanes of the update pipeline, 0 if the pipeline is disabled
+   */
+  private final int pipelineMaxLanes;
+  
+  /**
+   * Number of items buffered per lane of the update pipeline
+   */
+  private final int pipelineQueueSize;
+
+  /**
+   * Executor running the lanes of the update pipelines, null if the pipeline is disabled
+   */
+  private final ThreadPoolExecutor pipelineExecutor;
+
+  /**
+   * Threads of 'pipelineExecutor' not currently used by a lane
+   */
+  private final Semaphore pipelineThreads;
+
+  /**
+   * Cache of the series ingested by /update, null if disabled
+   */
+  private final SeriesCache seriesCache;
   
   public StandaloneIngressHandler(KeyStore keystore, StandaloneDirectoryClient directoryClient, StoreClient storeClient) {
     
@@ -247,6 +286,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
     } else {
       this.datalogPSK = null;
     }
+    this.datalogPSKGCM = "true".equals(WarpConfig.getProperty(Configuration.DATALOG_PSK_GCM));
     
     if (null != WarpConfig.getProperty(Configuration.INGRESS_PLUGIN_CLASS)) {
       try {
@@ -271,6 +311,40 @@ public class StandaloneIngressHandler extends AbstractHandler {
     this.datalogSync = "true".equals(WarpConfig.getProperty(Configuration.DATALOG_SYNC));
     
     this.maxValueSize = Long.parseLong(WarpConfig.getProperty(Configuration.STANDALONE_VALUE_MAXSIZE, DEFAULT_VALUE_MAXSIZE));
+
+    this.pipelineMaxLanes = Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_UPDATE_PIPELINE_MAXLANES, "0"));
+    this.pipelineQueueSize = Math.max(1, Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_UPDATE_PIPELINE_QUEUESIZE, "16")));
+
+    if (this.pipelineMaxLanes > 0) {
+      int nthreads = Integer.parseInt(WarpConfig.getProperty(Configuration.STANDALONE_UPDATE_PIPELINE_THREADS, Integer.toString(2 * Runtime.getRuntime().availableProcessors())));
+      nthreads = Math.max(2, nthreads);
+
+      // Lanes are only submitted when a thread is available, the queue absorbs the lanes submitted while the previous ones return their threads
+      this.pipelineExecutor = new ThreadPoolExecutor(nthreads, nthreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(nthreads), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r);
+          t.setDaemon(true);
+          t.setName("[Standalone Ingress Pipeline #" + count.getAndIncrement() + "]");
+          return t;
+        }
+      });
+      this.pipelineExecutor.allowCoreThreadTimeOut(true);
+      this.pipelineThreads = new Semaphore(nthreads);
+    } else {
+      this.pipelineExecutor = null;
+      this.pipelineThreads = null;
+    }
+
+    int seriesCacheSize = Integer.parseInt(WarpConfig.getProperty(Configuration.INGRESS_SERIES_CACHE_SIZE, "0"));
+
+    // The cache is not used with a plugin as it could modify the series
+    if (seriesCacheSize > 0 && null == this.plugin) {
+      this.seriesCache = new SeriesCache(seriesCacheSize, this.classKeyLongs, this.labelsKeyLongs);
+    } else {
+      this.seriesCache = null;
+    }
   }
   
   @Override
@@ -459,6 +533,8 @@ public class StandaloneIngressHandler extends AbstractHandler {
       boolean hasDatapoints = false;
 
       boolean expose = false;
+      
+      StandaloneIngressPipeline pipeline = null;
           
       try {      
         if (null == producer || null == owner) {
@@ -499,13 +575,60 @@ public class StandaloneIngressHandler extends AbstractHandler {
           gzipped = true;
         }
         
-        BufferedReader br = null;
+        //
+        // Determine if content is a stream of wrappers
+        //
+        
+        boolean wrappers = GTSWrapperParser.CONTENT_TYPE.equals(request.getHeader("Content-Type"));
+        
+        GTSLineParser parser = null;
+        GTSWrapperParser wparser = null;
             
-        if (gzipped) {
+        if (wrappers) {
+          wparser = new GTSWrapperParser(request.getInputStream());
+          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_WRAPPERS, sensisionLabels, 1);
+        } else if (gzipped) {
           GZIPInputStream is = new GZIPInputStream(request.getInputStream());
-          br = new BufferedReader(new InputStreamReader(is));
+          parser = new GTSLineParser(is);
         } else {    
-          br = request.getReader();
+          parser = new GTSLineParser(request.getInputStream());
+        }
+
+        if (null != this.seriesCache && null != parser) {
+          parser.setSeriesCache(this.seriesCache, extraLabels);
+        }
+
+        //
+        // Register the Metadata and store the encoders in separate stages if
+        // the request asked for it
+        //
+
+        String parallelism = request.getHeader(Constants.getHeader(Configuration.HTTP_HEADER_UPDATE_PARALLELISM));
+
+        if (null != parallelism && this.pipelineMaxLanes > 0) {
+          int lanes;
+          try {
+            lanes = Integer.parseInt(parallelism.trim());
+          } catch (NumberFormatException nfe) {
+            httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
+            throw new IOException("Invalid parallelism.");
+          }
+
+          lanes = Math.min(lanes, this.pipelineMaxLanes);
+
+          //
+          // Use as many store lanes as there are free threads, plus one for registration,
+          // the request is processed inline if no two threads are free
+          //
+
+          while (lanes > 0 && !this.pipelineThreads.tryAcquire(lanes + 1)) {
+            lanes--;
+          }
+
+          if (lanes > 0) {
+            pipeline = new StandaloneIngressPipeline(this.pipelineExecutor, this.pipelineThreads, this.storeClient, this.directoryClient, lanes, this.pipelineQueueSize, nocache, nopersist);
+            Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_PIPELINED, sensisionLabels, 1);
+          }
         }
 
         //
@@ -715,7 +838,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
             }
             
             if (null != this.datalogPSK) {
-              encoded = CryptoUtils.wrap(this.datalogPSK, encoded);
+              encoded = CryptoUtils.wrap(this.datalogPSK, encoded, this.datalogPSKGCM);
             }
             
             encoded = OrderPreservingBase64.encode(encoded);
@@ -771,43 +894,43 @@ public class StandaloneIngressHandler extends AbstractHandler {
             hadAttributes.set(false);
           }
           
-          String line = br.readLine();
-          
-          if (null == line) {
+          if (null != wparser) {
+            try {
+              if (!wparser.next()) {
+                break;
+              }
+            } catch (IOException ioe) {
+              Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_PARSEERRORS, sensisionLabels, 1);
+              httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
+              throw ioe;
+            }
+          } else if (!parser.next()) {
+            // Empty lines and comments are skipped by the parser
             break;
           }
           
-          line = line.trim();
-          
-          if (0 == line.length()) {
-            continue;
-          }
-
-          //
-          // Ignore comments
-          //
-          
-          if ('#' == line.charAt(0)) {
-            continue;
-          }
-          
           //
           // Check for pushback
           // TODO(hbs): implement the actual push back if we are over the subscribed limit
           //
           
-          if (count % PUSHBACK_CHECK_INTERVAL == 0) {
+          if (count >= PUSHBACK_CHECK_INTERVAL) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_DATAPOINTS_RAW, sensisionLabels, count);
             total += count;
             count = 0;
           }
           
-          count++;
-
           try {
-            encoder = GTSHelper.parse(lastencoder, line, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes);
+            if (null != wparser) {
+              encoder = wparser.parse(extraLabels, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount);
+              count += encoder.getCount();
+            } else {
+              count++;
+              encoder = parser.parse(lastencoder, extraLabels, now, maxsize, hadAttributes, maxpast, maxfuture, ignoredCount, deltaAttributes);
+            }
             if (null != this.plugin) {
-              if (!this.plugin.update(this, writeToken, line, encoder)) {
+              // The line is null for wrappers
+              if (!this.plugin.update(this, writeToken, null != parser ? parser.getLine() : null, encoder)) {
                 hadAttributes.set(false);
                 continue;
               }
@@ -816,7 +939,10 @@ public class StandaloneIngressHandler extends AbstractHandler {
           } catch (ParseException pe) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_PARSEERRORS, sensisionLabels, 1);
             httpStatusCode = HttpServletResponse.SC_BAD_REQUEST;
-            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + line + "'", pe);
+            if (null != wparser) {
+              throw new IOException("Parse error in wrapper #" + wparser.getIndex() + ": " + pe.getMessage(), pe);
+            }
+            throw new IOException("Parse error at index " + pe.getErrorOffset() + " in '" + parser.getLine() + "'", pe);
           }
 
           if (encoder != lastencoder || lastencoder.size() > ENCODER_SIZE_THRESHOLD) {
@@ -828,8 +954,11 @@ public class StandaloneIngressHandler extends AbstractHandler {
             if (null != lastencoder) {
               
               // 128BITS
-              lastencoder.setClassId(GTSHelper.classId(ckl0, ckl1, lastencoder.getName()));
-              lastencoder.setLabelsId(GTSHelper.labelsId(lkl0, lkl1, lastencoder.getMetadata().getLabels()));
+              // The Ids are already set if the series was resolved by the series cache
+              if (null == this.seriesCache || !lastencoder.getMetadata().isSetClassId()) {
+                lastencoder.setClassId(GTSHelper.classId(ckl0, ckl1, lastencoder.getName()));
+                lastencoder.setLabelsId(GTSHelper.labelsId(lkl0, lkl1, lastencoder.getMetadata().getLabels()));
+              }
 
               try {
                 ThrottlingManager.checkMADS(lastencoder.getMetadata(), producer, owner, application, lastencoder.getClassId(), lastencoder.getLabelsId(), expose);
@@ -851,26 +980,51 @@ public class StandaloneIngressHandler extends AbstractHandler {
                 metadata.setLastActivity(lastActivity);
               }
               
-              this.directoryClient.register(metadata);
+              register(pipeline, metadata);
               
               // Extract shardkey 128BITS
               // Shard key is 48 bits, 24 upper from the class Id and 24 lower from the labels Id
-              shardkey =  (GTSHelper.classId(classKeyLongs, encoder.getMetadata().getName()) & 0xFFFFFF000000L) | (GTSHelper.labelsId(labelsKeyLongs, encoder.getMetadata().getLabels()) & 0xFFFFFFL);
+              if (null != this.seriesCache && encoder.getMetadata().isSetClassId()) {
+                shardkey =  (encoder.getClassId() & 0xFFFFFF000000L) | (encoder.getLabelsId() & 0xFFFFFFL);
+              } else {
+                shardkey =  (GTSHelper.classId(classKeyLongs, encoder.getMetadata().getName()) & 0xFFFFFF000000L) | (GTSHelper.labelsId(labelsKeyLongs, encoder.getMetadata().getLabels()) & 0xFFFFFFL);
+              }
             }
             
+            GTSEncoder continuation = null;
+            
             if (null != lastencoder) {
-              this.storeClient.store(lastencoder);
+              //
+              // Read what is needed from lastencoder before handing it over to the store,
+              // it may be stored by another thread when the request is pipelined
+              //
+              
+              Metadata meta = null;
               
               if (parseAttributes && lastHadAttributes) {
                 // We need to push lastencoder's metadata update as they were updated since the last
                 // metadata update message sent
-                Metadata meta = new Metadata(lastencoder.getMetadata());
+                meta = new Metadata(lastencoder.getMetadata());
                 if (deltaAttributes) {
                   meta.setSource(Configuration.INGRESS_METADATA_UPDATE_DELTA_ENDPOINT);                  
                 } else {
                   meta.setSource(Configuration.INGRESS_METADATA_UPDATE_ENDPOINT);
                 }
-                this.directoryClient.register(meta);
+              }
+              
+              if (encoder == lastencoder) {
+                //
+                // Allocate a new GTSEncoder with a copy of the Metadata so we can
+                // correctly handle a continuation line if this is what occurs next
+                //
+                continuation = new GTSEncoder(0L);
+                continuation.setMetadata(lastencoder.getMetadata());
+              }
+              
+              store(pipeline, lastencoder);
+              
+              if (null != meta) {
+                register(pipeline, meta);
                 lastHadAttributes = false;
               }
             }
@@ -880,15 +1034,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
               // This is the case when we just parsed either the first input line or one for a different
               // GTS than the previous one.
             } else {
-              //lastencoder = null
-              //
-              // Allocate a new GTSEncoder and reuse Metadata so we can
-              // correctly handle a continuation line if this is what occurs next
-              //
-              Metadata metadata = lastencoder.getMetadata();
-              lastencoder = new GTSEncoder(0L);
-              lastencoder.setMetadata(metadata);
-              
+              lastencoder = continuation;
               // This is the case when lastencoder and encoder are identical, but lastencoder was too big and needed
               // to be flushed
             }
@@ -899,21 +1045,32 @@ public class StandaloneIngressHandler extends AbstractHandler {
           //
           
           if (null != loggingWriter) {
-            if (this.logShardKey && '=' != line.charAt(0)) {
+            if (this.logShardKey && (null != wparser || !parser.isContinuation())) {
               loggingWriter.print("#K");
               loggingWriter.println(shardkey);
             }                         
-            loggingWriter.println(line);
+            if (null != wparser) {
+              // Wrappers are logged in the GTS input format so the datalog can be replayed by any instance
+              GTSHelper.dump(encoder, loggingWriter, encoder.getMetadata().getAttributesSize() > 0);
+            } else {
+              loggingWriter.println(parser.getLine());
+            }
             hasDatapoints = true;
           }
         } while (true); 
         
-        br.close();
+        if (null != wparser) {
+          wparser.close();
+        } else {
+          parser.close();
+        }
         
         if (null != lastencoder && lastencoder.size() > 0) {
           // 128BITS
-          lastencoder.setClassId(GTSHelper.classId(ckl0, ckl1, lastencoder.getName()));
-          lastencoder.setLabelsId(GTSHelper.labelsId(lkl0, lkl1, lastencoder.getMetadata().getLabels()));
+          if (null == this.seriesCache || !lastencoder.getMetadata().isSetClassId()) {
+            lastencoder.setClassId(GTSHelper.classId(ckl0, ckl1, lastencoder.getName()));
+            lastencoder.setLabelsId(GTSHelper.labelsId(lkl0, lkl1, lastencoder.getMetadata().getLabels()));
+          }
 
           try {
             ThrottlingManager.checkMADS(lastencoder.getMetadata(), producer, owner, application, lastencoder.getClassId(), lastencoder.getLabelsId(), expose);
@@ -923,26 +1080,47 @@ public class StandaloneIngressHandler extends AbstractHandler {
             throw we;
           }
 
-          this.storeClient.store(lastencoder);
+          Metadata meta = null;
           
           if (parseAttributes && lastHadAttributes) {
             // Push a metadata UPDATE message so attributes are stored
             // Build metadata object to push
-            Metadata meta = new Metadata(lastencoder.getMetadata());
+            meta = new Metadata(lastencoder.getMetadata());
             // Set source to indicate we
             if (deltaAttributes) {
               meta.setSource(Configuration.INGRESS_METADATA_UPDATE_DELTA_ENDPOINT);
             } else {
               meta.setSource(Configuration.INGRESS_METADATA_UPDATE_ENDPOINT);
             }
-            this.directoryClient.register(meta);
+          }
+          
+          store(pipeline, lastencoder);
+          
+          if (null != meta) {
+            register(pipeline, meta);
           }
         }        
         
+        //
+        // Wait for the pipeline to register and store what was submitted, rethrowing its errors
+        //
+        
+        if (null != pipeline) {
+          pipeline.close();
+        }
+        
         //
         // TODO(hbs): should we update the count in Sensision periodically so you can't trick the throttling mechanism?
         //
       } finally {
+        if (null != pipeline) {
+          // What was submitted before an error is still registered and stored, as it is without the pipeline
+          try {
+            pipeline.close();
+          } catch (Throwable t) {
+            // The error which interrupted the request is the one reported
+          }
+        }
         this.storeClient.store(null);
         this.directoryClient.register(null);
         Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_DATAPOINTS_RAW, sensisionLabels, count);
@@ -1003,6 +1181,22 @@ public class StandaloneIngressHandler extends AbstractHandler {
     }
   }
   
+  private void register(StandaloneIngressPipeline pipeline, Metadata metadata) throws IOException {
+    if (null != pipeline) {
+      pipeline.register(metadata);
+    } else {
+      this.directoryClient.register(metadata);
+    }
+  }
+  
+  private void store(StandaloneIngressPipeline pipeline, GTSEncoder encoder) throws IOException {
+    if (null != pipeline) {
+      pipeline.store(encoder);
+    } else {
+      this.storeClient.store(encoder);
+    }
+  }
+  
   /**
    * Handle Metadata updating
    */
@@ -1173,7 +1367,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
           }
           
           if (null != this.datalogPSK) {
-            encoded = CryptoUtils.wrap(this.datalogPSK, encoded);
+            encoded = CryptoUtils.wrap(this.datalogPSK, encoded, this.datalogPSKGCM);
           }
           
           encoded = OrderPreservingBase64.encode(encoded);
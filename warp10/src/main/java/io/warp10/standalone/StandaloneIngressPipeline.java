@@ -0,0 +1,332 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+/**
+ * Stages which register the Metadata and store the encoders produced by the parsing
+ * of an update request, so parsing is not slowed down by the storage layer.
+ *
+ * Metadata are registered by a single lane, in the order they were submitted. Encoders
+ * are dispatched to 'n' store lanes based on their class and labels Ids, so the encoders
+ * of a given series are always stored in the order they were submitted. An encoder is only
+ * stored once all the Metadata submitted before it were registered, so a series is always
+ * known to the directory before its datapoints are stored or published to Plasma.
+ *
+ * Lanes run on an executor shared by all the pipelines. The caller acquires one permit per
+ * lane (store lanes plus the registration lane) before creating the pipeline, each lane
+ * releases its permit when done, so lanes never wait for a thread.
+ *
+ * Each lane reads from a bounded queue, the submitting thread blocks when the queue is full.
+ * Once a lane has failed the pipeline stops processing what was submitted, the error is
+ * rethrown by the next call to 'register', 'store' or 'close'.
+ */
+public class StandaloneIngressPipeline {
+
+  private static final Object END = new Object();
+
+  private abstract class Lane implements Runnable {
+
+    private final ArrayBlockingQueue<Object> queue;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private Lane(int queueSize) {
+      this.queue = new ArrayBlockingQueue<Object>(queueSize);
+    }
+
+    @Override
+    public void run() {
+      // The accelerator flags are per thread, propagate those of the request
+      if (nocache) {
+        AcceleratorConfig.nocache();
+      } else {
+        AcceleratorConfig.cache();
+      }
+
+      if (nopersist) {
+        AcceleratorConfig.nopersist();
+      } else {
+        AcceleratorConfig.persist();
+      }
+
+      try {
+        while (true) {
+          Object item = this.queue.take();
+
+          if (END == item) {
+            break;
+          }
+
+          // Keep draining the queue after an error so the submitting thread does not block
+          if (null == error.get()) {
+            try {
+              process(item);
+            } catch (Throwable t) {
+              error.compareAndSet(null, t);
+            }
+          }
+
+          processed();
+        }
+      } catch (InterruptedException ie) {
+        error.compareAndSet(null, ie);
+      } finally {
+        // Flush the pending writes of this thread
+        try {
+          process(null);
+        } catch (Throwable t) {
+          error.compareAndSet(null, t);
+        }
+        finished();
+        this.done.countDown();
+        threads.release();
+      }
+    }
+
+    /**
+     * Process an item, null means flush
+     */
+    protected abstract void process(Object item) throws IOException;
+
+    /**
+     * Called once an item was processed or skipped
+     */
+    protected void processed() {}
+
+    /**
+     * Called once the lane has stopped processing items
+     */
+    protected void finished() {}
+
+    private void submit(Object item) throws IOException {
+      check();
+
+      try {
+        this.queue.put(item);
+      } catch (InterruptedException ie) {
+        throw new IOException("Interrupted while submitting to the ingestion pipeline.", ie);
+      }
+    }
+  }
+
+  /**
+   * Encoder submitted for storage along with the number of Metadata submitted before it
+   */
+  private static final class Store {
+    private final GTSEncoder encoder;
+    private final long registrations;
+
+    private Store(GTSEncoder encoder, long registrations) {
+      this.encoder = encoder;
+      this.registrations = registrations;
+    }
+  }
+
+  private final StoreClient storeClient;
+  private final StandaloneDirectoryClient directoryClient;
+
+  private final Semaphore threads;
+
+  private final boolean nocache;
+  private final boolean nopersist;
+
+  private final Lane registerLane;
+  private final Lane[] storeLanes;
+
+  private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+  /**
+   * Number of Metadata submitted for registration, only accessed by the submitting thread
+   */
+  private long submitted = 0L;
+
+  /**
+   * Number of Metadata registered (or skipped after an error), Long.MAX_VALUE once the
+   * registration lane is done. Store lanes wait on 'registeredLock' for it to increase.
+   */
+  private volatile long registered = 0L;
+
+  private final Object registeredLock = new Object();
+
+  private boolean closed = false;
+
+  /**
+   * @param executor Executor running the lanes
+   * @param threads Semaphore from which the caller acquired lanes + 1 permits, released by the lanes when done
+   * @param lanes Number of store lanes
+   * @param queueSize Number of items each lane can buffer
+   * @param nocache Accelerator 'nocache' flag of the request
+   * @param nopersist Accelerator 'nopersist' flag of the request
+   */
+  public StandaloneIngressPipeline(ExecutorService executor, Semaphore threads, StoreClient storeClient, StandaloneDirectoryClient directoryClient, int lanes, int queueSize, boolean nocache, boolean nopersist) {
+    this.storeClient = storeClient;
+    this.directoryClient = directoryClient;
+    this.threads = threads;
+    this.nocache = nocache;
+    this.nopersist = nopersist;
+
+    this.registerLane = new Lane(queueSize) {
+      @Override
+      protected void process(Object item) throws IOException {
+        StandaloneIngressPipeline.this.directoryClient.register((Metadata) item);
+      }
+
+      @Override
+      protected void processed() {
+        synchronized (registeredLock) {
+          registered++;
+          registeredLock.notifyAll();
+        }
+      }
+
+      @Override
+      protected void finished() {
+        // Never block the store lanes once registration has stopped
+        synchronized (registeredLock) {
+          registered = Long.MAX_VALUE;
+          registeredLock.notifyAll();
+        }
+      }
+    };
+
+    this.storeLanes = new Lane[lanes];
+
+    for (int i = 0; i < lanes; i++) {
+      this.storeLanes[i] = new Lane(queueSize) {
+        @Override
+        protected void process(Object item) throws IOException {
+          if (null == item) {
+            StandaloneIngressPipeline.this.storeClient.store(null);
+            return;
+          }
+
+          Store store = (Store) item;
+
+          awaitRegistrations(store.registrations);
+
+          // The registration of the series failed, do not store its datapoints
+          if (null != error.get()) {
+            return;
+          }
+
+          StandaloneIngressPipeline.this.storeClient.store(store.encoder);
+        }
+      };
+    }
+
+    executor.execute(this.registerLane);
+
+    for (int i = 0; i < lanes; i++) {
+      executor.execute(this.storeLanes[i]);
+    }
+  }
+
+  /**
+   * Wait until 'n' Metadata were registered
+   */
+  private void awaitRegistrations(long n) throws IOException {
+    if (this.registered >= n) {
+      return;
+    }
+
+    synchronized (this.registeredLock) {
+      while (this.registered < n) {
+        try {
+          this.registeredLock.wait();
+        } catch (InterruptedException ie) {
+          throw new IOException("Interrupted while waiting for Metadata registration.", ie);
+        }
+      }
+    }
+  }
+
+  /**
+   * Submit Metadata for registration
+   */
+  public void register(Metadata metadata) throws IOException {
+    this.registerLane.submit(metadata);
+    this.submitted++;
+  }
+
+  /**
+   * Submit an encoder to store once the Metadata submitted so far are registered.
+   * The encoder MUST NOT be accessed afterwards, not even read.
+   */
+  public void store(GTSEncoder encoder) throws IOException {
+    long hash = encoder.getClassId() * 31L + encoder.getLabelsId();
+    hash ^= hash >>> 32;
+    this.storeLanes[(int) ((hash & 0x7FFFFFFFL) % this.storeLanes.length)].submit(new Store(encoder, this.submitted));
+  }
+
+  private void check() throws IOException {
+    Throwable t = this.error.get();
+
+    if (null == t) {
+      return;
+    }
+
+    if (t instanceof IOException) {
+      throw (IOException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else {
+      throw new IOException(t);
+    }
+  }
+
+  /**
+   * Wait for the lanes to process what was submitted and flush their pending writes.
+   * Rethrows the first error encountered by the lanes. Calling close more than once
+   * has no effect.
+   */
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+
+    try {
+      this.registerLane.queue.put(END);
+      for (Lane lane: this.storeLanes) {
+        lane.queue.put(END);
+      }
+
+      this.registerLane.done.await();
+      for (Lane lane: this.storeLanes) {
+        lane.done.await();
+      }
+    } catch (InterruptedException ie) {
+      throw new IOException("Interrupted while waiting for the ingestion pipeline.", ie);
+    }
+
+    check();
+  }
+}
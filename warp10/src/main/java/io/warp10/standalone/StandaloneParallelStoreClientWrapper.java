@@ -44,7 +44,9 @@ public class StandaloneParallelStoreClientWrapper implements StoreClient {
   
   @Override
   public GTSDecoderIterator fetch(FetchRequest req) throws IOException {
-    if (req.isParallelScanners() && ParallelGTSDecoderIteratorWrapper.useParallelScanners()) {
+    if (req.isParallelScanners() && PartitionedGTSDecoderIterator.usePartitions(req.getMetadatasSize())) {
+      return new PartitionedGTSDecoderIterator(parent, req);
+    } else if (req.isParallelScanners() && ParallelGTSDecoderIteratorWrapper.useParallelScanners()) {
       return new ParallelGTSDecoderIteratorWrapper(parent, req);
     } else {
       return parent.fetch(req);
@@ -46,6 +46,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -57,9 +58,12 @@ import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 
 import javax.servlet.ServletException;
@@ -83,7 +87,16 @@ import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
 import com.geoxp.GeoXPLib;
-public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements Runnable, StandalonePlasmaHandlerInterface {
+
+/**
+ * Plasma websocket endpoint.
+ *
+ * Publishing does not block on the sessions. The subscribers of each series are looked up in an
+ * index updated series by series on subscription changes, the data is then queued in a bounded queue per session
+ * which is drained by a pool of dispatcher threads. When the queue of a session is full the data is
+ * either dropped or the publisher waits for a configurable time.
+ */
+public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements StandalonePlasmaHandlerInterface {
   
   private enum OUTPUT_FORMAT {
     RAW,
@@ -102,7 +115,87 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
   
   private byte[] metadataKey;
   
-  private LinkedBlockingQueue<GTSEncoder> encoders = new LinkedBlockingQueue<GTSEncoder>(256);
+  /**
+   * Maximum number of publications queued per session
+   */
+  private final int queueSize;
+  
+  /**
+   * Number of ms a publisher waits when the queue of a session is full, 0 means the data is dropped
+   */
+  private final long queueWait;
+  
+  /**
+   * Number of publications a dispatcher sends to a session before moving to another one
+   */
+  private static final int DISPATCH_BATCH = 64;
+  
+  /**
+   * Threads sending the queued publications to the sessions
+   */
+  private final ExecutorService dispatchers;
+  
+  /**
+   * Total number of queued publications
+   */
+  private final AtomicLong queued = new AtomicLong(0L);
+  
+  /**
+   * Subscribers of a series
+   */
+  private static final class Subscribers {
+    private final Metadata metadata;
+    private final Session[] sessions;
+    
+    private Subscribers(Metadata metadata, Session[] sessions) {
+      this.metadata = metadata;
+      this.sessions = sessions;
+    }
+  }
+  
+  /**
+   * Data published for a series, shared by all the sessions it is sent to
+   */
+  private static final class Publication {
+    private final GTSEncoder encoder;
+    private final Metadata metadata;
+    
+    // String representations of the Metadata, computed on first use
+    private volatile String meta = null;
+    private volatile String exposedMeta = null;
+    
+    private Publication(GTSEncoder encoder, Metadata metadata) {
+      this.encoder = encoder;
+      this.metadata = metadata;
+    }
+    
+    private String getMeta(boolean expose) {
+      String str = expose ? this.exposedMeta : this.meta;
+      
+      if (null == str) {
+        StringBuilder sb = new StringBuilder();
+        GTSHelper.metadataToString(sb, this.metadata.getName(), this.metadata.getLabels(), expose);
+        str = sb.toString();
+        if (expose) {
+          this.exposedMeta = str;
+        } else {
+          this.meta = str;
+        }
+      }
+      
+      return str;
+    }
+  }
+  
+  /**
+   * Outbox of each session with subscriptions
+   */
+  private final Map<Session, PlasmaOutbox<Publication>> outboxes = new ConcurrentHashMap<Session, PlasmaOutbox<Publication>>();
+  
+  /**
+   * Subscribers per series, modified with the lock held
+   */
+  private final PlasmaSubscriptionIndex<Subscribers> index = new PlasmaSubscriptionIndex<Subscribers>();
   
   /**
    * Map of classId+labelsId to Metadata
@@ -122,17 +215,17 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
   /**
    * Map of Session to output format
    */
-  private Map<Session, OUTPUT_FORMAT> outputFormat = new HashMap<Session, OUTPUT_FORMAT>();
+  private Map<Session, OUTPUT_FORMAT> outputFormat = new ConcurrentHashMap<Session, OUTPUT_FORMAT>();
   
   /**
    * Mp of Session to sample rate
    */
-  private Map<Session, Long> sampleRate = new HashMap<Session, Long>();
+  private Map<Session, Long> sampleRate = new ConcurrentHashMap<Session, Long>();
   
   /**
    * Map of Session flag to expose owner/producer, based on the tokens used
    */
-  private Map<Session, Boolean> exposeOwnerProducer = new HashMap<Session, Boolean>();
+  private Map<Session, Boolean> exposeOwnerProducer = new ConcurrentHashMap<Session, Boolean>();
   
   /**
    * Number of 
@@ -336,10 +429,6 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
   }
   
   public StandalonePlasmaHandler(KeyStore keystore, Properties properties, DirectoryClient directoryClient) {
-    this(keystore, properties, directoryClient, true);
-  }
-  
-  public StandalonePlasmaHandler(KeyStore keystore, Properties properties, DirectoryClient directoryClient, boolean startThread) {
     super(StandalonePlasmaWebSocket.class);
     
     this.keystore = keystore;
@@ -352,12 +441,21 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
     }
     this.metadataKey = keystore.getKey(KeyStore.AES_KAFKA_METADATA);
     
-    if (startThread) {
-      Thread t = new Thread(this);
-      t.setDaemon(true);
-      t.setName("[StandalonePlasmaHandler]");
-      t.start();      
-    }
+    this.queueSize = Integer.parseInt(properties.getProperty(Configuration.WARP_PLASMA_QUEUE_SIZE, Integer.toString(Constants.WARP_PLASMA_QUEUE_SIZE_DEFAULT)));
+    this.queueWait = Long.parseLong(properties.getProperty(Configuration.WARP_PLASMA_QUEUE_WAIT, "0"));
+    
+    int ndispatchers = Integer.parseInt(properties.getProperty(Configuration.WARP_PLASMA_DISPATCHERS, Integer.toString(Constants.WARP_PLASMA_DISPATCHERS_DEFAULT)));
+    
+    this.dispatchers = Executors.newFixedThreadPool(ndispatchers, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger(0);
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        t.setName("[StandalonePlasmaHandler Dispatcher #" + count.getAndIncrement() + "]");
+        return t;
+      }
+    });
   }
 
   public void setDirectoryClient(DirectoryClient directoryClient) {
@@ -423,6 +521,10 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
       this.subscriptions.put(session, new HashSet<BigInteger>());
     }
     
+    if (!this.outboxes.containsKey(session)) {
+      this.outboxes.put(session, newOutbox(session));
+    }
+    
     for (Metadata metadata: metadatas) {
       bb.rewind();
       bb.putLong(metadata.getClassId());
@@ -447,6 +549,10 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
       if (!subscriptions.get(session).contains(id)) {
         subscriptions.get(session).add(id);
         this.refcounts.get(id).addAndGet(1);
+        addSubscriber(session, metadata);
+      } else {
+        // Refresh the Metadata of the series
+        addSubscriber(null, metadata);
       }
       hasclients = true;
     }
@@ -479,6 +585,7 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
 
       if (subscriptions.get(session).contains(id)) {
         subscriptions.get(session).remove(id);
+        removeSubscriber(session, metadata.getClassId(), metadata.getLabelsId());
         if (0 == this.refcounts.get(id).addAndGet(-1)) {
           this.metadatas.remove(id);
           this.refcounts.remove(id);
@@ -490,6 +597,76 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
       this.subscriptionListener.onChange();
     }
   }
+  
+  /**
+   * Add a session to the subscribers of a series, or only update its Metadata if 'session' is null.
+   * Only the entry of the series is copied. Must be called with the lock held.
+   */
+  private void addSubscriber(Session session, Metadata metadata) {
+    Subscribers subscribers = this.index.get(metadata.getClassId(), metadata.getLabelsId());
+    
+    Session[] sessions;
+    
+    if (null == subscribers) {
+      if (null == session) {
+        return;
+      }
+      sessions = new Session[] { session };
+    } else if (null == session) {
+      sessions = subscribers.sessions;
+    } else {
+      sessions = Arrays.copyOf(subscribers.sessions, subscribers.sessions.length + 1);
+      sessions[sessions.length - 1] = session;
+    }
+    
+    this.index.put(metadata.getClassId(), metadata.getLabelsId(), new Subscribers(metadata, sessions));
+  }
+  
+  /**
+   * Remove a session from the subscribers of a series, must be called with the lock held
+   */
+  private void removeSubscriber(Session session, long classId, long labelsId) {
+    Subscribers subscribers = this.index.get(classId, labelsId);
+    
+    if (null == subscribers) {
+      return;
+    }
+    
+    Session[] sessions = new Session[subscribers.sessions.length - 1];
+    
+    int i = 0;
+    
+    for (Session s: subscribers.sessions) {
+      if (s == session) {
+        continue;
+      }
+      // The session was not a subscriber
+      if (i == sessions.length) {
+        return;
+      }
+      sessions[i++] = s;
+    }
+    
+    if (0 == sessions.length) {
+      this.index.remove(classId, labelsId);
+    } else {
+      this.index.put(classId, labelsId, new Subscribers(subscribers.metadata, sessions));
+    }
+  }
+  
+  private PlasmaOutbox<Publication> newOutbox(final Session session) {
+    PlasmaOutbox.Sender<Publication> sender = new PlasmaOutbox.Sender<Publication>() {
+      @Override
+      public void send(Publication publication) throws IOException {
+        try {
+          StandalonePlasmaHandler.this.send(session, publication);
+        } catch (WebSocketException wse) {
+        }
+      }
+    };
+    
+    return new PlasmaOutbox<Publication>(sender, this.queueSize, this.queueWait, DISPATCH_BATCH, this.dispatchers, this.queued);
+  }
 
   public void setSubscriptionListener(PlasmaSubscriptionListener listener) {
     this.subscriptionListener = listener;
@@ -497,9 +674,14 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
   
   private synchronized void deregister(Session session) {    
     clearSubscriptions(session);
+    PlasmaOutbox<Publication> outbox = this.outboxes.remove(session);
+    if (null != outbox) {
+      outbox.clear();
+    }
     this.format.remove(session);
     this.sampleRate.remove(session);
     this.exposeOwnerProducer.remove(session);
+    this.outputFormat.remove(session);
   }
   
   private synchronized void clearSubscriptions(Session session) {
@@ -513,6 +695,8 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
       Set<BigInteger> ids = this.subscriptions.get(session);
       this.subscriptions.remove(session);
       for (BigInteger id: ids) {
+        // 128BITS
+        removeSubscriber(session, id.shiftRight(64).longValue(), id.longValue());
         if (0 == this.refcounts.get(id).addAndGet(-1)) {
           // FIXME(hbs): we need to ensure refcount is not incremented by another thread, otherwise
           // we may remove some Metadata even though another client just subscribed to it
@@ -555,11 +739,9 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
   }
   
   public void publish(GTSEncoder encoder) {
-    try {      
-      // FIXME(hbs): this will block the pushing of data
-      this.encoders.offer(encoder, 1000L, TimeUnit.SECONDS);
-    } catch (InterruptedException ie) {
-      // FIXME(hbs): Sensision metrics
+    try {
+      dispatch(encoder);
+    } catch (IOException ioe) {
     }
   }
   
@@ -568,257 +750,241 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
     return hasclients;
   }
   
-  //
-  // FIXME(hbs): dispatch will forward a given encoder to every single session which subscribed to it
-  // This is done in the Kafka consuming thread. It might be a good idea to add some loosely coupled
-  // logic in this by having a set of threads doing the actual dispatch.
-  // Or maybe first add a metric to know how many different sessions were targeted
-  //
-  
+  /**
+   * Queue an encoder for the sessions which subscribed to its series. This does not
+   * block unless a queue is full and a wait was configured.
+   */
   protected void dispatch(GTSEncoder encoder) throws IOException {
         
     long nano = System.nanoTime();
     
     Sensision.update(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_CALLS, Sensision.EMPTY_LABELS, 1);
     
-    // 128BITS
-    byte[] bytes = new byte[16];
-    ByteBuffer bb = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
-    bb.putLong(encoder.getClassId());
-    bb.putLong(encoder.getLabelsId());
+    Subscribers subscribers = this.index.get(encoder.getClassId(), encoder.getLabelsId());
     
-    BigInteger id = new BigInteger(bytes);
+    if (null == subscribers) {
+      return;
+    }
     
-    AtomicInteger count = refcounts.get(id);
+    Publication publication = new Publication(encoder, subscribers.metadata);
     
-    if (null == count) {
-      return;
+    for (Session session: subscribers.sessions) {
+      
+      //
+      // We might have missed the close of a session, we get a chance to correct that here
+      // FIXME(hbs): if we missed a close it's probably a bug though!
+      //
+      
+      if (!session.isOpen()) {
+        deregister(session);
+        continue;
+      }
+      
+      PlasmaOutbox<Publication> outbox = this.outboxes.get(session);
+      
+      // The session was deregistered after the index was read
+      if (null == outbox) {
+        continue;
+      }
+      
+      Sensision.update(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_SESSIONS, Sensision.EMPTY_LABELS, 1);
+      
+      outbox.offer(publication);
     }
-       
-    int refcount = count.get();
     
-    if (refcount > 0) {
+    Sensision.set(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_QUEUED, Sensision.EMPTY_LABELS, this.queued.get());
+    
+    nano = System.nanoTime() - nano;
+    
+    Sensision.update(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_TIME_US, Sensision.EMPTY_LABELS, nano/1000L);
+  }
+  
+  /**
+   * Send a publication to a session, called by the dispatchers
+   */
+  private void send(Session session, Publication publication) throws IOException {
+    
+    GTSEncoder encoder = publication.encoder;
+    Metadata metadata = publication.metadata;
+    
+    long maxmessagesize = Math.min(this.getWebSocketFactory().getPolicy().getMaxTextMessageSize(), this.getWebSocketFactory().getPolicy().getMaxBinaryMessageSize());
+    
+    StringBuilder sb = new StringBuilder();
+    
+    OUTPUT_FORMAT format = getOutputFormat(session);
+    boolean exposeOwnerProducer = getExposeOwnerProducer(session);
+    
+    if (OUTPUT_FORMAT.RAW.equals(format)) {
+      sb.append(encoder.getBaseTimestamp());
+      sb.append("// ");
       
-      long maxmessagesize = Math.min(this.getWebSocketFactory().getPolicy().getMaxTextMessageSize(), this.getWebSocketFactory().getPolicy().getMaxBinaryMessageSize());
+      TSerializer tserializer = new TSerializer(new TCompactProtocol.Factory());
       
-      StringBuilder metasb = new StringBuilder();
-      StringBuilder exposedmetasb = new StringBuilder();
-      StringBuilder sb = new StringBuilder();
+      try {
+        byte[] serialized = tserializer.serialize(metadata);
 
-      Metadata metadata = this.metadatas.get(id);
+        // FIXME(hbs): should we use a specific key?
+        // FIXME(hbs): create chunks so we stay below maxmessagesize
+        byte[] encrypted = CryptoUtils.wrap(this.metadataKey, serialized);
+        sb.append(new String(OrderPreservingBase64.encode(encrypted), StandardCharsets.US_ASCII));
+        sb.append(":");              
+        sb.append(new String(OrderPreservingBase64.encode(encoder.getBytes()), StandardCharsets.US_ASCII));
+        
+        session.getRemote().sendStringByFuture(sb.toString());                
+      } catch (TException te) {
+        // Oh well, skip it!
+      }
+      
+      return;
+    } else if (OUTPUT_FORMAT.WRAPPER.equals(format)) {
+      // The encoder is shared by the sessions, work on a copy of the Metadata
+      Metadata meta = new Metadata(metadata);
+      
+      //
+      // Remove producer/owner
+      //
+      
+      if (!Constants.EXPOSE_OWNER_PRODUCER && !exposeOwnerProducer) {
+        meta.getLabels().remove(Constants.PRODUCER_LABEL);
+        meta.getLabels().remove(Constants.OWNER_LABEL);                
+      }
 
-      if (null == metadata) {
-        return;
+      // Compress with two pass max
+      GTSWrapper wrapper = GTSWrapperHelper.fromGTSEncoderToGTSWrapper(encoder, true, GTSWrapperHelper.DEFAULT_COMP_RATIO_THRESHOLD, 2);
+      wrapper.setMetadata(meta);
+      
+      TSerializer tserializer = new TSerializer(new TCompactProtocol.Factory());
+      
+      try {
+        byte[] serialized = tserializer.serialize(wrapper);
+
+        sb.setLength(0);
+        sb.append(new String(OrderPreservingBase64.encode(serialized), StandardCharsets.US_ASCII));
+        
+        session.getRemote().sendStringByFuture(sb.toString());                
+      } catch (TException te) {
+        // Oh well, skip it!
       }
+
+      return;
+    }
     
-      GTSHelper.metadataToString(metasb, metadata.getName(), metadata.getLabels(), false);
-      GTSHelper.metadataToString(exposedmetasb, metadata.getName(), metadata.getLabels(), true);
+    String curmeta = publication.getMeta(exposeOwnerProducer);
+    
+    GTSDecoder decoder = encoder.getDecoder();
+              
+    boolean first = true;
+                
+    double rate = getSampleRate(session);
+    
+    long budget = maxmessagesize;
+    
+    //
+    // Reset StringBuilder
+    //
+    
+    sb.setLength(0);
+    
+    while(decoder.next()) {
       
-      Set<Entry<Session, Set<BigInteger>>> subs = subscriptions.entrySet();
+      if (1.0D != rate && random.nextDouble() > rate) {
+        continue;
+      }
       
-      for (Entry<Session, Set<BigInteger>> entry: subs) {
+      if (OUTPUT_FORMAT.JSON.equals(format)) {
+        Map<String,Object> json = new HashMap<String,Object>();
+            
+        HashMap<String,String> labels = new HashMap<String,String>();
+
+        json.put("c", metadata.getName());
+        
+        labels.putAll(metadata.getLabels());
         
         //
-        // We might have missed the close of a session, we get a chance to correct that here
-        // FIXME(hbs): if we missed a close it's probably a bug though!
+        // Remove PRODUCER/OWNER
         //
         
-        if (!entry.getKey().isOpen()) {
-          deregister(entry.getKey());
-          continue;
+        if (!Constants.EXPOSE_OWNER_PRODUCER && !exposeOwnerProducer) {
+          labels.remove(Constants.PRODUCER_LABEL);
+          labels.remove(Constants.OWNER_LABEL);
         }
         
-        try {
-          if (entry.getValue().contains(id)) {
-            Sensision.update(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_SESSIONS, Sensision.EMPTY_LABELS, 1);
-            OUTPUT_FORMAT format = getOutputFormat(entry.getKey());
-            boolean exposeOwnerProducer = getExposeOwnerProducer(entry.getKey());
-            StringBuilder curmetasb = exposeOwnerProducer ? exposedmetasb : metasb;
-            
-            if (OUTPUT_FORMAT.RAW.equals(format)) {
-              sb.setLength(0);
-              
-              sb.append(encoder.getBaseTimestamp());
-              sb.append("// ");
-              
-              TSerializer tserializer = new TSerializer(new TCompactProtocol.Factory());
-              
-              try {
-                byte[] serialized = tserializer.serialize(metadata);
-
-                // FIXME(hbs): should we use a specific key?
-                // FIXME(hbs): create chunks so we stay below maxmessagesize
-                byte[] encrypted = CryptoUtils.wrap(this.metadataKey, serialized);
-                sb.append(new String(OrderPreservingBase64.encode(encrypted), StandardCharsets.US_ASCII));
-                sb.append(":");              
-                sb.append(new String(OrderPreservingBase64.encode(encoder.getBytes()), StandardCharsets.US_ASCII));
-                
-                entry.getKey().getRemote().sendStringByFuture(sb.toString());                
-              } catch (TException te) {
-                // Oh well, skip it!
-              }
-              
-              continue;
-            } else if (OUTPUT_FORMAT.WRAPPER.equals(format)) {
-              encoder.setMetadata(metadata);
-              
-              //
-              // Remove producer/owner
-              //
-              
-              if (!Constants.EXPOSE_OWNER_PRODUCER && !exposeOwnerProducer) {
-                encoder.getMetadata().getLabels().remove(Constants.PRODUCER_LABEL);
-                encoder.getMetadata().getLabels().remove(Constants.OWNER_LABEL);                
-              }
-
-              // Compress with two pass max
-              GTSWrapper wrapper = GTSWrapperHelper.fromGTSEncoderToGTSWrapper(encoder, true, GTSWrapperHelper.DEFAULT_COMP_RATIO_THRESHOLD, 2);
-              
-              TSerializer tserializer = new TSerializer(new TCompactProtocol.Factory());
-              
-              try {
-                byte[] serialized = tserializer.serialize(wrapper);
-
-                sb.setLength(0);
-                sb.append(new String(OrderPreservingBase64.encode(serialized), StandardCharsets.US_ASCII));
-                
-                entry.getKey().getRemote().sendStringByFuture(sb.toString());                
-              } catch (TException te) {
-                // Oh well, skip it!
-              }
-
-              continue;
-            }
-            
-            GTSDecoder decoder = encoder.getDecoder();
-                      
-            boolean first = true;
-                        
-            double rate = getSampleRate(entry.getKey());
-            
-            long budget = maxmessagesize;
-            
-            //
-            // Reset StringBuilder
-            //
-            
-            sb.setLength(0);
-            
-            while(decoder.next()) {
-              
-              if (1.0D != rate && random.nextDouble() > rate) {
-                continue;
-              }
-              
-              if (OUTPUT_FORMAT.JSON.equals(format)) {
-                Map<String,Object> json = new HashMap<String,Object>();
-                    
-                HashMap<String,String> labels = new HashMap<String,String>();
-
-                json.put("c", metadata.getName());
-                
-                labels.putAll(metadata.getLabels());
-                
-                //
-                // Remove PRODUCER/OWNER
-                //
-                
-                if (!Constants.EXPOSE_OWNER_PRODUCER && !exposeOwnerProducer) {
-                  labels.remove(Constants.PRODUCER_LABEL);
-                  labels.remove(Constants.OWNER_LABEL);
-                }
-                
-                json.put("l", labels);              
-                
-                json.put("t", decoder.getTimestamp());
-                // Requested format is JSON so we do not use getBinaryValue as JSON cannot represent byte arrays
-                json.put("v", decoder.getValue());
-                if (GeoTimeSerie.NO_LOCATION != decoder.getLocation()) {
-                  double[] latlon = GeoXPLib.fromGeoXPPoint(decoder.getLocation());
-                  json.put("lat", latlon[0]);
-                  json.put("lon", latlon[1]);
-                }
-                if (GeoTimeSerie.NO_ELEVATION != decoder.getElevation()) {
-                  json.put("elev", decoder.getElevation());
-                }
-                
-                if (first) {
-                  sb.append("[");
-                } else {
-                  sb.append(",");                
-                }
-                sb.append(JsonUtils.objectToJson(json));
-                
-                first = false;
-              } else {
-                
-                if (!first && OUTPUT_FORMAT.TEXT.equals(format)) {
-                  sb.append("=");
-                }
-                
-                sb.append(decoder.getTimestamp());
-                sb.append("/");
-                if (GeoTimeSerie.NO_LOCATION != decoder.getLocation()) {
-                  double[] latlon = GeoXPLib.fromGeoXPPoint(decoder.getLocation());
-                  sb.append(latlon[0]);
-                  sb.append(":");
-                  sb.append(latlon[1]);
-                }
-                sb.append("/");
-                if (GeoTimeSerie.NO_ELEVATION != decoder.getElevation()) {
-                  sb.append(decoder.getElevation());
-                }
-                sb.append(" ");
-                if (first || !OUTPUT_FORMAT.TEXT.equals(format)) {
-                  sb.append(curmetasb);
-                  sb.append(" ");
-                }
-                GTSHelper.encodeValue(sb, decoder.getBinaryValue());
-                sb.append("\n");
-                first = false;
-              }
-              
-              //
-              // If we've reached 90% of the max message size, flush the current message
-              // FIXME(hbs): we really should check beforehand that we will not overflow the buffer.
-              // With specially crafted content (String values) we could overflow the message size.
-              // Given we're in a try/catch we would simply ignore the message, but still...
-              //
-              
-              if (sb.length() > 0.9 * maxmessagesize) {
-                if (OUTPUT_FORMAT.JSON.equals(format) && sb.length() > 0) {
-                  sb.append("]");
-                }
-
-                entry.getKey().getRemote().sendStringByFuture(sb.toString());
-                sb.setLength(0);
-                first = true;
-              }
-            }
-            
-            if (OUTPUT_FORMAT.JSON.equals(format) && sb.length() > 0) {
-              sb.append("]");
-            }
-
-            if (sb.length() > 0) {
-              entry.getKey().getRemote().sendStringByFuture(sb.toString());
-              sb.setLength(0);              
-            }
-            
-            refcount--;
-            
-            if (0 == refcount) {
-              break;
-            }
-          }          
-        } catch (WebSocketException wse) {          
+        json.put("l", labels);              
+        
+        json.put("t", decoder.getTimestamp());
+        // Requested format is JSON so we do not use getBinaryValue as JSON cannot represent byte arrays
+        json.put("v", decoder.getValue());
+        if (GeoTimeSerie.NO_LOCATION != decoder.getLocation()) {
+          double[] latlon = GeoXPLib.fromGeoXPPoint(decoder.getLocation());
+          json.put("lat", latlon[0]);
+          json.put("lon", latlon[1]);
+        }
+        if (GeoTimeSerie.NO_ELEVATION != decoder.getElevation()) {
+          json.put("elev", decoder.getElevation());
+        }
+        
+        if (first) {
+          sb.append("[");
+        } else {
+          sb.append(",");                
+        }
+        sb.append(JsonUtils.objectToJson(json));
+        
+        first = false;
+      } else {
+        
+        if (!first && OUTPUT_FORMAT.TEXT.equals(format)) {
+          sb.append("=");
+        }
+        
+        sb.append(decoder.getTimestamp());
+        sb.append("/");
+        if (GeoTimeSerie.NO_LOCATION != decoder.getLocation()) {
+          double[] latlon = GeoXPLib.fromGeoXPPoint(decoder.getLocation());
+          sb.append(latlon[0]);
+          sb.append(":");
+          sb.append(latlon[1]);
+        }
+        sb.append("/");
+        if (GeoTimeSerie.NO_ELEVATION != decoder.getElevation()) {
+          sb.append(decoder.getElevation());
+        }
+        sb.append(" ");
+        if (first || !OUTPUT_FORMAT.TEXT.equals(format)) {
+          sb.append(curmeta);
+          sb.append(" ");
+        }
+        GTSHelper.encodeValue(sb, decoder.getBinaryValue());
+        sb.append("\n");
+        first = false;
+      }
+      
+      //
+      // If we've reached 90% of the max message size, flush the current message
+      // FIXME(hbs): we really should check beforehand that we will not overflow the buffer.
+      // With specially crafted content (String values) we could overflow the message size.
+      // Given we're in a try/catch we would simply ignore the message, but still...
+      //
+      
+      if (sb.length() > 0.9 * maxmessagesize) {
+        if (OUTPUT_FORMAT.JSON.equals(format) && sb.length() > 0) {
+          sb.append("]");
         }
-      }      
+
+        session.getRemote().sendStringByFuture(sb.toString());
+        sb.setLength(0);
+        first = true;
+      }
     }
     
-    nano = System.nanoTime() - nano;
-    
-    Sensision.update(SensisionConstants.SENSISION_CLASS_PLASMA_FRONTEND_DISPATCH_TIME_US, Sensision.EMPTY_LABELS, nano/1000L);
+    if (OUTPUT_FORMAT.JSON.equals(format) && sb.length() > 0) {
+      sb.append("]");
+    }
+
+    if (sb.length() > 0) {
+      session.getRemote().sendStringByFuture(sb.toString());
+      sb.setLength(0);              
+    }
   }
   
   /**
@@ -851,8 +1017,10 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
   }
   
   private OUTPUT_FORMAT getOutputFormat(Session session) {
-    if (this.outputFormat.containsKey(session)) {
-      return this.outputFormat.get(session);
+    OUTPUT_FORMAT format = this.outputFormat.get(session);
+    
+    if (null != format) {
+      return format;
     } else {
       return OUTPUT_FORMAT.TEXT;
     }
@@ -866,40 +1034,14 @@ public class StandalonePlasmaHandler extends WebSocketHandler.Simple implements
     this.sampleRate.put(session, Double.doubleToLongBits(rate));
   }
   
-  private synchronized double getSampleRate(Session session) {
-    if (!this.sampleRate.containsKey(session)) {
+  private double getSampleRate(Session session) {
+    Long rate = this.sampleRate.get(session);
+    
+    if (null == rate) {
       return 1.0D;
     } else {
-      return Double.longBitsToDouble(this.sampleRate.get(session));
+      return Double.longBitsToDouble(rate);
     }
   }
-  
-  @Override
-  public void run() {
-    while (true) {
-      try {
-        GTSEncoder encoder = this.encoders.poll(Long.MAX_VALUE, TimeUnit.DAYS);
-        
-        if (null == encoder) {
-          continue;
-        }
 
-        // TODO(hbs): have several threads actually do the dispatch so we
-        // speed things up? We might need to synchronize things so encoders are
-        // pushed in the order they arrived to every client. For this we can dispatch
-        // encoders using a partitioning scheme based on a modulus of the classId and/or labelsId
-        // so encoders for the same GTS will be delivered by the same thread, but this would cause
-        // heavily subscribed GTS to be served by a single Thread, which may cause performance
-        // problems
-        //
-        // Or use 'Disruptor' or 'Chronicle' or 'BigQueue' from the HFT world?
-        
-        dispatch(encoder);
-      } catch (IOException ioe) {
-        // FIXME(hbs): sensision metric
-      } catch (InterruptedException ie) {        
-      }
-    }
-  }
-  
 }
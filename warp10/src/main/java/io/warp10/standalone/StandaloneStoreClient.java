@@ -44,10 +44,12 @@ import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.MetadataIdComparator;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.FetchStats;
 import io.warp10.continuum.store.GTSDecoderIterator;
 import io.warp10.continuum.store.StoreClient;
 import io.warp10.continuum.store.thrift.data.FetchRequest;
 import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.CryptoUtils;
 import io.warp10.crypto.KeyStore;
 import io.warp10.quasar.token.thrift.data.ReadToken;
 import io.warp10.quasar.token.thrift.data.WriteToken;
@@ -74,6 +76,11 @@ public class StandaloneStoreClient implements StoreClient {
   private final boolean syncwrites;
   private final double syncrate;
   private final int blockcacheThreshold;
+
+  /**
+   * Should datapoints be encrypted using AES-GCM
+   */
+  private final boolean aesGCM;
   
   public StandaloneStoreClient(WarpDB db, KeyStore keystore, Properties properties) {
     this.db = db;
@@ -85,6 +92,8 @@ public class StandaloneStoreClient implements StoreClient {
     
     syncrate = Math.min(1.0D, Math.max(0.0D, Double.parseDouble(properties.getProperty(Configuration.LEVELDB_DATA_SYNCRATE, "1.0"))));
     syncwrites = 0.0 < syncrate && syncrate < 1.0 ;
+
+    this.aesGCM = "true".equals(properties.getProperty(Configuration.LEVELDB_DATA_AES_GCM));
   }
   
   @Override
@@ -163,7 +172,8 @@ public class StandaloneStoreClient implements StoreClient {
       }
     }
     
-    final DBIterator iterator = db.iterator(options);
+    final FetchStats stats = new FetchStats();
+    final DBIterator iterator = new CountingDBIterator(db.iterator(options), stats);
 
     Map<String,String> labels = new HashMap<String,String>();
     
@@ -215,6 +225,11 @@ public class StandaloneStoreClient implements StoreClient {
         iterator.close();
       }
       
+      @Override
+      public FetchStats getStats() {
+        return stats;
+      }
+      
       @Override
       public void remove() {        
       }
@@ -617,6 +632,15 @@ public class StandaloneStoreClient implements StoreClient {
     
     List<byte[][]> kvs = new ArrayList<byte[][]>();
     
+    byte[] aesKey = this.keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+    
+    //
+    // Each datapoint is stored under its own key, encrypt them as a batch so the
+    // AES-GCM key is derived once per call and not once per datapoint
+    //
+    
+    CryptoUtils.AESGCMBatch batch = this.aesGCM && null != aesKey ? new CryptoUtils.AESGCMBatch(aesKey) : null;
+    
     while(decoder.next()) {
       ByteBuffer bb = ByteBuffer.wrap(new byte[Constants.HBASE_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8]).order(ByteOrder.BIG_ENDIAN);
       bb.put(Constants.HBASE_RAW_DATA_KEY_PREFIX);
@@ -624,7 +648,8 @@ public class StandaloneStoreClient implements StoreClient {
       bb.putLong(encoder.getLabelsId());
       bb.putLong(Long.MAX_VALUE - decoder.getTimestamp());
       
-      GTSEncoder enc = new GTSEncoder(decoder.getTimestamp(), this.keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+      GTSEncoder enc = new GTSEncoder(decoder.getTimestamp(), aesKey);
+      enc.setAESGCMBatch(batch);
       
       enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getBinaryValue());
       
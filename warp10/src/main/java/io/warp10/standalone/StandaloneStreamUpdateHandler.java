@@ -104,6 +104,7 @@ public class StandaloneStreamUpdateHandler extends WebSocketHandler.Simple {
   private final String datalogId;
   private final boolean logShardKey;
   private final byte[] datalogPSK;
+  private final boolean datalogPSKGCM;
   private final boolean datalogSync;
   private final File loggingDir;
   
@@ -414,7 +415,7 @@ public class StandaloneStreamUpdateHandler extends WebSocketHandler.Simple {
                 }
                 
                 if (null != handler.datalogPSK) {
-                  encoded = CryptoUtils.wrap(handler.datalogPSK, encoded);
+                  encoded = CryptoUtils.wrap(handler.datalogPSK, encoded, handler.datalogPSKGCM);
                 }
                 
                 encoded = OrderPreservingBase64.encode(encoded);
@@ -822,6 +823,7 @@ public class StandaloneStreamUpdateHandler extends WebSocketHandler.Simple {
     } else {
       this.datalogPSK = null;
     }    
+    this.datalogPSKGCM = "true".equals(properties.getProperty(Configuration.DATALOG_PSK_GCM));
   }
      
   public void setPlugin(IngressPlugin plugin) {
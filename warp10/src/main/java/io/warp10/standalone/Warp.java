@@ -353,7 +353,17 @@ public class Warp extends WarpDist implements Runnable {
       scc = new NullStoreClient();
     } else {
       sdc = new StandaloneDirectoryClient(db, keystore);
-      scc = new StandaloneStoreClient(db, keystore, properties);
+
+      long blockspan = Long.parseLong(properties.getProperty(Configuration.LEVELDB_DATA_BLOCKSPAN, "0"));
+
+      // Refuse to start if the datapoints were stored using another layout
+      StandaloneBlockStoreClient.checkLayout(db, Math.max(0L, blockspan));
+
+      if (blockspan > 0L) {
+        scc = new StandaloneBlockStoreClient(db, keystore, properties);
+      } else {
+        scc = new StandaloneStoreClient(db, keystore, properties);
+      }
 
       if (accelerator) {
         scc = new StandaloneAcceleratedStoreClient(sdc, scc);
@@ -365,7 +375,7 @@ public class Warp extends WarpDist implements Runnable {
       scc = new StandaloneShardedStoreClientWrapper(keystore, scc);
     }
 
-    if (ParallelGTSDecoderIteratorWrapper.useParallelScanners()) {
+    if (ParallelGTSDecoderIteratorWrapper.useParallelScanners() || PartitionedGTSDecoderIterator.isEnabled()) {
       scc = new StandaloneParallelStoreClientWrapper(scc);
     }
 
@@ -0,0 +1,228 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.bouncycastle.util.encoders.Hex;
+import org.fusesource.leveldbjni.JniDBFactory;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.impl.Iq80DBFactory;
+
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.store.Constants;
+import io.warp10.standalone.StandaloneBlockStoreClient.Block;
+
+/**
+ * Copy a LevelDB directory, converting the datapoints to the layout
+ * matching a given block span.
+ *
+ * The source may use any layout (one key per datapoint or blocks of any span),
+ * the target will use blocks of the given span, or one key per datapoint if the
+ * span is 0. Keys which are not datapoints are copied verbatim, except the layout
+ * marker which is set in the target to the given span.
+ *
+ * Double values are XOR encoded in the target if the leveldb.data.double.xor
+ * system property is set to true.
+ */
+public class WarpBlockMigrate {
+
+  private static final int BATCH_SIZE = 10000;
+
+  public static void main(String[] args) throws IOException {
+
+    if (args.length < 3 || args.length > 4) {
+      System.err.println("Usage: WarpBlockMigrate /path/to/source/leveldb/dir /path/to/target/leveldb/dir SPAN [DATA_AES_KEY(hex)]");
+      System.exit(-1);
+    }
+
+    long span = Long.parseLong(args[2]);
+
+    if (span < 0) {
+      System.err.println("Block span MUST be positive or 0.");
+      System.exit(-1);
+    }
+
+    byte[] aesKey = args.length > 3 ? Hex.decode(args[3]) : null;
+
+    boolean doubleXOR = "true".equals(System.getProperty(Configuration.LEVELDB_DATA_DOUBLE_XOR));
+    boolean aesGCM = "true".equals(System.getProperty(Configuration.LEVELDB_DATA_AES_GCM));
+    int maxsize = Integer.parseInt(System.getProperty(Configuration.LEVELDB_DATA_BLOCK_MAXSIZE, Integer.toString(StandaloneBlockStoreClient.DEFAULT_MAX_BLOCK_SIZE)));
+
+    if (maxsize <= 0) {
+      System.err.println("Block size MUST be strictly positive.");
+      System.exit(-1);
+    }
+
+    DB indb = open(args[0], false);
+    DB outdb = open(args[1], true);
+
+    DBIterator iter = indb.iterator();
+    iter.seekToFirst();
+
+    WriteBatch batch = outdb.createWriteBatch();
+    int batchsize = 0;
+
+    long nkeys = 0L;
+    long ndatapoints = 0L;
+    long nblocks = 0L;
+
+    // 128bits
+    int prefixlen = Constants.HBASE_RAW_DATA_KEY_PREFIX.length;
+    int keylen = prefixlen + 8 + 8 + 8;
+
+    long classId = 0L;
+    long labelsId = 0L;
+    boolean inGTS = false;
+
+    //
+    // Blocks of the current GTS which have not been written yet, keyed by block start
+    //
+
+    TreeMap<Long,Block> pending = new TreeMap<Long,Block>();
+
+    long nano = System.nanoTime();
+
+    while(iter.hasNext()) {
+      Entry<byte[],byte[]> entry = iter.next();
+      byte[] key = entry.getKey();
+
+      nkeys++;
+
+      boolean datapoints = keylen == key.length && 0 == Bytes.compareTo(key, 0, prefixlen, Constants.HBASE_RAW_DATA_KEY_PREFIX, 0, prefixlen);
+
+      if (Bytes.equals(StandaloneBlockStoreClient.LAYOUT_KEY, key)) {
+        // The layout of the target is recorded once all datapoints are written
+        continue;
+      } else if (!datapoints) {
+        batch.put(key, entry.getValue());
+        batchsize++;
+      } else {
+        long cls = Bytes.toLong(key, prefixlen);
+        long lbls = Bytes.toLong(key, prefixlen + 8);
+
+        if (!inGTS || cls != classId || lbls != labelsId) {
+          long flushed = flush(batch, pending, Long.MIN_VALUE, classId, labelsId, span, maxsize, aesKey, doubleXOR, aesGCM);
+          nblocks += flushed;
+          batchsize += flushed;
+          classId = cls;
+          labelsId = lbls;
+          inGTS = true;
+        }
+
+        // The key timestamp is the base timestamp of the value for both layouts
+        long basets = StandaloneBlockStoreClient.keyTimestamp(key);
+
+        Block block = Block.decode(basets, aesKey, entry.getValue());
+
+        for (int i = 0; i < block.size; i++) {
+          long start = 0 == span ? block.ticks[i] : StandaloneBlockStoreClient.blockStart(block.ticks[i], span);
+          Block target = pending.get(start);
+          if (null == target) {
+            target = new Block(16);
+            pending.put(start, target);
+          }
+          target.add(block.ticks[i], block.locations[i], block.elevations[i], block.values[i]);
+          ndatapoints++;
+        }
+
+        //
+        // Subsequent keys of this GTS only hold datapoints older than 'basets',
+        // so the target blocks starting at or after 'basets' are complete.
+        //
+
+        long flushed = flush(batch, pending, basets, classId, labelsId, span, maxsize, aesKey, doubleXOR, aesGCM);
+        nblocks += flushed;
+        batchsize += flushed;
+      }
+
+      if (batchsize >= BATCH_SIZE) {
+        outdb.write(batch);
+        batch.close();
+        batch = outdb.createWriteBatch();
+        batchsize = 0;
+      }
+    }
+
+    nblocks += flush(batch, pending, Long.MIN_VALUE, classId, labelsId, span, maxsize, aesKey, doubleXOR, aesGCM);
+
+    outdb.write(batch);
+    batch.close();
+
+    outdb.put(StandaloneBlockStoreClient.LAYOUT_KEY, Bytes.toBytes(span));
+
+    iter.close();
+    indb.close();
+    outdb.close();
+
+    System.out.println("Migrated " + nkeys + " keys (" + ndatapoints + " datapoints into " + nblocks + " data keys) in " + ((System.nanoTime() - nano) / 1000000.0D) + " ms");
+  }
+
+  /**
+   * Write the pending blocks whose start is greater or equal to 'from'
+   */
+  private static long flush(WriteBatch batch, TreeMap<Long,Block> pending, long from, long classId, long labelsId, long span, int maxsize, byte[] aesKey, boolean doubleXOR, boolean aesGCM) throws IOException {
+    Map<Long,Block> complete = pending.tailMap(from, true);
+
+    long count = 0L;
+
+    for (Entry<Long,Block> entry: complete.entrySet()) {
+      Block block = entry.getValue();
+      block.normalize();
+      count += StandaloneBlockStoreClient.put(batch, classId, labelsId, entry.getKey(), block, maxsize, aesKey, doubleXOR, aesGCM);
+    }
+
+    complete.clear();
+
+    return count;
+  }
+
+  private static DB open(String path, boolean create) throws IOException {
+    Options options = new Options();
+    options.createIfMissing(create);
+
+    if (null != System.getProperty(Configuration.LEVELDB_BLOCK_SIZE)) {
+      options.blockSize(Integer.parseInt(System.getProperty(Configuration.LEVELDB_BLOCK_SIZE)));
+    }
+
+    boolean nativedisabled = "true".equals(System.getProperty(Configuration.LEVELDB_NATIVE_DISABLE));
+    boolean javadisabled = "true".equals(System.getProperty(Configuration.LEVELDB_JAVA_DISABLE));
+
+    try {
+      if (!nativedisabled) {
+        return JniDBFactory.factory.open(new File(path), options);
+      } else {
+        throw new UnsatisfiedLinkError("Native LevelDB implementation disabled.");
+      }
+    } catch (UnsatisfiedLinkError ule) {
+      ule.printStackTrace();
+      if (!javadisabled) {
+        return Iq80DBFactory.factory.open(new File(path), options);
+      } else {
+        throw new RuntimeException("No usable LevelDB implementation, aborting.");
+      }
+    }
+  }
+}
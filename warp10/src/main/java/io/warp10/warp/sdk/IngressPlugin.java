@@ -29,7 +29,7 @@ public abstract class IngressPlugin {
    * 
    * @param ingress Instance which parsed the line (either Ingress or StandaloneIngressHandler)
    * @param token Write token used to push the data
-   * @param line Text line in GTS Input Format
+   * @param line Text line in GTS Input Format, null if the encoder was read from a binary update
    * @param encoder Parsed encoder
    * @return true if the encoder can be processed further, false if it should be discarded
    */
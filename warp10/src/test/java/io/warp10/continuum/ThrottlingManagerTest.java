@@ -0,0 +1,208 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+public class ThrottlingManagerTest {
+
+  private static final String MADS_PRODUCER = UUID.randomUUID().toString();
+
+  private static final long MADS_LIMIT = 1000L;
+
+  private static final int THREADS = 8;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+
+    File dir = File.createTempFile("throttling", "");
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+
+    File file = new File(dir, "test.throttle");
+    file.deleteOnExit();
+
+    PrintWriter pw = new PrintWriter(file);
+    pw.println(MADS_PRODUCER + ":" + MADS_LIMIT + ":::#");
+    pw.close();
+
+    // The configuration is read when ThrottlingManager is first loaded
+    WarpConfig.setProperty(Configuration.THROTTLING_MANAGER_DIR, dir.getAbsolutePath());
+    WarpConfig.setProperty(Configuration.THROTTLING_MANAGER_PERIOD, "100");
+    WarpConfig.setProperty(Configuration.THROTTLING_MANAGER_RATE_DEFAULT, "1.0");
+
+    ThrottlingManager.enable();
+
+    long timeout = System.currentTimeMillis() + 30000L;
+
+    while (!ThrottlingManager.getLimits(MADS_PRODUCER, null).containsKey(ThrottlingManager.LIMITS_PRODUCER_MADS_LIMIT)) {
+      Assert.assertTrue("Throttling file not loaded", System.currentTimeMillis() < timeout);
+      Thread.sleep(100L);
+    }
+  }
+
+  private static Metadata metadata() {
+    Metadata metadata = new Metadata();
+    metadata.setName("test");
+    metadata.setLabels(new HashMap<String,String>());
+    return metadata;
+  }
+
+  private static void join(Thread[] threads, CountDownLatch start) throws InterruptedException {
+    for (Thread thread: threads) {
+      thread.start();
+    }
+
+    start.countDown();
+
+    for (Thread thread: threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testConcurrentMADS() throws Exception {
+    final int series = (int) (MADS_LIMIT * 2);
+
+    final Set<Integer> accepted = ConcurrentHashMap.newKeySet();
+    final AtomicInteger rejected = new AtomicInteger(0);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    final CountDownLatch start = new CountDownLatch(1);
+
+    Thread[] threads = new Thread[THREADS];
+
+    for (int i = 0; i < THREADS; i++) {
+      final int offset = i * series / THREADS;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            // Each thread checks all the series, starting at a different one
+            for (int j = 0; j < series; j++) {
+              int id = (offset + j) % series;
+              try {
+                ThrottlingManager.checkMADS(metadata(), MADS_PRODUCER, MADS_PRODUCER, "app", id, id, false);
+                accepted.add(id);
+              } catch (WarpException we) {
+                rejected.incrementAndGet();
+              }
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+    }
+
+    join(threads, start);
+
+    Assert.assertNull(String.valueOf(failure.get()), failure.get());
+
+    Assert.assertTrue(rejected.get() > 0);
+    Assert.assertTrue("Accepted " + accepted.size() + " series", accepted.size() >= MADS_LIMIT * 0.9);
+    Assert.assertTrue("Accepted " + accepted.size() + " series", accepted.size() <= MADS_LIMIT * 1.1);
+
+    //
+    // Series accepted once are known to the estimator and must never be rejected afterwards
+    //
+
+    final Integer[] known = accepted.toArray(new Integer[0]);
+    final CountDownLatch restart = new CountDownLatch(1);
+
+    for (int i = 0; i < THREADS; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            restart.await();
+            for (Integer id: known) {
+              ThrottlingManager.checkMADS(metadata(), MADS_PRODUCER, MADS_PRODUCER, "app", id, id, false);
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+    }
+
+    join(threads, restart);
+
+    Assert.assertNull(String.valueOf(failure.get()), failure.get());
+
+    Map<String,Object> limits = ThrottlingManager.getLimits(MADS_PRODUCER, null);
+    Assert.assertTrue(limits.containsKey(ThrottlingManager.LIMITS_PRODUCER_MADS_CURRENT));
+  }
+
+  @Test
+  public void testDefaultRateLimiter() throws Exception {
+    final String producer = UUID.randomUUID().toString();
+
+    final AtomicInteger granted = new AtomicInteger(0);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    final CountDownLatch start = new CountDownLatch(1);
+
+    Thread[] threads = new Thread[THREADS * 2];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            ThrottlingManager.checkDDP(metadata(), producer, producer, "app", 1, 0L, false);
+            granted.incrementAndGet();
+          } catch (WarpException we) {
+            // Permit denied
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+    }
+
+    join(threads, start);
+
+    Assert.assertNull(String.valueOf(failure.get()), failure.get());
+
+    // All threads share a single limiter created with the default rate of 1 datapoint per second,
+    // so only the first permit is granted without waiting
+    Assert.assertEquals(1, granted.get());
+    Assert.assertEquals(1.0D, (Double) ThrottlingManager.getLimits(producer, null).get(ThrottlingManager.LIMITS_PRODUCER_RATE_CURRENT), 0.0D);
+  }
+}
@@ -0,0 +1,195 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.script.WarpScriptAggregatorFunction;
+import io.warp10.script.WarpScriptBucketizerFunction;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.aggregator.Count;
+import io.warp10.script.aggregator.First;
+import io.warp10.script.aggregator.Last;
+import io.warp10.script.aggregator.Max;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Min;
+import io.warp10.script.aggregator.Sum;
+
+/**
+ * Check that the primitive DOUBLE aggregation produces the same results as the boxed one
+ */
+public class DoubleAggregatorTest {
+
+  /**
+   * Function hiding the primitive aggregation of the wrapped function
+   */
+  private static class Boxed implements WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+    private final WarpScriptAggregatorFunction function;
+
+    Boxed(WarpScriptAggregatorFunction function) {
+      this.function = function;
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      return function.apply(args);
+    }
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  private static List<WarpScriptAggregatorFunction> functions() {
+    List<WarpScriptAggregatorFunction> functions = new ArrayList<WarpScriptAggregatorFunction>();
+    functions.add(new Sum("sum", true));
+    functions.add(new Mean("mean", true));
+    functions.add(new Min("min", true));
+    functions.add(new Max("max", true));
+    functions.add(new Count("count", true));
+    functions.add(new First("first"));
+    functions.add(new Last("last"));
+    return functions;
+  }
+
+  private static GeoTimeSerie random(Random prng, int n, boolean geo) {
+    return random(prng, n, geo, false);
+  }
+
+  private static GeoTimeSerie random(Random prng, int n, boolean geo, boolean longs) {
+    GeoTimeSerie gts = new GeoTimeSerie();
+    gts.setName("gts");
+    for (int i = 0; i < n; i++) {
+      // Use duplicate ticks and out of order ticks
+      long tick = prng.nextInt(n / 2) * 10L;
+      long location = geo ? prng.nextLong() & 0x7fffffffffffffffL : GeoTimeSerie.NO_LOCATION;
+      long elevation = geo ? prng.nextInt(1000) : GeoTimeSerie.NO_ELEVATION;
+      if (longs) {
+        GTSHelper.setValue(gts, tick, location, elevation, (long) prng.nextInt(5) - 2L, false);
+      } else {
+        GTSHelper.setValue(gts, tick, location, elevation, prng.nextInt(5) - 2.0D + prng.nextInt(4) * 0.25D, false);
+      }
+    }
+    return gts;
+  }
+
+  private static void assertSame(GeoTimeSerie expected, GeoTimeSerie actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    GTSHelper.sort(expected);
+    GTSHelper.sort(actual);
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(GTSHelper.tickAtIndex(expected, i), GTSHelper.tickAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.locationAtIndex(expected, i), GTSHelper.locationAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.elevationAtIndex(expected, i), GTSHelper.elevationAtIndex(actual, i));
+      Assert.assertEquals(GTSHelper.valueAtIndex(expected, i), GTSHelper.valueAtIndex(actual, i));
+    }
+  }
+
+  @Test
+  public void testMap() throws Exception {
+    Random prng = new Random(0L);
+
+    for (boolean geo: new boolean[] { false, true }) {
+      GeoTimeSerie gts = random(prng, 1000, geo);
+
+      for (WarpScriptAggregatorFunction function: functions()) {
+        for (long[] window: new long[][] { { 0, 0 }, { 5, 3 }, { -30, -20 } }) {
+          for (boolean overrideTick: new boolean[] { false, true }) {
+            List<GeoTimeSerie> expected = GTSHelper.map(gts, new Boxed(function), window[0], window[1], 0, false, 1, overrideTick);
+            List<GeoTimeSerie> actual = GTSHelper.map(gts, (WarpScriptMapperFunction) function, window[0], window[1], 0, false, 1, overrideTick);
+            assertSame(expected.get(0), actual.get(0));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSlidingWindowMap() throws Exception {
+    Random prng = new Random(3L);
+
+    List<Long> outputTicks = new ArrayList<Long>();
+    for (int i = 0; i < 100; i++) {
+      outputTicks.add(prng.nextInt(6000) - 500L);
+    }
+
+    for (boolean longs: new boolean[] { false, true }) {
+      GeoTimeSerie gts = random(prng, 1000, true, longs);
+
+      for (WarpScriptAggregatorFunction function: functions()) {
+        for (long[] window: new long[][] { { 0, 0 }, { 50, 20 }, { -300, -200 }, { 0, -1000 } }) {
+          for (boolean reversed: new boolean[] { false, true }) {
+            for (List<Long> ticks: new List[] { null, outputTicks }) {
+              for (int occurrences: new int[] { 0, 10 }) {
+                List<GeoTimeSerie> expected = GTSHelper.map(gts, new Boxed(function), window[0], window[1], occurrences, reversed, 3, true, null, null == ticks ? null : new ArrayList<Long>(ticks));
+                List<GeoTimeSerie> actual = GTSHelper.map(gts, function, window[0], window[1], occurrences, reversed, 3, true, null, null == ticks ? null : new ArrayList<Long>(ticks));
+                assertSame(expected.get(0), actual.get(0));
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBucketize() throws Exception {
+    Random prng = new Random(1L);
+
+    GeoTimeSerie gts = random(prng, 1000, true);
+
+    for (WarpScriptAggregatorFunction function: functions()) {
+      GeoTimeSerie expected = GTSHelper.bucketize(gts, 70L, 100, 7000L, new Boxed(function), Long.MAX_VALUE);
+      GeoTimeSerie actual = GTSHelper.bucketize(gts, 70L, 100, 7000L, (WarpScriptBucketizerFunction) function, Long.MAX_VALUE);
+      assertSame(expected, actual);
+    }
+  }
+
+  @Test
+  public void testReduce() throws Exception {
+    Random prng = new Random(2L);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+    for (int i = 0; i < 5; i++) {
+      GeoTimeSerie gts = random(prng, 200, 0 == i % 2);
+      gts.setLabel("id", Integer.toString(i));
+      series.add(gts);
+    }
+
+    for (WarpScriptAggregatorFunction function: functions()) {
+      List<GeoTimeSerie> expected = GTSHelper.reduce(new Boxed(function), series, Collections.<String>emptyList());
+      List<GeoTimeSerie> actual = GTSHelper.reduce((WarpScriptReducerFunction) function, series, Collections.<String>emptyList());
+      Assert.assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertSame(expected.get(i), actual.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,286 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.geoxp.GeoXPLib;
+
+import io.warp10.WarpConfig;
+
+public class GTSArrowWriterTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  /**
+   * Walk the encapsulated messages of a stream
+   *
+   * @return the header types of the messages
+   */
+  private static String headers(byte[] bytes) {
+    ByteBuffer bb = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    StringBuilder sb = new StringBuilder();
+
+    while (true) {
+      Assert.assertEquals(0, bb.position() % 8);
+      Assert.assertEquals(0xFFFFFFFF, bb.getInt());
+      int len = bb.getInt();
+
+      if (0 == len) {
+        break;
+      }
+
+      Assert.assertEquals(0, len % 8);
+
+      int start = bb.position();
+
+      // Root table of the Message and its vtable
+      int table = start + bb.getInt(start);
+      int vtable = table - bb.getInt(table);
+
+      // Fields are at fixed positions in the vtables of Message, see the field layout of the writer
+      Assert.assertEquals(3, bb.getShort(table + bb.getShort(vtable + 4)));
+      sb.append(bb.get(table + bb.getShort(vtable + 6)));
+      long bodyLength = bb.getLong(table + bb.getShort(vtable + 10));
+
+      Assert.assertEquals(0, bodyLength % 8);
+
+      bb.position(start + len + (int) bodyLength);
+    }
+
+    Assert.assertFalse(bb.hasRemaining());
+
+    return sb.toString();
+  }
+
+  @Test
+  public void testStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    GTSArrowWriter writer = new GTSArrowWriter(out, 2);
+
+    int a = writer.series("a{}");
+    writer.add(a, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1L);
+    writer.add(a, 2L, GeoTimeSerie.NO_LOCATION, 10L, 2.0D);
+    int b = writer.series("b{}");
+    writer.add(b, 3L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, "three");
+    Assert.assertEquals(a, writer.series("a{}"));
+    writer.add(a, 4L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, true);
+    int c = writer.series("c{}");
+    writer.add(c, 5L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, new byte[] { 5 });
+    writer.close();
+
+    // Schema, dictionary, batch, delta dictionary, batch, delta dictionary, batch
+    Assert.assertEquals("1232323", headers(out.toByteArray()));
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new GTSArrowWriter(out).close();
+
+    // Schema and empty dictionary
+    Assert.assertEquals("12", headers(out.toByteArray()));
+  }
+
+  /**
+   * Read a stream with the Arrow library
+   *
+   * @return one line per row: series, timestamp, latitude, longitude, elevation and the non null value columns
+   */
+  private static List<String> rows(byte[] bytes) throws Exception {
+    List<String> rows = new ArrayList<String>();
+
+    try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+         ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(bytes), allocator)) {
+      VectorSchemaRoot root = reader.getVectorSchemaRoot();
+      Schema schema = root.getSchema();
+
+      Assert.assertEquals(Arrays.asList("series", "timestamp", "latitude", "longitude", "elevation", "long", "double", "boolean", "string", "binary"), names(schema));
+
+      Field series = schema.findField("series");
+      Assert.assertFalse(series.isNullable());
+      Assert.assertEquals(0L, series.getDictionary().getId());
+      Assert.assertEquals(new ArrowType.Int(32, true), series.getDictionary().getIndexType());
+
+      Assert.assertFalse(schema.findField("timestamp").isNullable());
+      Assert.assertEquals(new ArrowType.Timestamp(TimeUnit.MICROSECOND, "UTC"), schema.findField("timestamp").getType());
+      Assert.assertEquals(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE), schema.findField("latitude").getType());
+      Assert.assertEquals(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE), schema.findField("longitude").getType());
+      Assert.assertEquals(new ArrowType.Int(64, true), schema.findField("elevation").getType());
+      Assert.assertEquals(new ArrowType.Int(64, true), schema.findField("long").getType());
+      Assert.assertEquals(new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE), schema.findField("double").getType());
+      Assert.assertEquals(ArrowType.Bool.INSTANCE, schema.findField("boolean").getType());
+      Assert.assertEquals(ArrowType.Utf8.INSTANCE, schema.findField("string").getType());
+      Assert.assertEquals(ArrowType.Binary.INSTANCE, schema.findField("binary").getType());
+
+      while (reader.loadNextBatch()) {
+        // The dictionary holds all the series seen so far, delta batches included
+        VarCharVector dictionary = (VarCharVector) reader.getDictionaryVectors().get(0L).getVector();
+
+        IntVector indices = (IntVector) root.getVector("series");
+        TimeStampVector timestamps = (TimeStampVector) root.getVector("timestamp");
+        Float8Vector latitudes = (Float8Vector) root.getVector("latitude");
+        Float8Vector longitudes = (Float8Vector) root.getVector("longitude");
+        BigIntVector elevations = (BigIntVector) root.getVector("elevation");
+        BigIntVector longs = (BigIntVector) root.getVector("long");
+        Float8Vector doubles = (Float8Vector) root.getVector("double");
+        BitVector booleans = (BitVector) root.getVector("boolean");
+        VarCharVector strings = (VarCharVector) root.getVector("string");
+        VarBinaryVector binaries = (VarBinaryVector) root.getVector("binary");
+
+        for (int i = 0; i < root.getRowCount(); i++) {
+          StringBuilder sb = new StringBuilder();
+          sb.append(new String(dictionary.get(indices.get(i)), StandardCharsets.UTF_8));
+          sb.append(" ").append(timestamps.get(i));
+          sb.append(" ").append(latitudes.isNull(i) ? "-" : Double.toString(latitudes.get(i)));
+          sb.append(" ").append(longitudes.isNull(i) ? "-" : Double.toString(longitudes.get(i)));
+          sb.append(" ").append(elevations.isNull(i) ? "-" : Long.toString(elevations.get(i)));
+          if (!longs.isNull(i)) {
+            sb.append(" long:").append(longs.get(i));
+          }
+          if (!doubles.isNull(i)) {
+            sb.append(" double:").append(doubles.get(i));
+          }
+          if (!booleans.isNull(i)) {
+            sb.append(" boolean:").append(1 == booleans.get(i));
+          }
+          if (!strings.isNull(i)) {
+            sb.append(" string:").append(new String(strings.get(i), StandardCharsets.UTF_8));
+          }
+          if (!binaries.isNull(i)) {
+            sb.append(" binary:").append(Arrays.toString(binaries.get(i)));
+          }
+          rows.add(sb.toString());
+        }
+      }
+    }
+
+    return rows;
+  }
+
+  private static List<String> names(Schema schema) {
+    List<String> names = new ArrayList<String>();
+    for (Field field: schema.getFields()) {
+      names.add(field.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    long location = GeoXPLib.toGeoXPPoint(48.0D, -4.5D);
+    double[] latlon = GeoXPLib.fromGeoXPPoint(location);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    GTSArrowWriter writer = new GTSArrowWriter(out, 2);
+
+    int a = writer.series("a{k=v}");
+    writer.add(a, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1L);
+    writer.add(a, 2L, location, 10L, 2.5D);
+    int b = writer.series("b{}");
+    writer.add(b, 3L, GeoTimeSerie.NO_LOCATION, -3L, "thr\u00e9e");
+    writer.add(a, -4L, location, GeoTimeSerie.NO_ELEVATION, true);
+    writer.add(a, 5L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, false);
+    int c = writer.series("c{}");
+    writer.add(c, 6L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, new byte[] { 6, -1 });
+    writer.add(c, Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, Long.MIN_VALUE + 1, Long.MIN_VALUE);
+    writer.add(b, 8L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null);
+    writer.add(b, 9L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, Double.NaN);
+    writer.close();
+
+    String geo = latlon[0] + " " + latlon[1];
+
+    List<String> expected = Arrays.asList(
+        "a{k=v} 1 - - - long:1",
+        "a{k=v} 2 " + geo + " 10 double:2.5",
+        "b{} 3 - - -3 string:thr\u00e9e",
+        "a{k=v} -4 " + geo + " - boolean:true",
+        "a{k=v} 5 - - - boolean:false",
+        "c{} 6 - - - binary:[6, -1]",
+        "c{} " + Long.MAX_VALUE + " - - " + (Long.MIN_VALUE + 1) + " long:" + Long.MIN_VALUE,
+        "b{} 8 - - -",
+        "b{} 9 - - - double:NaN");
+
+    Assert.assertEquals(expected, rows(out.toByteArray()));
+  }
+
+  @Test
+  public void testReadBatches() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    GTSArrowWriter writer = new GTSArrowWriter(out, 7);
+
+    List<String> expected = new ArrayList<String>();
+
+    // Partial batches are written by flush, series appear across many delta dictionaries
+    for (int i = 0; i < 100; i++) {
+      String selector = "s{i=" + (i % 13) + "}";
+      writer.add(writer.series(selector), i, GeoTimeSerie.NO_LOCATION, i % 3, (long) i * i);
+      expected.add(selector + " " + i + " - - " + (i % 3) + " long:" + ((long) i * i));
+      if (0 == i % 10) {
+        writer.flush();
+      }
+    }
+
+    writer.close();
+
+    Assert.assertEquals(expected, rows(out.toByteArray()));
+  }
+
+  @Test
+  public void testReadEmpty() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    new GTSArrowWriter(out).close();
+
+    Assert.assertTrue(rows(out.toByteArray()).isEmpty());
+  }
+}
@@ -22,6 +22,7 @@ import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.crypto.CryptoUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -98,6 +99,80 @@ public class GTSEncoderTest {
     Assert.assertEquals(2L, decoder.getValue());
   }
   
+  @Test
+  public void testAddValue_encryptedGCM() throws Exception {
+    long now = System.currentTimeMillis() * 1000L;
+
+    byte[] key = new byte[32];
+
+    GTSEncoder encoder = new GTSEncoder(now - 1000000L, key);
+    encoder.setAESGCM(true);
+
+    encoder.addValue(now, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1L);
+    encoder.addValue(now + 1000000L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 2L);
+
+    byte[] encrypted = encoder.getBytes();
+    Assert.assertEquals(GTSEncoder.FLAGS_ENCRYPTED, encrypted[0] & GTSEncoder.FLAGS_MASK_ENCRYPTED);
+    Assert.assertEquals(CryptoUtils.VERSION_AES_GCM_BATCH, encrypted[2]);
+
+    //
+    // Append a block encrypted using AES key wrap, both must be decrypted
+    //
+
+    GTSEncoder wrapped = new GTSEncoder(now - 1000000L, key);
+    wrapped.addValue(now + 2000000L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 3L);
+
+    byte[] concat = Arrays.copyOf(encrypted, encrypted.length + wrapped.getBytes().length);
+    System.arraycopy(wrapped.getBytes(), 0, concat, encrypted.length, concat.length - encrypted.length);
+
+    GTSDecoder decoder = new GTSDecoder(now - 1000000L, key, ByteBuffer.wrap(concat));
+
+    for (long i = 1; i <= 3; i++) {
+      Assert.assertTrue(decoder.next());
+      Assert.assertEquals(now + (i - 1) * 1000000L, decoder.getTimestamp());
+      Assert.assertEquals(i, decoder.getValue());
+    }
+
+    Assert.assertFalse(decoder.next());
+
+    //
+    // Altered content is skipped
+    //
+
+    encrypted[encrypted.length - 1] ^= 0x01;
+    decoder = new GTSDecoder(now - 1000000L, key, ByteBuffer.wrap(encrypted));
+    Assert.assertFalse(decoder.next());
+  }
+
+  @Test
+  public void testAddValue_encryptedGCMBatch() throws Exception {
+    long now = System.currentTimeMillis() * 1000L;
+
+    byte[] key = new byte[32];
+
+    CryptoUtils.AESGCMBatch batch = new CryptoUtils.AESGCMBatch(key);
+
+    byte[][] encrypted = new byte[10][];
+
+    for (int i = 0; i < encrypted.length; i++) {
+      GTSEncoder encoder = new GTSEncoder(now, key);
+      encoder.setAESGCMBatch(batch);
+      Assert.assertTrue(encoder.isAESGCM());
+      encoder.addValue(now + i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) i);
+      encrypted[i] = encoder.getBytes();
+      Assert.assertEquals(CryptoUtils.VERSION_AES_GCM_BATCH, encrypted[i][2]);
+    }
+
+    // Each encoder of the batch is decoded on its own
+    for (int i = encrypted.length - 1; i >= 0; i--) {
+      GTSDecoder decoder = new GTSDecoder(now, key, ByteBuffer.wrap(encrypted[i]));
+      Assert.assertTrue(decoder.next());
+      Assert.assertEquals(now + i, decoder.getTimestamp());
+      Assert.assertEquals((long) i, decoder.getValue());
+      Assert.assertFalse(decoder.next());
+    }
+  }
+
   @Test
   public void testGetDecoder() throws Exception {
     long now = System.currentTimeMillis() * 1000L;
@@ -605,6 +680,64 @@ public class GTSEncoderTest {
     Assert.assertEquals(1.0D, (double) decoder.getValue(), 0.000000000001D);
   }
 
+  @Test
+  public void testDoubleXOR() throws Exception {
+    GTSEncoder plain = new GTSEncoder(0L);
+    GTSEncoder xor = new GTSEncoder(0L);
+    xor.setDoubleXOR(true);
+
+    Object[] values = new Object[] {
+      20.5D, 20.75D, 20.75D, 21.0D, -0.0D, 0.0D, Double.NaN, 1.0D, 1.0D + Math.ulp(1.0D),
+      new BigDecimal("1.25"), 1.5D, Double.POSITIVE_INFINITY, 3.1415926535D, 3.1415926536D, 2L, 3.5D, "X", 3.75D
+    };
+
+    for (int i = 0; i < values.length; i++) {
+      plain.addValue(i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, values[i]);
+      xor.addValue(i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, values[i]);
+    }
+
+    Assert.assertTrue(xor.size() < plain.size());
+
+    GTSDecoder pdecoder = plain.getDecoder();
+    GTSDecoder xdecoder = xor.getDecoder();
+
+    for (int i = 0; i < values.length; i++) {
+      Assert.assertTrue(pdecoder.next());
+      Assert.assertTrue(xdecoder.next());
+      Assert.assertEquals(pdecoder.getTimestamp(), xdecoder.getTimestamp());
+      Object pvalue = pdecoder.getBinaryValue();
+      Object xvalue = xdecoder.getBinaryValue();
+      if (pvalue instanceof Double) {
+        Assert.assertEquals(Double.doubleToRawLongBits((double) pvalue), Double.doubleToRawLongBits((double) xvalue));
+      } else {
+        Assert.assertEquals(pvalue, xvalue);
+      }
+    }
+
+    Assert.assertFalse(xdecoder.next());
+
+    //
+    // Slowly changing values should only use a few bytes per value
+    //
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setDoubleXOR(true);
+
+    for (int i = 0; i < 1000; i++) {
+      encoder.addValue(i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1024.0D + (i % 16) * 0.25D);
+    }
+
+    // flags + timestamp delta + 2 bytes for the value instead of 8 for IEEE754
+    Assert.assertTrue(encoder.size() <= 1000 * 4);
+
+    GTSDecoder decoder = encoder.getDecoder();
+
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(decoder.next());
+      Assert.assertEquals(1024.0D + (i % 16) * 0.25D, (double) decoder.getValue(), 0.0D);
+    }
+  }
+
   @Test
   public void testResetSTRING() throws Exception {
     GTSEncoder encoder = new GTSEncoder(0L);
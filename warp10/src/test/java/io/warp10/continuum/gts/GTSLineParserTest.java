@@ -0,0 +1,258 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.ingress.SeriesCache;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.OrderPreservingBase64;
+
+public class GTSLineParserTest {
+
+  private static final Long NOW = 1000000L;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  /**
+   * Parse the input with GTSHelper.parse, the reference implementation, and with GTSLineParser
+   * and return the list of produced encoders or the parse error for both.
+   */
+  private static List<String>[] parse(String input, Map<String,String> extraLabels) throws Exception {
+    @SuppressWarnings("unchecked")
+    List<String>[] results = new List[2];
+
+    for (int i = 0; i < 2; i++) {
+      List<String> result = new ArrayList<String>();
+      GTSEncoder lastencoder = null;
+      AtomicBoolean attributes = new AtomicBoolean(false);
+
+      try {
+        if (0 == i) {
+          BufferedReader br = new BufferedReader(new StringReader(input));
+          String line;
+          while (null != (line = br.readLine())) {
+            line = line.trim();
+            if (0 == line.length() || '#' == line.charAt(0)) {
+              continue;
+            }
+            GTSEncoder encoder = GTSHelper.parse(lastencoder, line, extraLabels, NOW, Long.MAX_VALUE, attributes, null, null, null, false);
+            if (encoder != lastencoder && null != lastencoder) {
+              result.add(describe(lastencoder));
+            }
+            lastencoder = encoder;
+          }
+        } else {
+          // Use a small buffer so lines span buffer boundaries
+          GTSLineParser parser = new GTSLineParser(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), 16);
+          while (parser.next()) {
+            GTSEncoder encoder = parser.parse(lastencoder, extraLabels, NOW, Long.MAX_VALUE, attributes, null, null, null, false);
+            if (encoder != lastencoder && null != lastencoder) {
+              result.add(describe(lastencoder));
+            }
+            lastencoder = encoder;
+          }
+        }
+        if (null != lastencoder) {
+          result.add(describe(lastencoder));
+        }
+      } catch (ParseException pe) {
+        result.add(pe.getMessage() + " @" + pe.getErrorOffset());
+      }
+
+      results[i] = result;
+    }
+
+    return results;
+  }
+
+  private static String describe(GTSEncoder encoder) throws Exception {
+    return describe(encoder, false);
+  }
+
+  private static String describe(GTSEncoder encoder, boolean clearIds) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    Metadata metadata = encoder.getMetadata();
+    if (clearIds) {
+      metadata = new Metadata(metadata);
+      metadata.unsetClassId();
+      metadata.unsetLabelsId();
+    }
+    sb.append(metadata.toString());
+    sb.append(" ");
+    sb.append(new String(OrderPreservingBase64.encode(encoder.getBytes()), StandardCharsets.US_ASCII));
+    return sb.toString();
+  }
+
+  private static void check(String input, Map<String,String> extraLabels) throws Exception {
+    List<String>[] results = parse(input, extraLabels);
+    Assert.assertEquals(results[0], results[1]);
+  }
+
+  @Test
+  public void testEquivalence() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    sb.append("1000/48.0:-4.5/100 class{label=value,l2=v%20x} 42\n");
+    sb.append("1001// class{label=value,l2=v%20x} 42.5\n");
+    sb.append("=1002// -3\r\n");
+    sb.append("=1003/10/ T\n");
+    sb.append("\n# comment\n   \n");
+    sb.append("1004// class{label=value,l2=v%20x}{attr=1} 'hello%20world'\n");
+    sb.append("1005// other{} false\n");
+    sb.append("1006// other{} 1.0E3\n");
+    sb.append("1007// other{} b64:AAEC\n");
+    sb.append("// other{} 1234567890123456789012\n");
+    sb.append("T-10// other{} +12.5\n");
+    sb.append("1008/123456/ other{} -9223372036854775808\n");
+    sb.append("1009// other{} 0.12345678901234\n");
+    sb.append("1010// other{} -.5\n");
+    sb.append("1011// other{} TRUE\n");
+    sb.append("  1012// class{label=value,l2=v%20x} 7  \n");
+    sb.append("1013// class{label=value,l2=v%20x} HH:1.0:2.0\n");
+    sb.append("1014// class{label=value,l2=v%20x} \"x\"");
+
+    check(sb.toString(), null);
+
+    Map<String,String> extraLabels = new HashMap<String,String>();
+    extraLabels.put(".app", "test");
+    check(sb.toString(), extraLabels);
+  }
+
+  /**
+   * Lines are trimmed before being parsed, like the standalone ingress always did. The distributed
+   * ingress used to reject padded lines and lines containing only whitespace.
+   */
+  @Test
+  public void testTrimmedLines() throws Exception {
+    String input = "\t 1// a{x=1} 1 \t\n \t \n  # comment\n=2// 2   \r\n\n";
+
+    GTSLineParser parser = new GTSLineParser(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), 16);
+
+    List<String> lines = new ArrayList<String>();
+    GTSEncoder encoder = null;
+
+    while (parser.next()) {
+      lines.add(parser.getLine());
+      encoder = parser.parse(encoder, null, NOW, Long.MAX_VALUE, new AtomicBoolean(false), null, null, null, false);
+    }
+
+    Assert.assertEquals(2, lines.size());
+    Assert.assertEquals("1// a{x=1} 1", lines.get(0));
+    Assert.assertEquals("=2// 2", lines.get(1));
+
+    Assert.assertEquals(parse("1// a{x=1} 1\n=2// 2\n", null)[1], Collections.singletonList(describe(encoder)));
+  }
+
+  @Test
+  public void testSeriesCache() throws Exception {
+    long[] classKey = new long[] { 1L, 2L };
+    long[] labelsKey = new long[] { 3L, 4L };
+
+    SeriesCache cache = new SeriesCache(2, classKey, labelsKey);
+
+    Map<String,String> extraLabels = new HashMap<String,String>();
+    extraLabels.put(".app", "test");
+
+    String input = "1// a{x=1} 1\n2// b{x=1} 2\n3// a{x=1} 3\n4// c{x=%20} 4\n5// a{x=1} 5\n6// b{x=1} 6\n";
+
+    List<String> expected = parse(input, extraLabels)[0];
+
+    // Parse the input several times so the series are resolved by the cache and evicted from it
+    for (int i = 0; i < 3; i++) {
+      List<String> result = new ArrayList<String>();
+      GTSLineParser parser = new GTSLineParser(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), 16);
+      parser.setSeriesCache(cache, extraLabels);
+
+      GTSEncoder lastencoder = null;
+
+      while (parser.next()) {
+        GTSEncoder encoder = parser.parse(lastencoder, extraLabels, NOW, Long.MAX_VALUE, null, null, null, null, false);
+
+        Assert.assertEquals(GTSHelper.classId(classKey, encoder.getName()), encoder.getClassId());
+        Assert.assertEquals(GTSHelper.labelsId(labelsKey, encoder.getMetadata().getLabels()), encoder.getLabelsId());
+
+        if (encoder != lastencoder && null != lastencoder) {
+          result.add(describe(lastencoder, true));
+        }
+        lastencoder = encoder;
+      }
+      result.add(describe(lastencoder, true));
+
+      Assert.assertEquals(expected, result);
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    String[] lines = new String[] {
+      "abc// x{} 1",
+      "1/ x{} 1",
+      "1// x{a=b 1",
+      "1// x{} tru",
+      "=1// 1",
+      "1// x{} 99999999999999999999999",
+      "1/a:b/ x{} 1",
+      "1//z x{} 1",
+      "1// x{a} 1",
+      "1// x{}",
+    };
+
+    for (String line: lines) {
+      check(line, null);
+    }
+  }
+
+  @Test
+  public void testParseLong() throws Exception {
+    String[] values = new String[] { "0", "-0", "+12", "-9223372036854775808", "9223372036854775807", "9223372036854775808", "-9223372036854775809", "", "-", "+", "1a", "--1" };
+
+    for (String value: values) {
+      byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+      String expected;
+      String actual;
+      try {
+        expected = Long.toString(Long.parseLong(value));
+      } catch (NumberFormatException nfe) {
+        expected = "NFE";
+      }
+      try {
+        actual = Long.toString(GTSLineParser.parseLong(bytes, 0, bytes.length));
+      } catch (NumberFormatException nfe) {
+        actual = "NFE";
+      }
+      Assert.assertEquals(value, expected, actual);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.store.thrift.data.GTSWrapper;
+
+public class GTSWrapperParserTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  private static void write(ByteArrayOutputStream out, GTSEncoder encoder, boolean compress) throws Exception {
+    GTSWrapper wrapper = GTSWrapperHelper.fromGTSEncoderToGTSWrapper(encoder, compress);
+    byte[] bytes = new TSerializer(new TCompactProtocol.Factory()).serialize(wrapper);
+    out.write(Varint.encodeUnsignedLong(bytes.length));
+    out.write(bytes);
+  }
+
+  private static GTSEncoder encoder(String name, long... timestamps) throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setName(name);
+    encoder.getMetadata().setLabels(new HashMap<String,String>());
+    encoder.getMetadata().getLabels().put("label", "value");
+    encoder.getMetadata().getLabels().put(".app", "spoofed");
+    for (long ts: timestamps) {
+      encoder.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts * 2);
+    }
+    return encoder;
+  }
+
+  @Test
+  public void testParse() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    write(out, encoder("a", 1L, 2L, 3L), false);
+    write(out, encoder("b", 10L, 20L), true);
+
+    Map<String,String> extraLabels = new HashMap<String,String>();
+    extraLabels.put(".app", "test");
+
+    GTSWrapperParser parser = new GTSWrapperParser(new ByteArrayInputStream(out.toByteArray()));
+
+    Assert.assertTrue(parser.next());
+    GTSEncoder encoder = parser.parse(extraLabels, Long.MAX_VALUE, new AtomicBoolean(), null, null, null);
+    Assert.assertEquals("a", encoder.getName());
+    Assert.assertEquals("test", encoder.getMetadata().getLabels().get(".app"));
+    Assert.assertEquals("value", encoder.getMetadata().getLabels().get("label"));
+    Assert.assertEquals(3L, encoder.getCount());
+    Assert.assertFalse(encoder.getMetadata().isSetClassId());
+
+    // Datapoints before 15 are ignored
+    AtomicLong ignored = new AtomicLong();
+    Assert.assertTrue(parser.next());
+    encoder = parser.parse(extraLabels, Long.MAX_VALUE, new AtomicBoolean(), 15L, null, ignored);
+    Assert.assertEquals("b", encoder.getName());
+    Assert.assertEquals(1L, encoder.getCount());
+    Assert.assertEquals(1L, ignored.get());
+
+    GTSDecoder decoder = encoder.getDecoder();
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(20L, decoder.getTimestamp());
+    Assert.assertEquals(40L, ((Number) decoder.getValue()).longValue());
+
+    Assert.assertFalse(parser.next());
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(out, encoder("a", 1L), false);
+
+    // Rejected timestamp
+    GTSWrapperParser parser = new GTSWrapperParser(new ByteArrayInputStream(out.toByteArray()));
+    Assert.assertTrue(parser.next());
+    try {
+      parser.parse(null, Long.MAX_VALUE, null, 2L, null, null);
+      Assert.fail();
+    } catch (ParseException pe) {
+    }
+
+    // Truncated stream
+    byte[] bytes = out.toByteArray();
+    parser = new GTSWrapperParser(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+    try {
+      parser.next();
+      Assert.fail();
+    } catch (IOException ioe) {
+    }
+
+    // Wrapper too large
+    parser = new GTSWrapperParser(new ByteArrayInputStream(bytes), 2);
+    try {
+      parser.next();
+      Assert.fail();
+    } catch (IOException ioe) {
+    }
+  }
+
+  private static byte[] gzip(byte[] bytes, int repeat) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(baos);
+    for (int i = 0; i < repeat; i++) {
+      out.write(bytes);
+    }
+    out.close();
+    return baos.toByteArray();
+  }
+
+  private static byte[] serialize(GTSWrapper wrapper) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] bytes = new TSerializer(new TCompactProtocol.Factory()).serialize(wrapper);
+    out.write(Varint.encodeUnsignedLong(bytes.length));
+    out.write(bytes);
+    return out.toByteArray();
+  }
+
+  private static void assertRejected(GTSWrapperParser parser) throws Exception {
+    Assert.assertTrue(parser.next());
+    try {
+      parser.parse(null, Long.MAX_VALUE, null, null, null, null);
+      Assert.fail();
+    } catch (ParseException pe) {
+    }
+  }
+
+  @Test
+  public void testGzipBomb() throws Exception {
+    GTSWrapper wrapper = GTSWrapperHelper.fromGTSEncoderToGTSWrapper(encoder("a", 1L), false);
+
+    // 16MB of zeros compressed twice fit in a few hundred bytes
+    wrapper.setEncoded(gzip(gzip(new byte[1024 * 1024], 16), 1));
+    wrapper.setCompressed(true);
+    wrapper.setCompressionPasses(2);
+
+    byte[] bytes = serialize(wrapper);
+    Assert.assertTrue(bytes.length < 1024);
+
+    // Inflation stops at the limit
+    assertRejected(new GTSWrapperParser(new ByteArrayInputStream(bytes), GTSWrapperParser.DEFAULT_MAX_WRAPPER_SIZE, 1024 * 1024, GTSWrapperParser.DEFAULT_MAX_COMPRESSION_PASSES));
+
+    // Too many compression passes
+    wrapper.setCompressionPasses(GTSWrapperParser.DEFAULT_MAX_COMPRESSION_PASSES + 1);
+    assertRejected(new GTSWrapperParser(new ByteArrayInputStream(serialize(wrapper))));
+
+    // Invalid compressed content
+    wrapper.setEncoded(new byte[] { 1, 2, 3, 4 });
+    wrapper.setCompressionPasses(1);
+    assertRejected(new GTSWrapperParser(new ByteArrayInputStream(serialize(wrapper))));
+  }
+}
@@ -0,0 +1,107 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+
+public class GeoTimeSerieTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  private static GeoTimeSerie gts(long... ticks) {
+    GeoTimeSerie gts = new GeoTimeSerie();
+    for (long tick: ticks) {
+      GTSHelper.setValue(gts, tick, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, tick * 10L, false);
+    }
+    return gts;
+  }
+
+  @Test
+  public void testCloneCopyOnWrite() {
+    GeoTimeSerie gts = gts(3L, 1L, 2L);
+    GeoTimeSerie clone = gts.clone();
+
+    Assert.assertSame(gts.ticks, clone.ticks);
+
+    // Modifying the clone leaves the original untouched
+    GTSHelper.setValue(clone, 4L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 40L, false);
+    GTSHelper.setLocationAtIndex(clone, 0, 42L);
+    GTSHelper.sort(clone);
+
+    Assert.assertEquals(3, GTSHelper.nvalues(gts));
+    Assert.assertEquals(3L, GTSHelper.tickAtIndex(gts, 0));
+    Assert.assertEquals(30L, GTSHelper.valueAtIndex(gts, 0));
+    Assert.assertFalse(gts.hasLocations());
+
+    Assert.assertEquals(4, GTSHelper.nvalues(clone));
+    Assert.assertEquals(1L, GTSHelper.tickAtIndex(clone, 0));
+
+    // Modifying the original leaves a clone untouched
+    clone = gts.clone();
+    GTSHelper.sort(gts);
+
+    Assert.assertEquals(1L, GTSHelper.tickAtIndex(gts, 0));
+    Assert.assertEquals(3L, GTSHelper.tickAtIndex(clone, 0));
+    Assert.assertEquals(30L, GTSHelper.valueAtIndex(clone, 0));
+  }
+
+  @Test
+  public void testSubSerieView() {
+    GeoTimeSerie gts = gts(1L, 2L, 3L, 4L);
+
+    GeoTimeSerie head = GTSHelper.subSerie(gts, 0L, 2L, false);
+    GeoTimeSerie tail = GTSHelper.timeclip(gts, 3L, 10L);
+
+    Assert.assertSame(gts.ticks, head.ticks);
+    Assert.assertEquals(2, GTSHelper.nvalues(head));
+    Assert.assertEquals(2, GTSHelper.nvalues(tail));
+    Assert.assertEquals(3L, GTSHelper.tickAtIndex(tail, 0));
+    Assert.assertEquals(40L, GTSHelper.valueAtIndex(tail, 1));
+
+    // Appending to the view must not overwrite the third datapoint of gts
+    GTSHelper.setValue(head, 5L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 50L, false);
+
+    Assert.assertEquals(3L, GTSHelper.tickAtIndex(gts, 2));
+    Assert.assertEquals(30L, GTSHelper.valueAtIndex(gts, 2));
+    Assert.assertEquals(5L, GTSHelper.tickAtIndex(head, 2));
+  }
+
+  @Test
+  public void testMergeIntoEmpty() {
+    GeoTimeSerie gts = gts(1L, 2L);
+    GeoTimeSerie base = GTSHelper.merge(new GeoTimeSerie(), gts);
+
+    Assert.assertEquals(2, GTSHelper.nvalues(base));
+
+    GTSHelper.merge(base, gts(3L));
+    GTSHelper.setValue(gts, 0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 0L, false);
+
+    Assert.assertEquals(3, GTSHelper.nvalues(base));
+    Assert.assertEquals(3L, GTSHelper.tickAtIndex(base, 2));
+    Assert.assertEquals(3, GTSHelper.nvalues(gts));
+    Assert.assertEquals(0L, GTSHelper.tickAtIndex(gts, 2));
+  }
+}
@@ -0,0 +1,176 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.geoxp.GeoXPLib;
+
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+
+public class JsonUtilsTest {
+
+  private static final double[] NUMBERS = new double[] {
+      0.0D, -0.0D, 1.0D, -1.0D, 0.5D, -0.5D, 42.0D, 1.0E-5D, 123456.789D,
+      9999999.0D, -9999999.0D, 1.0E7D, -1.0E7D, 1.0E7D + 1.0D, 9999999.5D,
+      (double) Long.MAX_VALUE, (double) Long.MIN_VALUE, Double.MAX_VALUE, Double.MIN_VALUE,
+      Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+  };
+
+  @Test
+  public void testWriteNumber() throws Exception {
+    for (boolean strict: new boolean[] { false, true }) {
+      char[] buf = new char[JsonUtils.NUMBER_BUFFER_SIZE];
+
+      for (double d: NUMBERS) {
+        // writeNumber must produce exactly what the generator produces
+        StringWriter expected = new StringWriter();
+        JsonGenerator gen = JsonUtils.createGenerator(expected, strict);
+        gen.writeStartArray();
+        gen.writeNumber(d);
+        gen.writeNumber(d);
+        gen.writeEndArray();
+        gen.close();
+
+        StringWriter actual = new StringWriter();
+        gen = JsonUtils.createGenerator(actual, strict);
+        gen.writeStartArray();
+        JsonUtils.writeNumber(gen, d, buf);
+        JsonUtils.writeNumber(gen, d, buf);
+        gen.writeEndArray();
+        gen.close();
+
+        Assert.assertEquals(Double.toString(d), expected.toString(), actual.toString());
+      }
+    }
+
+    char[] buf = new char[JsonUtils.NUMBER_BUFFER_SIZE];
+
+    Assert.assertEquals("[0.0,-0.0,-9999999.0,9999999.0,1.0E7,-1.0E7,0.5]", writeNumbers(false, buf, 0.0D, -0.0D, -9999999.0D, 9999999.0D, 1.0E7D, -1.0E7D, 0.5D));
+    Assert.assertEquals("[NaN,Infinity,-Infinity]", writeNumbers(false, buf, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+    Assert.assertEquals("[\"NaN\",\"Infinity\",\"-Infinity\"]", writeNumbers(true, buf, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY));
+  }
+
+  @Test
+  public void testObjectToJson() throws Exception {
+    Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+    map.put("a", Arrays.asList(1.5D, Double.NaN));
+    map.put(null, 1L);
+
+    List<Object> list = new ArrayList<Object>();
+    list.add(1L);
+    list.add(2.0D);
+    list.add(-0.0D);
+    list.add(1.0E7D);
+    list.add("\u00e9\"\n");
+    list.add(null);
+    list.add(true);
+    list.add(Double.NEGATIVE_INFINITY);
+    list.add(Arrays.asList(new ArrayList<Object>()));
+    list.add(map);
+
+    Assert.assertEquals("[1,2.0,-0.0,1.0E7,\"\\u00E9\\\"\\n\",null,true,-Infinity,[[]],{\"a\":[1.5,NaN],\"null\":1}]", JsonUtils.objectToJson(list, false));
+    Assert.assertEquals("[1,2.0,-0.0,1.0E7,\"\\u00E9\\\"\\n\",null,true,\"-Infinity\",[[]],{\"a\":[1.5,\"NaN\"],\"null\":1}]", JsonUtils.objectToJson(list, true));
+
+    // Bounded output is identical as long as the bound is not reached
+    Assert.assertEquals(JsonUtils.objectToJson(list, false), JsonUtils.objectToJson(list, false, 1000L));
+
+    try {
+      JsonUtils.objectToJson(list, false, 10L);
+      Assert.fail("Bound was not enforced.");
+    } catch (IOException ioe) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testGTS() throws Exception {
+    GeoTimeSerie gts = new GeoTimeSerie();
+    gts.setName("foo");
+    gts.setLabel("k", "v");
+    GTSHelper.setValue(gts, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 10L, false);
+    GTSHelper.setValue(gts, 2L, GeoTimeSerie.NO_LOCATION, 20L, 100L, false);
+
+    Assert.assertEquals("{\"c\":\"foo\",\"l\":{\"k\":\"v\"},\"a\":{},\"la\":0,\"v\":[[1,10],[2,20,100]]}", JsonUtils.objectToJson(gts, false));
+
+    long location = GeoXPLib.toGeoXPPoint(48.0D, -4.5D);
+    double[] latlon = GeoXPLib.fromGeoXPPoint(location);
+
+    gts = new GeoTimeSerie();
+    gts.setName("bar");
+    GTSHelper.setValue(gts, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 3.0D, false);
+    GTSHelper.setValue(gts, 2L, location, 5L, Double.NaN, false);
+    GTSHelper.setValue(gts, 3L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, -0.25D, false);
+
+    String values = "[[1,3.0],[2," + latlon[0] + "," + latlon[1] + ",5,%s],[3,-0.25]]";
+
+    Assert.assertEquals("{\"c\":\"bar\",\"l\":{},\"a\":{},\"la\":0,\"v\":" + String.format(values, "NaN") + "}", JsonUtils.objectToJson(gts, false));
+    Assert.assertEquals("{\"c\":\"bar\",\"l\":{},\"a\":{},\"la\":0,\"v\":" + String.format(values, "\"NaN\"") + "}", JsonUtils.objectToJson(gts, true));
+
+    gts = new GeoTimeSerie();
+    GTSHelper.setValue(gts, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, true, false);
+    Assert.assertEquals("{\"c\":\"\",\"l\":{},\"a\":{},\"la\":0,\"v\":[[1,true]]}", JsonUtils.objectToJson(gts, false));
+
+    gts = new GeoTimeSerie();
+    GTSHelper.setValue(gts, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, "\u00e9", false);
+    Assert.assertEquals("{\"c\":\"\",\"l\":{},\"a\":{},\"la\":0,\"v\":[[1,\"\\u00E9\"]]}", JsonUtils.objectToJson(gts, false));
+  }
+
+  @Test
+  public void testGTSEncoder() throws Exception {
+    long location = GeoXPLib.toGeoXPPoint(48.0D, -4.5D);
+    double[] latlon = GeoXPLib.fromGeoXPPoint(location);
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setName("foo");
+    encoder.setLabel("k", "v");
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 10L);
+    encoder.addValue(2L, location, 5L, 0.5D);
+    encoder.addValue(3L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, Double.POSITIVE_INFINITY);
+    encoder.addValue(4L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, false);
+    encoder.addValue(5L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, "s");
+
+    String json = "{\"c\":\"foo\",\"l\":{\"k\":\"v\"},\"a\":{},\"la\":0,\"v\":[[1,10],[2," + latlon[0] + "," + latlon[1] + ",5,0.5],[3,%s],[4,false],[5,\"s\"]]}";
+
+    Assert.assertEquals(String.format(json, "Infinity"), JsonUtils.objectToJson(encoder, false));
+    Assert.assertEquals(String.format(json, "\"Infinity\""), JsonUtils.objectToJson(encoder, true));
+  }
+
+  private static String writeNumbers(boolean strict, char[] buf, double... numbers) throws IOException {
+    StringWriter writer = new StringWriter();
+    JsonGenerator gen = JsonUtils.createGenerator(writer, strict);
+    gen.writeStartArray();
+    for (double d: numbers) {
+      JsonUtils.writeNumber(gen, d, buf);
+    }
+    gen.writeEndArray();
+    gen.close();
+    return writer.toString();
+  }
+}
@@ -0,0 +1,105 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.StringReader;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+
+public class CompiledMacroTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  private static MemoryWarpScriptStack stack(boolean compile) {
+    Properties props = new Properties();
+    props.setProperty(Configuration.WARPSCRIPT_MACRO_COMPILE, Boolean.toString(compile));
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null, props);
+    stack.maxLimits();
+    return stack;
+  }
+
+  /**
+   * Execute a script with and without macro compilation and check the results, the number
+   * of operations and the error messages are identical
+   */
+  private static void check(String script) throws Exception {
+    String[] results = new String[2];
+    Object[] ops = new Object[2];
+
+    for (int i = 0; i < 2; i++) {
+      MemoryWarpScriptStack stack = stack(1 == i);
+
+      try {
+        stack.execMulti(script);
+        stack.execMulti("SNAPSHOT");
+        results[i] = String.valueOf(stack.pop());
+      } catch (WarpScriptException wse) {
+        StringBuilder sb = new StringBuilder();
+        Throwable t = wse;
+        while (null != t) {
+          sb.append(t.getMessage());
+          sb.append("\n");
+          t = t.getCause();
+        }
+        results[i] = sb.toString();
+      }
+
+      ops[i] = stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS);
+    }
+
+    Assert.assertEquals(results[0], results[1]);
+    Assert.assertEquals(ops[0], ops[1]);
+  }
+
+  @Test
+  public void testResults() throws Exception {
+    check("<% 'x' STORE 1 2 3 + + $x * 'a' 'b' + %> 'm' STORE 0 100 <% @m %> FOR DEPTH");
+    check("<% <% 1 %> <% 2 %> IFTE 42 %> 'm' STORE true @m false @m");
+    check("[ 1 2 3 ] <% 2 * %> FOREACH <% %> EVAL 1.0 'end'");
+    check("<% 1 2 3 RETURN 4 5 %> EVAL 6");
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    check("<% 1 2 'a' - %> 'm' STORE @m");
+    check("<% 1 2 %> 'm' STORE <% @m 3 4 5 %> 'n' STORE 8 MAXDEPTH 0 10 <% DROP @n %> FOR");
+    check("<% 0 1000 <% DROP 1 2 3 DROP DROP DROP %> FOR %> 'm' STORE 100 MAXOPS @m");
+    check("<% 1 2 <% 'error' MSGFAIL %> <% %> <% %> TRY 3 %> EVAL");
+  }
+
+  @Test
+  public void testModifiedMacro() throws Exception {
+    MemoryWarpScriptStack stack = stack(true);
+
+    stack.execMulti("<% 1 2 + %> DUP EVAL");
+    Assert.assertEquals(3L, stack.pop());
+
+    WarpScriptStack.Macro macro = (WarpScriptStack.Macro) stack.peek();
+    macro.statements().set(1, 5L);
+    stack.execMulti("EVAL");
+    Assert.assertEquals(6L, stack.pop());
+  }
+}
@@ -0,0 +1,318 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HyperLogLogPlusTest {
+
+  private static final int P = 14;
+  private static final int PPRIME = 25;
+
+  private static long[] hashes(long seed, int n) {
+    Random random = new Random(seed);
+    long[] hashes = new long[n];
+    for (int i = 0; i < n; i++) {
+      hashes[i] = random.nextLong();
+    }
+    return hashes;
+  }
+
+  private static void assertEstimate(long expected, long actual, double error) {
+    Assert.assertTrue("Estimated " + actual + " instead of " + expected, Math.abs(actual - expected) <= expected * error);
+  }
+
+  @Test
+  public void testRegisters() throws Exception {
+    HyperLogLogPlus hllp = new HyperLogLogPlus(P, P);
+    int m = 1 << P;
+    byte[] expected = new byte[m];
+
+    Random random = new Random(0L);
+
+    // Every register offset within a byte is exercised as 6 bit registers span 4 bytes every 4 registers
+    for (int round = 0; round < 4; round++) {
+      for (int i = 0; i < m; i++) {
+        byte rho = (byte) random.nextInt(64);
+        hllp.setRho(i, rho);
+        expected[i] = (byte) Math.max(expected[i], rho);
+      }
+    }
+
+    for (int i = 0; i < m; i++) {
+      Assert.assertEquals("Register " + i, expected[i], hllp.getRho(i));
+    }
+
+    // Lower values never replace higher ones
+    for (int i = 0; i < m; i++) {
+      Assert.assertEquals(expected[i], hllp.setRho(i, (byte) 0));
+      Assert.assertEquals(expected[i], hllp.getRho(i));
+    }
+  }
+
+  @Test
+  public void testSparseToNormal() throws Exception {
+    long[] hashes = hashes(1L, 1000);
+
+    HyperLogLogPlus sparse = new HyperLogLogPlus(P, PPRIME);
+    HyperLogLogPlus normal = new HyperLogLogPlus(P, PPRIME);
+    normal.toNormal();
+
+    for (long hash: hashes) {
+      sparse.aggregate(hash);
+      normal.aggregate(hash);
+    }
+
+    assertEstimate(hashes.length, sparse.cardinality(), 0.02);
+    assertEstimate(hashes.length, normal.cardinality(), 0.05);
+
+    // Values seen before the conversion are still known after it
+    sparse.toNormal();
+    assertEstimate(hashes.length, sparse.cardinality(), 0.05);
+    for (long hash: hashes) {
+      Assert.assertFalse(sparse.isNew(hash));
+    }
+
+    // Aggregating more values switches to the normal format on its own
+    HyperLogLogPlus hllp = new HyperLogLogPlus(P, PPRIME);
+    hashes = hashes(2L, 100000);
+    for (long hash: hashes) {
+      hllp.aggregate(hash);
+    }
+    assertEstimate(hashes.length, hllp.cardinality(), 0.03);
+    for (long hash: hashes) {
+      Assert.assertFalse(hllp.isNew(hash));
+    }
+  }
+
+  @Test
+  public void testFuse() throws Exception {
+    long[] a = hashes(3L, 20000);
+    long[] b = hashes(4L, 30000);
+
+    // Sparse with normal, sparse with sparse and normal with normal
+    for (int mode = 0; mode < 3; mode++) {
+      HyperLogLogPlus ha = new HyperLogLogPlus(P, PPRIME);
+      HyperLogLogPlus hb = new HyperLogLogPlus(P, PPRIME);
+
+      if (mode > 0) {
+        ha.toNormal();
+      }
+      if (mode > 1) {
+        hb.toNormal();
+      }
+
+      for (long hash: a) {
+        ha.aggregate(hash);
+      }
+      for (long hash: b) {
+        hb.aggregate(hash);
+      }
+
+      ha.fuse(hb);
+
+      assertEstimate(a.length + b.length, ha.cardinality(), 0.03);
+      for (long hash: b) {
+        Assert.assertFalse(ha.isNew(hash));
+      }
+
+      // Fusing the same values again does not change the estimate
+      long cardinality = ha.cardinality();
+      ha.fuse(hb);
+      Assert.assertEquals(cardinality, ha.cardinality());
+    }
+
+    try {
+      new HyperLogLogPlus(P, PPRIME).fuse(new HyperLogLogPlus(P + 1, PPRIME));
+      Assert.fail("Estimators with different p were fused");
+    } catch (java.io.IOException ioe) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    long[] hashes = hashes(5L, 5000);
+
+    for (int mode = 0; mode < 2; mode++) {
+      HyperLogLogPlus hllp = new HyperLogLogPlus(P, PPRIME);
+      if (mode > 0) {
+        hllp.toNormal();
+      }
+      hllp.setKey("key");
+      hllp.setInitTime(1234567890L);
+
+      // Leave values in the sparse temporary set so they have to be merged when serializing
+      for (int i = 0; i < hashes.length - 1; i++) {
+        hllp.aggregate(hashes[i]);
+      }
+
+      byte[] bytes = hllp.toBytes();
+      HyperLogLogPlus copy = HyperLogLogPlus.fromBytes(bytes);
+
+      Assert.assertEquals("key", copy.getKey());
+      Assert.assertEquals(1234567890L, copy.getInitTime());
+      Assert.assertEquals(P, copy.getP());
+      Assert.assertEquals(PPRIME, copy.getPPrime());
+      Assert.assertEquals(hllp.cardinality(), copy.cardinality());
+      Assert.assertArrayEquals(bytes, copy.toBytes());
+
+      for (int i = 0; i < hashes.length - 1; i++) {
+        Assert.assertFalse(copy.isNew(hashes[i]));
+      }
+
+      // The copy can still be updated
+      copy.aggregate(hashes[hashes.length - 1]);
+      Assert.assertFalse(copy.isNew(hashes[hashes.length - 1]));
+    }
+  }
+
+  @Test
+  public void testSparseIsNewPending() throws Exception {
+    HyperLogLogPlus hllp = new HyperLogLogPlus(P, PPRIME);
+
+    // Values still pending in the temporary set of a SPARSE estimator must not be reported as new
+    long[] hashes = hashes(6L, 100);
+
+    for (long hash: hashes) {
+      Assert.assertTrue(hllp.isNew(hash));
+      hllp.aggregate(hash);
+      Assert.assertFalse(hllp.isNew(hash));
+    }
+
+    for (long hash: hashes) {
+      Assert.assertFalse(hllp.isNew(hash));
+    }
+
+    // Fill the temporary set so the values get merged in the sparse list and check them again
+    long[] more = hashes(7L, 2000);
+
+    for (long hash: more) {
+      hllp.aggregate(hash);
+    }
+
+    for (long hash: hashes) {
+      Assert.assertFalse(hllp.isNew(hash));
+    }
+    for (long hash: more) {
+      Assert.assertFalse(hllp.isNew(hash));
+    }
+  }
+
+  @Test
+  public void testConcurrentIsNew() throws Exception {
+    final HyperLogLogPlus hllp = new HyperLogLogPlus(P, P);
+
+    int m = 1 << P;
+
+    //
+    // Build hashes so each register is first set to 1 then raised by every added hash,
+    // readers keep checking the register values while they are being updated
+    //
+
+    final long[] known = new long[m];
+    final long[] added = new long[m * 40];
+
+    for (int i = 0; i < m; i++) {
+      known[i] = ((long) i << (64 - P)) | (1L << (63 - P));
+      for (int rho = 2; rho <= 41; rho++) {
+        added[(rho - 2) * m + i] = ((long) i << (64 - P)) | (1L << (64 - P - rho));
+      }
+    }
+
+    for (long hash: known) {
+      hllp.aggregate(hash);
+    }
+
+    final int writers = 2;
+    final int readers = 4;
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+
+    Thread[] threads = new Thread[writers + readers];
+
+    for (int i = 0; i < writers; i++) {
+      final int offset = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            // Writers handle distinct registers so each one is raised in order
+            for (int j = offset; j < added.length; j += writers) {
+              hllp.aggregate(added[j]);
+            }
+          } catch (Exception e) {
+            failure.compareAndSet(null, e.toString());
+          }
+        }
+      };
+    }
+
+    for (int i = writers; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            while (!done.get()) {
+              for (long hash: known) {
+                // Registers only grow so a value seen before can never be reported as new
+                if (hllp.isNew(hash)) {
+                  failure.compareAndSet(null, "Known value " + hash + " reported as new");
+                  return;
+                }
+              }
+            }
+          } catch (Exception e) {
+            failure.compareAndSet(null, e.toString());
+          }
+        }
+      };
+    }
+
+    for (Thread thread: threads) {
+      thread.start();
+    }
+
+    start.countDown();
+
+    for (int i = 0; i < writers; i++) {
+      threads[i].join();
+    }
+
+    done.set(true);
+
+    for (int i = writers; i < threads.length; i++) {
+      threads[i].join();
+    }
+
+    Assert.assertNull(failure.get(), failure.get());
+
+    for (long hash: added) {
+      Assert.assertFalse(hllp.isNew(hash));
+    }
+  }
+}
@@ -0,0 +1,132 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+
+public class StackUtilsTest {
+
+  private static final String LOOSE = "[{\"c\":\"foo\",\"l\":{},\"a\":{},\"la\":0,\"v\":[[1,2],[3,4,5]]},{\"a\":null},[1,[2.5,[]]],\"\\u00E9\",-Infinity,NaN,-0.0,2.0,1]";
+  private static final String STRICT = "[{\"c\":\"foo\",\"l\":{},\"a\":{},\"la\":0,\"v\":[[1,2],[3,4,5]]},{\"a\":null},[1,[2.5,[]]],\"\\u00E9\",\"-Infinity\",\"NaN\",-0.0,2.0,1]";
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  private static MemoryWarpScriptStack stack(boolean strict) throws WarpScriptException {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    if (strict) {
+      stack.setAttribute(WarpScriptStack.ATTRIBUTE_JSON_STRICT, true);
+    }
+
+    stack.push(1L);
+    stack.push(2.0D);
+    stack.push(-0.0D);
+    stack.push(Double.NaN);
+    stack.push(Double.NEGATIVE_INFINITY);
+    stack.push("\u00e9");
+
+    List<Object> list = new ArrayList<Object>();
+    list.add(1L);
+    list.add(Arrays.asList(2.5D, new ArrayList<Object>()));
+    stack.push(list);
+
+    Map<Object, Object> map = new HashMap<Object, Object>();
+    map.put("a", null);
+    stack.push(map);
+
+    GeoTimeSerie gts = new GeoTimeSerie();
+    gts.setName("foo");
+    GTSHelper.setValue(gts, 1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 2L, false);
+    GTSHelper.setValue(gts, 3L, GeoTimeSerie.NO_LOCATION, 4L, 5L, false);
+    stack.push(gts);
+
+    return stack;
+  }
+
+  private static String toJSON(WarpScriptStack stack, int maxdepth, long maxJsonSize) throws Exception {
+    StringWriter writer = new StringWriter();
+    PrintWriter pw = new PrintWriter(writer);
+    StackUtils.toJSON(pw, stack, maxdepth, maxJsonSize);
+    pw.flush();
+    return writer.toString();
+  }
+
+  @Test
+  public void testToJSON() throws Exception {
+    // Streaming output, no size limit
+    Assert.assertEquals(LOOSE, toJSON(stack(false), Integer.MAX_VALUE, Long.MAX_VALUE));
+    Assert.assertEquals(STRICT, toJSON(stack(true), Integer.MAX_VALUE, Long.MAX_VALUE));
+
+    // Output level by level, with a size limit
+    Assert.assertEquals(LOOSE, toJSON(stack(false), Integer.MAX_VALUE, Long.MAX_VALUE - 1));
+    Assert.assertEquals(STRICT, toJSON(stack(true), Integer.MAX_VALUE, Long.MAX_VALUE - 1));
+
+    StringWriter writer = new StringWriter();
+    PrintWriter pw = new PrintWriter(writer);
+    StackUtils.toJSON(pw, stack(false));
+    pw.flush();
+    Assert.assertEquals(LOOSE, writer.toString());
+  }
+
+  @Test
+  public void testMaxDepth() throws Exception {
+    String expected = "[{\"c\":\"foo\",\"l\":{},\"a\":{},\"la\":0,\"v\":[[1,2],[3,4,5]]},{\"a\":null}]";
+
+    Assert.assertEquals(expected, toJSON(stack(false), 2, Long.MAX_VALUE));
+    Assert.assertEquals(expected, toJSON(stack(false), 2, Long.MAX_VALUE - 1));
+    Assert.assertEquals("[]", toJSON(stack(false), 0, Long.MAX_VALUE));
+    Assert.assertEquals("[]", toJSON(stack(false), 0, Long.MAX_VALUE - 1));
+    Assert.assertEquals("[]", toJSON(new MemoryWarpScriptStack(null, null), Integer.MAX_VALUE, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testMaxJsonSize() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.push(1L);
+    stack.push("\u00e9");
+
+    // The limit applies to each level of the stack, the escaped string is 8 chars long
+    Assert.assertEquals("[\"\\u00E9\",1]", toJSON(stack, Integer.MAX_VALUE, 8L));
+
+    try {
+      toJSON(stack, Integer.MAX_VALUE, 7L);
+      Assert.fail("JSON size limit was not enforced.");
+    } catch (IOException ioe) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,163 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+
+public class WarpScriptParseCacheTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  /**
+   * Execute a script from its text and from its parsed form and check the results are identical
+   */
+  private static void check(String script) throws Exception {
+    String[] results = new String[2];
+
+    for (int i = 0; i < 2; i++) {
+      MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+      stack.maxLimits();
+
+      try {
+        if (0 == i) {
+          stack.execMulti(script);
+        } else {
+          WarpScriptParseCache.ParsedScript parsed = new WarpScriptParseCache(1000000L, 1000000).parse(script);
+          for (int j = 0; j < parsed.size(); j++) {
+            stack.exec(parsed, j);
+          }
+        }
+        stack.checkBalanced();
+        stack.exec("SNAPSHOT");
+        results[i] = String.valueOf(stack.pop());
+      } catch (WarpScriptException wse) {
+        results[i] = wse.getMessage();
+        Throwable t = wse.getCause();
+        while (null != t) {
+          results[i] = results[i] + "\n" + t.getMessage();
+          t = t.getCause();
+        }
+        // Strip the line number added by execMulti
+        results[i] = results[i].replaceFirst("^Line #[0-9]+\n", "");
+      }
+    }
+
+    Assert.assertEquals(results[0], results[1]);
+  }
+
+  @Test
+  public void testLiterals() throws Exception {
+    check("1 -2 3.5 0x1F 0b101 0xFFFFFFFFFFFFFFFFF T F true false 'a%20b' \"c d\" 'e f'\n 1.0E3 NaN");
+    check("<% 1 'x' T 0x10 %> 'm' STORE @m $m");
+    check("<'\n  1 2 'a b'\n  3\n'>\n<* 1 2 3 *> 4 // 5\n# 6\n7");
+  }
+
+  @Test
+  public void testStatements() throws Exception {
+    check("'x' 'y' STORE !$y $y 'true' <% 'T' %> 'T' DEF T");
+    check("<S 1 2 + S> EVALSECURE");
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    check("1 2 0xZZ +");
+    check("1 ' +");
+    check("UNKNOWNFUNCTION");
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    WarpScriptParseCache cache = new WarpScriptParseCache(100L, 50);
+
+    WarpScriptParseCache.ParsedScript parsed = cache.parse("1 2 +");
+    Assert.assertSame(parsed, cache.parse("1 2 +"));
+    Assert.assertEquals(1, cache.entries());
+    Assert.assertEquals(5L, cache.size());
+
+    // Same length, different content
+    Assert.assertNotSame(parsed, cache.parse("1 3 +"));
+    Assert.assertEquals(2, cache.entries());
+    Assert.assertEquals(10L, cache.size());
+
+    // Scripts longer than the maximum length are not cached
+    String longScript = "1 2 + 3 4 + 5 6 + 7 8 + 9 10 + 11 12 + 13 14 + 15 16 +";
+    Assert.assertNotSame(cache.parse(longScript), cache.parse(longScript));
+    Assert.assertEquals(2, cache.entries());
+    Assert.assertEquals(10L, cache.size());
+
+    // Disabled cache
+    WarpScriptParseCache disabled = new WarpScriptParseCache(0L, 50);
+    Assert.assertNotSame(disabled.parse("1 2 +"), disabled.parse("1 2 +"));
+    Assert.assertEquals(0, disabled.entries());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    WarpScriptParseCache cache = new WarpScriptParseCache(100L, 100);
+
+    // 20 characters each
+    String[] scripts = new String[6];
+    WarpScriptParseCache.ParsedScript[] parsed = new WarpScriptParseCache.ParsedScript[scripts.length];
+
+    for (int i = 0; i < scripts.length; i++) {
+      scripts[i] = "'script number " + i + "' 1 ";
+      Assert.assertEquals(20, scripts[i].length());
+    }
+
+    for (int i = 0; i < 5; i++) {
+      parsed[i] = cache.parse(scripts[i]);
+    }
+
+    Assert.assertEquals(5, cache.entries());
+    Assert.assertEquals(100L, cache.size());
+
+    // Use the first script so the second one is the least recently used
+    Assert.assertSame(parsed[0], cache.parse(scripts[0]));
+
+    parsed[5] = cache.parse(scripts[5]);
+
+    Assert.assertEquals(5, cache.entries());
+    Assert.assertEquals(100L, cache.size());
+
+    Assert.assertSame(parsed[0], cache.parse(scripts[0]));
+    Assert.assertSame(parsed[5], cache.parse(scripts[5]));
+    Assert.assertSame(parsed[4], cache.parse(scripts[4]));
+
+    // A script of the maximum length evicts all the others
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 100) {
+      sb.append("1 ");
+    }
+
+    cache.parse(sb.toString());
+
+    Assert.assertEquals(1, cache.entries());
+    Assert.assertEquals(100L, cache.size());
+
+    // The evicted scripts are parsed again
+    Assert.assertNotSame(parsed[1], cache.parse(scripts[1]));
+  }
+}
@@ -0,0 +1,227 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package io.warp10.script.ext.sharding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import io.warp10.WarpConfig;
+import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.StackUtils;
+import io.warp10.script.WarpScriptException;
+
+/**
+ * DEVAL against two local shards, the first one replies in binary form, the second one only knows JSON
+ */
+public class DEVALTest {
+
+  private static HttpServer server;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/0", new Shard(0L, true));
+    server.createContext("/1", new Shard(1L, false));
+    server.start();
+
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+    WarpConfig.setProperty(ShardingWarpScriptExtension.SHARDING_BINARY, "true");
+    WarpConfig.setProperty(ShardingWarpScriptExtension.SHARDING_ENDPOINT_PREFIX + "test.2:0", url + "0");
+    WarpConfig.setProperty(ShardingWarpScriptExtension.SHARDING_ENDPOINT_PREFIX + "test.2:1", url + "1");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testMacro() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    stack.execMulti("<% $shard 10 + %>");
+    new DEVAL("DEVAL").apply(stack);
+
+    List<Object> results = (List<Object>) stack.pop();
+
+    Assert.assertEquals(2, results.size());
+
+    checkShards(stack, (List<Object>) results.get(0), (List<Object>) results.get(1));
+  }
+
+  @Test
+  public void testMap() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    stack.execMulti("{ 'macro' <% $shard 10 + %> }");
+    new DEVAL("DEVAL").apply(stack);
+
+    List<Object> results = (List<Object>) stack.pop();
+
+    Assert.assertEquals(0, stack.depth());
+    Assert.assertEquals(2, results.size());
+
+    checkShards(stack, (List<Object>) results.get(0), (List<Object>) results.get(1));
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    // Concatenate the levels of the shards
+    stack.execMulti("{ 'macro' <% $shard 10 + %> 'merge' <% APPEND %> }");
+    new DEVAL("DEVAL").apply(stack);
+
+    List<Object> merged = (List<Object>) stack.pop();
+
+    Assert.assertEquals(0, stack.depth());
+    Assert.assertEquals(2, merged.size());
+
+    checkShards(stack, merged.subList(0, 1), merged.subList(1, 2));
+  }
+
+  @Test
+  public void testInvalidMerge() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    stack.execMulti("{ 'macro' <% 1 %> 'merge' 'APPEND' }");
+
+    try {
+      new DEVAL("DEVAL").apply(stack);
+      Assert.fail("A merge which is not a macro was accepted.");
+    } catch (WarpScriptException wse) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testError() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    stack.execMulti("{ 'macro' <% 'shard failure' MSGFAIL %> 'merge' <% APPEND %> }");
+
+    try {
+      new DEVAL("DEVAL").apply(stack);
+      Assert.fail("The failure of the shards was not reported.");
+    } catch (WarpScriptException wse) {
+      // Expected
+    }
+  }
+
+  /**
+   * The binary shard returns its levels as is, the JSON one returns them snapshotted
+   */
+  private static void checkShards(MemoryWarpScriptStack stack, List<Object> a, List<Object> b) throws Exception {
+    List<Object> binary = a.get(0) instanceof String ? b : a;
+    List<Object> json = a.get(0) instanceof String ? a : b;
+
+    Assert.assertEquals(1, binary.size());
+    Assert.assertEquals(10L, binary.get(0));
+
+    Assert.assertEquals(1, json.size());
+    Assert.assertTrue(json.get(0) instanceof String);
+    stack.execMulti(json.get(0).toString());
+    Assert.assertEquals(11L, stack.pop());
+    Assert.assertEquals(0, stack.depth());
+  }
+
+  /**
+   * Minimal /exec endpoint storing the shard number in the 'shard' symbol
+   */
+  private static final class Shard implements HttpHandler {
+
+    private final long id;
+
+    private final boolean binary;
+
+    private Shard(long id, boolean binary) {
+      this.id = id;
+      this.binary = binary;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        ByteArrayOutputStream script = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buf = new byte[1024];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+          script.write(buf, 0, len);
+        }
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean binary = this.binary && null != accept && accept.contains(StackCodec.CONTENT_TYPE);
+
+        MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+        stack.maxLimits();
+        stack.store("shard", this.id);
+
+        if (binary) {
+          stack.store(StackCodec.SYMBOL, true);
+        }
+
+        stack.execMulti(new String(script.toByteArray(), StandardCharsets.UTF_8));
+        stack.forget(StackCodec.SYMBOL);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        if (binary) {
+          exchange.getResponseHeaders().set("Content-Type", StackCodec.CONTENT_TYPE);
+          StackCodec.encode(new DataOutputStream(out), stack);
+        } else {
+          PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+          StackUtils.toJSON(pw, stack);
+          pw.flush();
+        }
+
+        exchange.sendResponseHeaders(200, out.size());
+        out.writeTo(exchange.getResponseBody());
+      } catch (Exception e) {
+        exchange.sendResponseHeaders(500, -1);
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,252 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package io.warp10.script.ext.sharding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.functions.SNAPSHOT;
+
+public class StackCodecTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+
+    stack.execMulti("NEWGTS 'a' RENAME { 'k' 'v' } RELABEL 10 NaN NaN NaN 1.5 ADDVALUE 20 48.0 -4.5 100 2.5 ADDVALUE");
+    stack.execMulti("NEWENCODER 'b' RENAME 1 NaN NaN NaN 42 ADDVALUE");
+    stack.execMulti("[ 1 2.0 'three' true NULL [ NEWGTS ] ] { 'k' [ 1 ] 2 'v' }");
+    stack.execMulti("'AQI=' B64-> ( 1 2 ) ->SET");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StackCodec.encode(new DataOutputStream(out), stack);
+
+    StackCodec.Decoder decoder = new StackCodec.Decoder(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), Long.MAX_VALUE);
+
+    List<Object> levels = (List<Object>) decoder.resolve(decoder.decode());
+
+    Assert.assertEquals(stack.depth(), levels.size());
+
+    // The set has no binary form, it is returned as its snapshot
+    Assert.assertEquals(snapshot(stack.pop()), levels.remove(0));
+
+    MemoryWarpScriptStack decoded = new MemoryWarpScriptStack(null, null);
+    decoded.maxLimits();
+
+    for (int i = levels.size() - 1; i >= 0; i--) {
+      decoded.push(levels.get(i));
+    }
+
+    stack.exec("SNAPSHOT");
+    decoded.exec("SNAPSHOT");
+
+    Assert.assertEquals(stack.pop(), decoded.pop());
+  }
+
+  @Test
+  public void testTypes() throws Exception {
+    Assert.assertNull(roundTrip(null));
+    Assert.assertEquals(42L, roundTrip(42L));
+    Assert.assertEquals(7L, roundTrip(7));
+    Assert.assertEquals(1.5D, roundTrip(1.5D));
+    Assert.assertTrue(Double.isNaN((Double) roundTrip(Double.NaN)));
+    Assert.assertEquals(Boolean.TRUE, roundTrip(true));
+    Assert.assertEquals("h\u00e9llo", roundTrip("h\u00e9llo"));
+    Assert.assertEquals("", roundTrip(""));
+    Assert.assertArrayEquals(new byte[] { 0, 1, -1 }, (byte[]) roundTrip(new byte[] { 0, 1, -1 }));
+
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+    stack.execMulti("NEWGTS 'a' RENAME { 'k' 'v' } RELABEL 10 NaN NaN NaN 1.5 ADDVALUE 20 48.0 -4.5 100 2.5 ADDVALUE");
+    stack.execMulti("NEWENCODER 'b' RENAME 1 NaN NaN NaN 42 ADDVALUE 2 NaN NaN NaN 'x' ADDVALUE");
+    stack.execMulti("<% 1 + %>");
+    Object macro = stack.pop();
+    GTSEncoder encoder = (GTSEncoder) stack.pop();
+    GeoTimeSerie gts = (GeoTimeSerie) stack.pop();
+
+    Object decoded = roundTrip(gts);
+    Assert.assertTrue(decoded instanceof GeoTimeSerie);
+    Assert.assertEquals(snapshot(gts), snapshot(decoded));
+
+    decoded = roundTrip(encoder);
+    Assert.assertTrue(decoded instanceof GTSEncoder);
+    Assert.assertEquals(encoder.getCount(), ((GTSEncoder) decoded).getCount());
+    Assert.assertEquals(snapshot(encoder), snapshot(decoded));
+
+    List<Object> list = new ArrayList<Object>();
+    list.add(1L);
+    list.add(null);
+    list.add(new ArrayList<Object>(Arrays.asList("a", 2.0D)));
+    Assert.assertEquals(list, roundTrip(list));
+
+    Map<Object,Object> map = new LinkedHashMap<Object,Object>();
+    map.put("k", list);
+    map.put(2L, "v");
+    map.put(null, false);
+    Assert.assertEquals(map, roundTrip(map));
+
+    // Elements with no binary form are sent and returned as their snapshot, like in the JSON output
+    HashSet<Object> set = new HashSet<Object>(Arrays.asList(1L, 2L));
+    Assert.assertEquals(snapshot(set), roundTrip(set));
+    Assert.assertEquals(snapshot(macro), roundTrip(macro));
+
+    Map<Object,Object> nested = new LinkedHashMap<Object,Object>();
+    nested.put("set", new HashSet<Object>(Arrays.asList("x")));
+    Map<Object,Object> expected = new LinkedHashMap<Object,Object>();
+    expected.put("set", snapshot(nested.get("set")));
+    Assert.assertEquals(expected, ((List<Object>) roundTrip(new ArrayList<Object>(Arrays.asList(nested)))).get(0));
+  }
+
+  @Test
+  public void testSnapshotNotEvaluated() throws Exception {
+    // WarpScript element (type 10) sent by a shard, it would fail if it was executed
+    byte[] code = "'evaluated' MSGFAIL".getBytes(StandardCharsets.UTF_8);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(1);
+    dos.writeByte(10);
+    dos.writeInt(code.length);
+    dos.write(code);
+    dos.flush();
+
+    StackCodec.Decoder decoder = new StackCodec.Decoder(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), out.size());
+    List<Object> levels = (List<Object>) decoder.resolve(decoder.decode());
+
+    Assert.assertEquals(1, levels.size());
+    Assert.assertEquals("'evaluated' MSGFAIL", levels.get(0));
+  }
+
+  @Test
+  public void testInvalid() throws Exception {
+    // Negative depth
+    assertInvalid(bytes(-1), Long.MAX_VALUE);
+    // Depth larger than the data which can follow
+    assertInvalid(bytes(Integer.MAX_VALUE), 1000);
+    // Byte array (type 5) with a negative length
+    assertInvalid(bytes(1, 5, -1), Long.MAX_VALUE);
+    // Byte array (type 5) with a length larger than the maximum size
+    assertInvalid(bytes(1, 5, Integer.MAX_VALUE), 1000);
+    // List (type 8) whose size exceeds the maximum size
+    assertInvalid(bytes(1, 8, Integer.MAX_VALUE), 1000);
+    // Map (type 9) whose entries exceed the maximum size, each entry spans two bytes at least
+    assertInvalid(bytes(1, 9, 500), 1000);
+    // Unknown type
+    assertInvalid(bytes(1, 99), Long.MAX_VALUE);
+
+    // Valid stack larger than the maximum size
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+    stack.push(new String(new char[1000]).replace('\0', 'x'));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StackCodec.encode(new DataOutputStream(out), stack);
+    assertInvalid(out.toByteArray(), 1000);
+    Assert.assertEquals(1, new StackCodec.Decoder(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), out.size()).decode().size());
+
+    // Lists nested too deeply
+    List<Object> list = new ArrayList<Object>();
+    for (int i = 0; i < 2000; i++) {
+      List<Object> outer = new ArrayList<Object>();
+      outer.add(list);
+      list = outer;
+    }
+    stack.clear();
+    stack.push(list);
+    out.reset();
+    StackCodec.encode(new DataOutputStream(out), stack);
+    assertInvalid(out.toByteArray(), Long.MAX_VALUE);
+  }
+
+  private static Object roundTrip(Object o) throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null);
+    stack.maxLimits();
+    stack.push(o);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StackCodec.encode(new DataOutputStream(out), stack);
+
+    StackCodec.Decoder decoder = new StackCodec.Decoder(new DataInputStream(new ByteArrayInputStream(out.toByteArray())), out.size());
+
+    List<Object> levels = (List<Object>) decoder.resolve(decoder.decode());
+
+    Assert.assertEquals(1, levels.size());
+
+    return levels.get(0);
+  }
+
+  private static String snapshot(Object o) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    SNAPSHOT.addElement(sb, o);
+    return sb.toString();
+  }
+
+  /**
+   * Build an encoded stack from its depth followed by alternating element types and ints
+   */
+  private static byte[] bytes(int depth, int... elements) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(depth);
+    for (int i = 0; i < elements.length; i++) {
+      if (0 == i % 2) {
+        dos.writeByte(elements[i]);
+      } else {
+        dos.writeInt(elements[i]);
+      }
+    }
+    // Padding so the limits and not the end of the stream are hit
+    dos.write(new byte[1024]);
+    dos.flush();
+    return out.toByteArray();
+  }
+
+  private static void assertInvalid(byte[] bytes, long maxsize) throws Exception {
+    StackCodec.Decoder decoder = new StackCodec.Decoder(new DataInputStream(new ByteArrayInputStream(bytes)), maxsize);
+    try {
+      decoder.decode();
+      Assert.fail("Invalid stack was decoded.");
+    } catch (WarpScriptException wse) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,318 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+import io.warp10.quasar.token.thrift.data.WriteToken;
+
+public class HybridGTSDecoderIteratorTest {
+
+  private static final long HOUR = 3600L * Constants.TIME_UNITS_PER_S;
+
+  /**
+   * Reference store, keeps the timestamps of each GTS in memory, values are the timestamps
+   */
+  private static class ReferenceStoreClient implements StoreClient {
+
+    private final Map<String,List<Long>> series = new HashMap<String,List<Long>>();
+
+    @Override
+    public void store(GTSEncoder encoder) throws IOException {
+      List<Long> ticks = new ArrayList<Long>();
+      GTSDecoder decoder = encoder.getDecoder(true);
+      while(decoder.next()) {
+        ticks.add(decoder.getTimestamp());
+      }
+      Collections.sort(ticks);
+      this.series.put(encoder.getMetadata().getName(), ticks);
+    }
+
+    @Override
+    public GTSDecoderIterator fetch(FetchRequest req) throws IOException {
+      final List<GTSDecoder> decoders = new ArrayList<GTSDecoder>();
+
+      for (Metadata metadata: req.getMetadatas()) {
+        List<Long> ticks = this.series.get(metadata.getName());
+        GTSEncoder encoder = new GTSEncoder(0L);
+        encoder.setMetadata(metadata);
+
+        // Walk back from the most recent datapoint
+        long post = Long.MAX_VALUE == req.getNow() ? 0L : req.getPostBoundary();
+        long pre = Long.MIN_VALUE == req.getThents() ? 0L : req.getPreBoundary();
+        long nvalues = req.getCount() >= 0 ? req.getCount() : Long.MAX_VALUE;
+
+        int idx = ticks.size() - 1;
+
+        while(idx >= 0 && ticks.get(idx) > req.getNow()) {
+          idx--;
+        }
+
+        for (int i = idx + 1; i < ticks.size() && post > 0; i++, post--) {
+          encoder.addValue(ticks.get(i), GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ticks.get(i));
+        }
+
+        while(idx >= 0 && ticks.get(idx) >= req.getThents() && nvalues > 0) {
+          encoder.addValue(ticks.get(idx), GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ticks.get(idx));
+          nvalues--;
+          idx--;
+        }
+
+        if (idx < 0 || ticks.get(idx) < req.getThents()) {
+          while(idx >= 0 && pre > 0) {
+            encoder.addValue(ticks.get(idx), GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ticks.get(idx));
+            pre--;
+            idx--;
+          }
+        }
+
+        if (encoder.getCount() > 0) {
+          decoders.add(encoder.getDecoder(true));
+        }
+      }
+
+      final Iterator<GTSDecoder> iter = decoders.iterator();
+
+      return new GTSDecoderIterator() {
+        @Override
+        public boolean hasNext() {
+          return iter.hasNext();
+        }
+
+        @Override
+        public GTSDecoder next() {
+          return iter.next();
+        }
+
+        @Override
+        public void close() throws Exception {}
+      };
+    }
+
+    @Override
+    public long delete(WriteToken token, Metadata metadata, long start, long end) throws IOException {
+      return 0L;
+    }
+
+    @Override
+    public void addPlasmaHandler(StandalonePlasmaHandlerInterface handler) {}
+  }
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  /**
+   * Decode the decoders of each GTS, which must be contiguous, in a sorted GTS
+   */
+  private static List<String> fetch(GTSDecoderIterator iter) throws Exception {
+    List<String> result = new ArrayList<String>();
+    Set<String> seen = new HashSet<String>();
+    GeoTimeSerie gts = null;
+
+    while(iter.hasNext()) {
+      GeoTimeSerie g = iter.next().decode();
+      if (null != gts && gts.getMetadata().getName().equals(g.getMetadata().getName())) {
+        gts = GTSHelper.merge(gts, g);
+        continue;
+      }
+      if (null != gts) {
+        result.add(GTSHelper.sort(gts).toString());
+      }
+      Assert.assertTrue(seen.add(g.getMetadata().getName()));
+      gts = g;
+    }
+
+    if (null != gts) {
+      result.add(GTSHelper.sort(gts).toString());
+    }
+
+    iter.close();
+
+    Collections.sort(result);
+
+    return result;
+  }
+
+  @Test
+  public void testFetch() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(Configuration.IN_MEMORY_CHUNK_COUNT, "2");
+    props.setProperty(Configuration.IN_MEMORY_CHUNK_LENGTH, Long.toString(HOUR));
+
+    KeyStore keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+
+    final AtomicInteger closed = new AtomicInteger();
+
+    // Two chunks of one hour in the cache, the persistent store keeps everything
+    StandaloneChunkedMemoryStore cache = new StandaloneChunkedMemoryStore(props, keystore) {
+      @Override
+      public GTSDecoderIterator fetch(FetchRequest req) {
+        final GTSDecoderIterator iter = super.fetch(req);
+
+        // Record the closing of the cache iterators
+        return new GTSDecoderIterator() {
+          @Override
+          public boolean hasNext() {
+            return iter.hasNext();
+          }
+
+          @Override
+          public GTSDecoder next() {
+            return iter.next();
+          }
+
+          @Override
+          public void close() throws Exception {
+            closed.incrementAndGet();
+            iter.close();
+          }
+        };
+      }
+    };
+    StoreClient persistent = new ReferenceStoreClient();
+
+    long now = TimeSource.getTime();
+    long cacheend = InMemoryChunkSet.chunkEnd(now, HOUR);
+    long cachestart = cacheend - 2 * HOUR + 1;
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+
+    for (int i = 0; i < 3; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("gts" + i);
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.setClassId(i);
+      metadata.setLabelsId(i);
+      metadatas.add(metadata);
+
+      GTSEncoder all = new GTSEncoder(0L);
+      all.setMetadata(metadata);
+      GTSEncoder recent = new GTSEncoder(0L);
+      recent.setMetadata(metadata);
+
+      // One datapoint per minute over the last 6 hours, the last GTS has no data in the cache
+      for (int j = 0; j < 360; j++) {
+        long ts = now - j * 60L * Constants.TIME_UNITS_PER_S;
+        all.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts);
+        if (ts >= cachestart && 2 != i) {
+          recent.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts);
+        }
+      }
+
+      persistent.store(all);
+      cache.store(recent);
+    }
+
+    // now, thents, count, preBoundary, postBoundary
+    long[][] fetches = new long[][] {
+      { now, now - 4 * HOUR, -1L, 0L, 0L },
+      { now - HOUR / 2, now - 5 * HOUR, -1L, 3L, 2L },
+      { now, Long.MIN_VALUE, 10L, 0L, 0L },
+      { now, Long.MIN_VALUE, 200L, 0L, 0L },
+      { now - HOUR / 2, cachestart - HOUR, 200L, 5L, 4L },
+    };
+
+    int iterators = 0;
+
+    for (long[] fetch: fetches) {
+      FetchRequest req = new FetchRequest();
+      req.setMetadatas(metadatas);
+      req.setNow(fetch[0]);
+      req.setThents(fetch[1]);
+      req.setCount(fetch[2]);
+      req.setPreBoundary(fetch[3]);
+      req.setPostBoundary(fetch[4]);
+
+      // Batches of a single GTS, of several GTS and of all GTS
+      for (int batchsize: new int[] { 1, 2, HybridGTSDecoderIterator.DEFAULT_BATCH_SIZE }) {
+        long[] datapoints = new long[2];
+        List<String> hybrid = fetch(new HybridGTSDecoderIterator(req, cachestart, cache, persistent, datapoints, batchsize));
+        iterators++;
+
+        Assert.assertEquals(fetch(persistent.fetch(req)), hybrid);
+        Assert.assertTrue(datapoints[0] > 0);
+        Assert.assertTrue(datapoints[1] > 0);
+      }
+    }
+
+    Assert.assertEquals(iterators, closed.get());
+
+    // Closing an iterator which was not consumed closes its cache iterator
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(metadatas);
+    req.setNow(now);
+    req.setThents(now - 4 * HOUR);
+    req.setCount(-1L);
+
+    HybridGTSDecoderIterator iter = new HybridGTSDecoderIterator(req, cachestart, cache, persistent, new long[2]);
+    Assert.assertTrue(iter.hasNext());
+    iter.close();
+    Assert.assertEquals(iterators + 1, closed.get());
+  }
+
+  @Test
+  public void testMostRecent() throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(new Metadata());
+    encoder.addValue(3L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 3L);
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 1L);
+    encoder.addValue(2L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 20L);
+    encoder.addValue(2L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 21L);
+
+    GTSDecoder decoder = HybridGTSDecoderIterator.mostRecent(encoder.getDecoder(true), 2L);
+
+    Assert.assertEquals(2L, decoder.getCount());
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(3L, decoder.getTimestamp());
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(20L, decoder.getBinaryValue());
+    Assert.assertFalse(decoder.next());
+  }
+}
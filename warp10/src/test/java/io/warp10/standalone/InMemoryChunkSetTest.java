@@ -0,0 +1,153 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.CapacityExtractorOutputStream;
+import io.warp10.WarpConfig;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+
+public class InMemoryChunkSetTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  private static String fetch(InMemoryChunkSet chunkset, long now, long then, long count, long preBoundary, long postBoundary) throws Exception {
+    GTSDecoder decoder = chunkset.fetch(now, then, count, 0L, 1.0D, null, preBoundary, postBoundary);
+    GeoTimeSerie gts = decoder.decode();
+    GTSHelper.sort(gts);
+    return gts.toString();
+  }
+
+  @Test
+  public void testOffHeap() throws Exception {
+    long chunklen = 3600L * Constants.TIME_UNITS_PER_S;
+    long now = TimeSource.getTime();
+
+    OffHeapChunkArena arena = new OffHeapChunkArena(4096);
+
+    InMemoryChunkSet onheap = new InMemoryChunkSet(4, chunklen, false, true);
+    InMemoryChunkSet offheap = new InMemoryChunkSet(4, chunklen, false, true, arena);
+
+    // Store datapoints in the past chunks, some of them out of order
+    GTSEncoder encoder = new GTSEncoder(0L);
+    for (int i = 0; i < 3000; i++) {
+      long ts = now - (i * 7 % 3000) * Constants.TIME_UNITS_PER_S;
+      encoder.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 0 == i % 3 ? (Object) (i / 10.0D) : (Object) (long) i);
+    }
+
+    onheap.store(encoder);
+    offheap.store(encoder);
+
+    offheap.optimize(new CapacityExtractorOutputStream(), now, new AtomicLong());
+
+    Assert.assertTrue(arena.getDataSize() > 0);
+    Assert.assertEquals(onheap.getCount(), offheap.getCount());
+    Assert.assertEquals(onheap.getSize(), offheap.getSize());
+
+    long[][] fetches = new long[][] {
+      { now, Long.MIN_VALUE, 100L, 0L, 0L },
+      { now, Long.MIN_VALUE, 2900L, 0L, 0L },
+      { now - 600L * Constants.TIME_UNITS_PER_S, now - 2000L * Constants.TIME_UNITS_PER_S, -1L, 10L, 0L },
+      { now - 1000L * Constants.TIME_UNITS_PER_S, Long.MIN_VALUE, -1L, 0L, 5L },
+    };
+
+    for (long[] fetch: fetches) {
+      Assert.assertEquals(fetch(onheap, fetch[0], fetch[1], fetch[2], fetch[3], fetch[4]), fetch(offheap, fetch[0], fetch[1], fetch[2], fetch[3], fetch[4]));
+    }
+
+    // Modify the sealed chunks
+    encoder = new GTSEncoder(0L);
+    encoder.addValue(now - 100L * Constants.TIME_UNITS_PER_S - 1, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+    encoder.addValue(now - 2500L * Constants.TIME_UNITS_PER_S - 1, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 43.0D);
+    onheap.store(encoder);
+    offheap.store(encoder);
+
+    Assert.assertEquals(onheap.delete(now - 10L * Constants.TIME_UNITS_PER_S, now - 5L * Constants.TIME_UNITS_PER_S), offheap.delete(now - 10L * Constants.TIME_UNITS_PER_S, now - 5L * Constants.TIME_UNITS_PER_S));
+
+    for (long[] fetch: fetches) {
+      Assert.assertEquals(fetch(onheap, fetch[0], fetch[1], fetch[2], fetch[3], fetch[4]), fetch(offheap, fetch[0], fetch[1], fetch[2], fetch[3], fetch[4]));
+    }
+
+    // Dropping the chunks returns their content to the arena
+    offheap.free();
+    offheap.optimize(new CapacityExtractorOutputStream(), now, new AtomicLong());
+    offheap.clean(now + 10L * chunklen);
+    Assert.assertEquals(0L, arena.getDataSize());
+  }
+
+  @Test
+  public void testAdopt() throws Exception {
+    long chunklen = 3600L * Constants.TIME_UNITS_PER_S;
+    long now = TimeSource.getTime();
+
+    InMemoryChunkSet chunkset = new InMemoryChunkSet(4, chunklen, false, false);
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    for (int i = 0; i < 10000; i++) {
+      encoder.addValue(now - i * Constants.TIME_UNITS_PER_S, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) i);
+    }
+    chunkset.store(encoder);
+
+    // Export the chunks like a snapshot does and adopt them in a new chunk set
+    InMemoryChunkSet adopter = new InMemoryChunkSet(4, chunklen, false, false);
+
+    long[] state = new long[5];
+
+    for (int i = 0; i < 4; i++) {
+      byte[] content = chunkset.export(i, state);
+      if (null == content) {
+        continue;
+      }
+      ByteBuffer bb = ByteBuffer.allocateDirect(content.length);
+      bb.put(content);
+      bb.flip();
+      Assert.assertEquals(InMemoryChunkSet.ADOPTED, adopter.adopt(state[0], state[2], 1L == state[3], OffHeapChunkArena.wrap(bb, state[1])));
+    }
+
+    // Slots already in use and expired chunks are reported as such
+    byte[] content = null;
+    for (int i = 0; null == content; i++) {
+      content = chunkset.export(i, state);
+    }
+    ByteBuffer bb = ByteBuffer.wrap(content);
+    Assert.assertEquals(InMemoryChunkSet.SLOT_IN_USE, adopter.adopt(state[0], state[2], 1L == state[3], OffHeapChunkArena.wrap(bb, state[1])));
+    Assert.assertEquals(InMemoryChunkSet.EXPIRED, adopter.adopt(state[0] - 4 * chunklen, state[2], 1L == state[3], OffHeapChunkArena.wrap(bb, state[1])));
+
+    Assert.assertEquals(chunkset.getCount(), adopter.getCount());
+    Assert.assertEquals(fetch(chunkset, now, Long.MIN_VALUE, 5000L, 0L, 0L), fetch(adopter, now, Long.MIN_VALUE, 5000L, 0L, 0L));
+
+    adopter.warmup();
+
+    Assert.assertEquals(chunkset.getCount(), adopter.getCount());
+    Assert.assertEquals(fetch(chunkset, now, Long.MIN_VALUE, 5000L, 0L, 0L), fetch(adopter, now, Long.MIN_VALUE, 5000L, 0L, 0L));
+  }
+}
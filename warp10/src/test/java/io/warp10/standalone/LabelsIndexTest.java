@@ -0,0 +1,231 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.warp10.SmartPattern;
+
+public class LabelsIndexTest {
+
+  private static final String[] DCS = { "paris", "london", "tokyo" };
+  private static final String[] ENVS = { "prod", "preprod", "dev", "test" };
+
+  /**
+   * Labels of the indexed GTS, by labelsId
+   */
+  private final Map<Long,Map<String,String>> gts = new HashMap<Long,Map<String,String>>();
+
+  private LabelsIndex populate(int n) {
+    LabelsIndex index = new LabelsIndex();
+    Random random = new Random(n);
+
+    for (int i = 0; i < n; i++) {
+      Map<String,String> labels = new HashMap<String,String>();
+      labels.put("dc", DCS[random.nextInt(DCS.length)]);
+      labels.put("env", ENVS[random.nextInt(ENVS.length)]);
+      labels.put("host", "host-" + i);
+      // Only some GTS have a 'rack' label
+      if (0 == i % 3) {
+        labels.put("rack", "r" + (i % 7));
+      }
+      long labelsId = random.nextLong();
+      this.gts.put(labelsId, labels);
+      index.add(labelsId, labels);
+    }
+
+    return index;
+  }
+
+  @Test
+  public void testExact() {
+    LabelsIndex index = populate(5000);
+
+    check(index, "dc", "=paris");
+    check(index, "dc", "=tokyo", "env", "=dev");
+    check(index, "host", "=host-42");
+    check(index, "host", "=host-42", "dc", "=london");
+    // Unknown value
+    Assert.assertEquals(0, index.candidates(Arrays.asList("dc"), patterns("=berlin")).length);
+    Assert.assertEquals(0, index.candidates(Arrays.asList("dc", "env"), patterns("=paris", "=staging")).length);
+  }
+
+  @Test
+  public void testRegex() {
+    LabelsIndex index = populate(5000);
+
+    check(index, "env", "~.*prod");
+    check(index, "env", "~(prod|dev)", "dc", "~^[lt].*");
+    check(index, "host", "~host-1[0-9]*");
+    check(index, "env", "~nothing.*");
+    // Negated selectors are negative lookaheads
+    check(index, "env", "~(?!prod).*");
+    check(index, "dc", "~(?!paris$).*", "env", "=test");
+    // A pattern matching everything does not narrow the search
+    Assert.assertNull(index.candidates(Arrays.asList("dc"), patterns("~.*")));
+  }
+
+  @Test
+  public void testMissingLabel() {
+    LabelsIndex index = populate(3000);
+
+    // 'rack' is not present on all GTS, it could match attributes so it cannot narrow the search
+    Assert.assertNull(index.candidates(Arrays.asList("rack"), patterns("=r1")));
+    Assert.assertNull(index.candidates(Arrays.asList("nolabel"), patterns("=x")));
+
+    // Other selectors are still used
+    long[] ids = index.candidates(Arrays.asList("rack", "dc"), patterns("=r1", "=paris"));
+    Assert.assertEquals(expected(Arrays.asList("dc"), patterns("=paris")), sorted(ids));
+  }
+
+  @Test
+  public void testRemove() {
+    LabelsIndex index = populate(5000);
+
+    // Remove all the GTS in paris and half of the others
+    int n = 0;
+
+    for (Entry<Long,Map<String,String>> entry: new ArrayList<Entry<Long,Map<String,String>>>(this.gts.entrySet())) {
+      if ("paris".equals(entry.getValue().get("dc")) || 0 == n++ % 2) {
+        index.remove(entry.getKey(), entry.getValue());
+        this.gts.remove(entry.getKey());
+      }
+    }
+
+    Assert.assertEquals(this.gts.size(), index.size());
+
+    Assert.assertEquals(0, index.candidates(Arrays.asList("dc"), patterns("=paris")).length);
+    check(index, "dc", "=london");
+    check(index, "dc", "~.*o.*", "env", "~(?!dev).*");
+    check(index, "env", "=prod");
+
+    // Adding and removing a GTS leaves the others untouched
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put("dc", "london");
+    labels.put("env", "prod");
+    labels.put("host", "unknown");
+    index.add(42L, labels);
+    Assert.assertEquals(1, index.candidates(Arrays.asList("host"), patterns("=unknown")).length);
+    index.remove(42L, labels);
+    // Removing a GTS which is not indexed does nothing
+    index.remove(42L, labels);
+    index.add(0L, new HashMap<String,String>());
+    index.remove(0L, new HashMap<String,String>());
+    Assert.assertEquals(0, index.candidates(Arrays.asList("host"), patterns("=unknown")).length);
+    check(index, "env", "=prod");
+
+    // Emptying the index
+    for (Entry<Long,Map<String,String>> entry: this.gts.entrySet()) {
+      index.remove(entry.getKey(), entry.getValue());
+    }
+
+    Assert.assertEquals(0, index.size());
+    Assert.assertEquals(0, index.candidates(Arrays.asList("dc"), patterns("=london")).length);
+    Assert.assertNull(index.candidates(Arrays.asList("env"), patterns("~.*")));
+  }
+
+  @Test
+  public void testDuplicates() {
+    LabelsIndex index = new LabelsIndex();
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put("dc", "paris");
+
+    index.add(1L, labels);
+    index.add(-1L, labels);
+    index.add(1L, labels);
+
+    Assert.assertEquals(2, index.size());
+    Assert.assertEquals(new TreeSet<Long>(Arrays.asList(-1L, 1L)), sorted(index.candidates(Arrays.asList("dc"), patterns("=paris"))));
+  }
+
+  /**
+   * Check the candidates against the labels of the GTS, selectors are pairs of label name and expression
+   */
+  private void check(LabelsIndex index, String... selectors) {
+    List<String> names = new ArrayList<String>();
+    List<String> exprs = new ArrayList<String>();
+
+    for (int i = 0; i < selectors.length; i += 2) {
+      names.add(selectors[i]);
+      exprs.add(selectors[i + 1]);
+    }
+
+    List<SmartPattern> patterns = patterns(exprs.toArray(new String[exprs.size()]));
+
+    long[] ids = index.candidates(names, patterns);
+
+    Assert.assertNotNull(ids);
+
+    TreeSet<Long> expected = expected(names, patterns);
+
+    Assert.assertEquals(expected.size(), ids.length);
+    Assert.assertEquals(expected, sorted(ids));
+  }
+
+  private TreeSet<Long> expected(List<String> names, List<SmartPattern> patterns) {
+    TreeSet<Long> expected = new TreeSet<Long>();
+
+    for (Entry<Long,Map<String,String>> entry: this.gts.entrySet()) {
+      boolean match = true;
+      for (int i = 0; i < names.size(); i++) {
+        String value = entry.getValue().get(names.get(i));
+        if (null == value || !patterns.get(i).matches(value)) {
+          match = false;
+          break;
+        }
+      }
+      if (match) {
+        expected.add(entry.getKey());
+      }
+    }
+
+    return expected;
+  }
+
+  private static List<SmartPattern> patterns(String... exprs) {
+    List<SmartPattern> patterns = new ArrayList<SmartPattern>();
+
+    for (String expr: exprs) {
+      if (expr.startsWith("~")) {
+        patterns.add(new SmartPattern(Pattern.compile(expr.substring(1))));
+      } else {
+        patterns.add(new SmartPattern(expr.substring(1)));
+      }
+    }
+
+    return patterns;
+  }
+
+  private static TreeSet<Long> sorted(long[] ids) {
+    TreeSet<Long> set = new TreeSet<Long>();
+    for (long id: ids) {
+      set.add(id);
+    }
+    return set;
+  }
+}
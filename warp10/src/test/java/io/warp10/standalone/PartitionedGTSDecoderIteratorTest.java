@@ -0,0 +1,364 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.MetadataIdComparator;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.quasar.token.thrift.data.WriteToken;
+
+public class PartitionedGTSDecoderIteratorTest {
+
+  /**
+   * Number of decoders returned per GTS, more than a partition buffers
+   */
+  private static final int CHUNKS = 3;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+    WarpConfig.setProperty(Configuration.STANDALONE_FETCH_PARTITIONS_POOLSIZE, "4");
+    WarpConfig.setProperty(Configuration.STANDALONE_FETCH_PARTITIONS_MAXINFLIGHT, "2");
+    WarpConfig.setProperty(Configuration.STANDALONE_FETCH_PARTITIONS_MIN_GTS, "2");
+    WarpConfig.setProperty(Configuration.STANDALONE_FETCH_PARTITIONS_MAX, "8");
+
+    Assert.assertTrue(PartitionedGTSDecoderIterator.isEnabled());
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    List<Metadata> metadatas = metadatas(200);
+    FakeStoreClient store = new FakeStoreClient(0L);
+
+    PartitionedGTSDecoderIterator iter = new PartitionedGTSDecoderIterator(store, request(metadatas));
+
+    List<String> names = new ArrayList<String>();
+
+    while (iter.hasNext()) {
+      names.add(iter.next().getMetadata().getName());
+      // Let the partitions fill their queues from time to time
+      if (0 == names.size() % 50) {
+        Thread.sleep(10L);
+      }
+    }
+
+    Assert.assertFalse(iter.hasNext());
+    iter.close();
+
+    // The decoders come in the order of a sequential scan of the sorted GTS
+    Collections.sort(metadatas, MetadataIdComparator.COMPARATOR);
+
+    Assert.assertEquals(metadatas.size() * CHUNKS, names.size());
+
+    for (int i = 0; i < names.size(); i++) {
+      Assert.assertEquals(metadatas.get(i / CHUNKS).getName(), names.get(i));
+    }
+
+    Assert.assertEquals(8, store.iterators.size());
+    Assert.assertEquals(8, iter.getStats().getPartitions());
+    store.assertClosed();
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    // Slow partitions so some of them are running when the iterator is closed
+    FakeStoreClient store = new FakeStoreClient(1000000L);
+
+    PartitionedGTSDecoderIterator iter = new PartitionedGTSDecoderIterator(store, request(metadatas(200)));
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertTrue(iter.hasNext());
+      iter.next();
+    }
+
+    iter.close();
+
+    Assert.assertFalse(iter.hasNext());
+
+    store.awaitIdle();
+
+    // Only the partitions of the window were fetched and no partition is started once closed
+    int fetched = store.iterators.size();
+    Assert.assertTrue(fetched > 0 && fetched <= 2);
+    Thread.sleep(100L);
+    Assert.assertEquals(fetched, store.iterators.size());
+    store.assertClosed();
+
+    // Closing an iterator which was never consumed fetches nothing
+    store = new FakeStoreClient(0L);
+    iter = new PartitionedGTSDecoderIterator(store, request(metadatas(200)));
+    iter.close();
+    Assert.assertFalse(iter.hasNext());
+    Thread.sleep(100L);
+    Assert.assertEquals(0, store.iterators.size());
+  }
+
+  @Test
+  public void testError() throws Exception {
+    List<Metadata> metadatas = metadatas(100);
+    List<Metadata> sorted = new ArrayList<Metadata>(metadatas);
+    Collections.sort(sorted, MetadataIdComparator.COMPARATOR);
+
+    // The scan fails when reaching the 58th GTS
+    FakeStoreClient store = new FakeStoreClient(0L);
+    store.failNext = sorted.get(57).getName();
+
+    PartitionedGTSDecoderIterator iter = new PartitionedGTSDecoderIterator(store, request(metadatas));
+
+    List<String> names = new ArrayList<String>();
+
+    try {
+      while (iter.hasNext()) {
+        names.add(iter.next().getMetadata().getName());
+      }
+      Assert.fail("The error of the partition was not reported.");
+    } catch (RuntimeException re) {
+      Assert.assertNotNull(re.getCause());
+      Assert.assertEquals("Scan failed.", re.getCause().getMessage());
+    }
+
+    // Everything before the failing GTS was returned
+    Assert.assertEquals(57 * CHUNKS, names.size());
+
+    for (int i = 0; i < names.size(); i++) {
+      Assert.assertEquals(sorted.get(i / CHUNKS).getName(), names.get(i));
+    }
+
+    iter.close();
+    store.awaitIdle();
+    store.assertClosed();
+
+    // The fetch of a partition fails
+    store = new FakeStoreClient(0L);
+    store.failFetch = sorted.get(57).getName();
+
+    iter = new PartitionedGTSDecoderIterator(store, request(metadatas));
+
+    int count = 0;
+
+    try {
+      while (iter.hasNext()) {
+        Assert.assertEquals(sorted.get(count / CHUNKS).getName(), iter.next().getMetadata().getName());
+        count++;
+      }
+      Assert.fail("The error of the partition was not reported.");
+    } catch (RuntimeException re) {
+      Assert.assertTrue(re.getCause() instanceof IOException);
+    }
+
+    Assert.assertTrue(count < 57 * CHUNKS);
+
+    iter.close();
+    store.awaitIdle();
+    store.assertClosed();
+  }
+
+  private static List<Metadata> metadatas(int n) {
+    Random random = new Random(n);
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+
+    for (int i = 0; i < n; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("gts" + i);
+      metadata.setLabels(new HashMap<String,String>());
+      // Few classes so some GTS only differ by their labels Id
+      metadata.setClassId(random.nextInt(4) - 2);
+      metadata.setLabelsId(random.nextLong());
+      metadatas.add(metadata);
+    }
+
+    return metadatas;
+  }
+
+  private static FetchRequest request(List<Metadata> metadatas) {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(metadatas);
+    req.setNow(Long.MAX_VALUE);
+    req.setThents(Long.MIN_VALUE);
+    req.setCount(-1L);
+    return req;
+  }
+
+  /**
+   * StoreClient returning CHUNKS empty decoders per GTS, in the order of the request
+   */
+  private static final class FakeStoreClient implements StoreClient {
+    private final List<FakeIterator> iterators = Collections.synchronizedList(new ArrayList<FakeIterator>());
+
+    /**
+     * Number of iterators being used by a partition
+     */
+    private final AtomicInteger active = new AtomicInteger(0);
+
+    private volatile boolean misused = false;
+
+    private final long delay;
+
+    private volatile String failNext = null;
+
+    private volatile String failFetch = null;
+
+    private FakeStoreClient(long delay) {
+      this.delay = delay;
+    }
+
+    @Override
+    public GTSDecoderIterator fetch(FetchRequest req) throws IOException {
+      for (Metadata metadata: req.getMetadatas()) {
+        if (metadata.getName().equals(this.failFetch)) {
+          throw new IOException("Fetch failed.");
+        }
+      }
+      FakeIterator iter = new FakeIterator(this, req.getMetadatas());
+      this.iterators.add(iter);
+      return iter;
+    }
+
+    /**
+     * Wait until no partition uses its iterator
+     */
+    private void awaitIdle() throws Exception {
+      long deadline = System.currentTimeMillis() + 10000L;
+
+      while (true) {
+        boolean closed = true;
+        synchronized (this.iterators) {
+          for (FakeIterator iter: this.iterators) {
+            closed &= iter.closed;
+          }
+        }
+        if (closed && 0 == this.active.get()) {
+          return;
+        }
+        Assert.assertTrue("Partitions still running.", System.currentTimeMillis() < deadline);
+        Thread.sleep(10L);
+      }
+    }
+
+    private void assertClosed() {
+      synchronized (this.iterators) {
+        for (FakeIterator iter: this.iterators) {
+          Assert.assertTrue(iter.closed);
+        }
+      }
+      Assert.assertEquals(0, this.active.get());
+      Assert.assertFalse("An iterator was used concurrently or after being closed.", this.misused);
+    }
+
+    @Override
+    public void store(GTSEncoder encoder) throws IOException {
+      throw new IOException();
+    }
+
+    @Override
+    public long delete(WriteToken token, Metadata metadata, long start, long end) throws IOException {
+      throw new IOException();
+    }
+
+    @Override
+    public void addPlasmaHandler(StandalonePlasmaHandlerInterface handler) {
+    }
+  }
+
+  private static final class FakeIterator extends GTSDecoderIterator {
+    private final FakeStoreClient store;
+    private final List<Metadata> metadatas;
+    private int idx = 0;
+    private volatile boolean closed = false;
+    private final AtomicInteger inuse = new AtomicInteger(0);
+
+    private FakeIterator(FakeStoreClient store, List<Metadata> metadatas) {
+      this.store = store;
+      this.metadatas = metadatas;
+    }
+
+    @Override
+    public boolean hasNext() {
+      enter();
+      try {
+        if (this.idx < this.metadatas.size() * CHUNKS && this.metadatas.get(this.idx / CHUNKS).getName().equals(this.store.failNext)) {
+          throw new RuntimeException("Scan failed.");
+        }
+        return this.idx < this.metadatas.size() * CHUNKS;
+      } finally {
+        leave();
+      }
+    }
+
+    @Override
+    public GTSDecoder next() {
+      enter();
+      try {
+        if (this.store.delay > 0L) {
+          LockSupport.parkNanos(this.store.delay);
+        }
+        GTSDecoder decoder = new GTSDecoder(0L, ByteBuffer.wrap(new byte[0]));
+        decoder.setMetadata(this.metadatas.get(this.idx / CHUNKS));
+        this.idx++;
+        return decoder;
+      } finally {
+        leave();
+      }
+    }
+
+    private void enter() {
+      this.store.active.incrementAndGet();
+      // An iterator must not be used concurrently nor after being closed
+      if (this.inuse.incrementAndGet() > 1 || this.closed) {
+        this.store.misused = true;
+      }
+    }
+
+    private void leave() {
+      this.inuse.decrementAndGet();
+      this.store.active.decrementAndGet();
+    }
+
+    @Override
+    public void remove() {
+    }
+
+    @Override
+    public void close() throws Exception {
+      if (this.inuse.get() > 0) {
+        this.store.misused = true;
+      }
+      this.closed = true;
+    }
+  }
+}
@@ -0,0 +1,196 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PlasmaOutboxTest {
+
+  private ExecutorService dispatchers;
+
+  @Before
+  public void before() {
+    this.dispatchers = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void after() {
+    this.dispatchers.shutdownNow();
+  }
+
+  /**
+   * Sender recording what it receives, it blocks while 'gate' is not open
+   */
+  private static final class Recorder implements PlasmaOutbox.Sender<Integer> {
+    private final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+    private final AtomicInteger inflight = new AtomicInteger(0);
+    private volatile boolean concurrent = false;
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch gate;
+    private final CountDownLatch all;
+
+    private Recorder(int expected, boolean open) {
+      this.gate = new CountDownLatch(open ? 0 : 1);
+      this.all = new CountDownLatch(expected);
+    }
+
+    @Override
+    public void send(Integer publication) throws IOException {
+      if (this.inflight.incrementAndGet() > 1) {
+        this.concurrent = true;
+      }
+      this.entered.countDown();
+      try {
+        this.gate.await();
+      } catch (InterruptedException ie) {
+        throw new IOException(ie);
+      } finally {
+        this.inflight.decrementAndGet();
+      }
+      this.received.add(publication);
+      this.all.countDown();
+    }
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    int n = 20000;
+    Recorder recorder = new Recorder(n, true);
+    AtomicLong queued = new AtomicLong(0L);
+    PlasmaOutbox<Integer> outbox = new PlasmaOutbox<Integer>(recorder, 16, 60000L, 4, this.dispatchers, queued);
+
+    for (int i = 0; i < n; i++) {
+      Assert.assertTrue(outbox.offer(i));
+    }
+
+    Assert.assertTrue(recorder.all.await(30, TimeUnit.SECONDS));
+    Assert.assertFalse("Outbox was served by several threads at once.", recorder.concurrent);
+
+    for (int i = 0; i < n; i++) {
+      Assert.assertEquals(i, recorder.received.get(i).intValue());
+    }
+
+    Assert.assertEquals(0L, queued.get());
+  }
+
+  @Test
+  public void testDrop() throws Exception {
+    Recorder recorder = new Recorder(5, false);
+    AtomicLong queued = new AtomicLong(0L);
+    PlasmaOutbox<Integer> outbox = new PlasmaOutbox<Integer>(recorder, 4, 0L, 64, this.dispatchers, queued);
+
+    // The first publication is taken by a dispatcher which then blocks in the sender
+    Assert.assertTrue(outbox.offer(0));
+    Assert.assertTrue(recorder.entered.await(10, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 4; i++) {
+      Assert.assertTrue(outbox.offer(i));
+    }
+
+    Assert.assertEquals(4L, queued.get());
+
+    // The queue is full, publications are dropped without waiting
+    long nanos = System.nanoTime();
+    Assert.assertFalse(outbox.offer(5));
+    Assert.assertFalse(outbox.offer(6));
+    Assert.assertTrue(System.nanoTime() - nanos < TimeUnit.SECONDS.toNanos(1));
+
+    recorder.gate.countDown();
+
+    Assert.assertTrue(recorder.all.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(5, recorder.received.size());
+    Assert.assertEquals(0L, queued.get());
+  }
+
+  @Test
+  public void testWait() throws Exception {
+    final Recorder recorder = new Recorder(4, false);
+    AtomicLong queued = new AtomicLong(0L);
+    PlasmaOutbox<Integer> outbox = new PlasmaOutbox<Integer>(recorder, 2, 200L, 64, this.dispatchers, queued);
+
+    Assert.assertTrue(outbox.offer(0));
+    Assert.assertTrue(recorder.entered.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(outbox.offer(1));
+    Assert.assertTrue(outbox.offer(2));
+
+    // The publisher waits for the configured time before dropping
+    long nanos = System.nanoTime();
+    Assert.assertFalse(outbox.offer(3));
+    Assert.assertTrue(System.nanoTime() - nanos >= TimeUnit.MILLISECONDS.toNanos(190));
+
+    // The publisher waits until the session catches up
+    Thread release = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50L);
+        } catch (InterruptedException ie) {
+        }
+        recorder.gate.countDown();
+      }
+    };
+    release.start();
+
+    Assert.assertTrue(outbox.offer(4));
+    release.join();
+
+    Assert.assertTrue(recorder.all.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(4, recorder.received.size());
+    Assert.assertEquals(4, recorder.received.get(3).intValue());
+    Assert.assertEquals(0L, queued.get());
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    Recorder recorder = new Recorder(1, false);
+    AtomicLong queued = new AtomicLong(0L);
+    PlasmaOutbox<Integer> outbox = new PlasmaOutbox<Integer>(recorder, 8, 0L, 64, this.dispatchers, queued);
+
+    Assert.assertTrue(outbox.offer(0));
+    Assert.assertTrue(recorder.entered.await(10, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 8; i++) {
+      Assert.assertTrue(outbox.offer(i));
+    }
+
+    Assert.assertEquals(8L, queued.get());
+
+    outbox.clear();
+
+    Assert.assertEquals(0L, queued.get());
+
+    recorder.gate.countDown();
+
+    Assert.assertTrue(recorder.all.await(10, TimeUnit.SECONDS));
+    Thread.sleep(100L);
+    Assert.assertEquals(1, recorder.received.size());
+  }
+}
@@ -0,0 +1,170 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PlasmaSubscriptionIndexTest {
+
+  @Test
+  public void testPutGet() {
+    PlasmaSubscriptionIndex<String> index = new PlasmaSubscriptionIndex<String>();
+
+    Random random = new Random(0L);
+    long[] ids = new long[2000];
+
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = random.nextLong();
+    }
+
+    for (int i = 0; i < ids.length; i += 2) {
+      index.put(ids[i], ids[i + 1], Integer.toString(i));
+    }
+
+    Assert.assertEquals(ids.length / 2, index.size());
+
+    for (int i = 0; i < ids.length; i += 2) {
+      Assert.assertEquals(Integer.toString(i), index.get(ids[i], ids[i + 1]));
+      // Same Ids, swapped
+      Assert.assertNull(index.get(ids[i + 1], ids[i]));
+    }
+
+    // Replacing a value does not change the size
+    index.put(ids[0], ids[1], "x");
+    Assert.assertEquals("x", index.get(ids[0], ids[1]));
+    Assert.assertEquals(ids.length / 2, index.size());
+
+    try {
+      index.put(1L, 2L, null);
+      Assert.fail("Null value was accepted.");
+    } catch (IllegalArgumentException iae) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testRemove() {
+    PlasmaSubscriptionIndex<String> index = new PlasmaSubscriptionIndex<String>();
+
+    // All these series fall in the same slot, lookups must probe past removed entries
+    int n = 100;
+
+    for (long i = 0; i < n; i++) {
+      index.put((i << 32) | i, 0L, Long.toString(i));
+    }
+
+    for (long i = 0; i < n; i += 2) {
+      Assert.assertEquals(Long.toString(i), index.remove((i << 32) | i, 0L));
+    }
+
+    Assert.assertNull(index.remove(0L, 0L));
+    Assert.assertNull(index.remove(42L, 42L));
+    Assert.assertEquals(n / 2, index.size());
+
+    for (long i = 0; i < n; i++) {
+      if (0 == i % 2) {
+        Assert.assertNull(index.get((i << 32) | i, 0L));
+      } else {
+        Assert.assertEquals(Long.toString(i), index.get((i << 32) | i, 0L));
+      }
+    }
+
+    // A removed series can be added back
+    index.put(0L, 0L, "back");
+    Assert.assertEquals("back", index.get(0L, 0L));
+    Assert.assertEquals(n / 2 + 1, index.size());
+
+    // Series coming and going, removed entries are purged when the table is rebuilt
+    for (long i = 1; i <= 100000; i++) {
+      index.put(i, -i, "tmp");
+      Assert.assertEquals("tmp", index.remove(i, -i));
+    }
+
+    Assert.assertEquals(n / 2 + 1, index.size());
+
+    for (long i = 1; i < n; i += 2) {
+      Assert.assertEquals(Long.toString(i), index.get((i << 32) | i, 0L));
+    }
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final PlasmaSubscriptionIndex<long[]> index = new PlasmaSubscriptionIndex<long[]>();
+
+    // Series which are always in the index
+    final int permanent = 64;
+
+    for (long i = 0; i < permanent; i++) {
+      index.put(i, i, new long[] { i, i });
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<String> error = new AtomicReference<String>();
+
+    List<Thread> readers = new ArrayList<Thread>();
+
+    for (int t = 0; t < 4; t++) {
+      final Random random = new Random(t);
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          while (!done.get() && null == error.get()) {
+            long i = random.nextInt(permanent);
+            long[] value = index.get(i, i);
+            if (null == value || value[0] != i || value[1] != i) {
+              error.set("Series " + i + " was not found.");
+            }
+            long j = permanent + random.nextInt(1000);
+            value = index.get(j, -j);
+            if (null != value && (value[0] != j || value[1] != -j)) {
+              error.set("Series " + j + " returned the value of " + value[0] + ".");
+            }
+          }
+        }
+      };
+      reader.start();
+      readers.add(reader);
+    }
+
+    // The writer adds and removes series, the table is rebuilt several times
+    Random random = new Random(42L);
+
+    for (int k = 0; k < 200000 && null == error.get(); k++) {
+      long j = permanent + random.nextInt(1000);
+      if (random.nextBoolean()) {
+        index.put(j, -j, new long[] { j, -j });
+      } else {
+        index.remove(j, -j);
+      }
+    }
+
+    done.set(true);
+
+    for (Thread reader: readers) {
+      reader.join();
+    }
+
+    Assert.assertNull(error.get(), error.get());
+  }
+}
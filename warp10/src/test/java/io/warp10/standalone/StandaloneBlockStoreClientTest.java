@@ -0,0 +1,492 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.geoxp.GeoXPLib;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+
+/**
+ * Compare the block layout with the one key per datapoint layout of StandaloneStoreClient
+ */
+public class StandaloneBlockStoreClientTest {
+
+  private static final long SPAN = 100L;
+
+  private List<File> dirs = new ArrayList<File>();
+  private List<WarpDB> dbs = new ArrayList<WarpDB>();
+
+  private KeyStore keystore;
+  private List<Metadata> metadatas;
+
+  private StoreClient reference;
+  private StoreClient blocks;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  @Before
+  public void before() throws Exception {
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+
+    metadatas = new ArrayList<Metadata>();
+
+    for (int i = 0; i < 4; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("gts" + i);
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("label", Integer.toString(i));
+      metadata.setClassId(GTSHelper.classId(keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
+      metadata.setLabelsId(GTSHelper.labelsId(keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
+      metadatas.add(metadata);
+    }
+
+    // Record the layouts as done upon startup, the markers also sort before the datapoints like the metadata do
+    WarpDB db = open(newDir());
+    StandaloneBlockStoreClient.checkLayout(db, 0L);
+    reference = new StandaloneStoreClient(db, keystore, new Properties());
+
+    db = open(newDir());
+    StandaloneBlockStoreClient.checkLayout(db, SPAN);
+    blocks = new StandaloneBlockStoreClient(db, keystore, properties(SPAN));
+  }
+
+  @After
+  public void after() throws Exception {
+    for (WarpDB db: dbs) {
+      db.close();
+    }
+    for (File dir: dirs) {
+      delete(dir);
+    }
+  }
+
+  private File newDir() throws IOException {
+    File dir = Files.createTempDirectory("leveldb").toFile();
+    dirs.add(dir);
+    return dir;
+  }
+
+  private WarpDB open(File dir) throws IOException {
+    Options options = new Options();
+    options.createIfMissing(true);
+    WarpDB db = new WarpDB(false, false, dir.getAbsolutePath(), options);
+    dbs.add(db);
+    return db;
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (null != files) {
+      for (File f: files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+  private static Properties properties(long span) {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_DATA_BLOCKSPAN, Long.toString(span));
+    properties.setProperty(Configuration.LEVELDB_DATA_DOUBLE_XOR, "true");
+    return properties;
+  }
+
+  /**
+   * Store in both clients datapoints at the given timestamps, each GTS holding a different type of value
+   */
+  private void store(TreeSet<Long> ticks, Random random) throws IOException {
+    for (int i = 0; i < metadatas.size(); i++) {
+      GTSEncoder encoder = new GTSEncoder(0L);
+      encoder.setMetadata(metadatas.get(i));
+
+      for (long tick: ticks) {
+        long location = GeoTimeSerie.NO_LOCATION;
+        long elevation = GeoTimeSerie.NO_ELEVATION;
+        Object value;
+
+        switch (i) {
+          case 0:
+            value = random.nextLong();
+            break;
+          case 1:
+            value = random.nextDouble();
+            location = GeoXPLib.toGeoXPPoint(random.nextDouble() * 180.0D - 90.0D, random.nextDouble() * 360.0D - 180.0D);
+            elevation = random.nextInt(10000);
+            break;
+          case 2:
+            value = "v" + random.nextInt();
+            break;
+          default:
+            value = random.nextBoolean();
+        }
+
+        encoder.addValue(tick, location, elevation, value);
+      }
+
+      reference.store(encoder);
+      blocks.store(encoder);
+    }
+
+    // Flush the pending writes of the reference store
+    reference.store(null);
+  }
+
+  private static TreeSet<Long> ticks(Random random, int n, long min, long max) {
+    TreeSet<Long> ticks = new TreeSet<Long>();
+    while (ticks.size() < n) {
+      ticks.add(min + (long) (random.nextDouble() * (max - min)));
+    }
+    return ticks;
+  }
+
+  private static FetchRequest request(List<Metadata> metadatas, long now, long thents, long count, long skip, long step, long timestep, long pre, long post) {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(new ArrayList<Metadata>(metadatas));
+    req.setNow(now);
+    req.setThents(thents);
+    req.setCount(count);
+    req.setSkip(skip);
+    req.setStep(step);
+    req.setTimestep(timestep);
+    req.setPreBoundary(pre);
+    req.setPostBoundary(post);
+    req.setSample(1.0D);
+    return req;
+  }
+
+  /**
+   * Merge the decoders of each GTS, return the sorted GTS as strings
+   */
+  private static List<String> fetch(StoreClient client, FetchRequest req) throws Exception {
+    Map<String,GeoTimeSerie> series = new HashMap<String,GeoTimeSerie>();
+
+    GTSDecoderIterator iter = client.fetch(req);
+
+    try {
+      while(iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        GeoTimeSerie gts = decoder.decode();
+        GeoTimeSerie previous = series.get(gts.getMetadata().getName());
+        series.put(gts.getMetadata().getName(), null == previous ? gts : GTSHelper.merge(previous, gts));
+      }
+    } finally {
+      iter.close();
+    }
+
+    List<String> result = new ArrayList<String>();
+
+    for (GeoTimeSerie gts: series.values()) {
+      result.add(GTSHelper.sort(gts).toString());
+    }
+
+    Collections.sort(result);
+
+    return result;
+  }
+
+  private void compare(long[][] fetches) throws Exception {
+    for (long[] fetch: fetches) {
+      FetchRequest req = request(metadatas, fetch[0], fetch[1], fetch[2], fetch[3], fetch[4], fetch[5], fetch[6], fetch[7]);
+      Assert.assertEquals(fetch(reference, req), fetch(blocks, req.deepCopy()));
+    }
+  }
+
+  // now, thents, count, skip, step, timestep, preBoundary, postBoundary
+  private static final long[][] FETCHES = new long[][] {
+    { Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L },
+    { 1000L, -1000L, -1L, 0L, 1L, 1L, 0L, 0L },
+    // Range bounds on block bounds
+    { 999L, -1000L, -1L, 0L, 1L, 1L, 0L, 0L },
+    { 1000L, -999L, -1L, 0L, 1L, 1L, 0L, 0L },
+    { 50L, 50L, -1L, 0L, 1L, 1L, 0L, 0L },
+    // Count
+    { 3000L, Long.MIN_VALUE, 1L, 0L, 1L, 1L, 0L, 0L },
+    { 3000L, Long.MIN_VALUE, 150L, 0L, 1L, 1L, 0L, 0L },
+    { 2000L, -2000L, 10L, 0L, 1L, 1L, 0L, 6L },
+    // Skip, step and timestep
+    { 4000L, -4000L, -1L, 17L, 1L, 1L, 0L, 0L },
+    { 4000L, -4000L, -1L, 0L, 3L, 1L, 0L, 0L },
+    { 4000L, -4000L, -1L, 0L, 1L, 250L, 0L, 0L },
+    { 4000L, -4000L, 20L, 5L, 2L, 75L, 0L, 0L },
+    { Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, Long.MAX_VALUE, 0L, 0L },
+    // Pre and post boundaries, within the block of 'now'/'then', spanning blocks and past the first/last datapoint
+    { 1010L, 990L, -1L, 0L, 1L, 1L, 1L, 1L },
+    { 1010L, 990L, -1L, 0L, 1L, 1L, 40L, 40L },
+    { 0L, 0L, -1L, 0L, 1L, 1L, 3L, 3L },
+    { -4999L, -5000L, -1L, 0L, 1L, 1L, 10000L, 2L },
+    { 10000L, 9000L, -1L, 0L, 1L, 1L, 2L, 10000L },
+    { 20000L, 15000L, -1L, 0L, 1L, 1L, 7L, 7L },
+    { -15000L, -20000L, -1L, 0L, 1L, 1L, 7L, 7L },
+  };
+
+  @Test
+  public void testFetch() throws Exception {
+    Random random = new Random(0L);
+    TreeSet<Long> ticks = ticks(random, 800, -5000L, 5000L);
+    store(ticks, random);
+
+    compare(FETCHES);
+
+    // Sampling returns a subset of the datapoints
+    FetchRequest req = request(metadatas, Long.MAX_VALUE, Long.MIN_VALUE, -1L, 0L, 1L, 1L, 0L, 0L);
+    req.setSample(0.5D);
+
+    GTSDecoderIterator iter = blocks.fetch(req);
+    long sampled = 0L;
+
+    while (iter.hasNext()) {
+      GTSDecoder decoder = iter.next();
+      while (decoder.next()) {
+        Assert.assertTrue(ticks.contains(decoder.getTimestamp()));
+        sampled++;
+      }
+    }
+
+    iter.close();
+
+    long total = (long) ticks.size() * metadatas.size();
+    Assert.assertTrue(sampled > total / 4);
+    Assert.assertTrue(sampled < total * 3 / 4);
+  }
+
+  @Test
+  public void testRewrite() throws Exception {
+    Random random = new Random(1L);
+    TreeSet<Long> ticks = ticks(random, 500, -5000L, 5000L);
+    store(ticks, random);
+
+    // Overwrite some of the datapoints and add new ones in existing and new blocks
+    TreeSet<Long> rewritten = new TreeSet<Long>();
+    for (long tick: ticks) {
+      if (0 == random.nextInt(3)) {
+        rewritten.add(tick);
+      }
+    }
+    rewritten.addAll(ticks(random, 200, -8000L, 8000L));
+    store(rewritten, random);
+
+    // A single datapoint written over an existing one
+    TreeSet<Long> single = new TreeSet<Long>();
+    single.add(ticks.first());
+    store(single, random);
+
+    compare(FETCHES);
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    Random random = new Random(2L);
+    store(ticks(random, 800, -5000L, 5000L), random);
+
+    // start, end, inside a block, across blocks, on block bounds, whole blocks, outside the data
+    long[][] deletes = new long[][] {
+      { 10L, 20L },
+      { 150L, 449L },
+      { -1000L, -901L },
+      { -800L, -700L },
+      { 3000L, 3000L },
+      { 6000L, 7000L },
+      { Long.MIN_VALUE, -4000L },
+    };
+
+    for (long[] delete: deletes) {
+      for (Metadata metadata: metadatas) {
+        long expected = reference.delete(null, new Metadata(metadata), delete[0], delete[1]);
+        Assert.assertEquals(expected, blocks.delete(null, new Metadata(metadata), delete[0], delete[1]));
+      }
+      compare(FETCHES);
+    }
+
+    // Datapoints can be stored again in the blocks which were deleted or rewritten
+    store(ticks(random, 100, -5000L, 5000L), random);
+    compare(FETCHES);
+  }
+
+  @Test
+  public void testMigrate() throws Exception {
+    Random random = new Random(3L);
+    store(ticks(random, 800, -5000L, 5000L), random);
+
+    // Close the databases so the migration can open them
+    File source = dirs.get(1);
+    dbs.get(1).close();
+
+    //
+    // Migrate to another span then back to one key per datapoint
+    //
+
+    File target = newDir();
+    WarpBlockMigrate.main(new String[] { source.getAbsolutePath(), target.getAbsolutePath(), "37" });
+
+    WarpDB db = open(target);
+    Assert.assertEquals(37L, Bytes.toLong(db.get(StandaloneBlockStoreClient.LAYOUT_KEY)));
+    blocks = new StandaloneBlockStoreClient(db, keystore, properties(37L));
+    compare(FETCHES);
+    db.close();
+
+    File perdatapoint = newDir();
+    WarpBlockMigrate.main(new String[] { target.getAbsolutePath(), perdatapoint.getAbsolutePath(), "0" });
+
+    db = open(perdatapoint);
+    Assert.assertEquals(0L, Bytes.toLong(db.get(StandaloneBlockStoreClient.LAYOUT_KEY)));
+    blocks = new StandaloneStoreClient(db, keystore, new Properties());
+    compare(FETCHES);
+  }
+
+  @Test
+  public void testLayout() throws Exception {
+    // The layout is recorded in an empty database
+    WarpDB db = open(newDir());
+    StandaloneBlockStoreClient.checkLayout(db, SPAN);
+    Assert.assertEquals(SPAN, Bytes.toLong(db.get(StandaloneBlockStoreClient.LAYOUT_KEY)));
+    StandaloneBlockStoreClient.checkLayout(db, SPAN);
+
+    try {
+      StandaloneBlockStoreClient.checkLayout(db, 0L);
+      Assert.fail("Layout mismatch was not detected.");
+    } catch (RuntimeException re) {
+      // expected
+    }
+
+    // Datapoints stored without a marker use one key per datapoint
+    WarpDB legacy = open(newDir());
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(metadatas.get(0));
+    encoder.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+    StoreClient client = new StandaloneStoreClient(legacy, keystore, new Properties());
+    client.store(encoder);
+    client.store(null);
+
+    try {
+      StandaloneBlockStoreClient.checkLayout(legacy, SPAN);
+      Assert.fail("Layout mismatch was not detected.");
+    } catch (RuntimeException re) {
+      // expected
+    }
+    Assert.assertNull(legacy.get(StandaloneBlockStoreClient.LAYOUT_KEY));
+
+    StandaloneBlockStoreClient.checkLayout(legacy, 0L);
+    Assert.assertEquals(0L, Bytes.toLong(legacy.get(StandaloneBlockStoreClient.LAYOUT_KEY)));
+  }
+
+  @Test
+  public void testBlockSize() throws Exception {
+    // Blocks of at most 3 datapoints
+    WarpDB db = open(newDir());
+    StandaloneBlockStoreClient.checkLayout(db, SPAN);
+    Properties properties = properties(SPAN);
+    properties.setProperty(Configuration.LEVELDB_DATA_BLOCK_MAXSIZE, "3");
+    blocks = new StandaloneBlockStoreClient(db, keystore, properties);
+
+    Random random = new Random(4L);
+    store(ticks(random, 400, -5000L, 5000L), random);
+
+    // Writes in the middle of full blocks
+    store(ticks(random, 200, -5000L, 5000L), random);
+
+    // Appends of a single datapoint, each one rolls over to a new block when the last one is full
+    for (long tick = 6000L; tick < 6020L; tick++) {
+      TreeSet<Long> single = new TreeSet<Long>();
+      single.add(tick);
+      store(single, random);
+    }
+
+    compare(FETCHES);
+
+    for (Metadata metadata: metadatas) {
+      long expected = reference.delete(null, new Metadata(metadata), -1234L, 567L);
+      Assert.assertEquals(expected, blocks.delete(null, new Metadata(metadata), -1234L, 567L));
+    }
+
+    compare(FETCHES);
+
+    store(ticks(random, 100, -5000L, 5000L), random);
+
+    compare(FETCHES);
+
+    //
+    // Check the stored blocks, they hold at most 3 datapoints of their span and start at or before their first one
+    //
+
+    long keys = 0L;
+
+    try (DBIterator iter = db.iterator()) {
+      iter.seek(Constants.HBASE_RAW_DATA_KEY_PREFIX);
+
+      while (iter.hasNext()) {
+        Entry<byte[],byte[]> entry = iter.next();
+
+        if (!Bytes.startsWith(entry.getKey(), Constants.HBASE_RAW_DATA_KEY_PREFIX)) {
+          break;
+        }
+
+        long basets = StandaloneBlockStoreClient.keyTimestamp(entry.getKey());
+        StandaloneBlockStoreClient.Block block = StandaloneBlockStoreClient.Block.decode(basets, null, entry.getValue());
+
+        Assert.assertTrue(block.size > 0);
+        Assert.assertTrue(block.size <= 3);
+        Assert.assertTrue(block.ticks[0] >= basets);
+        Assert.assertEquals(StandaloneBlockStoreClient.blockStart(basets, SPAN), StandaloneBlockStoreClient.blockStart(block.ticks[block.size - 1], SPAN));
+
+        keys++;
+      }
+    }
+
+    // There are more blocks than the 100 spans of the datapoints
+    Assert.assertTrue(keys > 100L * metadatas.size());
+  }
+}
@@ -0,0 +1,274 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+
+package io.warp10.standalone;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+
+public class StandaloneChunkedMemoryStoreTest {
+
+  private static final long CHUNKLEN = 3600L * Constants.TIME_UNITS_PER_S;
+
+  private KeyStore keystore;
+  private List<Metadata> metadatas;
+  private File dir;
+  private long now;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  @Before
+  public void before() throws Exception {
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+
+    metadatas = new ArrayList<Metadata>();
+
+    for (int i = 0; i < 3; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("gts" + i);
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("label", Integer.toString(i));
+      metadata.setClassId(GTSHelper.classId(keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
+      metadata.setLabelsId(GTSHelper.labelsId(keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
+      metadatas.add(metadata);
+    }
+
+    dir = Files.createTempDirectory("snapshot").toFile();
+    now = TimeSource.getTime();
+  }
+
+  @After
+  public void after() throws Exception {
+    File[] files = dir.listFiles();
+    if (null != files) {
+      for (File file: files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private StandaloneChunkedMemoryStore newStore(int chunkcount, String load, StandaloneDirectoryClient directory) {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.IN_MEMORY_CHUNK_COUNT, Integer.toString(chunkcount));
+    properties.setProperty(Configuration.IN_MEMORY_CHUNK_LENGTH, Long.toString(CHUNKLEN));
+    properties.setProperty(Configuration.STANDALONE_MEMORY_STORE_DUMP_SNAPSHOT, "true");
+    if (null != load) {
+      properties.setProperty(Configuration.STANDALONE_MEMORY_STORE_LOAD, load);
+    }
+
+    StandaloneChunkedMemoryStore store = new StandaloneChunkedMemoryStore(properties, keystore);
+    store.setDirectoryClient(directory);
+    return store;
+  }
+
+  /**
+   * Populate a store with datapoints spread over the last 90 minutes, some of them out of order
+   */
+  private StandaloneChunkedMemoryStore populate() throws Exception {
+    StandaloneDirectoryClient directory = new StandaloneDirectoryClient(null, keystore);
+    StandaloneChunkedMemoryStore store = newStore(3, null, directory);
+
+    for (int i = 0; i < metadatas.size(); i++) {
+      GTSEncoder encoder = new GTSEncoder(0L);
+      encoder.setMetadata(metadatas.get(i));
+
+      for (int j = 0; j < 5400; j++) {
+        long ts = now - (j * 7 % 5400) * Constants.TIME_UNITS_PER_S;
+        encoder.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 0 == i ? (Object) (long) j : 1 == i ? (Object) (j / 10.0D) : (Object) ("v" + j));
+      }
+
+      directory.register(metadatas.get(i));
+      store.store(encoder);
+    }
+
+    return store;
+  }
+
+  private List<String> fetch(StandaloneChunkedMemoryStore store) throws Exception {
+    FetchRequest req = new FetchRequest();
+    req.setMetadatas(new ArrayList<Metadata>(metadatas));
+    req.setNow(now);
+    req.setThents(now - 3L * CHUNKLEN);
+    req.setCount(-1L);
+    req.setSample(1.0D);
+
+    List<String> result = new ArrayList<String>();
+
+    GTSDecoderIterator iter = store.fetch(req);
+
+    try {
+      while(iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        result.add(GTSHelper.sort(decoder.decode()).toString());
+      }
+    } finally {
+      iter.close();
+    }
+
+    Collections.sort(result);
+
+    return result;
+  }
+
+  private String dump(StandaloneChunkedMemoryStore store) throws Exception {
+    String path = new File(dir, "snapshot").getAbsolutePath();
+    store.dump(path);
+    return path;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    StandaloneChunkedMemoryStore store = populate();
+    String path = dump(store);
+
+    List<String> expected = fetch(store);
+    Assert.assertEquals(metadatas.size(), expected.size());
+
+    StandaloneChunkedMemoryStore loaded = newStore(3, path, new StandaloneDirectoryClient(null, keystore));
+    loaded.load();
+
+    Assert.assertEquals(expected, fetch(loaded));
+
+    // A store loaded from a snapshot registered the Metadata, it can be dumped and loaded again
+    path = new File(dir, "snapshot2").getAbsolutePath();
+    loaded.dump(path);
+    StandaloneChunkedMemoryStore reloaded = newStore(3, path, new StandaloneDirectoryClient(null, keystore));
+    reloaded.load();
+
+    Assert.assertEquals(expected, fetch(reloaded));
+  }
+
+  @Test
+  public void testLayoutChange() throws Exception {
+    StandaloneChunkedMemoryStore store = populate();
+    String path = dump(store);
+
+    List<String> expected = fetch(store);
+
+    // The chunks cannot be adopted, the datapoints are stored again
+    StandaloneChunkedMemoryStore loaded = newStore(5, path, new StandaloneDirectoryClient(null, keystore));
+    loaded.load();
+
+    Assert.assertEquals(expected, fetch(loaded));
+  }
+
+  @Test
+  public void testTruncated() throws Exception {
+    StandaloneChunkedMemoryStore store = populate();
+    String path = dump(store);
+
+    long length = new File(path).length();
+
+    // Truncated in the header, in the index and right before the end
+    for (long size: new long[] { 20L, length / 2L, length - 1L }) {
+      truncate(path, size);
+
+      StandaloneChunkedMemoryStore loaded = newStore(3, path, new StandaloneDirectoryClient(null, keystore));
+
+      try {
+        loaded.load();
+        Assert.fail("Truncated snapshot of " + size + " bytes was loaded.");
+      } catch (RuntimeException re) {
+      }
+
+      store.dump(path);
+    }
+  }
+
+  @Test
+  public void testCorrupt() throws Exception {
+    StandaloneChunkedMemoryStore store = populate();
+    String path = dump(store);
+
+    // Unknown version
+    corrupt(path, 8, new byte[] { 0x7f });
+    assertLoadFails(path);
+
+    // Index offset past the end of the file
+    store.dump(path);
+    corrupt(path, 8 + 4 + 4 + 8 + 1, new byte[] { 0x7f });
+    assertLoadFails(path);
+
+    // Segment count larger than the index
+    store.dump(path);
+    corrupt(path, indexOffset(path), new byte[] { 0x7f });
+    assertLoadFails(path);
+  }
+
+  private void assertLoadFails(String path) {
+    StandaloneChunkedMemoryStore loaded = newStore(3, path, new StandaloneDirectoryClient(null, keystore));
+
+    try {
+      loaded.load();
+      Assert.fail("Corrupt snapshot was loaded.");
+    } catch (RuntimeException re) {
+    }
+  }
+
+  private static long indexOffset(String path) throws Exception {
+    try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+      raf.seek(8 + 4 + 4 + 8 + 1);
+      return raf.readLong();
+    }
+  }
+
+  private static void truncate(String path, long size) throws Exception {
+    try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+      raf.setLength(size);
+    }
+  }
+
+  private static void corrupt(String path, long offset, byte[] bytes) throws Exception {
+    try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
+      raf.seek(offset);
+      raf.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,344 @@
+//
+//   Copyright 2020  SenX S.A.S.
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.FetchRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+import io.warp10.quasar.token.thrift.data.WriteToken;
+
+public class StandaloneIngressPipelineTest {
+
+  private static final int THREADS = 4;
+
+  private ExecutorService executor;
+  private Semaphore threads;
+
+  private KeyStore keystore;
+
+  /**
+   * Names of the registered series
+   */
+  private Set<String> registered;
+
+  /**
+   * Name of the series whose registration fails, if any
+   */
+  private volatile String failRegistration;
+
+  private StandaloneDirectoryClient directory;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits=us"));
+  }
+
+  @Before
+  public void before() throws Exception {
+    executor = Executors.newCachedThreadPool();
+    threads = new Semaphore(THREADS);
+
+    keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+
+    registered = Collections.synchronizedSet(new HashSet<String>());
+
+    directory = new StandaloneDirectoryClient(null, keystore) {
+      @Override
+      public void register(Metadata metadata) throws IOException {
+        if (null == metadata) {
+          return;
+        }
+        if (metadata.getName().equals(failRegistration)) {
+          throw new IOException("Registration failed.");
+        }
+        // Slow down registration so store lanes would get ahead of it
+        try {
+          Thread.sleep(1L);
+        } catch (InterruptedException ie) {
+          throw new IOException(ie);
+        }
+        registered.add(metadata.getName());
+      }
+    };
+  }
+
+  @After
+  public void after() throws Exception {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Store client recording the datapoints stored per series, checking the series were registered first
+   */
+  private class RecordingStoreClient implements StoreClient {
+    private final Map<String,List<Long>> stored = new HashMap<String,List<Long>>();
+    private volatile String unregistered = null;
+    private volatile String failStore = null;
+    private final Set<Thread> flushed = Collections.synchronizedSet(new HashSet<Thread>());
+
+    @Override
+    public void store(GTSEncoder encoder) throws IOException {
+      if (null == encoder) {
+        flushed.add(Thread.currentThread());
+        return;
+      }
+
+      String name = encoder.getMetadata().getName();
+
+      if (name.equals(failStore)) {
+        throw new IOException("Store failed.");
+      }
+
+      if (!registered.contains(name)) {
+        unregistered = name;
+      }
+
+      List<Long> ticks;
+
+      synchronized (stored) {
+        ticks = stored.get(name);
+        if (null == ticks) {
+          ticks = new ArrayList<Long>();
+          stored.put(name, ticks);
+        }
+      }
+
+      GTSDecoder decoder = encoder.getDecoder(true);
+      synchronized (ticks) {
+        while (decoder.next()) {
+          ticks.add(decoder.getTimestamp());
+        }
+      }
+    }
+
+    @Override
+    public GTSDecoderIterator fetch(FetchRequest req) throws IOException {
+      throw new IOException();
+    }
+
+    @Override
+    public long delete(WriteToken token, Metadata metadata, long start, long end) throws IOException {
+      return 0L;
+    }
+
+    @Override
+    public void addPlasmaHandler(StandalonePlasmaHandlerInterface handler) {}
+  }
+
+  private static GTSEncoder encoder(Metadata metadata, long from, int n) throws IOException {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(metadata);
+    for (int i = 0; i < n; i++) {
+      encoder.addValue(from + i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, from + i);
+    }
+    return encoder;
+  }
+
+  private static Metadata metadata(int i) {
+    Metadata metadata = new Metadata();
+    metadata.setName("series" + i);
+    metadata.setLabels(new HashMap<String,String>());
+    metadata.setClassId(i);
+    metadata.setLabelsId(i * 31L);
+    return metadata;
+  }
+
+  private StandaloneIngressPipeline pipeline(StoreClient store, int lanes) {
+    Assert.assertTrue(threads.tryAcquire(lanes + 1));
+    return new StandaloneIngressPipeline(executor, threads, store, directory, lanes, 2, false, false);
+  }
+
+  /**
+   * Wait for all the lanes to release their thread
+   */
+  private void awaitThreads() throws Exception {
+    Assert.assertTrue(threads.tryAcquire(THREADS, 10L, TimeUnit.SECONDS));
+    threads.release(THREADS);
+  }
+
+  /**
+   * Close the pipeline as the ingress handler does, return the first error
+   */
+  private static IOException close(StandaloneIngressPipeline pipeline, IOException error) {
+    try {
+      pipeline.close();
+    } catch (IOException ioe) {
+      if (null == error) {
+        error = ioe;
+      }
+    }
+    return error;
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    RecordingStoreClient store = new RecordingStoreClient();
+    StandaloneIngressPipeline pipeline = pipeline(store, 3);
+
+    int nseries = 50;
+    int nencoders = 10;
+
+    // Interleave the series the way an update request with continuation lines would
+    for (int j = 0; j < nencoders; j++) {
+      for (int i = 0; i < nseries; i++) {
+        Metadata metadata = metadata(i);
+        if (0 == j) {
+          pipeline.register(new Metadata(metadata));
+        }
+        pipeline.store(encoder(metadata, j * 10L, 10));
+      }
+    }
+
+    pipeline.close();
+
+    Assert.assertNull(store.unregistered, store.unregistered);
+    Assert.assertEquals(nseries, store.stored.size());
+
+    for (List<Long> ticks: store.stored.values()) {
+      Assert.assertEquals(nencoders * 10, ticks.size());
+      for (int i = 0; i < ticks.size(); i++) {
+        Assert.assertEquals((long) i, (long) ticks.get(i));
+      }
+    }
+
+    // Each lane flushed its writes
+    Assert.assertEquals(3, store.flushed.size());
+
+    awaitThreads();
+
+    // Closing again has no effect
+    pipeline.close();
+  }
+
+  @Test
+  public void testStoreError() throws Exception {
+    RecordingStoreClient store = new RecordingStoreClient();
+    store.failStore = "series3";
+
+    StandaloneIngressPipeline pipeline = pipeline(store, 2);
+
+    IOException error = null;
+
+    // The error is reported by a subsequent submission or by close
+    try {
+      for (int j = 0; j < 100; j++) {
+        for (int i = 0; i < 5; i++) {
+          if (0 == j) {
+            pipeline.register(metadata(i));
+          }
+          pipeline.store(encoder(metadata(i), j, 1));
+        }
+      }
+    } catch (IOException ioe) {
+      error = ioe;
+    }
+
+    error = close(pipeline, error);
+
+    Assert.assertNotNull(error);
+    Assert.assertEquals("Store failed.", error.getMessage());
+    Assert.assertFalse(store.stored.containsKey("series3"));
+    awaitThreads();
+  }
+
+  @Test
+  public void testRegistrationError() throws Exception {
+    RecordingStoreClient store = new RecordingStoreClient();
+    failRegistration = "series1";
+
+    StandaloneIngressPipeline pipeline = pipeline(store, 2);
+
+    IOException error = null;
+
+    try {
+      for (int i = 0; i < 3; i++) {
+        pipeline.register(metadata(i));
+        pipeline.store(encoder(metadata(i), 0L, 10));
+      }
+    } catch (IOException ioe) {
+      error = ioe;
+    }
+
+    error = close(pipeline, error);
+
+    Assert.assertNotNull(error);
+    Assert.assertEquals("Registration failed.", error.getMessage());
+
+    // The datapoints of a series which could not be registered are never stored
+    Assert.assertFalse(store.stored.containsKey("series1"));
+    Assert.assertNull(store.unregistered, store.unregistered);
+    awaitThreads();
+  }
+
+  @Test
+  public void testSharedThreads() throws Exception {
+    RecordingStoreClient store = new RecordingStoreClient();
+
+    // Two pipelines use all the threads, a third one cannot start
+    StandaloneIngressPipeline p1 = pipeline(store, 1);
+    StandaloneIngressPipeline p2 = pipeline(store, 1);
+    Assert.assertFalse(threads.tryAcquire(2));
+
+    p1.register(metadata(1));
+    p1.store(encoder(metadata(1), 0L, 10));
+    p2.register(metadata(2));
+    p2.store(encoder(metadata(2), 0L, 10));
+
+    p1.close();
+
+    // The threads of a closed pipeline can be reused
+    Assert.assertTrue(threads.tryAcquire(2, 10L, TimeUnit.SECONDS));
+    StandaloneIngressPipeline p3 = new StandaloneIngressPipeline(executor, threads, store, directory, 1, 2, false, false);
+    p3.register(metadata(3));
+    p3.store(encoder(metadata(3), 0L, 10));
+
+    p2.close();
+    p3.close();
+
+    Assert.assertEquals(3, store.stored.size());
+    awaitThreads();
+  }
+}